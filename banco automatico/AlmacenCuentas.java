@@ -0,0 +1,221 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AlmacenCuentas.java
+ *
+ * Almacén columnar (struct-of-arrays) de todas las subcuentas, indexado por id denso.
+ *
+ * - Saldo: long en céntimos (sin deriva de punto flotante).
+ * - Tipo: byte (ordinal de {@link TipoCuenta}).
+ * - Número: long codificado en base 38 (hasta 12 caracteres [0-9A-Z-]);
+ *   los números que no caben se guardan aparte en {@code numerosLibres}.
+ * - Altas del día: el saldo con que se abrió cada cuenta creada con el banco en marcha,
+ *   hasta el cierre del día ({@link ConciliacionDiaria} las cuadra contra este saldo).
+ *
+ * Las columnas se reparten en páginas de 64K entradas, así crecer no copia saldos
+ * y un lector concurrente nunca ve una página a medio mover.
+ * Costo por cuenta: 8 (saldo) + 1 (tipo) + 8 (número) = 17 bytes.
+ */
+final class AlmacenCuentas {
+
+    static final int BITS_PAGINA = 16;
+    static final int TAM_PAGINA = 1 << BITS_PAGINA;
+    static final int MASCARA_PAGINA = TAM_PAGINA - 1;
+
+    static final long NUMERO_NO_CODIFICABLE = -1L;
+    private static final int MAX_CARACTERES = 12;
+    private static final int BASE = 38; // 0 = relleno, 1..10 = dígitos, 11..36 = letras, 37 = '-'
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile long[][] saldos = new long[16][];
+    private volatile byte[][] tipos = new byte[16][];
+    private volatile long[][] numeros = new long[16][];
+    private final Map<Integer, String> numerosLibres = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> altas = new ConcurrentHashMap<>(); // id -> saldo inicial
+    private volatile int cantidad;
+
+    synchronized int crear(TipoCuenta tipo, String numero, long saldoCentimos) {
+        return crear(tipo, numero, saldoCentimos, false);
+    }
+
+    /** Con {@code alta} el saldo inicial queda anotado como alta del día antes de publicar la cuenta. */
+    synchronized int crear(TipoCuenta tipo, String numero, long saldoCentimos, boolean alta) {
+        int id = cantidad;
+        int pagina = id >>> BITS_PAGINA;
+        if (pagina == saldos.length) {
+            int n = saldos.length * 2;
+            numeros = Arrays.copyOf(numeros, n);
+            tipos = Arrays.copyOf(tipos, n);
+            saldos = Arrays.copyOf(saldos, n);
+        }
+        if (saldos[pagina] == null) {
+            numeros[pagina] = new long[TAM_PAGINA];
+            tipos[pagina] = new byte[TAM_PAGINA];
+            saldos[pagina] = new long[TAM_PAGINA];
+        }
+        int pos = id & MASCARA_PAGINA;
+        long codigo = codificar(numero);
+        if (codigo == NUMERO_NO_CODIFICABLE) numerosLibres.put(id, normalizar(numero));
+        numeros[pagina][pos] = codigo;
+        tipos[pagina][pos] = tipo.codigo();
+        LONGS.setVolatile(saldos[pagina], pos, saldoCentimos);
+        if (alta) altas.put(id, saldoCentimos);
+        cantidad = id + 1;
+        return id;
+    }
+
+    int cantidad() {
+        return cantidad;
+    }
+
+    /**
+     * Reserva de golpe las páginas para {@code n} cuentas en un almacén vacío; las
+     * columnas se llenan luego página por página (carga de instantáneas).
+     */
+    synchronized void reservar(int n) {
+        if (cantidad != 0) throw new IllegalStateException("El almacén no está vacío");
+        int paginas = paginas(n);
+        int directorio = saldos.length;
+        while (directorio < paginas) directorio *= 2;
+        long[][] nuevosNumeros = new long[directorio][];
+        byte[][] nuevosTipos = new byte[directorio][];
+        long[][] nuevosSaldos = new long[directorio][];
+        for (int p = 0; p < paginas; p++) {
+            nuevosNumeros[p] = new long[TAM_PAGINA];
+            nuevosTipos[p] = new byte[TAM_PAGINA];
+            nuevosSaldos[p] = new long[TAM_PAGINA];
+        }
+        numeros = nuevosNumeros;
+        tipos = nuevosTipos;
+        saldos = nuevosSaldos;
+        cantidad = n;
+    }
+
+    // Acceso directo a las páginas para operaciones por columnas (instantáneas, lotes)
+    long[] paginaSaldos(int pagina) {
+        return saldos[pagina];
+    }
+
+    byte[] paginaTipos(int pagina) {
+        return tipos[pagina];
+    }
+
+    long[] paginaNumeros(int pagina) {
+        return numeros[pagina];
+    }
+
+    static int paginas(int cantidad) {
+        return (cantidad + MASCARA_PAGINA) >>> BITS_PAGINA;
+    }
+
+    Map<Integer, String> numerosLibres() {
+        return numerosLibres;
+    }
+
+    Map<Integer, Long> altas() {
+        return altas;
+    }
+
+    /** Olvida las altas de las cuentas anteriores a {@code cantidad} (ya están en la apertura). */
+    void olvidarAltas(int cantidad) {
+        altas.keySet().removeIf(id -> id < cantidad);
+    }
+
+    long saldo(int id) {
+        return (long) LONGS.getVolatile(saldos[id >>> BITS_PAGINA], id & MASCARA_PAGINA);
+    }
+
+    // Solo el Ledger la llama, con el candado de la cuenta tomado
+    void fijarSaldo(int id, long centimos) {
+        LONGS.setVolatile(saldos[id >>> BITS_PAGINA], id & MASCARA_PAGINA, centimos);
+    }
+
+    TipoCuenta tipo(int id) {
+        return TipoCuenta.desdeCodigo(tipos[id >>> BITS_PAGINA][id & MASCARA_PAGINA]);
+    }
+
+    long numeroCodificado(int id) {
+        return numeros[id >>> BITS_PAGINA][id & MASCARA_PAGINA];
+    }
+
+    String numero(int id) {
+        long codigo = numeroCodificado(id);
+        return codigo == NUMERO_NO_CODIFICABLE ? numerosLibres.get(id) : decodificar(codigo);
+    }
+
+    /**
+     * Escribe el número de la cuenta en ASCII a partir de {@code pos}, sin crear el String
+     * (hasta {@code MAX_CARACTERES} bytes). Devuelve la posición siguiente, o -1 si el número no
+     * está codificado: entonces hay que usar {@link #numero(int)}.
+     */
+    int escribirNumero(int id, byte[] destino, int pos) {
+        long codigo = numeroCodificado(id);
+        if (codigo == NUMERO_NO_CODIFICABLE) return -1;
+        long divisor = 1;
+        for (int i = 1; i < MAX_CARACTERES; i++) divisor *= BASE;
+        for (int i = 0; i < MAX_CARACTERES; i++) {
+            int digito = (int) (codigo / divisor % BASE);
+            if (digito == 0) break;
+            destino[pos++] = (byte) caracter(digito);
+            divisor /= BASE;
+        }
+        return pos;
+    }
+
+    // --- Codificación de números de cuenta ---
+
+    static String normalizar(String numero) {
+        return numero.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /** Codifica el número normalizado (mayúsculas) o devuelve NUMERO_NO_CODIFICABLE. */
+    static long codificar(String numero) {
+        String s = numero.trim();
+        int n = s.length();
+        if (n == 0 || n > MAX_CARACTERES) return NUMERO_NO_CODIFICABLE;
+        long codigo = 0;
+        for (int i = 0; i < MAX_CARACTERES; i++) {
+            int digito = 0;
+            if (i < n) {
+                digito = valorCaracter(s.charAt(i));
+                if (digito == 0) return NUMERO_NO_CODIFICABLE;
+            }
+            codigo = codigo * BASE + digito;
+        }
+        return codigo;
+    }
+
+    static String decodificar(long codigo) {
+        char[] buf = new char[MAX_CARACTERES];
+        int n = 0;
+        long divisor = 1;
+        for (int i = 1; i < MAX_CARACTERES; i++) divisor *= BASE;
+        for (int i = 0; i < MAX_CARACTERES; i++) {
+            int digito = (int) (codigo / divisor % BASE);
+            if (digito == 0) break;
+            buf[n++] = caracter(digito);
+            divisor /= BASE;
+        }
+        return new String(buf, 0, n);
+    }
+
+    private static int valorCaracter(char c) {
+        if (c >= '0' && c <= '9') return 1 + (c - '0');
+        if (c >= 'A' && c <= 'Z') return 11 + (c - 'A');
+        if (c >= 'a' && c <= 'z') return 11 + (c - 'a');
+        if (c == '-') return 37;
+        return 0;
+    }
+
+    private static char caracter(int digito) {
+        if (digito <= 10) return (char) ('0' + digito - 1);
+        if (digito <= 36) return (char) ('A' + digito - 11);
+        return '-';
+    }
+}
@@ -0,0 +1,488 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * BenchCajero.java
+ *
+ * Microbenchmarks de los caminos calientes del cajero, sobre el Ledger sin Swing.
+ * Sigue el esquema de JMH (calentamiento, iteraciones de duración fija, resultado que
+ * no se puede descartar, parámetros cruzados) pero sin dependencias, para poder correrlo
+ * con solo javac:
+ *
+ *   javac -encoding UTF-8 -d out *.java
+ *   java -Xmx4g -cp out BenchCajero --cuentas=10,100000,1000000 --hilos=1,8 --bench=login,deposito
+ *
+ * Opciones: --cuentas, --hilos, --bench (ver BENCHMARKS, "arranque", "billetes", "programadas", "estados" y "barrido"),
+ * --calentamiento=3, --iteraciones=5, --ms=1000 (duración de cada iteración).
+ *
+ * "arranque" mide el arranque en frío (instantánea + diario) y se ejecuta con un solo hilo.
+ * "devengoCalculo" mide solo el núcleo de intereses sobre todas las cuentas (un hilo) y
+ * "devengo" el devengo completo (corte + cálculo + abono, fork/join en todos los núcleos);
+ * en ambos ns/op es por cuenta.
+ * "billetes" mide la combinación de billetes de un retiro ({@link Casetero#combinar}) con
+ * varios juegos de casetes y rangos de montos; no depende de las cuentas y corre una vez.
+ * "programadas" agenda {@link #ORDENES_PROGRAMADAS} transferencias programadas (un hilo, en
+ * memoria), las cancela, y mide aparte la rueda de tiempo venciendo un día de órdenes; ns/op es
+ * por orden. También imprime los bytes de heap por orden viva.
+ * "estados" le da historial al ledger del escenario, hace {@link #TRANSFERENCIAS_POR_CUENTA}
+ * transferencias por cuenta y genera los estados de cuenta del mes en texto con todos los
+ * núcleos ({@link GeneradorEstados}); las muestras son estados (personas) por segundo y
+ * además imprime los MB/s escritos.
+ * "barrido" mide "login" y "buscarCuenta" (un hilo) en un escenario por cada tamaño de --cuentas
+ * (por defecto {@value #CUENTAS_BARRIDO}) y al final cuánto crece ns/op del menor al mayor.
+ * Con claves al azar entre todas las cuentas crece con las faltas de caché (la memoria tocada
+ * crece con el banco); con {@value #CLAVES_CALIENTES} claves fijas ("/calientes") queda solo
+ * el costo de las tablas hash, que debe ser plano. También imprime las celdas que mira en
+ * promedio una búsqueda en {@link IndiceCuentas} (java -Xmx4g -cp out BenchCajero --bench=barrido).
+ */
+public final class BenchCajero {
+
+    static final long SALDO_INICIAL = 100_000_000_000L; // alcanza para no quedarse sin fondos
+
+    // Juegos de casetes (soles:billetes) y rangos de montos en soles para "billetes"
+    private static final String[][] CASETES = {
+            {"PEN", "200:2000,100:2000,50:2000,20:2000,10:2000"},
+            {"PEN-escaso", "200:3,100:5,50:4,20:2000,10:1"},
+            {"USD", "100:2000,50:2000,20:2000,10:2000,5:2000,1:2000"},
+    };
+    private static final long[][] RANGOS_SOLES = {{10, 100}, {100, 1000}, {1000, 4000}};
+    static final int ORDENES_PROGRAMADAS = 1_000_000;
+    static final int TRANSFERENCIAS_POR_CUENTA = 2;
+    static final String CUENTAS_BARRIDO = "10,100,1000,10000,100000,1000000,10000000";
+    static final int CLAVES_CALIENTES = 1024;
+    private static final String[] BUSQUEDAS = {"login", "buscarCuenta", "login/calientes", "buscarCuenta/calientes"};
+    private static final ThreadLocal<byte[]> CIFRAS = ThreadLocal.withInitial(() -> new byte[Dinero.LARGO_MAXIMO]);
+
+    /** Ledger con N cuentas (N/2 personas con Corriente y Ahorros), compartido por los hilos. */
+    static final class Escenario {
+        final int cuentas;
+        final int personas;
+        final Ledger ledger = new Ledger();
+        final LimitesTransferencia limites = LimitesTransferencia.porDefecto();
+        final CacheIdempotencia idempotencia = CacheIdempotencia.porDefecto();
+        final String[] dnis;
+        final String[] claves; // copias distintas de las contraseñas (equals no corta por referencia)
+        final String[] numeros;
+
+        Escenario(int cuentas) {
+            this.cuentas = cuentas;
+            this.personas = Math.max(1, cuentas / 2);
+            dnis = new String[personas];
+            claves = new String[personas];
+            numeros = new String[personas * 2];
+            for (int i = 0; i < personas; i++) {
+                dnis[i] = String.format("%08d", i);
+                Persona p = new Persona("Persona " + i, dnis[i], "clave" + i);
+                claves[i] = new String("clave" + i);
+                numeros[2 * i] = (100000 + i) + "-C";
+                numeros[2 * i + 1] = (100000 + i) + "-A";
+                p.agregarCuenta(ledger.abrirCuenta(TipoCuenta.CORRIENTE, numeros[2 * i], SALDO_INICIAL));
+                p.agregarCuenta(ledger.abrirCuenta(TipoCuenta.AHORROS, numeros[2 * i + 1], SALDO_INICIAL));
+                ledger.registrarPersona(p);
+            }
+        }
+
+        // La persona i tiene las cuentas 2i (Corriente) y 2i+1 (Ahorros)
+        SubCuenta cuenta(int id) {
+            return new SubCuenta(ledger.almacen(), id);
+        }
+    }
+
+    /** Una invocación del camino medido; el valor devuelto se acumula para que el JIT no lo elimine. */
+    interface Operacion {
+        long ejecutar(Escenario e, ThreadLocalRandom r);
+    }
+
+    static final Map<String, Operacion> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        // intentarLogin: personasPorDni + comparación de contraseña
+        BENCHMARKS.put("login", (e, r) -> {
+            int i = r.nextInt(e.personas);
+            return e.ledger.autenticar(e.dnis[i], e.claves[i]) != null ? 1 : 0;
+        });
+        BENCHMARKS.put("buscarCuenta", (e, r) -> {
+            SubCuenta sc = e.ledger.buscarCuenta(e.numeros[r.nextInt(e.numeros.length)]);
+            return sc == null ? -1 : sc.id;
+        });
+        // transferirEntreMisCuentas: Corriente <-> Ahorros de la misma persona
+        BENCHMARKS.put("transferenciaInterna", (e, r) -> {
+            int i = r.nextInt(e.personas);
+            int desde = r.nextBoolean() ? 0 : 1;
+            return e.ledger.transferir(e.cuenta(2 * i + desde), e.cuenta(2 * i + 1 - desde), 100).ordinal();
+        });
+        // transferirAOtraPersonaConCodigo: búsqueda del destino por número + transferencia
+        BENCHMARKS.put("transferenciaExterna", (e, r) -> {
+            int origen = r.nextInt(e.numeros.length);
+            SubCuenta destino = e.ledger.buscarCuenta(e.numeros[r.nextInt(e.numeros.length)]);
+            return e.ledger.transferir(e.cuenta(origen), destino, 100).ordinal();
+        });
+        // límites de transferencias a terceros: reservar y devolver (los contadores no se llenan)
+        BENCHMARKS.put("limites", (e, r) -> {
+            int i = r.nextInt(e.personas);
+            long ahora = System.currentTimeMillis();
+            if (!e.limites.reservar(2 * i, e.dnis[i], 100, ahora)) return 0;
+            e.limites.liberar(2 * i, e.dnis[i], 100, ahora);
+            return 1;
+        });
+        // deduplicación por id de operación: una clave nueva (reservar + completar) y un reintento
+        BENCHMARKS.put("idempotencia", (e, r) -> {
+            long id = r.nextLong();
+            long ahora = System.currentTimeMillis();
+            if (e.idempotencia.reservar(id, 1, ahora) == null) e.idempotencia.completar(id, ResultadoOperacion.EXITOSA);
+            return e.idempotencia.reservar(id, 1, ahora).ordinal();
+        });
+        // completarDeposito
+        BENCHMARKS.put("deposito", (e, r) ->
+                e.ledger.depositar(e.cuenta(r.nextInt(e.numeros.length)), 100).ordinal());
+        // actualizarSaldoLabel: saldo a String
+        BENCHMARKS.put("formatoSaldo", (e, r) ->
+                Dinero.formatear(e.ledger.saldo(e.cuenta(r.nextInt(e.numeros.length)))).length());
+        // estados de cuenta: el mismo saldo escrito en un buffer reusado, sin String
+        BENCHMARKS.put("formatoBuffer", (e, r) ->
+                Dinero.escribir(e.ledger.saldo(e.cuenta(r.nextInt(e.numeros.length))), true, CIFRAS.get(), 0));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> op = opciones(args);
+        int[] cuentas = enteros(op.getOrDefault("cuentas", "10,100000,1000000"));
+        int[] hilos = enteros(op.getOrDefault("hilos", "1," + Runtime.getRuntime().availableProcessors()));
+        String[] benchs = op.getOrDefault("bench", String.join(",", BENCHMARKS.keySet()) + ",arranque,billetes").split(",");
+        int calentamiento = Integer.parseInt(op.getOrDefault("calentamiento", "3"));
+        int iteraciones = Integer.parseInt(op.getOrDefault("iteraciones", "5"));
+        long ms = Long.parseLong(op.getOrDefault("ms", "1000"));
+
+        if (Arrays.asList(benchs).contains("billetes")) medirBilletes(calentamiento, iteraciones, ms);
+        if (Arrays.asList(benchs).contains("barrido")) {
+            medirBarrido(enteros(op.getOrDefault("cuentas", CUENTAS_BARRIDO)), calentamiento, iteraciones, ms);
+            if (benchs.length == 1) return;
+        }
+
+        System.out.printf("%-22s %10s %6s %16s %12s %10s%n", "Benchmark", "(cuentas)", "(hilos)", "ops/s", "± error", "ns/op");
+        for (int n : cuentas) {
+            Escenario e = new Escenario(n);
+            for (String nombre : benchs) {
+                if (nombre.equals("billetes") || nombre.equals("barrido")) continue;
+                if (nombre.equals("arranque")) {
+                    medirArranque(e, calentamiento, iteraciones);
+                    continue;
+                }
+                if (nombre.equals("devengo") || nombre.equals("devengoCalculo")) {
+                    medirDevengo(e, nombre, calentamiento, iteraciones);
+                    continue;
+                }
+                if (nombre.equals("programadas")) {
+                    medirProgramadas(e, calentamiento, iteraciones);
+                    continue;
+                }
+                if (nombre.equals("estados")) {
+                    medirEstados(e, calentamiento, iteraciones);
+                    continue;
+                }
+                Operacion operacion = BENCHMARKS.get(nombre);
+                if (operacion == null) throw new IllegalArgumentException("Benchmark desconocido: " + nombre);
+                for (int h : hilos) {
+                    for (int i = 0; i < calentamiento; i++) medir(operacion, e, h, ms);
+                    double[] muestras = new double[iteraciones];
+                    for (int i = 0; i < iteraciones; i++) muestras[i] = medir(operacion, e, h, ms);
+                    imprimir(nombre, n, h, muestras, h);
+                }
+            }
+        }
+    }
+
+    /** Ejecuta la operación con {@code hilos} hilos durante {@code ms} y devuelve ops/s totales. */
+    static double medir(Operacion operacion, Escenario e, int hilos, long ms) throws InterruptedException {
+        CountDownLatch listos = new CountDownLatch(hilos);
+        CountDownLatch inicio = new CountDownLatch(1);
+        AtomicLong total = new AtomicLong();
+        AtomicLong sumidero = new AtomicLong();
+        long[] fin = new long[1];
+        Thread[] ts = new Thread[hilos];
+        for (int t = 0; t < hilos; t++) {
+            ts[t] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long ops = 0;
+                long acumulado = 0;
+                listos.countDown();
+                try {
+                    inicio.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                long limite = fin[0];
+                do {
+                    for (int k = 0; k < 64; k++) acumulado += operacion.ejecutar(e, r);
+                    ops += 64;
+                } while (System.nanoTime() < limite);
+                total.addAndGet(ops);
+                sumidero.addAndGet(acumulado);
+            }, "bench-" + t);
+            ts[t].start();
+        }
+        listos.await();
+        long t0 = System.nanoTime();
+        fin[0] = t0 + ms * 1_000_000;
+        inicio.countDown();
+        for (Thread t : ts) t.join();
+        long transcurrido = System.nanoTime() - t0;
+        if (sumidero.get() == 42) System.out.print(""); // el resultado se usa
+        return total.get() * 1e9 / transcurrido;
+    }
+
+    // Devengo de intereses sobre todas las cuentas del escenario; las muestras son cuentas/s
+    private static void medirDevengo(Escenario e, String nombre, int calentamiento, int iteraciones) {
+        DevengoIntereses.TablaTasas tabla = DevengoIntereses.TablaTasas.porDefecto();
+        Ledger.Captura corte = e.ledger.capturar();
+        long[] interes = new long[AlmacenCuentas.TAM_PAGINA];
+        long sumidero = 0;
+        double[] muestras = new double[iteraciones];
+        for (int i = 0; i < calentamiento + iteraciones; i++) {
+            long t0 = System.nanoTime();
+            if (nombre.equals("devengo")) {
+                sumidero += DevengoIntereses.devengar(e.ledger, tabla, 1, null, null).total;
+            } else {
+                for (int p = 0; p < corte.saldos.length; p++) {
+                    int largo = Math.min(AlmacenCuentas.TAM_PAGINA, corte.cantidad - (p << AlmacenCuentas.BITS_PAGINA));
+                    DevengoIntereses.calcular(corte.saldos[p], e.ledger.almacen().paginaTipos(p), largo, tabla, 1, interes);
+                    sumidero += interes[largo - 1];
+                }
+            }
+            long ns = System.nanoTime() - t0;
+            if (i >= calentamiento) muestras[i - calentamiento] = e.cuentas * 1e9 / ns;
+        }
+        if (sumidero == 42) System.out.print(""); // el resultado se usa
+        imprimir(nombre, e.cuentas, nombre.equals("devengo") ? Runtime.getRuntime().availableProcessors() : 1, muestras, 1);
+    }
+
+    // Alta y baja de órdenes (fechas al azar en el próximo año) y vencimiento en la rueda; las muestras son órdenes/s
+    private static void medirProgramadas(Escenario e, int calentamiento, int iteraciones) throws IOException {
+        int n = ORDENES_PROGRAMADAS;
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        long ahora = System.currentTimeMillis();
+        long[] primeras = new long[n];
+        int[] origenes = new int[n];
+        for (int i = 0; i < n; i++) {
+            primeras[i] = ahora + 60_000 + r.nextLong(TimeUnit.DAYS.toMillis(365));
+            origenes[i] = r.nextInt(e.numeros.length);
+        }
+        double[] altas = new double[iteraciones];
+        double[] bajas = new double[iteraciones];
+        double[] vencimientos = new double[iteraciones];
+        long bytesPorOrden = 0;
+        for (int it = 0; it < calentamiento + iteraciones; it++) {
+            double[] muestra = new double[2];
+            long antes = memoriaUsada();
+            bytesPorOrden = (altasYBajas(e, origenes, primeras, muestra) - antes) / n;
+            double porSegundo = vencimientosRueda(n, r);
+            if (it >= calentamiento) {
+                altas[it - calentamiento] = muestra[0];
+                bajas[it - calentamiento] = muestra[1];
+                vencimientos[it - calentamiento] = porSegundo;
+            }
+        }
+        imprimir("programar", e.cuentas, 1, altas, 1);
+        imprimir("cancelarProgramada", e.cuentas, 1, bajas, 1);
+        imprimir("ruedaVencimientos", e.cuentas, 1, vencimientos, 1);
+        System.out.printf("%-22s %10d %6s %16d bytes por orden viva%n", "programadas", e.cuentas, "-", bytesPorOrden);
+    }
+
+    // Devuelve el heap usado con todas las órdenes vivas; al volver ya no quedan referencias
+    private static long altasYBajas(Escenario e, int[] origenes, long[] primeras, double[] muestra) throws IOException {
+        int n = origenes.length;
+        TransferenciasProgramadas.Periodicidad[] periodicidades = TransferenciasProgramadas.Periodicidad.values();
+        long[] ids = new long[n];
+        int[] todas = new int[e.numeros.length];
+        for (int i = 0; i < todas.length; i++) todas[i] = i;
+        try (TransferenciasProgramadas programadas = new TransferenciasProgramadas(null, e.ledger)) {
+            programadas.iniciar();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                ids[i] = programadas.programar(origenes[i], origenes[i] ^ 1, 100, primeras[i], periodicidades[i & 3]);
+            }
+            long t1 = System.nanoTime();
+            long usada = memoriaUsada() - (long) n * Long.BYTES; // sin el arreglo de ids
+            long t2 = System.nanoTime();
+            for (int i = 0; i < n; i++) programadas.cancelar(ids[i], todas);
+            long t3 = System.nanoTime();
+            muestra[0] = n * 1e9 / (t1 - t0);
+            muestra[1] = n * 1e9 / (t3 - t2);
+            return usada;
+        }
+    }
+
+    // n nodos en el próximo día de ticks de 1 s, avanzando la rueda segundo a segundo; devuelve nodos/s
+    private static double vencimientosRueda(int n, ThreadLocalRandom r) {
+        RuedaTemporal rueda = new RuedaTemporal(0, n);
+        for (int i = 0; i < n; i++) rueda.agregar(i, 1 + r.nextInt(86_400));
+        long[] vencidos = new long[1];
+        long t0 = System.nanoTime();
+        for (long tick = 1; tick <= 86_400; tick++) rueda.avanzar(tick, nodo -> vencidos[0] += nodo);
+        long t1 = System.nanoTime();
+        if (vencidos[0] == 42) System.out.print(""); // el resultado se usa
+        return n * 1e9 / (t1 - t0);
+    }
+
+    // Estados de cuenta del mes de todas las personas en un directorio temporal; las muestras son estados/s
+    private static void medirEstados(Escenario e, int calentamiento, int iteraciones) throws IOException {
+        Path dir = Files.createTempDirectory("bench-estados");
+        int hilos = Runtime.getRuntime().availableProcessors();
+        try (HistorialMovimientos historial = HistorialMovimientos.temporal()) {
+            e.ledger.usarHistorial(historial);
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            for (long i = 0; i < (long) e.cuentas * TRANSFERENCIAS_POR_CUENTA; i++) {
+                e.ledger.transferir(e.cuenta(r.nextInt(e.cuentas)), e.cuenta(r.nextInt(e.cuentas)), r.nextLong(1, 100_000));
+            }
+            double[] muestras = new double[iteraciones];
+            double mbs = 0;
+            for (int i = 0; i < calentamiento + iteraciones; i++) {
+                GeneradorEstados.Resultado res = GeneradorEstados.generar(e.ledger, dir, YearMonth.now(),
+                        GeneradorEstados.Formato.TEXTO, hilos);
+                if (i >= calentamiento) {
+                    double s = Math.max(1, res.ms) / 1000.0;
+                    muestras[i - calentamiento] = res.personas / s;
+                    mbs += res.bytes / s / 1e6 / iteraciones;
+                }
+            }
+            imprimir("estados", e.cuentas, hilos, muestras, 1);
+            System.out.printf("%-22s %10d %6d %16.1f MB/s%n", "estados", e.cuentas, hilos, mbs);
+        } finally {
+            e.ledger.usarHistorial(null);
+            try (Stream<Path> archivos = Files.walk(dir)) {
+                archivos.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static long memoriaUsada() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Combinación de billetes con un hilo (el casetero es de un terminal); montos múltiplos de la menor denominación
+    private static void medirBilletes(int calentamiento, int iteraciones, long ms) throws InterruptedException {
+        System.out.printf("%-22s %-12s %12s %16s %12s %10s%n", "Benchmark", "(casetes)", "(monto S/)", "ops/s", "± error", "ns/op");
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        for (String[] juego : CASETES) {
+            Casetero casetero = Casetero.parsear(juego[1]);
+            long[] denominaciones = casetero.denominaciones();
+            long menor = denominaciones[denominaciones.length - 1];
+            for (long[] rango : RANGOS_SOLES) {
+                long[] montos = new long[1024];
+                for (int i = 0; i < montos.length; i++) {
+                    montos[i] = r.nextLong(rango[0] * 100 / menor, rango[1] * 100 / menor + 1) * menor;
+                }
+                Operacion operacion = (e, rnd) -> {
+                    int[] billetes = casetero.combinar(montos[rnd.nextInt(montos.length)]);
+                    return billetes == null ? -1 : billetes[billetes.length - 1];
+                };
+                for (int i = 0; i < calentamiento; i++) medir(operacion, null, 1, ms);
+                double[] muestras = new double[iteraciones];
+                for (int i = 0; i < iteraciones; i++) muestras[i] = medir(operacion, null, 1, ms);
+                double media = Arrays.stream(muestras).average().orElse(0);
+                double var = Arrays.stream(muestras).map(x -> (x - media) * (x - media)).sum() / Math.max(1, muestras.length - 1);
+                System.out.printf("%-22s %-12s %12s %16.1f %12.1f %10.1f%n",
+                        "billetes", juego[0], rango[0] + "-" + rango[1], media, Math.sqrt(var), 1e9 / media);
+            }
+        }
+        System.out.println();
+    }
+
+    // Búsquedas al crecer el banco: un escenario por tamaño (se suelta antes de armar el siguiente)
+    private static void medirBarrido(int[] cuentas, int calentamiento, int iteraciones, long ms) throws InterruptedException {
+        System.out.printf("%-22s %10s %6s %16s %12s %10s%n", "Benchmark", "(cuentas)", "(hilos)", "ops/s", "± error", "ns/op");
+        double[][] ns = new double[BUSQUEDAS.length][cuentas.length];
+        StringBuilder sondeos = new StringBuilder();
+        for (int c = 0; c < cuentas.length; c++) {
+            Escenario e = new Escenario(cuentas[c]);
+            sondeos.append(String.format(" %d: %.2f;", cuentas[c], e.ledger.indice().sondeosPromedio()));
+            int[] calientes = ThreadLocalRandom.current().ints(CLAVES_CALIENTES, 0, e.personas).toArray();
+            Operacion[] operaciones = {
+                    BENCHMARKS.get("login"),
+                    BENCHMARKS.get("buscarCuenta"),
+                    (es, r) -> {
+                        int i = calientes[r.nextInt(calientes.length)];
+                        return es.ledger.autenticar(es.dnis[i], es.claves[i]) != null ? 1 : 0;
+                    },
+                    (es, r) -> {
+                        SubCuenta sc = es.ledger.buscarCuenta(es.numeros[2 * calientes[r.nextInt(calientes.length)] + r.nextInt(2)]);
+                        return sc == null ? -1 : sc.id;
+                    },
+            };
+            for (int b = 0; b < BUSQUEDAS.length; b++) {
+                Operacion operacion = operaciones[b];
+                for (int i = 0; i < calentamiento; i++) medir(operacion, e, 1, ms);
+                double[] muestras = new double[iteraciones];
+                for (int i = 0; i < iteraciones; i++) muestras[i] = medir(operacion, e, 1, ms);
+                imprimir(BUSQUEDAS[b], cuentas[c], 1, muestras, 1);
+                ns[b][c] = 1e9 / Arrays.stream(muestras).average().orElse(0);
+            }
+        }
+        for (int b = 0; b < BUSQUEDAS.length; b++) {
+            double peorPaso = 0;
+            for (int c = 1; c < cuentas.length; c++) peorPaso = Math.max(peorPaso, ns[b][c] / ns[b][c - 1]);
+            System.out.printf("%-22s %d -> %d cuentas: ns/op x%.2f (peor paso x%.2f)%n", BUSQUEDAS[b],
+                    cuentas[0], cuentas[cuentas.length - 1], ns[b][cuentas.length - 1] / ns[b][0], peorPaso);
+        }
+        sondeos.setLength(sondeos.length() - 1);
+        System.out.println("Sondeos por búsqueda en el índice de cuentas:" + sondeos);
+        System.out.println();
+    }
+
+    // Arranque en frío: instantánea del escenario en un directorio temporal + PersistenciaBanco.abrir
+    private static void medirArranque(Escenario e, int calentamiento, int iteraciones) throws IOException {
+        Path dir = Files.createTempDirectory("bench-arranque");
+        try {
+            Instantanea.escribir(e.ledger, dir.resolve(Instantanea.ARCHIVO));
+            double[] muestras = new double[iteraciones];
+            for (int i = 0; i < calentamiento + iteraciones; i++) {
+                long t0 = System.nanoTime();
+                PersistenciaBanco p = PersistenciaBanco.abrir(dir, Durabilidad.POR_LOTES, l -> { }, 0);
+                long ns = System.nanoTime() - t0;
+                p.close();
+                if (i >= calentamiento) muestras[i - calentamiento] = 1e9 / ns;
+            }
+            imprimir("arranque", e.cuentas, 1, muestras, 1);
+        } finally {
+            try (Stream<Path> archivos = Files.walk(dir)) {
+                archivos.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static void imprimir(String nombre, int cuentas, int hilos, double[] muestras, int hilosPorOp) {
+        double media = Arrays.stream(muestras).average().orElse(0);
+        double var = Arrays.stream(muestras).map(x -> (x - media) * (x - media)).sum() / Math.max(1, muestras.length - 1);
+        System.out.printf("%-22s %10d %6d %16.1f %12.1f %10.1f%n",
+                nombre, cuentas, hilos, media, Math.sqrt(var), hilosPorOp * 1e9 / media);
+    }
+
+    static Map<String, String> opciones(String[] args) {
+        Map<String, String> op = new LinkedHashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--") || !a.contains("=")) throw new IllegalArgumentException("Opción inválida: " + a);
+            op.put(a.substring(2, a.indexOf('=')), a.substring(a.indexOf('=') + 1));
+        }
+        return op;
+    }
+
+    static int[] enteros(String lista) {
+        List<Integer> valores = new ArrayList<>();
+        for (String v : lista.split(",")) valores.add(Integer.parseInt(v.trim()));
+        return valores.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
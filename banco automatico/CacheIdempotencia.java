@@ -0,0 +1,239 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheIdempotencia.java
+ *
+ * Resultados recientes de transferencias y depósitos por clave de idempotencia (un long
+ * aleatorio que el terminal genera por operación y repite si reintenta). Un reintento
+ * devuelve el resultado original en vez de volver a mover el dinero; si la operación
+ * original todavía está en curso, el reintento la espera.
+ *
+ * - Acotada en tamaño y en tiempo: cada franja es un anillo FIFO de capacidad fija; al
+ *   llenarse, o cuando la entrada más antigua supera el TTL, se descarta la más antigua.
+ *   Como las entradas entran en orden de tiempo, la más antigua siempre está en la cabeza.
+ * - Una entrada en curso nunca se descarta: su reintento la ejecutaría otra vez. Si le toca
+ *   salir pasa al final del anillo (con su instante original, sale cuando vuelva a la cabeza
+ *   ya terminada). Si todas las de una franja están en curso, una operación nueva responde
+ *   {@link ResultadoOperacion#ERROR_INTERNO} sin ejecutarse y el terminal reintenta.
+ * - Sin objetos por entrada: arreglos primitivos (clave, huella, instante, resultado) y un
+ *   índice de direccionamiento abierto (sondeo lineal, borrado con corrimiento hacia atrás).
+ *   Buscar e insertar son O(1) bajo el candado de una de {@link #FRANJAS} franjas.
+ * - La huella resume quién y qué (DNI y parámetros): reusar una clave para otra operación
+ *   devuelve {@link ResultadoOperacion#CLAVE_REPETIDA}.
+ *
+ * Vive en memoria: un reintento que llega después de reiniciar el servidor no se reconoce.
+ *
+ * Configuración: -Dcajero.idempotencia=entradas/segundos (por defecto 1000000/600).
+ */
+final class CacheIdempotencia {
+
+    static final int FRANJAS = 64; // potencia de 2
+    static final long ESPERA_EN_CURSO_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final byte LIBRE = -2;    // entrada abandonada: solo ocupa su lugar en el anillo
+    private static final byte EN_CURSO = -1;
+    private static final ResultadoOperacion[] RESULTADOS = ResultadoOperacion.values();
+
+    private final Franja[] franjas = new Franja[FRANJAS];
+    private final long ttlMs;
+
+    CacheIdempotencia(int capacidad, long ttlMs) {
+        if (capacidad < FRANJAS || ttlMs <= 0) throw new IllegalArgumentException("capacidad o ttl inválidos");
+        this.ttlMs = ttlMs;
+        for (int i = 0; i < FRANJAS; i++) franjas[i] = new Franja(capacidad / FRANJAS);
+    }
+
+    static CacheIdempotencia porDefecto() {
+        String[] c = System.getProperty("cajero.idempotencia", "1000000/600").split("/");
+        return new CacheIdempotencia(Integer.parseInt(c[0].trim()), TimeUnit.SECONDS.toMillis(Long.parseLong(c[1].trim())));
+    }
+
+    /**
+     * Primera vez que se ve la clave: la anota como en curso y devuelve null (el llamador
+     * ejecuta la operación y luego llama a {@link #completar} o {@link #abandonar}).
+     * Si ya estaba, devuelve el resultado original (esperándolo si sigue en curso).
+     */
+    ResultadoOperacion reservar(long clave, long huella, long ahora) {
+        Franja f = franja(clave);
+        synchronized (f) {
+            f.vencer(ahora - ttlMs);
+            int i = f.buscar(clave);
+            if (i < 0) return f.agregar(clave, huella, ahora) ? null : ResultadoOperacion.ERROR_INTERNO;
+            if (f.huellas[i] != huella) return ResultadoOperacion.CLAVE_REPETIDA;
+            long limite = ahora + ESPERA_EN_CURSO_MS;
+            while (f.resultados[i] == EN_CURSO) {
+                long resta = limite - System.currentTimeMillis();
+                if (resta <= 0) return ResultadoOperacion.ERROR_INTERNO; // el original sigue: reintentar más tarde
+                try {
+                    f.wait(resta);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return ResultadoOperacion.ERROR_INTERNO;
+                }
+                // la entrada pudo cambiar de lugar en el anillo; si ya no está, el original se
+                // abandonó (falló sin resultado) y este reintento pasa a ejecutarlo
+                i = f.buscar(clave);
+                if (i < 0) return f.agregar(clave, huella, System.currentTimeMillis()) ? null : ResultadoOperacion.ERROR_INTERNO;
+            }
+            return RESULTADOS[f.resultados[i]];
+        }
+    }
+
+    /** Guarda el resultado de una operación reservada y despierta a los reintentos que la esperan. */
+    void completar(long clave, ResultadoOperacion resultado) {
+        Franja f = franja(clave);
+        synchronized (f) {
+            int i = f.buscar(clave);
+            if (i >= 0) f.resultados[i] = (byte) resultado.ordinal();
+            f.notifyAll();
+        }
+    }
+
+    /** La operación falló sin un resultado que repetir: olvida la clave para que un reintento la ejecute. */
+    void abandonar(long clave) {
+        Franja f = franja(clave);
+        synchronized (f) {
+            f.quitar(clave);
+            f.notifyAll();
+        }
+    }
+
+    int cantidad() {
+        int n = 0;
+        for (Franja f : franjas) {
+            synchronized (f) {
+                n += f.indexadas;
+            }
+        }
+        return n;
+    }
+
+    private Franja franja(long clave) {
+        return franjas[(int) (mezclar(clave) >>> 58) & (FRANJAS - 1)];
+    }
+
+    // Las claves pueden venir de cualquier generador: mezclarlas antes de usar sus bits
+    private static long mezclar(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /** Anillo FIFO de entradas + índice abierto (posición en el anillo + 1; 0 = vacío). */
+    private static final class Franja {
+        final long[] claves;
+        final long[] huellas;
+        final long[] instantes;
+        final byte[] resultados;
+        final int[] indice;
+        final int mascara;
+        int cabeza;     // entrada más antigua
+        int ocupadas;   // entradas en el anillo (incluye las LIBRE)
+        int indexadas;  // entradas en el índice
+
+        Franja(int capacidad) {
+            claves = new long[capacidad];
+            huellas = new long[capacidad];
+            instantes = new long[capacidad];
+            resultados = new byte[capacidad];
+            indice = new int[Integer.highestOneBit(capacidad) * 4]; // carga <= 1/2
+            mascara = indice.length - 1;
+        }
+
+        int buscar(long clave) {
+            for (int h = (int) mezclar(clave) & mascara; ; h = (h + 1) & mascara) {
+                int p = indice[h];
+                if (p == 0) return -1;
+                if (claves[p - 1] == clave) return p - 1;
+            }
+        }
+
+        /** Agrega la clave en curso al final; false si el anillo está lleno de entradas en curso. */
+        boolean agregar(long clave, long huella, long ahora) {
+            if (ocupadas == claves.length && !liberarLugar()) return false;
+            int p = cabeza + ocupadas;
+            if (p >= claves.length) p -= claves.length;
+            claves[p] = clave;
+            huellas[p] = huella;
+            instantes[p] = ahora;
+            resultados[p] = EN_CURSO;
+            ocupadas++;
+            int h = (int) mezclar(clave) & mascara;
+            while (indice[h] != 0) h = (h + 1) & mascara;
+            indice[h] = p + 1;
+            indexadas++;
+            return true;
+        }
+
+        /** Descarta desde la cabeza las entradas anteriores a {@code corte} (las en curso pasan al final). */
+        void vencer(long corte) {
+            for (int vistas = ocupadas; vistas > 0 && instantes[cabeza] < corte; vistas--) {
+                if (resultados[cabeza] == EN_CURSO) rotarCabeza();
+                else expulsarCabeza();
+            }
+        }
+
+        // Anillo lleno: descarta la primera entrada terminada, pasando al final las en curso
+        private boolean liberarLugar() {
+            for (int vistas = ocupadas; vistas > 0; vistas--) {
+                if (resultados[cabeza] != EN_CURSO) {
+                    expulsarCabeza();
+                    return true;
+                }
+                rotarCabeza();
+            }
+            return false;
+        }
+
+        // Mueve la entrada en curso de la cabeza al final del anillo (si está lleno, el final es la cabeza)
+        private void rotarCabeza() {
+            int p = cabeza + ocupadas;
+            if (p >= claves.length) p -= claves.length;
+            if (p != cabeza) {
+                int h = (int) mezclar(claves[cabeza]) & mascara;
+                while (indice[h] != cabeza + 1) h = (h + 1) & mascara;
+                indice[h] = p + 1;
+                claves[p] = claves[cabeza];
+                huellas[p] = huellas[cabeza];
+                instantes[p] = instantes[cabeza];
+                resultados[p] = EN_CURSO;
+                resultados[cabeza] = LIBRE;
+            }
+            cabeza = cabeza + 1 == claves.length ? 0 : cabeza + 1;
+        }
+
+        void quitar(long clave) {
+            int i = buscar(clave);
+            if (i < 0) return;
+            desindexar(i);
+            resultados[i] = LIBRE;
+        }
+
+        private void expulsarCabeza() {
+            if (resultados[cabeza] != LIBRE) desindexar(cabeza);
+            resultados[cabeza] = LIBRE;
+            cabeza = cabeza + 1 == claves.length ? 0 : cabeza + 1;
+            ocupadas--;
+        }
+
+        // Borra la posición p del índice corriendo hacia atrás las siguientes del mismo grupo
+        private void desindexar(int p) {
+            int i = (int) mezclar(claves[p]) & mascara;
+            while (indice[i] != p + 1) i = (i + 1) & mascara;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mascara;
+                if (indice[j] == 0) break;
+                int k = (int) mezclar(claves[indice[j] - 1]) & mascara;
+                // si su lugar ideal k está entre i (exclusive) y j (inclusive), no se mueve
+                if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) continue;
+                indice[i] = indice[j];
+                i = j;
+            }
+            indice[i] = 0;
+            indexadas--;
+        }
+    }
+}
@@ -2,7 +2,17 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
-import java.text.DecimalFormat;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.*;
 
 /**
@@ -16,9 +26,29 @@ import java.util.*;
  * - Mostrar/ocultar saldo (por defecto ****).
  * - Transferencia entre tus propias cuentas (interna).
  * - Transferencia a cuenta de otra persona (requiere código).
+ * - Transferencias programadas (una vez o periódicas) a la cuenta destino indicada, y la
+ *   lista de las propias para cancelarlas (ver TransferenciasProgramadas).
  * - Depositar efectivo a TU cuenta seleccionada.
+ * - Retirar efectivo de TU cuenta seleccionada: el terminal arma la combinación de billetes
+ *   con sus casetes (ver Casetero, -Dcajero.casetes=...) y la aparta antes de debitar.
  * - Ver ambos saldos propios (requiere código).
- * - Interfaz de depósito con animación de carga.
+ * - Últimos movimientos de la cuenta seleccionada (mini extracto).
+ * - Interfaz de depósito con progreso real (validación, contabilización, confirmación en disco).
+ * - Las demás llamadas al servicio (login, saldos, transferencias, retiros, extracto) también
+ *   corren fuera del EDT; mientras esperan al banco los botones quedan deshabilitados.
+ * - Terminal local (Ledger en este proceso) o remoto contra un ServidorCajero
+ *   (-Dcajero.servidor=host:puerto; con el ledger particionado, todos separados por comas).
+ * - Arranque rápido: se pinta primero el login y los datos (o la conexión) se abren en segundo
+ *   plano; "Ingresar" se habilita cuando terminan. La pantalla principal se arma después de la
+ *   primera pintura y la de depósito con el primer depósito. Imprime el tiempo hasta el login.
+ *
+ * Archivo CDS (clases de la aplicación ya cargadas y verificadas) para bajar el arranque; la
+ * JVM solo lo acepta con las clases en un jar, y hay que regenerarlo al recompilar:
+ *   jar cfe cajero.jar CajeroBancoAvanzado -C out .
+ *   java -XX:ArchiveClassesAtExit=cajero.jsa -Dcajero.soloArranque=true -jar cajero.jar
+ *   java -XX:SharedArchiveFile=cajero.jsa -jar cajero.jar
+ * Con -Dcajero.soloArranque=true el cajero arma todas las pantallas, espera los datos, imprime
+ * los tiempos y sale: sirve para generar el archivo y para medir el arranque desde un script.
  *
  * Cuentas demo:
  *  - Persona 1: DNI 12345678 / pass1 -> 1001-C (Corriente), 1001-A (Ahorros)
@@ -28,74 +58,121 @@ import java.util.*;
  */
 public class CajeroBancoAvanzado extends JFrame {
 
-    // --- Modelo de datos ---
-    static class SubCuenta {
-        String tipo; // "Corriente" o "Ahorros"
-        String numero; // ej "1001-C"
-        double saldo;
-
-        SubCuenta(String tipo, String numero, double saldo) {
-            this.tipo = tipo;
-            this.numero = numero;
-            this.saldo = saldo;
-        }
-
-        @Override
-        public String toString() {
-            return tipo + " (" + numero + ")";
-        }
-    }
+    private static final long serialVersionUID = 1L;
 
-    static class Persona {
-        String nombre;
-        String dni;
-        String password;
-        Map<String, SubCuenta> cuentas = new LinkedHashMap<>(); // key: "Corriente"/"Ahorros"
-
-        Persona(String nombre, String dni, String password) {
-            this.nombre = nombre;
-            this.dni = dni;
-            this.password = password;
-        }
-
-        void agregarCuenta(SubCuenta sc) {
-            cuentas.put(sc.tipo, sc);
-        }
-    }
-
-    private final Map<String, Persona> personasPorDni = new HashMap<>();
-    private Persona personaActiva = null;
-    private SubCuenta cuentaSeleccionada = null;
-    private final String CODIGO_SECRET0 = "1234";
-    private final DecimalFormat df = new DecimalFormat("###,##0.00");
+    // --- Modelo de datos (ver ServicioCajero, PerfilCliente) ---
+    private ServicioCajero servicio;
+    private SesionTerminal sesion = null; // null mientras nadie inició sesión en este terminal
 
     // --- Componentes GUI ---
     private CardLayout cardLayout = new CardLayout();
     private JPanel cards;
+    private JPanel panelPrincipal; // null hasta que se arma
+    private JPanel panelDeposito;  // null hasta el primer depósito
+
+    // Arranque
+    private static final long INICIO = System.nanoTime(); // al cargar la clase, antes de main
+    private static final boolean SOLO_ARRANQUE = Boolean.getBoolean("cajero.soloArranque");
+    private long loginPintadoMs = -1;
+    private final CompletableFuture<Void> servicioListo = new CompletableFuture<>();
 
     // Login
     private JTextField tfDni;
     private JPasswordField pfPass;
+    private JButton btnIngresar;
+    private JLabel lblEstadoLogin;
 
     // Main
     private JLabel lblBienvenida;
-    private JComboBox<SubCuenta> cbMisCuentas;
+    private JComboBox<PerfilCliente.CuentaPerfil> cbMisCuentas;
     private JLabel lblCuentaNumero;
     private JLabel lblSaldo;
-    private boolean saldoVisible = false;
 
     // Operaciones
     private JTextField tfMontoInterno;
     private JTextField tfMontoToOther;
     private JTextField tfDestinoCuenta; // número destino para transferir a otro usuario
     private JTextField tfMontoDepositoEfectivo;
+    private JTextField tfMontoRetiro;
     private JLabel lblMensaje;
 
+    // Billetes de este terminal (los retiros se entregan de aquí)
+    private final Casetero casetero = Casetero.porDefecto();
+    private RetiroPendiente retiroPendiente; // débito sin confirmar: sus billetes siguen apartados
+
     // Pantalla de depósito
     private JLabel lblEstadoDeposito;
     private JProgressBar progressBar;
-    private javax.swing.Timer timerDeposito;
-    private double montoDeposito;
+    private JPanel btnPanelDeposito; // oculto mientras el depósito está en curso
+    private static final ExecutorService EJECUTOR_DEPOSITOS = Hilos.porTarea("deposito");
+    private long depositoActual; // se incrementa por depósito y al cerrar sesión; descarta avisos viejos
+
+    // Llamadas al servicio (ver llamarServicio): fuera del EDT, con los controles deshabilitados
+    private static final ExecutorService EJECUTOR_SERVICIO = Hilos.porTarea("servicio");
+    private final java.util.List<JComponent> controles = new ArrayList<>();
+    private int llamadasEnCurso;
+
+    // Mini extracto
+    private static final int MOVIMIENTOS_EXTRACTO = 10;
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter FORMATO_ENTRADA = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+    /** Lo que la pantalla recuerda del cliente; el token y la expiración los lleva el servicio. */
+    private static final class SesionTerminal {
+        final PerfilCliente perfil;
+        PerfilCliente.CuentaPerfil cuentaSeleccionada;
+        boolean saldoVisible;
+        // operación enviada que no recibió respuesta: si se repite tal cual, reusa su id
+        private String pendiente;
+        private long idPendiente;
+
+        SesionTerminal(PerfilCliente perfil) {
+            this.perfil = perfil;
+        }
+
+        long idOperacion(String descripcion) {
+            if (!descripcion.equals(pendiente)) {
+                pendiente = descripcion;
+                idPendiente = ServicioCajero.nuevoIdOperacion();
+            }
+            return idPendiente;
+        }
+
+        void operacionRespondida() {
+            pendiente = null;
+        }
+    }
+
+    /** Llamada al servicio: puede esperar la red (terminal remoto) o el disco (local). */
+    @FunctionalInterface
+    private interface Llamada<T> {
+        T llamar() throws IOException;
+    }
+
+    /** Retiro enviado cuya respuesta se perdió: el banco pudo haber debitado o no. */
+    private static final class RetiroPendiente {
+        final String cuenta;
+        final long monto;
+        final long idOperacion;
+        final int[] billetes;
+
+        RetiroPendiente(String cuenta, long monto, long idOperacion, int[] billetes) {
+            this.cuenta = cuenta;
+            this.monto = monto;
+            this.idOperacion = idOperacion;
+            this.billetes = billetes;
+        }
+
+        /**
+         * Respuesta a un reenvío con el mismo id que prueba que no hubo débito. SIN_SESION,
+         * SOLO_LECTURA y ERROR_INTERNO no lo prueban: la sesión pudo vencer (o el servidor
+         * cambiar) después de debitar, y el original puede seguir en curso.
+         */
+        static boolean sinDebito(ResultadoOperacion r) {
+            return !r.exitosa() && r != ResultadoOperacion.SIN_SESION
+                    && r != ResultadoOperacion.SOLO_LECTURA && r != ResultadoOperacion.ERROR_INTERNO;
+        }
+    }
 
     public CajeroBancoAvanzado() {
         setTitle("Banco Iberoamericano - Cajero Avanzado");
@@ -104,35 +181,146 @@ public class CajeroBancoAvanzado extends JFrame {
         setLocationRelativeTo(null);
         setResizable(false);
 
-        crearPersonasYCuentasDemo();
         initGUI();
+        Thread apertura = new Thread(() -> {
+            MetricasCajero.publicar();
+            ServicioCajero s = abrirServicio();
+            if (s != null) SwingUtilities.invokeLater(() -> servicioAbierto(s));
+        }, "cajero-arranque");
+        apertura.setDaemon(true);
+        apertura.start();
+    }
+
+    // En el EDT: ya se puede ingresar
+    private void servicioAbierto(ServicioCajero s) {
+        servicio = s;
+        btnIngresar.setEnabled(true);
+        lblEstadoLogin.setText(" ");
+        System.out.printf("Cajero listo para ingresar en %d ms%n", msDesdeInicio());
+        servicioListo.complete(null);
     }
 
-    private void crearPersonasYCuentasDemo() {
+    // Primera pintura del login: se mide y, con el EDT libre, se arman las otras pantallas
+    private void loginPintado() {
+        loginPintadoMs = msDesdeInicio();
+        long jvm = ProcessHandle.current().info().startInstant()
+                .map(i -> System.currentTimeMillis() - i.toEpochMilli()).orElse(-1L);
+        System.out.printf("Pantalla de login en %d ms (%d ms desde el inicio de la JVM)%n", loginPintadoMs, jvm);
+        SwingUtilities.invokeLater(() -> {
+            pantallaPrincipal();
+            if (!SOLO_ARRANQUE) return;
+            pantallaDeposito();
+            servicioListo.thenRun(() -> SwingUtilities.invokeLater(() -> System.exit(0)));
+        });
+    }
+
+    private static long msDesdeInicio() {
+        return (System.nanoTime() - INICIO) / 1_000_000;
+    }
+
+    // Avisos desde el hilo de arranque
+    private void avisar(String mensaje, String titulo, int tipo) {
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, mensaje, titulo, tipo));
+    }
+
+    // Con -Dcajero.servidor=host:puerto[,host:puerto...] el cajero es un terminal remoto; si no, abre los datos locales.
+    // Corre fuera del EDT; null si no hay con qué atender (el cajero se cierra).
+    private ServicioCajero abrirServicio() {
+        String servidor = System.getProperty("cajero.servidor");
+        if (servidor == null) {
+            PersistenciaBanco persistencia = abrirPersistencia();
+            Ledger ledger;
+            TransferenciasProgramadas programadas;
+            if (persistencia != null) {
+                ledger = persistencia.ledger();
+                programadas = persistencia.programadas();
+            } else {
+                ledger = new Ledger();
+                crearPersonasYCuentasDemo(ledger);
+                programadas = new TransferenciasProgramadas(null, ledger); // solo mientras dure el proceso
+            }
+            try {
+                programadas.iniciar();
+            } catch (IOException | RuntimeException ex) {
+                avisar("No se pudieron cargar las transferencias programadas:\n" + ex.getMessage(),
+                        "Datos no disponibles", JOptionPane.WARNING_MESSAGE);
+            }
+            return new ServicioCajeroLocal(new GestorSesiones(ledger), LimitesTransferencia.porDefecto(),
+                    CacheIdempotencia.porDefecto(), null, programadas);
+        }
+        try {
+            return ClienteCajero.conectar(servidor);
+        } catch (IOException | RuntimeException ex) {
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(this, "No se pudo conectar con el servidor " + servidor + ":\n" + ex.getMessage(),
+                        "Servidor no disponible", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+            });
+            return null;
+        }
+    }
+
+    // Datos en ./datos (o -Dcajero.datos=...): última instantánea + cola del diario.
+    // Modo -Dcajero.durabilidad=POR_LOTES|POR_TRANSACCION, instantáneas cada -Dcajero.instantaneaSeg (300 s).
+    // null si no se pudieron abrir: se sigue con las cuentas demo en memoria.
+    private PersistenciaBanco abrirPersistencia() {
+        Path dir = Paths.get(System.getProperty("cajero.datos", "datos"));
+        Durabilidad modo = Durabilidad.valueOf(System.getProperty("cajero.durabilidad", Durabilidad.POR_TRANSACCION.name()));
+        long intervaloSeg = Long.getLong("cajero.instantaneaSeg", 300);
+        try {
+            PersistenciaBanco persistencia = PersistenciaBanco.abrir(dir, modo, CajeroBancoAvanzado::crearPersonasYCuentasDemo, intervaloSeg);
+            Runtime.getRuntime().addShutdownHook(new Thread(persistencia::close));
+            return persistencia;
+        } catch (IOException | RuntimeException ex) {
+            avisar("No se pudieron cargar los datos del banco:\n" + ex.getMessage()
+                    + "\nSe usarán las cuentas demo y los movimientos no se guardarán en disco.", "Datos no disponibles", JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+    }
+
+    // Semilla cuando todavía no hay instantánea en disco
+    static void crearPersonasYCuentasDemo(Ledger ledger) {
         // Persona 1
         Persona p1 = new Persona("Kevin", "12345678", "pass1");
-        p1.agregarCuenta(new SubCuenta("Corriente", "1001-C", 2000.00));
-        p1.agregarCuenta(new SubCuenta("Ahorros", "1001-A", 2000.00));
-        personasPorDni.put(p1.dni, p1);
+        p1.agregarCuenta(ledger.abrirCuenta(TipoCuenta.CORRIENTE, "1001-C", 200000));
+        p1.agregarCuenta(ledger.abrirCuenta(TipoCuenta.AHORROS, "1001-A", 200000));
+        ledger.registrarPersona(p1);
 
         // Persona 2
         Persona p2 = new Persona("María", "87654321", "pass2");
-        p2.agregarCuenta(new SubCuenta("Corriente", "2002-C", 2000.00));
-        p2.agregarCuenta(new SubCuenta("Ahorros", "2002-A", 2000.00));
-        personasPorDni.put(p2.dni, p2);
+        p2.agregarCuenta(ledger.abrirCuenta(TipoCuenta.CORRIENTE, "2002-C", 200000));
+        p2.agregarCuenta(ledger.abrirCuenta(TipoCuenta.AHORROS, "2002-A", 200000));
+        ledger.registrarPersona(p2);
     }
 
+    // Solo el login al arrancar; las otras pantallas se agregan con pantallaPrincipal() y pantallaDeposito()
     private void initGUI() {
         cards = new JPanel(cardLayout);
         cards.add(buildLoginPanel(), "LOGIN");
-        cards.add(buildMainPanel(), "MAIN");
-        cards.add(buildDepositoPanel(), "DEPOSITO");
         add(cards);
         cardLayout.show(cards, "LOGIN");
     }
 
+    private void pantallaPrincipal() {
+        if (panelPrincipal != null) return;
+        panelPrincipal = buildMainPanel();
+        cards.add(panelPrincipal, "MAIN");
+    }
+
+    private void pantallaDeposito() {
+        if (panelDeposito != null) return;
+        panelDeposito = buildDepositoPanel();
+        cards.add(panelDeposito, "DEPOSITO");
+    }
+
     private JPanel buildLoginPanel() {
-        JPanel p = new JPanel(new BorderLayout());
+        JPanel p = new JPanel(new BorderLayout()) {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                if (loginPintadoMs < 0) loginPintado();
+            }
+        };
         p.setBackground(new Color(224, 242, 255));
         p.setBorder(new EmptyBorder(20, 20, 20, 20));
 
@@ -167,8 +355,9 @@ public class CajeroBancoAvanzado extends JFrame {
 
         JPanel btns = new JPanel(new FlowLayout());
         btns.setOpaque(false);
-        JButton btnIngresar = new JButton("Ingresar");
+        btnIngresar = control(new JButton("Ingresar"));
         btnIngresar.setPreferredSize(new Dimension(100, 35));
+        btnIngresar.setEnabled(false); // hasta que se abran los datos
         btnIngresar.addActionListener(e -> intentarLogin());
         JButton btnSalir = new JButton("Salir");
         btnSalir.setPreferredSize(new Dimension(100, 35));
@@ -178,6 +367,10 @@ public class CajeroBancoAvanzado extends JFrame {
         btns.add(btnSalir);
         center.add(btns);
 
+        lblEstadoLogin = new JLabel("Conectando con el banco...", SwingConstants.CENTER);
+        lblEstadoLogin.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        center.add(lblEstadoLogin);
+
         center.add(Box.createVerticalStrut(20));
         JLabel nota = new JLabel("<html><div style='text-align:center'><small>Cuentas demo:<br>Persona 1: DNI 12345678 / pass1 (1001-C, 1001-A)<br>Persona 2: DNI 87654321 / pass2 (2002-C, 2002-A)</small></div></html>", SwingConstants.CENTER);
         nota.setFont(new Font("SansSerif", Font.ITALIC, 11));
@@ -200,7 +393,7 @@ public class CajeroBancoAvanzado extends JFrame {
         lblBienvenida.setFont(new Font("SansSerif", Font.BOLD, 18));
         lblBienvenida.setForeground(new Color(6, 66, 120));
         top.add(lblBienvenida, BorderLayout.WEST);
-        JButton btnLogout = new JButton("Cerrar sesión");
+        JButton btnLogout = control(new JButton("Cerrar sesión"));
         btnLogout.setPreferredSize(new Dimension(120, 30));
         btnLogout.addActionListener(e -> logout());
         top.add(btnLogout, BorderLayout.EAST);
@@ -225,7 +418,7 @@ public class CajeroBancoAvanzado extends JFrame {
         
         cuentaPanel.add(new JLabel("Selecciona tu cuenta:"));
         cuentaPanel.add(Box.createVerticalStrut(5));
-        cbMisCuentas = new JComboBox<>();
+        cbMisCuentas = control(new JComboBox<>());
         cbMisCuentas.setPreferredSize(new Dimension(300, 30));
         cbMisCuentas.addActionListener(e -> cambiarCuentaSeleccionada());
         cuentaPanel.add(cbMisCuentas);
@@ -242,16 +435,21 @@ public class CajeroBancoAvanzado extends JFrame {
 
         JPanel saldoBtns = new JPanel(new FlowLayout(FlowLayout.LEFT));
         saldoBtns.setOpaque(false);
-        JButton btnToggle = new JButton("Ver/ocultar saldo");
+        JButton btnToggle = control(new JButton("Ver/ocultar saldo"));
         btnToggle.setPreferredSize(new Dimension(150, 30));
         btnToggle.addActionListener(e -> toggleSaldo());
         saldoBtns.add(btnToggle);
 
-        JButton btnVerMisDos = new JButton("Ver mis 2 saldos (requiere código)");
+        JButton btnVerMisDos = control(new JButton("Ver mis 2 saldos (requiere código)"));
         btnVerMisDos.setPreferredSize(new Dimension(250, 30));
         btnVerMisDos.addActionListener(e -> pedirCodigoYMostrarMisDosSaldos());
         saldoBtns.add(btnVerMisDos);
 
+        JButton btnMovimientos = control(new JButton("Últimos movimientos"));
+        btnMovimientos.setPreferredSize(new Dimension(160, 30));
+        btnMovimientos.addActionListener(e -> mostrarUltimosMovimientos());
+        saldoBtns.add(btnMovimientos);
+
         cuentaPanel.add(saldoBtns);
         center.add(cuentaPanel);
 
@@ -261,6 +459,8 @@ public class CajeroBancoAvanzado extends JFrame {
         center.add(buildPanelTransferirAotroUsuario());
         center.add(Box.createVerticalStrut(15));
         center.add(buildPanelDepositarEfectivo());
+        center.add(Box.createVerticalStrut(15));
+        center.add(buildPanelRetirarEfectivo());
         center.add(Box.createVerticalStrut(20));
 
         lblMensaje = new JLabel(" ");
@@ -294,7 +494,7 @@ public class CajeroBancoAvanzado extends JFrame {
         tfMontoInterno = new JTextField(10);
         tfMontoInterno.setPreferredSize(new Dimension(100, 25));
         contenido.add(tfMontoInterno);
-        JButton btnTransferirInterno = new JButton("Transferir entre mis cuentas");
+        JButton btnTransferirInterno = control(new JButton("Transferir entre mis cuentas"));
         btnTransferirInterno.setPreferredSize(new Dimension(200, 30));
         btnTransferirInterno.addActionListener(e -> transferirEntreMisCuentas());
         contenido.add(btnTransferirInterno);
@@ -322,10 +522,18 @@ public class CajeroBancoAvanzado extends JFrame {
         
         JPanel fila2 = new JPanel(new FlowLayout(FlowLayout.LEFT));
         fila2.setOpaque(false);
-        JButton btnTransferirOtro = new JButton("Transferir (requiere código)");
+        JButton btnTransferirOtro = control(new JButton("Transferir (requiere código)"));
         btnTransferirOtro.setPreferredSize(new Dimension(200, 30));
         btnTransferirOtro.addActionListener(e -> transferirAOtraPersonaConCodigo());
         fila2.add(btnTransferirOtro);
+        JButton btnProgramar = control(new JButton("Programar..."));
+        btnProgramar.setPreferredSize(new Dimension(120, 30));
+        btnProgramar.addActionListener(e -> programarTransferencia());
+        fila2.add(btnProgramar);
+        JButton btnProgramadas = control(new JButton("Mis programadas"));
+        btnProgramadas.setPreferredSize(new Dimension(140, 30));
+        btnProgramadas.addActionListener(e -> mostrarProgramadas());
+        fila2.add(btnProgramadas);
         
         panel.add(fila1);
         panel.add(fila2);
@@ -347,7 +555,7 @@ public class CajeroBancoAvanzado extends JFrame {
         
         JPanel fila2 = new JPanel(new FlowLayout(FlowLayout.LEFT));
         fila2.setOpaque(false);
-        JButton btnDepositar = new JButton("Depositar efectivo");
+        JButton btnDepositar = control(new JButton("Depositar efectivo"));
         btnDepositar.setPreferredSize(new Dimension(150, 30));
         btnDepositar.addActionListener(e -> iniciarProcesoDeposito());
         fila2.add(btnDepositar);
@@ -357,6 +565,31 @@ public class CajeroBancoAvanzado extends JFrame {
         return panel;
     }
 
+    private JPanel buildPanelRetirarEfectivo() {
+        JPanel panel = new JPanel();
+        panel.setOpaque(false);
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        panel.setBorder(BorderFactory.createTitledBorder("Retirar efectivo de mi cuenta"));
+
+        JPanel fila1 = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        fila1.setOpaque(false);
+        fila1.add(new JLabel("Monto a retirar S/"));
+        tfMontoRetiro = new JTextField(10);
+        tfMontoRetiro.setPreferredSize(new Dimension(100, 25));
+        fila1.add(tfMontoRetiro);
+
+        JPanel fila2 = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        fila2.setOpaque(false);
+        JButton btnRetirar = control(new JButton("Retirar efectivo"));
+        btnRetirar.setPreferredSize(new Dimension(150, 30));
+        btnRetirar.addActionListener(e -> retirarEfectivo());
+        fila2.add(btnRetirar);
+
+        panel.add(fila1);
+        panel.add(fila2);
+        return panel;
+    }
+
     private JPanel buildDepositoPanel() {
         JPanel p = new JPanel(new BorderLayout());
         p.setBackground(new Color(240, 248, 255));
@@ -394,24 +627,24 @@ public class CajeroBancoAvanzado extends JFrame {
         // Panel de botones (inicialmente oculto)
         JPanel btnPanel = new JPanel(new FlowLayout());
         btnPanel.setOpaque(false);
-        btnPanel.setName("btnPanel");
         btnPanel.setVisible(false);
+        btnPanelDeposito = btnPanel;
 
-        JButton btnVerSaldo = new JButton("Ver Saldo");
+        JButton btnVerSaldo = control(new JButton("Ver Saldo"));
         btnVerSaldo.setPreferredSize(new Dimension(100, 35));
         btnVerSaldo.addActionListener(e -> mostrarSaldoActual());
         btnPanel.add(btnVerSaldo);
 
         btnPanel.add(Box.createHorizontalStrut(10));
 
-        JButton btnRetroceder = new JButton("Retroceder");
+        JButton btnRetroceder = control(new JButton("Retroceder"));
         btnRetroceder.setPreferredSize(new Dimension(100, 35));
         btnRetroceder.addActionListener(e -> volverAlMain());
         btnPanel.add(btnRetroceder);
 
         btnPanel.add(Box.createHorizontalStrut(10));
 
-        JButton btnCerrarSesion = new JButton("Cerrar Sesión");
+        JButton btnCerrarSesion = control(new JButton("Cerrar Sesión"));
         btnCerrarSesion.setPreferredSize(new Dimension(120, 35));
         btnCerrarSesion.addActionListener(e -> logout());
         btnPanel.add(btnCerrarSesion);
@@ -423,9 +656,57 @@ public class CajeroBancoAvanzado extends JFrame {
         return p;
     }
 
+    // Control que se deshabilita mientras hay una llamada al servicio en curso
+    private <C extends JComponent> C control(C c) {
+        controles.add(c);
+        return c;
+    }
+
+    /**
+     * Corre la llamada en {@link #EJECUTOR_SERVICIO}, igual que el depósito, y entrega en el EDT
+     * el resultado o la falla (sin envolver). Mientras tanto los controles quedan deshabilitados:
+     * el terminal no envía otra operación ni cambia de sesión hasta que el banco responda.
+     */
+    private <T> void llamarServicio(Llamada<T> llamada, java.util.function.BiConsumer<T, Throwable> alTerminar) {
+        ocupar(1);
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return llamada.llamar();
+            } catch (IOException ex) {
+                throw new java.io.UncheckedIOException(ex);
+            }
+        }, EJECUTOR_SERVICIO).whenComplete((r, ex) -> SwingUtilities.invokeLater(() -> {
+            ocupar(-1);
+            alTerminar.accept(r, causa(ex));
+        }));
+    }
+
+    private static Throwable causa(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+        if (ex instanceof java.io.UncheckedIOException) ex = ex.getCause();
+        return ex;
+    }
+
+    private void ocupar(int delta) {
+        llamadasEnCurso += delta;
+        for (JComponent c : controles) c.setEnabled(llamadasEnCurso == 0);
+    }
+
+    // Falla de una llamada: conexión, sesión vencida (IllegalStateException) o del propio terminal
+    private void mostrarFalla(Throwable falla) {
+        if (falla instanceof IOException) {
+            mostrarErrorConexion((IOException) falla);
+        } else if (falla instanceof IllegalStateException) {
+            sesionExpirada();
+        } else {
+            JOptionPane.showMessageDialog(this, "No se pudo completar la operación:\n" + falla.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     // --- Acciones ---
 
     private void intentarLogin() {
+        if (servicio == null) return; // todavía abriendo los datos
         String dni = tfDni.getText().trim();
         String pass = new String(pfPass.getPassword());
 
@@ -434,74 +715,92 @@ public class CajeroBancoAvanzado extends JFrame {
             return;
         }
 
-        Persona p = personasPorDni.get(dni);
-        if (p == null || !p.password.equals(pass)) {
-            JOptionPane.showMessageDialog(this, "DNI o contraseña incorrectos.", "Error de autenticación", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
+        llamarServicio(() -> servicio.iniciarSesion(dni, pass), (p, falla) -> {
+            if (falla != null) {
+                mostrarFalla(falla);
+                return;
+            }
+            if (p == null) {
+                JOptionPane.showMessageDialog(this, "DNI o contraseña incorrectos.", "Error de autenticación", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
-        personaActiva = p;
-        configurarCuentasEnCombo();
-        lblBienvenida.setText("Usuario: " + personaActiva.nombre + " (DNI " + personaActiva.dni + ")");
-        lblMensaje.setText("Sesión iniciada. Selecciona una de tus cuentas para operar.");
-        tfDni.setText("");
-        pfPass.setText("");
-        cardLayout.show(cards, "MAIN");
+            sesion = new SesionTerminal(p);
+            pantallaPrincipal();
+            configurarCuentasEnCombo();
+            lblBienvenida.setText("Usuario: " + sesion.perfil.nombre + " (DNI " + sesion.perfil.dni + ")");
+            lblMensaje.setText("Sesión iniciada. Selecciona una de tus cuentas para operar.");
+            tfDni.setText("");
+            pfPass.setText("");
+            cardLayout.show(cards, "MAIN");
+        });
     }
 
     private void configurarCuentasEnCombo() {
         cbMisCuentas.removeAllItems();
-        for (SubCuenta sc : personaActiva.cuentas.values()) {
-            cbMisCuentas.addItem(sc);
+        for (PerfilCliente.CuentaPerfil cp : sesion.perfil.cuentas) {
+            cbMisCuentas.addItem(cp);
         }
         // seleccionar primera por defecto
         if (cbMisCuentas.getItemCount() > 0) {
             cbMisCuentas.setSelectedIndex(0);
-            cuentaSeleccionada = (SubCuenta) cbMisCuentas.getSelectedItem();
+            sesion.cuentaSeleccionada = (PerfilCliente.CuentaPerfil) cbMisCuentas.getSelectedItem();
             actualizarInfoCuentaSeleccionada();
         }
     }
 
     private void cambiarCuentaSeleccionada() {
-        cuentaSeleccionada = (SubCuenta) cbMisCuentas.getSelectedItem();
-        saldoVisible = false;
+        if (sesion == null) return;
+        sesion.cuentaSeleccionada = (PerfilCliente.CuentaPerfil) cbMisCuentas.getSelectedItem();
+        sesion.saldoVisible = false;
         actualizarInfoCuentaSeleccionada();
     }
 
     private void actualizarInfoCuentaSeleccionada() {
-        if (cuentaSeleccionada == null) {
+        if (sesion == null || sesion.cuentaSeleccionada == null) {
             lblCuentaNumero.setText("Cuenta: -");
             lblSaldo.setText("Saldo: ****");
             return;
         }
-        lblCuentaNumero.setText("Cuenta seleccionada: " + cuentaSeleccionada.tipo + " - " + cuentaSeleccionada.numero);
+        lblCuentaNumero.setText("Cuenta seleccionada: " + sesion.cuentaSeleccionada.tipo + " - " + sesion.cuentaSeleccionada.numero);
         actualizarSaldoLabel();
     }
 
     private void toggleSaldo() {
-        if (cuentaSeleccionada == null) return;
-        saldoVisible = !saldoVisible;
+        if (sesion == null || sesion.cuentaSeleccionada == null) return;
+        sesion.saldoVisible = !sesion.saldoVisible;
         actualizarSaldoLabel();
     }
 
     private void actualizarSaldoLabel() {
-        if (cuentaSeleccionada == null) {
+        if (sesion == null || sesion.cuentaSeleccionada == null) {
             lblSaldo.setText("Saldo: ****");
             return;
         }
-        if (saldoVisible) {
-            lblSaldo.setText("Saldo: S/ " + df.format(cuentaSeleccionada.saldo));
-        } else {
+        if (!sesion.saldoVisible) {
             lblSaldo.setText("Saldo: ****");
+            return;
         }
+        SesionTerminal s = sesion;
+        PerfilCliente.CuentaPerfil cuenta = s.cuentaSeleccionada;
+        llamarServicio(() -> servicio.saldo(cuenta.numero), (saldo, falla) -> {
+            if (sesion != s || s.cuentaSeleccionada != cuenta || !s.saldoVisible) return; // ya no se muestra
+            if (falla instanceof IOException) {
+                lblSaldo.setText("Saldo: (sin conexión)");
+            } else if (falla != null) {
+                mostrarFalla(falla);
+            } else {
+                lblSaldo.setText("Saldo: S/ " + Dinero.formatear(saldo));
+            }
+        });
     }
 
     private void transferirEntreMisCuentas() {
-        if (personaActiva == null || cuentaSeleccionada == null) return;
+        if (sesion == null || sesion.cuentaSeleccionada == null) return;
         String texto = tfMontoInterno.getText().trim();
-        double monto;
+        long monto;
         try {
-            monto = Double.parseDouble(texto);
+            monto = Dinero.aCentimos(texto);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Ingrese un monto válido.", "Monto inválido", JOptionPane.WARNING_MESSAGE);
             return;
@@ -511,40 +810,59 @@ public class CajeroBancoAvanzado extends JFrame {
             return;
         }
         // identificar la otra subcuenta del usuario
-        SubCuenta destino = personaActiva.cuentas.values().stream().filter(sc -> sc != cuentaSeleccionada).findFirst().orElse(null);
+        PerfilCliente.CuentaPerfil destino = sesion.perfil.cuentas.stream().filter(cp -> !cp.equals(sesion.cuentaSeleccionada)).findFirst().orElse(null);
         if (destino == null) {
             JOptionPane.showMessageDialog(this, "No se encontró otra cuenta suya.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        if (cuentaSeleccionada.saldo < monto) {
-            JOptionPane.showMessageDialog(this, "Fondos insuficientes en la cuenta origen.", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-
-        // Confirmación
-        int opt = JOptionPane.showConfirmDialog(this,
-                String.format("Confirma transferencia S/ %s de %s → %s ?", df.format(monto), cuentaSeleccionada.numero, destino.numero),
-                "Confirmar transferencia", JOptionPane.YES_NO_OPTION);
-        if (opt != JOptionPane.YES_OPTION) return;
+        SesionTerminal s = sesion;
+        String origen = s.cuentaSeleccionada.numero;
+        llamarServicio(() -> servicio.saldo(origen), (saldo, falla) -> {
+            if (falla != null) {
+                mostrarFalla(falla);
+                return;
+            }
+            if (saldo < monto) {
+                JOptionPane.showMessageDialog(this, "Fondos insuficientes en la cuenta origen.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
-        cuentaSeleccionada.saldo -= monto;
-        destino.saldo += monto;
-        tfMontoInterno.setText("");
-        lblMensaje.setText("Transferencia interna realizada a " + destino.numero + ".");
-        actualizarSaldoLabel();
+            // Confirmación
+            int opt = JOptionPane.showConfirmDialog(this,
+                    String.format("Confirma transferencia S/ %s de %s → %s ?", Dinero.formatear(monto), origen, destino.numero),
+                    "Confirmar transferencia", JOptionPane.YES_NO_OPTION);
+            if (opt != JOptionPane.YES_OPTION) return;
+
+            // el Ledger vuelve a validar fondos de forma atómica (otro cajero pudo debitar mientras tanto)
+            long id = s.idOperacion("T " + origen + " " + destino.numero + " " + monto);
+            llamarServicio(() -> servicio.transferir(origen, destino.numero, monto, null, id), (r, fallaTransferencia) -> {
+                if (fallaTransferencia != null) {
+                    mostrarFalla(fallaTransferencia);
+                    return;
+                }
+                s.operacionRespondida();
+                if (!r.exitosa()) {
+                    mostrarErrorOperacion(r);
+                    return;
+                }
+                tfMontoInterno.setText("");
+                lblMensaje.setText("Transferencia interna realizada a " + destino.numero + ".");
+                actualizarSaldoLabel();
+            });
+        });
     }
 
     private void transferirAOtraPersonaConCodigo() {
-        if (personaActiva == null || cuentaSeleccionada == null) return;
+        if (sesion == null || sesion.cuentaSeleccionada == null) return;
         String destNum = tfDestinoCuenta.getText().trim();
         String montoText = tfMontoToOther.getText().trim();
         if (destNum.isEmpty() || montoText.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Ingrese cuenta destino y monto.", "Datos incompletos", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        double monto;
+        long monto;
         try {
-            monto = Double.parseDouble(montoText);
+            monto = Dinero.aCentimos(montoText);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Ingrese un monto válido.", "Monto inválido", JOptionPane.WARNING_MESSAGE);
             return;
@@ -557,33 +875,156 @@ public class CajeroBancoAvanzado extends JFrame {
         // pedir código
         String codigo = JOptionPane.showInputDialog(this, "Ingrese el código de autorización:", "Código requerido", JOptionPane.PLAIN_MESSAGE);
         if (codigo == null) return;
-        if (!codigo.equals(CODIGO_SECRET0)) {
-            JOptionPane.showMessageDialog(this, "Código incorrecto. Operación cancelada.", "Código inválido", JOptionPane.ERROR_MESSAGE);
+
+        // el servicio valida el código, busca la cuenta destino y debita tu cuenta
+        SesionTerminal s = sesion;
+        String origen = s.cuentaSeleccionada.numero;
+        long id = s.idOperacion("TC " + origen + " " + destNum + " " + monto);
+        llamarServicio(() -> servicio.transferir(origen, destNum, monto, codigo, id), (r, falla) -> {
+            if (falla != null) {
+                mostrarFalla(falla);
+                return;
+            }
+            s.operacionRespondida();
+            if (r == ResultadoOperacion.CODIGO_INCORRECTO) {
+                JOptionPane.showMessageDialog(this, r.mensaje(), "Código inválido", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (!r.exitosa()) {
+                mostrarErrorOperacion(r);
+                return;
+            }
+            tfDestinoCuenta.setText("");
+            tfMontoToOther.setText("");
+            lblMensaje.setText("Transferencia externa realizada a " + destNum + ".");
+            actualizarSaldoLabel();
+        });
+    }
+
+    /**
+     * Programa una transferencia de la cuenta seleccionada a la cuenta destino del panel, en
+     * la fecha y con la periodicidad que se elijan. Pide el código si el destino no es propio.
+     */
+    private void programarTransferencia() {
+        if (sesion == null || sesion.cuentaSeleccionada == null) return;
+        String destNum = tfDestinoCuenta.getText().trim();
+        String montoText = tfMontoToOther.getText().trim();
+        if (destNum.isEmpty() || montoText.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Ingrese cuenta destino y monto.", "Datos incompletos", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        long monto;
+        try {
+            monto = Dinero.aCentimos(montoText);
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Ingrese un monto válido.", "Monto inválido", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (monto <= 0) {
+            JOptionPane.showMessageDialog(this, "El monto debe ser mayor que 0.", "Monto inválido", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
-        // buscar cuenta destino entre todas las personas
-        SubCuenta destino = buscarSubCuentaPorNumero(destNum);
-        if (destino == null) {
-            JOptionPane.showMessageDialog(this, "Cuenta destino no encontrada.", "Error", JOptionPane.ERROR_MESSAGE);
+        JTextField tfFecha = new JTextField(FORMATO_ENTRADA.format(LocalDateTime.now().plusDays(1).withHour(9).withMinute(0)), 14);
+        JComboBox<TransferenciasProgramadas.Periodicidad> cbPeriodicidad =
+                new JComboBox<>(TransferenciasProgramadas.Periodicidad.values());
+        JPanel datos = new JPanel(new GridLayout(2, 2, 5, 5));
+        datos.add(new JLabel("Primera fecha (dd/mm/aaaa hh:mm):"));
+        datos.add(tfFecha);
+        datos.add(new JLabel("Repetir:"));
+        datos.add(cbPeriodicidad);
+        int opt = JOptionPane.showConfirmDialog(this, datos,
+                String.format("Programar S/ %s de %s a %s", Dinero.formatear(monto), sesion.cuentaSeleccionada.numero, destNum),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (opt != JOptionPane.OK_OPTION) return;
+        long primera;
+        try {
+            primera = LocalDateTime.parse(tfFecha.getText().trim(), FORMATO_ENTRADA).atZone(ZoneId.systemDefault())
+                    .toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(this, "Ingrese la fecha como dd/mm/aaaa hh:mm.", "Fecha inválida", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        if (cuentaSeleccionada.saldo < monto) {
-            JOptionPane.showMessageDialog(this, "Fondos insuficientes en la cuenta origen.", "Error", JOptionPane.ERROR_MESSAGE);
+        TransferenciasProgramadas.Periodicidad periodicidad =
+                (TransferenciasProgramadas.Periodicidad) cbPeriodicidad.getSelectedItem();
+
+        String codigo = null;
+        if (sesion.perfil.cuentas.stream().noneMatch(c -> c.numero.equals(destNum))) {
+            codigo = JOptionPane.showInputDialog(this, "Ingrese el código de autorización:", "Código requerido", JOptionPane.PLAIN_MESSAGE);
+            if (codigo == null) return;
+        }
+
+        SesionTerminal s = sesion;
+        String origen = s.cuentaSeleccionada.numero;
+        String codigoIngresado = codigo;
+        long id = s.idOperacion("P " + origen + " " + destNum + " " + monto + " " + primera + " " + periodicidad);
+        llamarServicio(() -> servicio.programar(origen, destNum, monto, primera, periodicidad, codigoIngresado, id), (r, falla) -> {
+            if (falla != null) {
+                mostrarFalla(falla);
+                return;
+            }
+            s.operacionRespondida();
+            if (r == ResultadoOperacion.CODIGO_INCORRECTO) {
+                JOptionPane.showMessageDialog(this, r.mensaje(), "Código inválido", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (!r.exitosa()) {
+                mostrarErrorOperacion(r);
+                return;
+            }
+            tfDestinoCuenta.setText("");
+            tfMontoToOther.setText("");
+            lblMensaje.setText("Transferencia programada a " + destNum + " para el "
+                    + FORMATO_FECHA.format(Instant.ofEpochMilli(primera)) + ".");
+        });
+    }
+
+    // Lista de las programadas propias; se puede elegir una para cancelarla
+    private void mostrarProgramadas() {
+        if (sesion == null) return;
+        llamarServicio(servicio::programadas, (ordenes, falla) -> {
+            if (falla != null) mostrarFalla(falla);
+            else elegirProgramadaACancelar(ordenes);
+        });
+    }
+
+    private void elegirProgramadaACancelar(java.util.List<ServicioCajero.OrdenProgramada> ordenes) {
+        if (ordenes.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No tiene transferencias programadas.", "Mis programadas", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
 
-        // realizar transferencia (debitas tu cuenta)
-        cuentaSeleccionada.saldo -= monto;
-        destino.saldo += monto;
-        tfDestinoCuenta.setText("");
-        tfMontoToOther.setText("");
-        lblMensaje.setText("Transferencia externa realizada a " + destino.numero + ".");
-        actualizarSaldoLabel();
+        String[] lineas = new String[ordenes.size()];
+        for (int i = 0; i < lineas.length; i++) {
+            ServicioCajero.OrdenProgramada o = ordenes.get(i);
+            lineas[i] = String.format("%s  %s -> %-8s S/ %10s  %s", FORMATO_FECHA.format(Instant.ofEpochMilli(o.proxima)),
+                    o.origen, o.destino, Dinero.formatear(o.monto), o.periodicidad);
+        }
+        JList<String> lista = new JList<>(lineas);
+        lista.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        lista.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        Object[] opciones = {"Cancelar la seleccionada", "Cerrar"};
+        int opt = JOptionPane.showOptionDialog(this, new JScrollPane(lista), "Mis programadas",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, opciones, opciones[1]);
+        int i = lista.getSelectedIndex();
+        if (opt != 0 || i < 0) return;
+
+        ServicioCajero.OrdenProgramada orden = ordenes.get(i);
+        llamarServicio(() -> servicio.cancelarProgramada(orden.id), (r, falla) -> {
+            if (falla != null) {
+                mostrarFalla(falla);
+                return;
+            }
+            if (!r.exitosa()) {
+                mostrarErrorOperacion(r);
+                return;
+            }
+            lblMensaje.setText("Transferencia programada a " + orden.destino + " cancelada.");
+        });
     }
 
     private void iniciarProcesoDeposito() {
-        if (personaActiva == null || cuentaSeleccionada == null) return;
+        if (sesion == null || sesion.cuentaSeleccionada == null) return;
         
         String montoText = tfMontoDepositoEfectivo.getText().trim();
         if (montoText.isEmpty()) {
@@ -591,9 +1032,9 @@ public class CajeroBancoAvanzado extends JFrame {
             return;
         }
         
-        double monto;
+        long monto;
         try {
-            monto = Double.parseDouble(montoText);
+            monto = Dinero.aCentimos(montoText);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Ingrese un monto válido.", "Monto inválido", JOptionPane.WARNING_MESSAGE);
             return;
@@ -603,72 +1044,61 @@ public class CajeroBancoAvanzado extends JFrame {
             return;
         }
 
-        // Guardar datos del depósito
-        this.montoDeposito = monto;
-        
         // Cambiar a pantalla de depósito
+        pantallaDeposito();
         cardLayout.show(cards, "DEPOSITO");
         
-        // Iniciar animación de depósito
-        iniciarAnimacionDeposito();
+        iniciarDepositoAsincrono(sesion.cuentaSeleccionada, monto);
     }
 
-    private void iniciarAnimacionDeposito() {
+    /**
+     * Validación, contabilización y confirmación en disco corren fuera del EDT; la barra
+     * avanza cuando termina cada etapa real. Varios depósitos (de distintos cajeros) avanzan
+     * en paralelo: el Ledger solo bloquea la cuenta destino mientras aplica el monto.
+     */
+    private void iniciarDepositoAsincrono(PerfilCliente.CuentaPerfil cuenta, long monto) {
         progressBar.setValue(0);
         progressBar.setString("0%");
         lblEstadoDeposito.setText("Validando datos...");
         
         // Ocultar botones
-        Component btnPanel = null;
-        for (Component c : ((JPanel)cards.getComponent(2)).getComponents()) {
-            if (c instanceof JPanel) {
-                for (Component inner : ((JPanel)c).getComponents()) {
-                    if (inner instanceof JPanel && "btnPanel".equals(inner.getName())) {
-                        btnPanel = inner;
-                        break;
-                    }
-                }
+        btnPanelDeposito.setVisible(false);
+
+        long deposito = ++depositoActual;
+        SesionTerminal s = sesion;
+        long id = s.idOperacion("D " + cuenta.numero + " " + monto);
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return servicio.depositar(cuenta.numero, monto, id, (progreso, estado) -> avanceDeposito(deposito, progreso, estado));
+            } catch (IOException ex) {
+                throw new java.io.UncheckedIOException(ex);
             }
-        }
-        if (btnPanel != null) {
-            btnPanel.setVisible(false);
-        }
-        
-        timerDeposito = new javax.swing.Timer(150, new ActionListener() {
-            int progreso = 0;
-            int fase = 0; // 0=validando, 1=procesando, 2=completando, 3=exitoso
-            
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                progreso += 2;
-                progressBar.setValue(progreso);
-                progressBar.setString(progreso + "%");
-                
-                if (fase == 0 && progreso >= 25) {
-                    lblEstadoDeposito.setText("Procesando depósito...");
-                    fase = 1;
-                } else if (fase == 1 && progreso >= 60) {
-                    lblEstadoDeposito.setText("Completando transacción...");
-                    fase = 2;
-                } else if (fase == 2 && progreso >= 85) {
-                    lblEstadoDeposito.setText("Realizando depósito final...");
-                    fase = 3;
-                } else if (progreso >= 100) {
-                    timerDeposito.stop();
-                    completarDeposito();
-                }
+        }, EJECUTOR_DEPOSITOS).whenComplete((r, ex) -> SwingUtilities.invokeLater(() -> {
+            if (deposito != depositoActual) return; // la sesión se cerró mientras tanto
+            if (ex == null) s.operacionRespondida();
+            if (ex != null) {
+                Throwable causa = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                JOptionPane.showMessageDialog(this, "No se pudo completar el depósito:\n" + causa.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                volverAlMain();
+            } else if (!r.exitosa()) {
+                mostrarErrorOperacion(r);
+                volverAlMain();
+            } else {
+                completarDeposito(cuenta, monto);
             }
+        }));
+    }
+
+    private void avanceDeposito(long deposito, int progreso, String estado) {
+        SwingUtilities.invokeLater(() -> {
+            if (deposito != depositoActual) return;
+            progressBar.setValue(progreso);
+            progressBar.setString(progreso + "%");
+            lblEstadoDeposito.setText(estado);
         });
-        
-        timerDeposito.start();
     }
     
-    private void completarDeposito() {
-        // Realizar el depósito real a la cuenta seleccionada del usuario logueado
-        if (cuentaSeleccionada != null) {
-            cuentaSeleccionada.saldo += montoDeposito;
-        }
-        
+    private void completarDeposito(PerfilCliente.CuentaPerfil cuenta, long monto) {
         // Actualizar UI
         lblEstadoDeposito.setText("¡DEPÓSITO EXITOSO!");
         lblEstadoDeposito.setForeground(new Color(0, 150, 0));
@@ -682,24 +1112,11 @@ public class CajeroBancoAvanzado extends JFrame {
         tfMontoDepositoEfectivo.setText("");
         
         // Mostrar botones
-        Component btnPanel = null;
-        for (Component c : ((JPanel)cards.getComponent(2)).getComponents()) {
-            if (c instanceof JPanel) {
-                for (Component inner : ((JPanel)c).getComponents()) {
-                    if (inner instanceof JPanel && "btnPanel".equals(inner.getName())) {
-                        btnPanel = inner;
-                        break;
-                    }
-                }
-            }
-        }
-        if (btnPanel != null) {
-            btnPanel.setVisible(true);
-        }
+        btnPanelDeposito.setVisible(true);
         
         // Actualizar mensaje en main panel
-        lblMensaje.setText("Depósito efectivo de S/ " + df.format(montoDeposito) + 
-                         " realizado exitosamente a tu cuenta " + cuentaSeleccionada.numero + ".");
+        lblMensaje.setText("Depósito efectivo de S/ " + Dinero.formatear(monto) + 
+                         " realizado exitosamente a tu cuenta " + cuenta.numero + ".");
         
         // Actualizar saldo visible
         actualizarSaldoLabel();
@@ -714,58 +1131,245 @@ public class CajeroBancoAvanzado extends JFrame {
         resetTimer.start();
     }
     
+    /**
+     * Aparta los billetes en el casetero antes de debitar; si el banco responde que no debitó
+     * (fondos, sesión) los devuelve. Si se corta la conexión no se sabe si debitó: los billetes
+     * quedan apartados ({@link #retiroPendiente}) y el próximo Retirar reenvía la misma
+     * operación con el mismo id para conocer el resultado, sin debitar dos veces.
+     */
+    private void retirarEfectivo() {
+        if (sesion == null || sesion.cuentaSeleccionada == null) return;
+        if (retiroPendiente != null) {
+            confirmarRetiroPendiente();
+            return;
+        }
+        String montoText = tfMontoRetiro.getText().trim();
+        if (montoText.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Ingrese el monto a retirar.", "Datos incompletos", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        long monto;
+        try {
+            monto = Dinero.aCentimos(montoText);
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Ingrese un monto válido.", "Monto inválido", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (monto <= 0) {
+            JOptionPane.showMessageDialog(this, "El monto debe ser mayor que 0.", "Monto inválido", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        int[] billetes = casetero.reservar(monto);
+        if (billetes == null) {
+            JOptionPane.showMessageDialog(this, ResultadoOperacion.SIN_BILLETES.mensaje(), "Monto no disponible", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String cuenta = sesion.cuentaSeleccionada.numero;
+        int opt = JOptionPane.showConfirmDialog(this,
+                String.format("Confirma retiro de S/ %s de %s ?%nRecibirá: %s", Dinero.formatear(monto),
+                        cuenta, casetero.describir(billetes)),
+                "Confirmar retiro", JOptionPane.YES_NO_OPTION);
+        if (opt != JOptionPane.YES_OPTION) {
+            casetero.devolver(billetes);
+            return;
+        }
+        SesionTerminal s = sesion;
+        long id = s.idOperacion("R " + cuenta + " " + monto);
+        llamarServicio(() -> servicio.retirar(cuenta, monto, id), (r, falla) -> {
+            if (falla instanceof IOException) {
+                retiroPendiente = new RetiroPendiente(cuenta, monto, id, billetes);
+                mostrarRetiroSinConfirmar(falla.getMessage());
+                return;
+            }
+            if (falla != null) {
+                // cualquier otra falla es del propio terminal, antes de que la operación salga
+                casetero.devolver(billetes);
+                mostrarFalla(falla);
+                return;
+            }
+            s.operacionRespondida();
+            entregarRetiro(r, billetes);
+        });
+    }
+
+    /** Reenvía el retiro sin confirmar con su id: entrega o devuelve los billetes según lo que hizo el banco. */
+    private void confirmarRetiroPendiente() {
+        RetiroPendiente p = retiroPendiente;
+        SesionTerminal s = sesion;
+        llamarServicio(() -> servicio.retirar(p.cuenta, p.monto, p.idOperacion), (r, falla) -> {
+            if (falla != null) {
+                mostrarRetiroSinConfirmar(falla.getMessage());
+                return;
+            }
+            if (!r.exitosa() && !RetiroPendiente.sinDebito(r)) {
+                if (r == ResultadoOperacion.SIN_SESION) sesionExpirada();
+                else mostrarRetiroSinConfirmar(r.mensaje());
+                return;
+            }
+            retiroPendiente = null;
+            s.operacionRespondida();
+            entregarRetiro(r, p.billetes);
+        });
+    }
+
+    private void entregarRetiro(ResultadoOperacion r, int[] billetes) {
+        if (!r.exitosa()) {
+            casetero.devolver(billetes);
+            mostrarErrorOperacion(r);
+            return;
+        }
+        tfMontoRetiro.setText("");
+        lblMensaje.setText("Retire su dinero: " + casetero.describir(billetes) + ".");
+        actualizarSaldoLabel();
+    }
+
+    private void mostrarRetiroSinConfirmar(String motivo) {
+        RetiroPendiente p = retiroPendiente;
+        JOptionPane.showMessageDialog(this, String.format("No se pudo confirmar el retiro de S/ %s de %s:%n%s%n%n"
+                        + "El efectivo queda reservado. Presione Retirar para volver a consultarlo.",
+                Dinero.formatear(p.monto), p.cuenta, motivo), "Retiro sin confirmar", JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Al cerrar sesión con un retiro sin confirmar se reenvía una última vez. Si el banco no
+     * debitó los billetes vuelven al casetero; si debitó o no se sabe quedan retenidos (no se
+     * entregan a la sesión siguiente) y se avisa para conciliar con el banco. Corre fuera del EDT.
+     */
+    private void retenerRetiroPendiente(RetiroPendiente p) {
+        ResultadoOperacion r = null;
+        try {
+            r = servicio.retirar(p.cuenta, p.monto, p.idOperacion);
+        } catch (IOException ignored) {
+            // sigue sin saberse
+        }
+        if (r != null && RetiroPendiente.sinDebito(r)) {
+            casetero.devolver(p.billetes);
+            return;
+        }
+        System.err.printf("Retiro %d de S/ %s de %s %s: billetes retenidos (%s), conciliar con el banco%n",
+                p.idOperacion, Dinero.formatear(p.monto), p.cuenta,
+                r == null ? "sin respuesta" : r.exitosa() ? "debitado y no entregado" : "sin confirmar (" + r + ")",
+                casetero.describir(p.billetes));
+    }
+
     private void mostrarSaldoActual() {
-        if (cuentaSeleccionada == null) {
+        if (sesion == null || sesion.cuentaSeleccionada == null) {
             JOptionPane.showMessageDialog(this, "No hay cuenta seleccionada.", "Información", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
         
-        String mensaje = String.format("Saldo actual de %s (%s):\nS/ %s", 
-                                     cuentaSeleccionada.tipo, 
-                                     cuentaSeleccionada.numero, 
-                                     df.format(cuentaSeleccionada.saldo));
-        JOptionPane.showMessageDialog(this, mensaje, "Saldo Actual", JOptionPane.INFORMATION_MESSAGE);
+        PerfilCliente.CuentaPerfil cuenta = sesion.cuentaSeleccionada;
+        llamarServicio(() -> servicio.saldo(cuenta.numero), (saldo, falla) -> {
+            if (falla != null) {
+                mostrarFalla(falla);
+                return;
+            }
+            String mensaje = String.format("Saldo actual de %s (%s):\nS/ %s",
+                                         cuenta.tipo,
+                                         cuenta.numero,
+                                         Dinero.formatear(saldo));
+            JOptionPane.showMessageDialog(this, mensaje, "Saldo Actual", JOptionPane.INFORMATION_MESSAGE);
+        });
     }
     
-    private void volverAlMain() {
-        cardLayout.show(cards, "MAIN");
+    private void mostrarErrorOperacion(ResultadoOperacion r) {
+        if (r == ResultadoOperacion.SIN_SESION) {
+            sesionExpirada();
+            return;
+        }
+        JOptionPane.showMessageDialog(this, r.mensaje(), "Error", JOptionPane.ERROR_MESSAGE);
     }
 
-    private SubCuenta buscarSubCuentaPorNumero(String numero) {
-        for (Persona p : personasPorDni.values()) {
-            for (SubCuenta sc : p.cuentas.values()) {
-                if (sc.numero.equalsIgnoreCase(numero)) return sc;
-            }
-        }
-        return null;
+    // El servicio cerró la sesión por inactividad: volver al login
+    private void sesionExpirada() {
+        JOptionPane.showMessageDialog(this, "Su sesión expiró por inactividad. Vuelva a ingresar.", "Sesión expirada", JOptionPane.WARNING_MESSAGE);
+        logout();
+    }
+
+    private void mostrarErrorConexion(IOException ex) {
+        JOptionPane.showMessageDialog(this, "Se perdió la conexión con el banco:\n" + ex.getMessage(), "Error de conexión", JOptionPane.ERROR_MESSAGE);
+    }
+
+    private void volverAlMain() {
+        cardLayout.show(cards, "MAIN");
     }
 
     private void pedirCodigoYMostrarMisDosSaldos() {
-        if (personaActiva == null) return;
+        if (sesion == null) return;
         String codigo = JOptionPane.showInputDialog(this, "Ingrese el código para ver sus dos saldos:", "Código requerido", JOptionPane.PLAIN_MESSAGE);
         if (codigo == null) return;
-        if (!codigo.equals(CODIGO_SECRET0)) {
-            JOptionPane.showMessageDialog(this, "Código incorrecto.", "Código inválido", JOptionPane.ERROR_MESSAGE);
+        PerfilCliente perfil = sesion.perfil;
+        llamarServicio(() -> servicio.saldos(codigo), (saldos, falla) -> {
+            if (falla != null) {
+                mostrarFalla(falla);
+                return;
+            }
+            if (saldos == null) {
+                JOptionPane.showMessageDialog(this, "Código incorrecto.", "Código inválido", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("Saldos de ").append(perfil.nombre).append(":\n\n");
+            for (int i = 0; i < saldos.length; i++) {
+                PerfilCliente.CuentaPerfil cp = perfil.cuentas.get(i);
+                sb.append(String.format("%s (%s): S/ %s\n", cp.tipo, cp.numero, Dinero.formatear(saldos[i])));
+            }
+            JOptionPane.showMessageDialog(this, sb.toString(), "Mis saldos", JOptionPane.INFORMATION_MESSAGE);
+        });
+    }
+
+    private void mostrarUltimosMovimientos() {
+        if (sesion == null || sesion.cuentaSeleccionada == null) return;
+        String cuenta = sesion.cuentaSeleccionada.numero;
+        llamarServicio(() -> servicio.movimientos(cuenta, 0, MOVIMIENTOS_EXTRACTO), (movimientos, falla) -> {
+            if (falla != null) mostrarFalla(falla);
+            else mostrarExtracto(cuenta, movimientos);
+        });
+    }
+
+    private void mostrarExtracto(String cuenta, java.util.List<ServicioCajero.Movimiento> movimientos) {
+        if (movimientos.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "La cuenta " + cuenta + " no tiene movimientos.",
+                    "Últimos movimientos", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
 
         StringBuilder sb = new StringBuilder();
-        sb.append("Saldos de ").append(personaActiva.nombre).append(":\n\n");
-        for (SubCuenta sc : personaActiva.cuentas.values()) {
-            sb.append(String.format("%s (%s): S/ %s\n", sc.tipo, sc.numero, df.format(sc.saldo)));
+        for (ServicioCajero.Movimiento m : movimientos) {
+            String detalle = m.contraparte == null ? "Efectivo" : (m.monto < 0 ? "a " : "de ") + m.contraparte;
+            sb.append(String.format("%s  %-13s %-12s %s S/ %s%n", FORMATO_FECHA.format(Instant.ofEpochMilli(m.fecha)),
+                    m.tipo.etiqueta(), detalle, m.monto < 0 ? "-" : "+", Dinero.formatear(Math.abs(m.monto))));
         }
-        JOptionPane.showMessageDialog(this, sb.toString(), "Mis saldos", JOptionPane.INFORMATION_MESSAGE);
+        JTextArea texto = new JTextArea(sb.toString());
+        texto.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        texto.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(texto),
+                "Últimos movimientos - " + cuenta, JOptionPane.INFORMATION_MESSAGE);
     }
 
     private void logout() {
-        // Detener timer si está corriendo
-        if (timerDeposito != null && timerDeposito.isRunning()) {
-            timerDeposito.stop();
-        }
+        // Ignorar el avance de un depósito en curso (el depósito en sí termina igual)
+        depositoActual++;
         
-        personaActiva = null;
-        cuentaSeleccionada = null;
-        saldoVisible = false;
+        if (sesion != null) {
+            RetiroPendiente p = retiroPendiente;
+            retiroPendiente = null;
+            // Ingresar queda deshabilitado hasta que el banco cierre esta sesión
+            llamarServicio(() -> {
+                if (p != null) retenerRetiroPendiente(p);
+                try {
+                    servicio.cerrarSesion();
+                } catch (IOException ignored) {
+                    // el servidor descarta la sesión al cerrarse la conexión
+                }
+                return null;
+            }, (nada, falla) -> {
+                if (falla != null) System.err.println("No se pudo cerrar la sesión: " + falla);
+            });
+        }
+        sesion = null;
         lblBienvenida.setText("Usuario: -");
         lblCuentaNumero.setText("Cuenta: -");
         lblSaldo.setText("Saldo: ****");
@@ -776,6 +1380,7 @@ public class CajeroBancoAvanzado extends JFrame {
         tfMontoToOther.setText("");
         tfDestinoCuenta.setText("");
         tfMontoDepositoEfectivo.setText("");
+        tfMontoRetiro.setText("");
         
         cardLayout.show(cards, "LOGIN");
     }
@@ -786,6 +1391,7 @@ public class CajeroBancoAvanzado extends JFrame {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception ignored) {}
 
+        // MetricasCajero.publicar() (JMX) lo hace el hilo de arranque, sin demorar la primera pintura
         SwingUtilities.invokeLater(() -> {
             CajeroBancoAvanzado app = new CajeroBancoAvanzado();
             app.setVisible(true);
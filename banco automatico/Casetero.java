@@ -0,0 +1,235 @@
+import java.util.Arrays;
+
+/**
+ * Casetero.java
+ *
+ * Inventario de billetes de un terminal (un casete por denominación) y el armado de la
+ * combinación que entrega un retiro.
+ *
+ * - La combinación usa la menor cantidad de billetes posible con las existencias actuales
+ *   (hasta {@link #MAX_BILLETES} por retiro, lo que cabe en la bandeja).
+ * - Programación dinámica acotada sobre el monto en unidades del máximo común divisor de
+ *   las denominaciones (S/ 10 con los billetes de siempre): cada casete se parte en bloques
+ *   de 1, 2, 4, ... billetes y se resuelve como mochila 0/1 de costo mínimo. Las tablas de
+ *   trabajo se crean una vez: combinar no reserva memoria salvo el resultado.
+ * - El billete mayor no entra en la mochila: si en una combinación óptima sobra alguno sin
+ *   usar, los menores no pueden sumar un canje (d1/mcd billetes de d que valen lo mismo que
+ *   d/mcd billetes de d1, pero son más). Eso acota lo que pagan los menores (se precalcula
+ *   al crear el casetero), así que solo se prueban las últimas cantidades de billetes mayores
+ *   y la mochila se resuelve hasta ese resto, no hasta el monto. Con S/ 200 como mayor, el
+ *   resto no pasa de ~S/ 1000 aunque se pidan S/ 8000.
+ * - {@link #reservar} calcula y descuenta los billetes bajo el mismo monitor; si después el
+ *   débito de la cuenta no se hace, {@link #devolver} los repone. Así dos retiros no se
+ *   prometen los mismos billetes y nunca se debita sin tener el efectivo apartado.
+ *
+ * Los contadores viven en memoria: se cargan al arrancar el terminal (como al reponer los
+ * casetes) con -Dcajero.casetes=soles:billetes,... (por defecto {@value #POR_DEFECTO}).
+ */
+final class Casetero {
+
+    static final int MAX_BILLETES = 40;
+    static final String POR_DEFECTO = "200:100,100:200,50:200,20:300,10:300";
+
+    private static final int INALCANZABLE = Integer.MAX_VALUE / 2;
+
+    private final long[] denominaciones; // céntimos, de mayor a menor
+    private final int[] existencias;
+    private final long unidad;           // máximo común divisor de las denominaciones
+    private final int[] pesos;           // denominación en unidades
+    private final int maxUnidades;       // el mayor monto que cabe en la bandeja, en unidades
+    private final int restoSinCanje;     // lo más que pagan los menores sin admitir un canje por mayores
+    private final int canjeMaximo;       // billetes mayores de un canje, el máximo entre las denominaciones
+
+    // Tablas de trabajo del solver (solo se usan con el monitor tomado)
+    private final int[] minimos;         // minimos[a] = menos billetes para a unidades con los bloques vistos
+    private final long[] elegidos;       // bit (bloque, a): el bloque mejoró minimos[a]
+    private final int palabras;          // longs de elegidos por bloque
+    private final int[] bloqueCasete;
+    private final int[] bloqueBilletes;
+
+    Casetero(long[] denominaciones, int[] existencias) {
+        int k = denominaciones.length;
+        if (k == 0 || existencias.length != k) throw new IllegalArgumentException("Casetes inválidos");
+        Integer[] orden = new Integer[k];
+        for (int i = 0; i < k; i++) orden[i] = i;
+        Arrays.sort(orden, (a, b) -> Long.compare(denominaciones[b], denominaciones[a]));
+        this.denominaciones = new long[k];
+        this.existencias = new int[k];
+        long mcd = 0;
+        for (int i = 0; i < k; i++) {
+            long d = denominaciones[orden[i]];
+            if (d <= 0 || existencias[orden[i]] < 0) throw new IllegalArgumentException("Casete inválido: " + d);
+            if (i > 0 && d == this.denominaciones[i - 1]) throw new IllegalArgumentException("Denominación repetida: " + d);
+            this.denominaciones[i] = d;
+            this.existencias[i] = existencias[orden[i]];
+            mcd = mcd(mcd, d);
+        }
+        this.unidad = mcd;
+        this.pesos = new int[k];
+        for (int i = 0; i < k; i++) pesos[i] = Math.toIntExact(this.denominaciones[i] / mcd);
+        this.maxUnidades = Math.multiplyExact(MAX_BILLETES, pesos[0]);
+        int resto = 0;
+        int canje = 1;
+        for (int i = 1; i < k; i++) {
+            int g = (int) mcd(pesos[0], pesos[i]);
+            resto = Math.addExact(resto, Math.multiplyExact(pesos[0] / g - 1, pesos[i]));
+            canje = Math.max(canje, pesos[i] / g);
+        }
+        this.restoSinCanje = resto;
+        this.canjeMaximo = canje;
+
+        int bloquesPorCasete = 32 - Integer.numberOfLeadingZeros(MAX_BILLETES);
+        this.bloqueCasete = new int[k * bloquesPorCasete];
+        this.bloqueBilletes = new int[k * bloquesPorCasete];
+        this.minimos = new int[maxUnidades + 1];
+        this.palabras = (maxUnidades >>> 6) + 1;
+        this.elegidos = new long[bloqueCasete.length * palabras];
+    }
+
+    /** Desde las propiedades del sistema (-Dcajero.casetes). */
+    static Casetero porDefecto() {
+        return parsear(System.getProperty("cajero.casetes", POR_DEFECTO));
+    }
+
+    /** "soles:billetes,soles:billetes,..." p. ej. "200:100,100:200,50:200". */
+    static Casetero parsear(String texto) {
+        String[] partes = texto.split(",");
+        long[] denominaciones = new long[partes.length];
+        int[] existencias = new int[partes.length];
+        for (int i = 0; i < partes.length; i++) {
+            String p = partes[i].trim();
+            int sep = p.indexOf(':');
+            if (sep <= 0) throw new IllegalArgumentException("Se espera soles:billetes: " + p);
+            denominaciones[i] = Dinero.aCentimos(p.substring(0, sep).trim());
+            existencias[i] = Integer.parseInt(p.substring(sep + 1).trim());
+        }
+        return new Casetero(denominaciones, existencias);
+    }
+
+    /** Denominaciones en céntimos, de mayor a menor (el orden de los arreglos de billetes). */
+    long[] denominaciones() {
+        return denominaciones.clone();
+    }
+
+    synchronized int[] existencias() {
+        return existencias.clone();
+    }
+
+    /** Efectivo que queda en los casetes, en céntimos. */
+    synchronized long efectivo() {
+        long total = 0;
+        for (int i = 0; i < existencias.length; i++) total += denominaciones[i] * existencias[i];
+        return total;
+    }
+
+    /**
+     * Calcula la combinación y descuenta esos billetes de los casetes. Devuelve los billetes
+     * por denominación, o null si el monto no se puede entregar con lo que hay.
+     */
+    synchronized int[] reservar(long monto) {
+        int[] billetes = combinar(monto);
+        if (billetes == null) return null;
+        for (int i = 0; i < billetes.length; i++) existencias[i] -= billetes[i];
+        return billetes;
+    }
+
+    /** Repone billetes reservados que al final no se entregaron. */
+    synchronized void devolver(int[] billetes) {
+        for (int i = 0; i < billetes.length; i++) existencias[i] += billetes[i];
+    }
+
+    /** Carga de casetes: suma los billetes indicados (mismo orden que {@link #denominaciones()}). */
+    synchronized void reponer(int[] billetes) {
+        if (billetes.length != existencias.length) throw new IllegalArgumentException("Cantidad de casetes distinta");
+        for (int b : billetes) if (b < 0) throw new IllegalArgumentException("Billetes negativos");
+        devolver(billetes);
+    }
+
+    /**
+     * La combinación con menos billetes para el monto según las existencias actuales, sin
+     * descontarla; null si no hay ninguna dentro de {@link #MAX_BILLETES}.
+     */
+    synchronized int[] combinar(long monto) {
+        if (monto <= 0 || monto % unidad != 0 || monto / unidad > maxUnidades) return null;
+        int total = (int) (monto / unidad);
+
+        // billetes mayores: de "todos los que caben" hacia abajo, mientras los menores puedan pagar el resto sin canje
+        int mayor = pesos[0];
+        int maxMayores = Math.min(Math.min(existencias[0], MAX_BILLETES), total / mayor);
+        int sinCanje = (total - restoSinCanje + mayor - 1) / mayor;
+        int minMayores = Math.max(0, Math.min(sinCanje, maxMayores - canjeMaximo + 1));
+        int objetivo = total - minMayores * mayor;
+
+        // bloques 1, 2, 4, ... (y el resto) de cada casete menor: cualquier cantidad hasta el tope es suma de bloques
+        int bloques = 0;
+        for (int i = 1; i < pesos.length; i++) {
+            int disponibles = Math.min(Math.min(existencias[i], MAX_BILLETES), objetivo / pesos[i]);
+            for (int m = 1; disponibles > 0; m <<= 1) {
+                int b = Math.min(m, disponibles);
+                bloqueCasete[bloques] = i;
+                bloqueBilletes[bloques++] = b;
+                disponibles -= b;
+            }
+        }
+
+        Arrays.fill(minimos, 1, objetivo + 1, INALCANZABLE);
+        minimos[0] = 0;
+        int usadas = (objetivo >>> 6) + 1;
+        for (int j = 0; j < bloques; j++) {
+            int base = j * palabras;
+            Arrays.fill(elegidos, base, base + usadas, 0L);
+            int m = bloqueBilletes[j];
+            int w = m * pesos[bloqueCasete[j]];
+            for (int a = objetivo; a >= w; a--) {
+                int v = minimos[a - w] + m;
+                if (v < minimos[a]) {
+                    minimos[a] = v;
+                    elegidos[base + (a >>> 6)] |= 1L << a;
+                }
+            }
+        }
+        // la tabla vale para todos los restos hasta el objetivo; en empate, más billetes mayores
+        int mayores = -1;
+        int mejor = MAX_BILLETES + 1;
+        for (int x = maxMayores; x >= minMayores; x--) {
+            int v = x + minimos[total - x * mayor];
+            if (v < mejor) {
+                mejor = v;
+                mayores = x;
+            }
+        }
+        if (mayores < 0) return null;
+
+        // de atrás hacia adelante: el bit dice si el bloque entró en el óptimo de ese monto
+        int[] billetes = new int[pesos.length];
+        billetes[0] = mayores;
+        int a = total - mayores * mayor;
+        for (int j = bloques - 1; j >= 0 && a > 0; j--) {
+            if ((elegidos[j * palabras + (a >>> 6)] & (1L << a)) != 0) {
+                billetes[bloqueCasete[j]] += bloqueBilletes[j];
+                a -= bloqueBilletes[j] * pesos[bloqueCasete[j]];
+            }
+        }
+        return billetes;
+    }
+
+    /** "2 x S/ 100.00 + 1 x S/ 50.00" */
+    String describir(int[] billetes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < billetes.length; i++) {
+            if (billetes[i] == 0) continue;
+            if (sb.length() > 0) sb.append(" + ");
+            sb.append(billetes[i]).append(" x S/ ").append(Dinero.formatear(denominaciones[i]));
+        }
+        return sb.toString();
+    }
+
+    private static long mcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,274 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ClienteCajero.java
+ *
+ * Terminal remoto: implementa {@link ServicioCajero} hablando con un {@link ServidorCajero}
+ * por el protocolo de líneas. Una solicitud en vuelo a la vez por conexión.
+ *
+ * Si una transferencia, un depósito, un retiro o una programación no recibe respuesta (timeout o conexión caída), el
+ * cliente abre otra conexión, reanuda la sesión con su token y reenvía la solicitud con el
+ * mismo id de operación: el servidor devuelve el resultado original si ya la había aplicado.
+ * Timeout de respuesta: -Dcajero.timeoutMs (por defecto 10000).
+ *
+ * Con el ledger particionado se le pasan todos los servidores ("h1:p1,h2:p2"): el login
+ * prueba cada uno hasta dar con la partición del cliente y el resto de la sesión sigue ahí.
+ * Si un servidor no acepta la conexión se prueba el siguiente de la lista: con una réplica
+ * en espera ("primario,réplica", ver {@link ReplicacionDiario}) el terminal pasa solo a la
+ * réplica promovida, donde hay que volver a hacer LOGIN (las sesiones no se replican).
+ */
+final class ClienteCajero implements ServicioCajero {
+
+    static final int TIMEOUT_MS = Integer.getInteger("cajero.timeoutMs", 10_000);
+    static final int REINTENTOS = 2;
+
+    private final InetSocketAddress[] servidores;
+    private int actual; // servidor de la conexión (y de la sesión)
+    // conexión actual; null después de un error hasta el próximo reintento
+    private Socket socket;
+    private BufferedReader entrada;
+    private Writer salida;
+    private long token; // sesión en el servidor (0 = sin sesión)
+
+    ClienteCajero(InetSocketAddress... servidores) throws IOException {
+        this.servidores = servidores.clone();
+        abrirConexion();
+    }
+
+    // Conecta al servidor actual o, si no acepta, al siguiente de la lista
+    private void abrirConexion() throws IOException {
+        for (int i = 0; ; i++) {
+            try {
+                abrirConexion(servidores[actual]);
+                return;
+            } catch (IOException e) {
+                if (i == servidores.length - 1) throw e;
+                actual = (actual + 1) % servidores.length;
+            }
+        }
+    }
+
+    private void abrirConexion(InetSocketAddress servidor) throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(servidor, 5000);
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(TIMEOUT_MS);
+            entrada = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            salida = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        socket = s;
+    }
+
+    /** Acepta "host:puerto" o solo "host" (puerto por defecto), o varios separados por comas. */
+    static ClienteCajero conectar(String direcciones) throws IOException {
+        String[] partes = direcciones.split(",");
+        InetSocketAddress[] servidores = new InetSocketAddress[partes.length];
+        for (int j = 0; j < partes.length; j++) {
+            String direccion = partes[j].trim();
+            int i = direccion.lastIndexOf(':');
+            servidores[j] = i < 0 ? new InetSocketAddress(direccion, ServidorCajero.PUERTO_POR_DEFECTO)
+                    : new InetSocketAddress(direccion.substring(0, i), Integer.parseInt(direccion.substring(i + 1)));
+        }
+        return new ClienteCajero(servidores);
+    }
+
+    @Override
+    public synchronized PerfilCliente iniciarSesion(String dni, String password) throws IOException {
+        String[] r = solicitar("LOGIN", dni, password);
+        // el cliente puede ser de otra partición: probar los demás servidores
+        for (int i = 1; i < servidores.length && !r[0].equals("OK"); i++) {
+            descartarConexion();
+            token = 0;
+            actual = (actual + 1) % servidores.length;
+            r = solicitar("LOGIN", dni, password);
+        }
+        if (!r[0].equals("OK")) return null;
+        token = Long.parseLong(r[2]);
+        List<PerfilCliente.CuentaPerfil> lista = new ArrayList<>();
+        for (int i = 3; i < r.length; i++) {
+            int sep = r[i].indexOf(':');
+            lista.add(new PerfilCliente.CuentaPerfil(TipoCuenta.valueOf(r[i].substring(0, sep)), r[i].substring(sep + 1)));
+        }
+        return new PerfilCliente(r[1], dni, lista);
+    }
+
+    @Override
+    public void cerrarSesion() throws IOException {
+        token = 0;
+        solicitar("LOGOUT");
+    }
+
+    @Override
+    public long saldo(String numero) throws IOException {
+        String[] r = solicitar("SALDO", numero);
+        if (!r[0].equals("OK")) throw new IllegalStateException(resultado(r).mensaje());
+        return Long.parseLong(r[1]);
+    }
+
+    @Override
+    public long[] saldos(String codigo) throws IOException {
+        String[] r = solicitar("SALDOS", codigo);
+        if (!r[0].equals("OK")) {
+            if (resultado(r) == ResultadoOperacion.CODIGO_INCORRECTO) return null;
+            throw new IllegalStateException(resultado(r).mensaje());
+        }
+        long[] saldos = new long[r.length - 1];
+        for (int i = 0; i < saldos.length; i++) saldos[i] = Long.parseLong(r[i + 1]);
+        return saldos;
+    }
+
+    @Override
+    public ResultadoOperacion transferir(String origen, String destino, long monto, String codigo, long idOperacion)
+            throws IOException {
+        String[] campos = {"TRANSFERIR", origen, destino, Long.toString(monto), codigo == null ? "" : codigo,
+                Long.toString(idOperacion)};
+        return resultado(idOperacion == 0 ? solicitar(campos) : solicitarConReintentos(campos));
+    }
+
+    @Override
+    public synchronized ResultadoOperacion depositar(String numero, long monto, long idOperacion, AvanceDeposito avance)
+            throws IOException {
+        avance.etapa(33, "Procesando depósito...");
+        for (int intento = 0; ; intento++) {
+            try {
+                if (socket == null) reconectar();
+                enviar("DEPOSITO", numero, Long.toString(monto), Long.toString(idOperacion));
+                avance.etapa(66, "Confirmando transacción...");
+                return resultado(recibir());
+            } catch (IOException e) {
+                descartarConexion();
+                if (intento == REINTENTOS || idOperacion == 0) throw e;
+            }
+        }
+    }
+
+    @Override
+    public ResultadoOperacion retirar(String numero, long monto, long idOperacion) throws IOException {
+        String[] campos = {"RETIRO", numero, Long.toString(monto), Long.toString(idOperacion)};
+        return resultado(idOperacion == 0 ? solicitar(campos) : solicitarConReintentos(campos));
+    }
+
+    @Override
+    public ResultadoOperacion programar(String origen, String destino, long monto, long primera,
+                                        TransferenciasProgramadas.Periodicidad periodicidad, String codigo,
+                                        long idOperacion) throws IOException {
+        String[] campos = {"PROGRAMAR", origen, destino, Long.toString(monto), Long.toString(primera), periodicidad.name(),
+                codigo == null ? "" : codigo, Long.toString(idOperacion)};
+        return resultado(idOperacion == 0 ? solicitar(campos) : solicitarConReintentos(campos));
+    }
+
+    @Override
+    public List<OrdenProgramada> programadas() throws IOException {
+        String[] r = solicitar("PROGRAMADAS");
+        if (!r[0].equals("OK")) throw new IllegalStateException(resultado(r).mensaje());
+        List<OrdenProgramada> lista = new ArrayList<>();
+        for (int i = 1; i + 5 < r.length; i += 6) {
+            lista.add(new OrdenProgramada(Long.parseLong(r[i]), r[i + 1], r[i + 2], Long.parseLong(r[i + 3]),
+                    Long.parseLong(r[i + 4]), TransferenciasProgramadas.Periodicidad.valueOf(r[i + 5])));
+        }
+        return lista;
+    }
+
+    @Override
+    public ResultadoOperacion cancelarProgramada(long idOrden) throws IOException {
+        return resultado(solicitar("CANCELAR_PROGRAMADA", Long.toString(idOrden)));
+    }
+
+    @Override
+    public List<Movimiento> movimientos(String numero, int saltar, int maximo) throws IOException {
+        String[] r = solicitar("MOVIMIENTOS", numero, Integer.toString(saltar), Integer.toString(maximo));
+        if (!r[0].equals("OK")) throw new IllegalStateException(resultado(r).mensaje());
+        List<Movimiento> lista = new ArrayList<>();
+        for (int i = 1; i + 3 < r.length; i += 4) {
+            lista.add(new Movimiento(Long.parseLong(r[i]), TipoMovimiento.valueOf(r[i + 1]),
+                    r[i + 2].isEmpty() ? null : r[i + 2], Long.parseLong(r[i + 3])));
+        }
+        return lista;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (socket != null) socket.close();
+    }
+
+    private synchronized String[] solicitar(String... campos) throws IOException {
+        try {
+            if (socket == null) reconectar();
+            enviar(campos);
+            return recibir();
+        } catch (IOException e) {
+            descartarConexion();
+            throw e;
+        }
+    }
+
+    // Solo para solicitudes con id de operación: reenviarlas no las aplica dos veces
+    private synchronized String[] solicitarConReintentos(String... campos) throws IOException {
+        for (int intento = 0; ; intento++) {
+            try {
+                return solicitar(campos);
+            } catch (IOException e) {
+                if (intento == REINTENTOS) throw e;
+            }
+        }
+    }
+
+    // Nueva conexión; si había sesión se reanuda (si expiró, la operación responderá SIN_SESION)
+    private void reconectar() throws IOException {
+        abrirConexion();
+        if (token == 0) return;
+        enviar("REANUDAR", Long.toString(token));
+        if (!recibir()[0].equals("OK")) token = 0;
+    }
+
+    // Una respuesta tardía en esta conexión ya no corresponde a nada: se cierra
+    private void descartarConexion() {
+        Socket s = socket;
+        socket = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private synchronized void enviar(String... campos) throws IOException {
+        for (int i = 0; i < campos.length; i++) {
+            if (i > 0) salida.write('\t');
+            salida.write(campos[i]);
+        }
+        salida.write('\n');
+        salida.flush();
+    }
+
+    private synchronized String[] recibir() throws IOException {
+        String linea = entrada.readLine();
+        if (linea == null) throw new EOFException("El servidor cerró la conexión");
+        return linea.split("\t", -1);
+    }
+
+    private static ResultadoOperacion resultado(String[] r) {
+        if (r[0].equals("OK")) return ResultadoOperacion.EXITOSA;
+        try {
+            return ResultadoOperacion.valueOf(r[1]);
+        } catch (RuntimeException e) {
+            return ResultadoOperacion.ERROR_INTERNO;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ConciliacionDiaria.java
+ *
+ * Conciliación de fin de día y auditoría de conservación del dinero, en paralelo
+ * (fork/join) y sin detener el cajero:
+ *
+ * 1. Cierre: {@link Ledger#capturar()} da un corte consistente (saldos + secuencia del
+ *    diario); después de la copia las operaciones siguen normalmente.
+ * 2. Apertura: el corte del cierre anterior, guardado en "apertura.bin" con el formato de
+ *    {@link Instantanea} (solo se leen la secuencia y la columna de saldos).
+ * 3. Movimientos del día: los registros del diario en (apertura, cierre] se leen por
+ *    tramos en paralelo y se acumula el neto de cada cuenta en páginas de AtomicLongArray.
+ *    Lo que entra al banco (origen &lt; 0, p. ej. depósitos) y lo que sale (destino &lt; 0)
+ *    se suma aparte; las transferencias entre cuentas no cambian el total. Con varias
+ *    particiones, lo enviado a otra cuenta como SALIDA_PREPARADA sale y lo recibido entra.
+ * 4. Cuentas: se recorren por rangos en paralelo comparando
+ *    apertura + neto del día == cierre, y se marcan los saldos negativos.
+ *    Las cuentas abiertas durante el día no tienen apertura: parten del saldo con que se
+ *    abrieron, anotado como alta del día en el almacén ({@link AlmacenCuentas#altas()},
+ *    persistido en la instantánea), y se suma como "altas". Una cuenta nueva sin alta
+ *    anotada parte de cero.
+ * 5. Conservación: total de cierre == total de apertura + altas + entradas - salidas.
+ *
+ * El informe se escribe como texto en "conciliaciones/conciliacion-&lt;fecha&gt;.txt".
+ * {@link PersistenciaBanco#cerrarDia()} ejecuta todo esto y deja el cierre como apertura
+ * del día siguiente; el diario no se recorta más allá de esa apertura.
+ *
+ * Uso (con el cajero detenido): java ConciliacionDiaria [dirDatos]
+ */
+final class ConciliacionDiaria {
+
+    static final String APERTURA = "apertura.bin";
+    static final String DIR_INFORMES = "conciliaciones";
+    /** Cuántas cuentas observadas se detallan en el informe (el conteo siempre es completo). */
+    static final int MAX_DETALLADAS = 100;
+
+    private static final int REGISTROS_POR_TRAMO = 1 << 17;
+    private static final DateTimeFormatter FORMATO_ARCHIVO = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private ConciliacionDiaria() {
+    }
+
+    /** Cuenta que no cuadra o quedó en negativo. */
+    static final class Observacion {
+        final int id;
+        final long apertura; // Long.MIN_VALUE si la cuenta se abrió en el día
+        final long netoDia;
+        final long cierre;
+
+        Observacion(int id, long apertura, long netoDia, long cierre) {
+            this.id = id;
+            this.apertura = apertura;
+            this.netoDia = netoDia;
+            this.cierre = cierre;
+        }
+    }
+
+    static final class Informe {
+        final LocalDateTime fecha;
+        final long secuenciaApertura;
+        final long secuenciaCierre;
+        final int cuentasApertura;
+        final int cuentasCierre;
+        final long[] registrosPorTipo; // por TipoMovimiento.ordinal()
+        final long entradas;
+        final long salidas;
+        final long totalApertura;
+        final long altas;
+        final long totalCierre;
+        final int descuadradas;
+        final int negativas;
+        final List<Observacion> detalleDescuadradas;
+        final List<Observacion> detalleNegativas;
+        final long msDiario;
+        final long msCuentas;
+
+        private Informe(LocalDateTime fecha, Ledger.Captura apertura, Ledger.Captura cierre, Movimientos m, Cuadre c,
+                        List<Observacion> descuadradas, List<Observacion> negativas, long msDiario, long msCuentas) {
+            this.fecha = fecha;
+            this.secuenciaApertura = apertura.secuencia;
+            this.secuenciaCierre = cierre.secuencia;
+            this.cuentasApertura = apertura.cantidad;
+            this.cuentasCierre = cierre.cantidad;
+            this.registrosPorTipo = m.porTipo;
+            this.entradas = m.entradas;
+            this.salidas = m.salidas;
+            this.totalApertura = c.totalApertura;
+            this.altas = c.altas;
+            this.totalCierre = c.totalCierre;
+            this.descuadradas = c.descuadradas;
+            this.negativas = c.negativas;
+            this.detalleDescuadradas = descuadradas;
+            this.detalleNegativas = negativas;
+            this.msDiario = msDiario;
+            this.msCuentas = msCuentas;
+        }
+
+        long esperado() {
+            return totalApertura + altas + entradas - salidas;
+        }
+
+        long diferencia() {
+            return totalCierre - esperado();
+        }
+
+        /** El total se conserva y cada cuenta cuadra con sus movimientos (los negativos se reportan aparte). */
+        boolean cuadra() {
+            return diferencia() == 0 && descuadradas == 0;
+        }
+
+        String texto(AlmacenCuentas almacen) {
+            StringBuilder sb = new StringBuilder(4096);
+            sb.append("Conciliación de fin de día - ").append(FORMATO_FECHA.format(fecha)).append('\n');
+            sb.append("Diario: secuencias ").append(secuenciaApertura + 1).append(" a ").append(secuenciaCierre).append('\n');
+            sb.append("Cuentas: ").append(cuentasCierre)
+                    .append(" (abiertas en el día: ").append(cuentasCierre - cuentasApertura).append(")\n");
+            sb.append("Movimientos:");
+            for (TipoMovimiento t : TipoMovimiento.values()) {
+                sb.append(' ').append(t.etiqueta()).append(' ').append(registrosPorTipo[t.ordinal()]).append(';');
+            }
+            sb.setLength(sb.length() - 1);
+            sb.append("\n\n");
+            linea(sb, "Saldo de apertura", totalApertura);
+            linea(sb, "+ Altas de cuentas", altas);
+            linea(sb, "+ Entradas", entradas);
+            linea(sb, "- Salidas", salidas);
+            linea(sb, "= Esperado", esperado());
+            linea(sb, "Saldo de cierre", totalCierre);
+            linea(sb, "Diferencia", diferencia());
+            sb.append('\n').append(cuadra() ? "RESULTADO: CUADRA" : "RESULTADO: NO CUADRA").append('\n');
+            sb.append("Cuentas descuadradas: ").append(descuadradas).append('\n');
+            detalle(sb, almacen, detalleDescuadradas, descuadradas);
+            sb.append("Cuentas con saldo negativo: ").append(negativas).append('\n');
+            detalle(sb, almacen, detalleNegativas, negativas);
+            sb.append("\nTiempo: diario ").append(msDiario).append(" ms, cuentas ").append(msCuentas).append(" ms\n");
+            return sb.toString();
+        }
+
+        /** Escribe el informe en dir/conciliaciones y devuelve la ruta. */
+        Path escribir(Path dir, AlmacenCuentas almacen) throws IOException {
+            Path carpeta = dir.resolve(DIR_INFORMES);
+            Files.createDirectories(carpeta);
+            Path archivo = carpeta.resolve("conciliacion-" + FORMATO_ARCHIVO.format(fecha) + ".txt");
+            try (BufferedWriter w = Files.newBufferedWriter(archivo, StandardCharsets.UTF_8)) {
+                w.write(texto(almacen));
+            }
+            return archivo;
+        }
+
+        private static void linea(StringBuilder sb, String concepto, long centimos) {
+            sb.append(String.format("%-20s S/ %20s%n", concepto, Dinero.formatear(centimos)));
+        }
+
+        private static void detalle(StringBuilder sb, AlmacenCuentas almacen, List<Observacion> lista, int total) {
+            for (Observacion o : lista) {
+                sb.append("  ").append(almacen.numero(o.id))
+                        .append("  apertura ").append(o.apertura == Long.MIN_VALUE ? "(nueva)" : Dinero.formatear(o.apertura))
+                        .append("  neto del día ").append(Dinero.formatear(o.netoDia))
+                        .append("  cierre ").append(Dinero.formatear(o.cierre)).append('\n');
+            }
+            if (total > lista.size()) sb.append("  ... y ").append(total - lista.size()).append(" más\n");
+        }
+    }
+
+    /**
+     * Concilia dos cortes con el diario de dir, usando todos los núcleos.
+     * El diario debe conservar los segmentos desde la secuencia de apertura; {@code altas}
+     * tiene el saldo inicial de las cuentas abiertas entre los dos cortes.
+     */
+    static Informe conciliar(Path dir, Ledger.Captura apertura, Ledger.Captura cierre, Map<Integer, Long> altas)
+            throws IOException {
+        if (cierre.secuencia < apertura.secuencia || cierre.cantidad < apertura.cantidad) {
+            throw new IOException("El cierre es anterior a la apertura");
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        LocalDateTime fecha = LocalDateTime.now();
+
+        long t0 = System.nanoTime();
+        AtomicLongArray[] netos = new AtomicLongArray[cierre.saldos.length];
+        for (int p = 0; p < netos.length; p++) netos[p] = new AtomicLongArray(AlmacenCuentas.TAM_PAGINA);
+        List<LecturaTramo> tramos = tramos(dir, apertura.secuencia, cierre.secuencia, netos, cierre.cantidad);
+        Movimientos m = new Movimientos();
+        try {
+            for (LecturaTramo t : tramos) pool.execute(t);
+            for (LecturaTramo t : tramos) m.sumar(t.join());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (m.registros != cierre.secuencia - apertura.secuencia) {
+            throw new IOException("El diario tiene " + m.registros + " registros entre apertura y cierre; se esperaban "
+                    + (cierre.secuencia - apertura.secuencia));
+        }
+        long t1 = System.nanoTime();
+
+        ConcurrentLinkedQueue<Observacion> descuadradas = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Observacion> negativas = new ConcurrentLinkedQueue<>();
+        Cuadre c = pool.invoke(new RevisionCuentas(apertura, cierre, altas, netos, 0, cierre.cantidad,
+                descuadradas, new AtomicInteger(), negativas, new AtomicInteger()));
+        long t2 = System.nanoTime();
+
+        return new Informe(fecha, apertura, cierre, m, c, ordenar(descuadradas), ordenar(negativas),
+                (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000);
+    }
+
+    private static List<Observacion> ordenar(ConcurrentLinkedQueue<Observacion> cola) {
+        List<Observacion> lista = new ArrayList<>(cola);
+        lista.sort((a, b) -> Integer.compare(a.id, b.id));
+        return lista;
+    }
+
+    // --- Lectura del diario ---
+
+    /** Totales de un tramo del diario. */
+    private static final class Movimientos {
+        long registros;
+        final long[] porTipo = new long[TipoMovimiento.values().length];
+        long entradas;
+        long salidas;
+
+        void sumar(Movimientos o) {
+            registros += o.registros;
+            for (int i = 0; i < porTipo.length; i++) porTipo[i] += o.porTipo[i];
+            entradas += o.entradas;
+            salidas += o.salidas;
+        }
+    }
+
+    /** Parte los segmentos que cubren (desde, hasta] en tramos de tamaño fijo. */
+    private static List<LecturaTramo> tramos(Path dir, long desde, long hasta, AtomicLongArray[] netos, int cuentas)
+            throws IOException {
+        List<LecturaTramo> tramos = new ArrayList<>();
+        if (hasta == desde) return tramos;
+        List<Path> segmentos = DiarioTransacciones.segmentos(dir);
+        if (segmentos.isEmpty() || DiarioTransacciones.primeraSecuencia(segmentos.get(0)) > desde + 1) {
+            throw new IOException("Faltan segmentos del diario desde la secuencia " + (desde + 1));
+        }
+        for (int i = 0; i < segmentos.size(); i++) {
+            long primera = DiarioTransacciones.primeraSecuencia(segmentos.get(i));
+            long ultima = i + 1 < segmentos.size()
+                    ? DiarioTransacciones.primeraSecuencia(segmentos.get(i + 1)) - 1
+                    : primera + DiarioTransacciones.REGISTROS_POR_SEGMENTO - 1;
+            long inicio = Math.max(desde, primera - 1);
+            long fin = Math.min(hasta, ultima);
+            for (long s = inicio; s < fin; s += REGISTROS_POR_TRAMO) {
+                tramos.add(new LecturaTramo(segmentos.get(i), s, Math.min(fin, s + REGISTROS_POR_TRAMO), netos, cuentas));
+            }
+        }
+        return tramos;
+    }
+
+    private static final class LecturaTramo extends RecursiveTask<Movimientos> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path segmento;
+        private final long desde;
+        private final long hasta;
+        private final AtomicLongArray[] netos;
+        private final int cuentas;
+
+        LecturaTramo(Path segmento, long desde, long hasta, AtomicLongArray[] netos, int cuentas) {
+            this.segmento = segmento;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.netos = netos;
+            this.cuentas = cuentas;
+        }
+
+        @Override
+        protected Movimientos compute() {
+            Movimientos m = new Movimientos();
+            try {
+                m.registros = DiarioTransacciones.leerSegmento(segmento, desde, hasta, (secuencia, marcaTiempo, tipo, origen, destino, monto) -> {
+                    m.porTipo[tipo.ordinal()]++;
+                    if (!tipo.mueveSaldo()) return; // marcas del protocolo entre particiones
+                    if (origen >= cuentas || destino >= cuentas) return; // no puede pasar: el cierre cubre el diario
+                    if (origen < 0) m.entradas += monto;
+                    else sumarNeto(origen, -monto);
+                    if (destino < 0) m.salidas += monto;
+                    else sumarNeto(destino, monto);
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return m;
+        }
+
+        private void sumarNeto(int id, long monto) {
+            netos[id >>> AlmacenCuentas.BITS_PAGINA].getAndAdd(id & AlmacenCuentas.MASCARA_PAGINA, monto);
+        }
+    }
+
+    // --- Revisión de cuentas ---
+
+    /** Sumas de un rango de cuentas. */
+    private static final class Cuadre {
+        long totalApertura;
+        long altas;
+        long totalCierre;
+        int descuadradas;
+        int negativas;
+
+        Cuadre sumar(Cuadre o) {
+            totalApertura += o.totalApertura;
+            altas += o.altas;
+            totalCierre += o.totalCierre;
+            descuadradas += o.descuadradas;
+            negativas += o.negativas;
+            return this;
+        }
+    }
+
+    private static final class RevisionCuentas extends RecursiveTask<Cuadre> {
+        private static final long serialVersionUID = 1L;
+
+        private final Ledger.Captura apertura;
+        private final Ledger.Captura cierre;
+        private final Map<Integer, Long> altas;
+        private final AtomicLongArray[] netos;
+        private final int desde;
+        private final int hasta;
+        private final ConcurrentLinkedQueue<Observacion> descuadradas;
+        private final AtomicInteger detalladasDescuadre;
+        private final ConcurrentLinkedQueue<Observacion> negativas;
+        private final AtomicInteger detalladasNegativas;
+
+        RevisionCuentas(Ledger.Captura apertura, Ledger.Captura cierre, Map<Integer, Long> altas,
+                        AtomicLongArray[] netos, int desde, int hasta,
+                        ConcurrentLinkedQueue<Observacion> descuadradas, AtomicInteger detalladasDescuadre,
+                        ConcurrentLinkedQueue<Observacion> negativas, AtomicInteger detalladasNegativas) {
+            this.apertura = apertura;
+            this.cierre = cierre;
+            this.altas = altas;
+            this.netos = netos;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.descuadradas = descuadradas;
+            this.detalladasDescuadre = detalladasDescuadre;
+            this.negativas = negativas;
+            this.detalladasNegativas = detalladasNegativas;
+        }
+
+        @Override
+        protected Cuadre compute() {
+            if (hasta - desde > AlmacenCuentas.TAM_PAGINA) {
+                // partir en límites de página
+                int medio = ((desde + hasta) >>> 1) & ~AlmacenCuentas.MASCARA_PAGINA;
+                if (medio <= desde) medio = desde + AlmacenCuentas.TAM_PAGINA;
+                RevisionCuentas izquierda = sub(desde, medio);
+                izquierda.fork();
+                Cuadre derecha = sub(medio, hasta).compute();
+                return derecha.sumar(izquierda.join());
+            }
+            Cuadre c = new Cuadre();
+            for (int id = desde; id < hasta; id++) {
+                int p = id >>> AlmacenCuentas.BITS_PAGINA;
+                int i = id & AlmacenCuentas.MASCARA_PAGINA;
+                long saldoCierre = cierre.saldos[p][i];
+                long neto = netos[p].get(i);
+                boolean nueva = id >= apertura.cantidad;
+                long saldoApertura;
+                if (nueva) {
+                    Long alta = altas.get(id);
+                    saldoApertura = alta == null ? 0 : alta;
+                    c.altas += saldoApertura;
+                } else {
+                    saldoApertura = apertura.saldos[p][i];
+                    c.totalApertura += saldoApertura;
+                }
+                long informada = nueva ? Long.MIN_VALUE : saldoApertura; // ver Observacion.apertura
+                c.totalCierre += saldoCierre;
+                if (saldoApertura + neto != saldoCierre) {
+                    c.descuadradas++;
+                    anotar(descuadradas, detalladasDescuadre, new Observacion(id, informada, neto, saldoCierre));
+                }
+                if (saldoCierre < 0) {
+                    c.negativas++;
+                    anotar(negativas, detalladasNegativas, new Observacion(id, informada, neto, saldoCierre));
+                }
+            }
+            return c;
+        }
+
+        private RevisionCuentas sub(int desde, int hasta) {
+            return new RevisionCuentas(apertura, cierre, altas, netos, desde, hasta,
+                    descuadradas, detalladasDescuadre, negativas, detalladasNegativas);
+        }
+
+        private static void anotar(ConcurrentLinkedQueue<Observacion> cola, AtomicInteger detalladas, Observacion o) {
+            if (detalladas.getAndIncrement() < MAX_DETALLADAS) cola.add(o);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args.length > 0 ? args[0] : System.getProperty("cajero.datos", "datos"));
+        try (PersistenciaBanco persistencia = PersistenciaBanco.abrir(dir, Durabilidad.POR_TRANSACCION,
+                CajeroBancoAvanzado::crearPersonasYCuentasDemo, 0)) {
+            Informe informe = persistencia.cerrarDia();
+            System.out.print(informe.texto(persistencia.ledger().almacen()));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * CuentasJson.java
+ *
+ * Importa/exporta el accounts.json del cajero en Python (cajero_automatico_completo.py):
+ *
+ *   {"numero": {"pin": "1234", "saldo": 150.0}, ...}
+ *
+ * Se lee y se escribe token por token, sin armar el documento en memoria, así un
+ * archivo de varios GB se migra con memoria constante (aparte de las cuentas creadas).
+ *
+ * Cada entrada importada se convierte en una Persona con DNI = número de cuenta,
+ * contraseña = PIN y una SubCuenta Corriente con ese número. Los saldos en float de
+ * Python se redondean al céntimo (mitad al par). Si ya hay un cliente con ese DNI la
+ * entrada se omite: registrarla reemplazaría al cliente (y su contraseña) por el importado.
+ *
+ * Uso:
+ *   java CuentasJson importar accounts.json [dirDatos]
+ *   java CuentasJson exportar accounts.json [dirDatos]
+ */
+final class CuentasJson {
+
+    private static final int TAM_BUFFER = 1 << 16;
+
+    private CuentasJson() {
+    }
+
+    static final class Resultado {
+        int importadas;
+        int repetidas; // números que ya existían en el Ledger (se dejan como están)
+        int conTitular; // números que coinciden con el DNI de un cliente existente (se omiten)
+    }
+
+    static Resultado importar(Reader in, Ledger ledger) throws IOException {
+        Tokenizador t = new Tokenizador(in);
+        Resultado r = new Resultado();
+        t.esperar('{');
+        if (t.siguienteEs('}')) return r;
+        do {
+            String numero = t.cadena();
+            t.esperar(':');
+            String pin = null;
+            String saldo = "0";
+            t.esperar('{');
+            if (!t.siguienteEs('}')) {
+                do {
+                    String campo = t.cadena();
+                    t.esperar(':');
+                    if ("pin".equals(campo)) {
+                        pin = t.escalar();
+                    } else if ("saldo".equals(campo)) {
+                        saldo = t.escalar();
+                    } else {
+                        t.saltarValor();
+                    }
+                } while (t.siguienteEs(','));
+                t.esperar('}');
+            }
+            if (pin == null) throw new IOException("Cuenta sin pin: " + numero);
+
+            if (ledger.buscarCuenta(numero) != null) {
+                r.repetidas++;
+            } else if (ledger.buscarPersona(numero) != null) {
+                r.conTitular++;
+            } else {
+                Persona p = new Persona(numero, numero, pin);
+                p.agregarCuenta(ledger.abrirCuenta(TipoCuenta.CORRIENTE, numero, aCentimos(saldo)));
+                ledger.registrarPersona(p);
+                r.importadas++;
+            }
+        } while (t.siguienteEs(','));
+        t.esperar('}');
+        return r;
+    }
+
+    /** Escribe todas las cuentas con el esquema de Python (pin = contraseña del titular). */
+    static int exportar(Ledger ledger, Writer out) throws IOException {
+        int n = 0;
+        out.write('{');
+        for (Persona p : ledger.personas()) {
+            for (SubCuenta sc : p.cuentas()) {
+                if (n++ > 0) out.write(", ");
+                escribirCadena(out, sc.numero());
+                out.write(": {\"pin\": ");
+                escribirCadena(out, p.password);
+                out.write(", \"saldo\": ");
+                out.write(Dinero.aSoles(sc.saldoCentimos()).toPlainString());
+                out.write('}');
+            }
+        }
+        out.write('}');
+        out.flush();
+        return n;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("importar") || args[0].equals("exportar"))) {
+            System.err.println("Uso: java CuentasJson importar|exportar accounts.json [dirDatos]");
+            System.exit(2);
+        }
+        Path json = Paths.get(args[1]);
+        Path dir = Paths.get(args.length > 2 ? args[2] : System.getProperty("cajero.datos", "datos"));
+        try (PersistenciaBanco persistencia = PersistenciaBanco.abrir(dir, Durabilidad.POR_LOTES, l -> { }, 0)) {
+            Ledger ledger = persistencia.ledger();
+            long t0 = System.nanoTime();
+            if (args[0].equals("importar")) {
+                Resultado r;
+                try (Reader in = Files.newBufferedReader(json, StandardCharsets.UTF_8)) {
+                    r = importar(in, ledger);
+                }
+                // las altas no van al diario: la instantánea (que se escribe entera y se renombra)
+                // persiste todas las cuentas importadas de una vez; si la importación falla antes,
+                // el directorio queda como estaba
+                persistencia.escribirInstantanea();
+                System.out.printf("Importadas %d cuentas (%d ya existían, %d omitidas por coincidir con el DNI de un cliente) en %d ms%n",
+                        r.importadas, r.repetidas, r.conTitular, (System.nanoTime() - t0) / 1_000_000);
+            } else {
+                int n;
+                try (Writer out = new BufferedWriter(Files.newBufferedWriter(json, StandardCharsets.UTF_8), TAM_BUFFER)) {
+                    n = exportar(ledger, out);
+                }
+                System.out.printf("Exportadas %d cuentas en %d ms%n", n, (System.nanoTime() - t0) / 1_000_000);
+            }
+        }
+    }
+
+    private static long aCentimos(String saldo) throws IOException {
+        try {
+            return new BigDecimal(saldo).setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IOException("Saldo inválido: " + saldo, e);
+        }
+    }
+
+    private static void escribirCadena(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /** Lector de tokens JSON sobre un buffer fijo; nunca guarda más de un token a la vez. */
+    private static final class Tokenizador {
+        private final Reader in;
+        private final char[] buf = new char[TAM_BUFFER];
+        private int pos;
+        private int lim;
+        private final StringBuilder sb = new StringBuilder();
+
+        Tokenizador(Reader in) {
+            this.in = in;
+        }
+
+        void esperar(char c) throws IOException {
+            int leido = saltarEspacios();
+            if (leido != c) throw error("se esperaba '" + c + "'", leido);
+            pos++;
+        }
+
+        // Consume c si es el siguiente carácter significativo
+        boolean siguienteEs(char c) throws IOException {
+            if (saltarEspacios() != c) return false;
+            pos++;
+            return true;
+        }
+
+        String cadena() throws IOException {
+            esperar('"');
+            sb.setLength(0);
+            while (true) {
+                int c = leer();
+                if (c < 0) throw error("cadena sin cerrar", c);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append((char) c);
+                    continue;
+                }
+                int e = leer();
+                switch (e) {
+                    case '"': case '\\': case '/': sb.append((char) e); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u': {
+                        int v = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int h = Character.digit(leer(), 16);
+                            if (h < 0) throw error("escape \\u inválido", e);
+                            v = v * 16 + h;
+                        }
+                        sb.append((char) v);
+                        break;
+                    }
+                    default: throw error("escape inválido", e);
+                }
+            }
+        }
+
+        // Cadena, número o literal, devuelto como texto
+        String escalar() throws IOException {
+            int c = saltarEspacios();
+            if (c == '"') return cadena();
+            sb.setLength(0);
+            while (c >= 0 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                sb.append((char) c);
+                pos++;
+                c = mirar();
+            }
+            if (sb.length() == 0) throw error("se esperaba un valor", c);
+            return sb.toString();
+        }
+
+        // Salta cualquier valor (también objetos/arreglos anidados) llevando solo la profundidad
+        void saltarValor() throws IOException {
+            int c = saltarEspacios();
+            if (c != '{' && c != '[') {
+                escalar();
+                return;
+            }
+            int profundidad = 0;
+            do {
+                c = saltarEspacios();
+                if (c == '"') {
+                    cadena();
+                    continue;
+                }
+                pos++;
+                if (c == '{' || c == '[') profundidad++;
+                else if (c == '}' || c == ']') profundidad--;
+                else if (c < 0) throw error("valor sin cerrar", c);
+            } while (profundidad > 0);
+        }
+
+        private int saltarEspacios() throws IOException {
+            int c = mirar();
+            while (c >= 0 && Character.isWhitespace(c)) {
+                pos++;
+                c = mirar();
+            }
+            return c;
+        }
+
+        private int mirar() throws IOException {
+            if (pos == lim) {
+                lim = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (lim <= 0) {
+                    lim = 0;
+                    return -1;
+                }
+            }
+            return buf[pos];
+        }
+
+        private int leer() throws IOException {
+            int c = mirar();
+            if (c >= 0) pos++;
+            return c;
+        }
+
+        private IOException error(String mensaje, int encontrado) {
+            return new IOException("accounts.json inválido: " + mensaje + " (encontrado "
+                    + (encontrado < 0 ? "fin de archivo" : "'" + (char) encontrado + "'") + ")");
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * DevengoIntereses.java
+ *
+ * Devengo nocturno de intereses de las cuentas de Ahorros:
+ *
+ * - Tabla de tasas anuales por tramos de saldo (puntos básicos), p. ej.
+ *   "0:0.50,10000:1.50,100000:2.50" = 0.50% hasta S/ 10,000, 1.50% hasta S/ 100,000, 2.50% desde ahí.
+ * - Interés = saldo x tasa x días / (365 x 10000), redondeado al céntimo con redondeo bancario
+ *   (mitad al par), todo en aritmética entera: no hay doubles en el camino del dinero.
+ * - Se calcula sobre el corte de {@link Ledger#capturar()}, página por página (64K cuentas)
+ *   y en paralelo (fork/join). El núcleo {@link #calcular} recorre arreglos primitivos sin
+ *   objetos ni llamadas: divide por una constante (el JIT la cambia por una multiplicación)
+ *   y es un bucle contado que el JIT puede desenrollar.
+ * - Cada interés se abona como un movimiento {@link TipoMovimiento#INTERES} (diario + historial);
+ *   la conciliación lo cuenta como una entrada.
+ *
+ * {@link #devengarDia} lleva en "devengo.txt" el último día devengado: repetirlo el mismo día no
+ * abona dos veces, un día saltado se devenga con los días acumulados y, si el proceso cayó a
+ * mitad del abono, al reintentar se saltan las cuentas cuyo interés ya está en el diario.
+ */
+final class DevengoIntereses {
+
+    static final String ARCHIVO_CONTROL = "devengo.txt";
+
+    private static final long DIVISOR = 365L * 10_000; // días del año x puntos básicos por unidad
+    private static final byte AHORROS = TipoCuenta.AHORROS.codigo();
+
+    private DevengoIntereses() {
+    }
+
+    /** Tasas anuales por tramo de saldo; el tramo k aplica desde {@code desde[k]} céntimos. */
+    static final class TablaTasas {
+        final long[] desde;
+        final int[] tasaBp;
+
+        TablaTasas(long[] desde, int[] tasaBp) {
+            if (desde.length == 0 || desde.length != tasaBp.length || desde[0] != 0) {
+                throw new IllegalArgumentException("La tabla debe empezar en 0 y tener una tasa por tramo");
+            }
+            for (int k = 0; k < desde.length; k++) {
+                if (k > 0 && desde[k] <= desde[k - 1]) throw new IllegalArgumentException("Tramos no ascendentes");
+                if (tasaBp[k] < 0 || tasaBp[k] > 10_000) throw new IllegalArgumentException("Tasa fuera de rango: " + tasaBp[k]);
+            }
+            this.desde = desde.clone();
+            this.tasaBp = tasaBp.clone();
+        }
+
+        /** "saldoSoles:tasa%,..." p. ej. "0:0.50,10000:1.50". */
+        static TablaTasas parsear(String texto) {
+            String[] tramos = texto.split(",");
+            long[] desde = new long[tramos.length];
+            int[] tasas = new int[tramos.length];
+            for (int k = 0; k < tramos.length; k++) {
+                String[] partes = tramos[k].split(":");
+                if (partes.length != 2) throw new IllegalArgumentException("Tramo inválido: " + tramos[k]);
+                desde[k] = Dinero.aCentimos(partes[0]);
+                tasas[k] = new BigDecimal(partes[1].trim()).movePointRight(2).intValueExact();
+            }
+            return new TablaTasas(desde, tasas);
+        }
+
+        static TablaTasas porDefecto() {
+            return parsear(System.getProperty("cajero.tasasAhorro", "0:0.50,10000:1.50,100000:2.50"));
+        }
+
+        int tasa(long saldo) {
+            int t = tasaBp[0];
+            for (int k = 1; k < desde.length; k++) if (saldo >= desde[k]) t = tasaBp[k];
+            return t;
+        }
+    }
+
+    static final class Resultado {
+        final LocalDate fecha;
+        final int dias;
+        final long abonadas;
+        final long total;
+        final long msCalculo; // sumados entre los hilos
+        final long msAbono;
+
+        Resultado(LocalDate fecha, int dias, long abonadas, long total, long msCalculo, long msAbono) {
+            this.fecha = fecha;
+            this.dias = dias;
+            this.abonadas = abonadas;
+            this.total = total;
+            this.msCalculo = msCalculo;
+            this.msAbono = msAbono;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Devengo %s (%d día%s): %d cuentas, S/ %s (cálculo %d ms, abono %d ms)",
+                    fecha, dias, dias == 1 ? "" : "s", abonadas, Dinero.formatear(total), msCalculo, msAbono);
+        }
+    }
+
+    /**
+     * Interés de las cuentas [0, largo) de una página. Solo Ahorros con saldo positivo;
+     * el resto queda en 0.
+     */
+    static void calcular(long[] saldos, byte[] tipos, int largo, TablaTasas tabla, int dias, long[] interes) {
+        long[] desde = tabla.desde;
+        int[] tasas = tabla.tasaBp;
+        int tramos = desde.length;
+        // saldo a partir del cual saldo x tasa x días podría desbordar un long
+        long limite = Long.MAX_VALUE / (10_000L * dias);
+        for (int i = 0; i < largo; i++) {
+            long saldo = saldos[i];
+            if (tipos[i] != AHORROS || saldo <= 0) {
+                interes[i] = 0;
+                continue;
+            }
+            int tasa = tasas[0];
+            for (int k = 1; k < tramos; k++) tasa = saldo >= desde[k] ? tasas[k] : tasa;
+            if (saldo > limite) {
+                interes[i] = interesExacto(saldo, tasa, dias);
+                continue;
+            }
+            long numerador = saldo * tasa * dias;
+            long q = numerador / DIVISOR;
+            long resto2 = (numerador - q * DIVISOR) * 2;
+            if (resto2 > DIVISOR || (resto2 == DIVISOR && (q & 1) != 0)) q++;
+            interes[i] = q;
+        }
+    }
+
+    // Saldos enormes (más de ~25 mil millones de soles por cuenta): mismo redondeo con BigDecimal
+    private static long interesExacto(long saldo, int tasa, int dias) {
+        return BigDecimal.valueOf(saldo).multiply(BigDecimal.valueOf((long) tasa * dias))
+                .divide(BigDecimal.valueOf(DIVISOR), 0, RoundingMode.HALF_EVEN).longValueExact();
+    }
+
+    /**
+     * Calcula y abona {@code dias} días de interés sobre un corte de saldos, usando todos los
+     * núcleos. Las cuentas de {@code omitir} (si no es null) no reciben nada.
+     */
+    static Resultado devengar(Ledger ledger, TablaTasas tabla, int dias, LocalDate fecha, BitSet omitir) {
+        Ledger.Captura corte = ledger.capturar();
+        Devengo tarea = new Devengo(ledger, corte, tabla, dias, omitir, 0, corte.saldos.length);
+        long[] totales = ForkJoinPool.commonPool().invoke(tarea);
+        return new Resultado(fecha, dias, totales[0], totales[1], totales[2] / 1_000_000, totales[3] / 1_000_000);
+    }
+
+    /** Páginas [desde, hasta) del corte; devuelve {abonadas, total, ns de cálculo, ns de abono}. */
+    private static final class Devengo extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Ledger ledger;
+        private final Ledger.Captura corte;
+        private final TablaTasas tabla;
+        private final int dias;
+        private final BitSet omitir;
+        private final int desde;
+        private final int hasta;
+
+        Devengo(Ledger ledger, Ledger.Captura corte, TablaTasas tabla, int dias, BitSet omitir, int desde, int hasta) {
+            this.ledger = ledger;
+            this.corte = corte;
+            this.tabla = tabla;
+            this.dias = dias;
+            this.omitir = omitir;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (hasta - desde > 1) {
+                int medio = (desde + hasta) >>> 1;
+                Devengo izquierda = new Devengo(ledger, corte, tabla, dias, omitir, desde, medio);
+                izquierda.fork();
+                long[] a = new Devengo(ledger, corte, tabla, dias, omitir, medio, hasta).compute();
+                long[] b = izquierda.join();
+                for (int i = 0; i < a.length; i++) a[i] += b[i];
+                return a;
+            }
+            long[] totales = new long[4];
+            if (desde == hasta) return totales;
+            int p = desde;
+            int primera = p << AlmacenCuentas.BITS_PAGINA;
+            int largo = Math.min(AlmacenCuentas.TAM_PAGINA, corte.cantidad - primera);
+            long[] interes = new long[largo];
+            long t0 = System.nanoTime();
+            calcular(corte.saldos[p], ledger.almacen().paginaTipos(p), largo, tabla, dias, interes);
+            if (omitir != null) {
+                for (int i = omitir.nextSetBit(primera); i >= 0 && i < primera + largo; i = omitir.nextSetBit(i + 1)) {
+                    interes[i - primera] = 0;
+                }
+            }
+            for (long monto : interes) {
+                if (monto != 0) {
+                    totales[0]++;
+                    totales[1] += monto;
+                }
+            }
+            long t1 = System.nanoTime();
+            ledger.confirmar(ledger.abonarLote(TipoMovimiento.INTERES, primera, interes, largo));
+            totales[2] = t1 - t0;
+            totales[3] = System.nanoTime() - t1;
+            return totales;
+        }
+    }
+
+    /**
+     * Devenga hasta {@code fecha} (una vez por día) con el control en dir/devengo.txt.
+     * Devuelve null si ese día ya estaba devengado.
+     */
+    static Resultado devengarDia(Path dir, Ledger ledger, TablaTasas tabla, LocalDate fecha) throws IOException {
+        Path control = dir.resolve(ARCHIVO_CONTROL);
+        Control previo = Control.leer(control);
+        int dias;
+        BitSet omitir = null;
+        if (previo != null && previo.enCurso) {
+            // el abono anterior quedó a medias: terminar ese mismo devengo
+            fecha = previo.fecha;
+            dias = previo.dias;
+            omitir = yaAbonadas(dir, previo.secuenciaInicio, ledger.cantidadCuentas());
+        } else {
+            if (previo != null && !fecha.isAfter(previo.fecha)) return null;
+            dias = previo == null ? 1 : (int) ChronoUnit.DAYS.between(previo.fecha, fecha);
+            DiarioTransacciones d = ledger.diario();
+            new Control(fecha, dias, true, d == null ? 0 : d.ultimaSecuencia()).escribir(control);
+        }
+        Resultado r = devengar(ledger, tabla, dias, fecha, omitir);
+        new Control(fecha, dias, false, 0).escribir(control);
+        return r;
+    }
+
+    // Cuentas con un INTERES en el diario desde la secuencia dada
+    private static BitSet yaAbonadas(Path dir, long desde, int cuentas) throws IOException {
+        BitSet abonadas = new BitSet(cuentas);
+        DiarioTransacciones.leer(dir, desde, (secuencia, marcaTiempo, tipo, origen, destino, monto) -> {
+            if (tipo == TipoMovimiento.INTERES && destino >= 0) abonadas.set(destino);
+        });
+        return abonadas;
+    }
+
+    /** Línea de devengo.txt: "fecha días EN_CURSO|HECHO secuenciaInicio". */
+    private static final class Control {
+        final LocalDate fecha;
+        final int dias;
+        final boolean enCurso;
+        final long secuenciaInicio;
+
+        Control(LocalDate fecha, int dias, boolean enCurso, long secuenciaInicio) {
+            this.fecha = fecha;
+            this.dias = dias;
+            this.enCurso = enCurso;
+            this.secuenciaInicio = secuenciaInicio;
+        }
+
+        static Control leer(Path archivo) throws IOException {
+            if (!Files.exists(archivo)) return null;
+            String[] c = Files.readString(archivo, StandardCharsets.UTF_8).trim().split("\\s+");
+            if (c.length != 4) throw new IOException("Control de devengo inválido: " + archivo);
+            return new Control(LocalDate.parse(c[0]), Integer.parseInt(c[1]), c[2].equals("EN_CURSO"), Long.parseLong(c[3]));
+        }
+
+        void escribir(Path archivo) throws IOException {
+            Path tmp = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+            Files.writeString(tmp, fecha + " " + dias + " " + (enCurso ? "EN_CURSO" : "HECHO") + " " + secuenciaInicio + "\n",
+                    StandardCharsets.UTF_8);
+            Files.move(tmp, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * DiarioTransacciones.java
+ *
+ * Diario de escritura anticipada (write-ahead) de todos los movimientos de saldo.
+ *
+ * - Registros binarios de tamaño fijo que solo se agregan al final.
+ * - Se escribe a través de un MappedByteBuffer por segmento; cada segmento es un
+ *   archivo "diario-&lt;primeraSecuencia&gt;.bin" de capacidad fija.
+ * - Commit en grupo: el primer hilo que necesita durabilidad hace un único force()
+ *   que cubre todo lo escrito hasta ese momento; los demás hilos esperan y lo comparten.
+ * - {@link Durabilidad#POR_TRANSACCION}: cada operación espera su fsync (compartido).
+ *   {@link Durabilidad#POR_LOTES}: nadie espera; un hilo de fondo sincroniza periódicamente.
+ *
+ * Formato de cada registro (40 bytes, big endian):
+ *   0  long secuencia (1, 2, 3, ...; 0 = vacío)
+ *   8  long marca de tiempo (ms)
+ *  16  byte tipo (TipoMovimiento.codigo) + 3 bytes de relleno
+ *  20  int  cuenta origen (-1 si no aplica)
+ *  24  int  cuenta destino
+ *  28  long monto en céntimos
+ *  36  int  CRC32C de los bytes 0..35
+ */
+final class DiarioTransacciones implements AutoCloseable {
+
+    static final int TAM_REGISTRO = 40;
+    static final int REGISTROS_POR_SEGMENTO = 1 << 20; // 40 MiB por segmento
+    static final long INTERVALO_LOTES_MS = 5;
+
+    private static final String PREFIJO = "diario-";
+    private static final String SUFIJO = ".bin";
+
+    /** Recibe los registros válidos del diario, en orden de secuencia. */
+    interface Visitante {
+        void registro(long secuencia, long marcaTiempo, TipoMovimiento tipo, int origen, int destino, long monto);
+    }
+
+    private final Path dir;
+    private final Durabilidad durabilidad;
+
+    // Estado de escritura (protegido por "this")
+    private FileChannel canal;
+    private MappedByteBuffer segmento;
+    private int posicion; // registros escritos en el segmento actual
+    private long ultimaSecuencia;
+    private final ByteBuffer registro = ByteBuffer.allocate(TAM_REGISTRO);
+    private final CRC32C crc = new CRC32C();
+
+    // Commit en grupo
+    private final ReentrantLock candadoSync = new ReentrantLock();
+    private final Condition sincronizado = candadoSync.newCondition();
+    private boolean sincronizando;
+    private volatile long secuenciaDurable;
+
+    private final ScheduledExecutorService sincronizadorLotes;
+
+    private DiarioTransacciones(Path dir, Durabilidad durabilidad) {
+        this.dir = dir;
+        this.durabilidad = durabilidad;
+        if (durabilidad == Durabilidad.POR_LOTES) {
+            sincronizadorLotes = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "diario-sync");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            sincronizadorLotes = null;
+        }
+    }
+
+    /**
+     * Abre (o crea) el diario en el directorio dado y se posiciona después del último
+     * registro válido. Lo que haya después de ese registro (cola rota por una caída) se borra.
+     */
+    static DiarioTransacciones abrir(Path dir, Durabilidad durabilidad) throws IOException {
+        Files.createDirectories(dir);
+        DiarioTransacciones d = new DiarioTransacciones(dir, durabilidad);
+        List<Path> segmentos = segmentos(dir);
+        if (!segmentos.isEmpty()) {
+            Path ultimo = segmentos.get(segmentos.size() - 1);
+            long primera = primeraSecuencia(ultimo);
+            d.canal = FileChannel.open(ultimo, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            d.segmento = d.canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) REGISTROS_POR_SEGMENTO * TAM_REGISTRO);
+            int validos = contarValidos(d.segmento, primera);
+            d.posicion = validos;
+            d.ultimaSecuencia = primera + validos - 1;
+            for (int i = validos * TAM_REGISTRO; i < d.segmento.capacity(); i++) {
+                if (d.segmento.get(i) != 0) d.segmento.put(i, (byte) 0);
+            }
+            d.segmento.force();
+        }
+        d.secuenciaDurable = d.ultimaSecuencia;
+        if (d.sincronizadorLotes != null) {
+            d.sincronizadorLotes.scheduleWithFixedDelay(d::sincronizarPendiente,
+                    INTERVALO_LOTES_MS, INTERVALO_LOTES_MS, TimeUnit.MILLISECONDS);
+        }
+        return d;
+    }
+
+    Durabilidad durabilidad() {
+        return durabilidad;
+    }
+
+    Path directorio() {
+        return dir;
+    }
+
+    synchronized long ultimaSecuencia() {
+        return ultimaSecuencia;
+    }
+
+    long secuenciaDurable() {
+        return secuenciaDurable;
+    }
+
+    /**
+     * Numera desde {@code secuencia} + 1 un diario todavía vacío (p. ej. una réplica que
+     * arranca desde la instantánea del primario, sin su diario anterior).
+     */
+    synchronized void continuarDesde(long secuencia) {
+        if (segmento != null || ultimaSecuencia != 0) throw new IllegalStateException("El diario no está vacío");
+        ultimaSecuencia = secuencia;
+        secuenciaDurable = secuencia;
+    }
+
+    /**
+     * Espera hasta {@code maxMs} a que haya en disco algo posterior a {@code secuencia}
+     * (lo despierta el mismo aviso del commit en grupo). Devuelve la secuencia durable.
+     */
+    long esperarAvance(long secuencia, long maxMs) {
+        if (secuenciaDurable > secuencia) return secuenciaDurable;
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMs);
+        candadoSync.lock();
+        try {
+            long resta;
+            while (secuenciaDurable <= secuencia && (resta = limite - System.nanoTime()) > 0) {
+                sincronizado.awaitNanos(resta);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            candadoSync.unlock();
+        }
+        return secuenciaDurable;
+    }
+
+    /**
+     * Agrega un registro y devuelve su secuencia. No espera al disco:
+     * llamar a {@link #confirmar(long)} después de liberar los candados de las cuentas.
+     */
+    long registrar(TipoMovimiento tipo, int origen, int destino, long monto) {
+        return registrar(tipo, origen, destino, monto, System.currentTimeMillis());
+    }
+
+    /** Igual que {@link #registrar(TipoMovimiento, int, int, long)} con la marca de tiempo dada (ms). */
+    synchronized long registrar(TipoMovimiento tipo, int origen, int destino, long monto, long marcaTiempo) {
+        try {
+            if (segmento == null || posicion == REGISTROS_POR_SEGMENTO) rotar();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo crear un segmento del diario", e);
+        }
+        long secuencia = ultimaSecuencia + 1;
+        registro.clear();
+        registro.putLong(secuencia)
+                .putLong(marcaTiempo)
+                .put(tipo.codigo()).put((byte) 0).put((byte) 0).put((byte) 0)
+                .putInt(origen)
+                .putInt(destino)
+                .putLong(monto);
+        crc.reset();
+        crc.update(registro.array(), 0, TAM_REGISTRO - 4);
+        registro.putInt((int) crc.getValue());
+        segmento.put(posicion * TAM_REGISTRO, registro.array());
+        posicion++;
+        ultimaSecuencia = secuencia;
+        return secuencia;
+    }
+
+    /** Según el modo de durabilidad, espera (o no) a que el registro esté en disco. */
+    void confirmar(long secuencia) {
+        if (durabilidad == Durabilidad.POR_TRANSACCION) esperarDurable(secuencia);
+    }
+
+    /**
+     * Bloquea hasta que la secuencia esté en disco. Si nadie está sincronizando,
+     * este hilo hace de líder y su force() cubre también a los que llegan detrás.
+     */
+    void esperarDurable(long secuencia) {
+        if (secuenciaDurable >= secuencia) return;
+        candadoSync.lock();
+        try {
+            while (secuenciaDurable < secuencia) {
+                if (sincronizando) {
+                    sincronizado.awaitUninterruptibly();
+                    continue;
+                }
+                sincronizando = true;
+                long alcanzada = 0;
+                candadoSync.unlock();
+                try {
+                    alcanzada = forzar();
+                } finally {
+                    candadoSync.lock();
+                    sincronizando = false;
+                    if (alcanzada > secuenciaDurable) secuenciaDurable = alcanzada;
+                    sincronizado.signalAll();
+                }
+            }
+        } finally {
+            candadoSync.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (sincronizadorLotes != null) sincronizadorLotes.shutdownNow();
+        synchronized (this) {
+            try {
+                if (segmento != null) segmento.force();
+                if (canal != null) canal.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                segmento = null;
+                canal = null;
+            }
+        }
+    }
+
+    // --- Internos ---
+
+    private void sincronizarPendiente() {
+        try {
+            esperarDurable(ultimaSecuencia());
+        } catch (RuntimeException e) {
+            System.err.println("Error sincronizando el diario: " + e);
+        }
+    }
+
+    // force() del segmento actual; los segmentos anteriores se forzaron al rotar
+    private long forzar() {
+        MappedByteBuffer seg;
+        long hasta;
+        synchronized (this) {
+            seg = segmento;
+            hasta = ultimaSecuencia;
+        }
+        if (seg != null) seg.force();
+        return hasta;
+    }
+
+    private void rotar() throws IOException {
+        if (segmento != null) {
+            segmento.force();
+            canal.close();
+        }
+        Path archivo = dir.resolve(nombreSegmento(ultimaSecuencia + 1));
+        canal = FileChannel.open(archivo, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmento = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) REGISTROS_POR_SEGMENTO * TAM_REGISTRO);
+        posicion = 0;
+    }
+
+    // --- Lectura ---
+
+    /**
+     * Recorre en orden los registros válidos con secuencia mayor que {@code desde}.
+     * Se detiene en el primer registro vacío, dañado o fuera de secuencia.
+     *
+     * @return la última secuencia válida encontrada en el diario
+     */
+    static long leer(Path dir, long desde, Visitante visitante) throws IOException {
+        List<Path> segmentos = segmentos(dir);
+        long ultima = 0;
+        byte[] buf = new byte[TAM_REGISTRO];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        CRC32C crc = new CRC32C();
+        for (int s = 0; s < segmentos.size(); s++) {
+            long primera = primeraSecuencia(segmentos.get(s));
+            if (ultima != 0 && primera != ultima + 1) break; // hueco entre segmentos
+            boolean ultimoSegmento = s == segmentos.size() - 1;
+            if (!ultimoSegmento && primeraSecuencia(segmentos.get(s + 1)) <= desde + 1) {
+                ultima = primeraSecuencia(segmentos.get(s + 1)) - 1; // segmento ya cubierto
+                continue;
+            }
+            try (FileChannel ch = FileChannel.open(segmentos.get(s), StandardOpenOption.READ)) {
+                MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                long esperada = primera;
+                for (int off = 0; off + TAM_REGISTRO <= m.capacity(); off += TAM_REGISTRO, esperada++) {
+                    m.get(off, buf);
+                    if (!registroValido(bb, crc, esperada)) return ultima;
+                    ultima = esperada;
+                    if (esperada > desde) {
+                        visitante.registro(esperada, bb.getLong(8), TipoMovimiento.desdeCodigo(bb.get(16)),
+                                bb.getInt(20), bb.getInt(24), bb.getLong(28));
+                    }
+                }
+            }
+        }
+        return ultima;
+    }
+
+    /**
+     * Borra los segmentos cuyos registros son todos &lt;= secuencia (ya cubiertos por una
+     * instantánea). El último segmento nunca se borra.
+     */
+    static int eliminarSegmentosCubiertos(Path dir, long secuencia) throws IOException {
+        List<Path> segmentos = segmentos(dir);
+        int borrados = 0;
+        for (int s = 0; s + 1 < segmentos.size(); s++) {
+            if (primeraSecuencia(segmentos.get(s + 1)) > secuencia + 1) break;
+            Files.deleteIfExists(segmentos.get(s));
+            borrados++;
+        }
+        return borrados;
+    }
+
+    /**
+     * Recorre los registros de un solo segmento con secuencia en (desde, hasta]; sirve para
+     * leer varios segmentos en paralelo. A diferencia de {@link #leer}, un registro vacío o
+     * dañado dentro del rango es un error (ese tramo ya debería estar escrito).
+     *
+     * @return cuántos registros visitó
+     */
+    static long leerSegmento(Path segmento, long desde, long hasta, Visitante visitante) throws IOException {
+        long primera = primeraSecuencia(segmento);
+        byte[] buf = new byte[TAM_REGISTRO];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        CRC32C crc = new CRC32C();
+        long visitados = 0;
+        try (FileChannel ch = FileChannel.open(segmento, StandardOpenOption.READ)) {
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            long inicio = Math.max(desde + 1, primera);
+            long fin = Math.min(hasta, primera + m.capacity() / TAM_REGISTRO - 1);
+            for (long s = inicio; s <= fin; s++) {
+                m.get((int) (s - primera) * TAM_REGISTRO, buf);
+                if (!registroValido(bb, crc, s)) throw new IOException("Registro " + s + " dañado en " + segmento.getFileName());
+                visitante.registro(s, bb.getLong(8), TipoMovimiento.desdeCodigo(bb.get(16)),
+                        bb.getInt(20), bb.getInt(24), bb.getLong(28));
+                visitados++;
+            }
+        }
+        return visitados;
+    }
+
+    static List<Path> segmentos(Path dir) throws IOException {
+        List<Path> lista = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return lista;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIJO + "*" + SUFIJO)) {
+            for (Path p : ds) lista.add(p);
+        }
+        lista.sort((a, b) -> Long.compare(primeraSecuencia(a), primeraSecuencia(b)));
+        return lista;
+    }
+
+    static long primeraSecuencia(Path segmento) {
+        String n = segmento.getFileName().toString();
+        return Long.parseLong(n.substring(PREFIJO.length(), n.length() - SUFIJO.length()));
+    }
+
+    static String nombreSegmento(long primeraSecuencia) {
+        return String.format("%s%020d%s", PREFIJO, primeraSecuencia, SUFIJO);
+    }
+
+    private static int contarValidos(MappedByteBuffer m, long primera) {
+        byte[] buf = new byte[TAM_REGISTRO];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        CRC32C crc = new CRC32C();
+        int n = 0;
+        for (int off = 0; off + TAM_REGISTRO <= m.capacity(); off += TAM_REGISTRO, n++) {
+            m.get(off, buf);
+            if (!registroValido(bb, crc, primera + n)) break;
+        }
+        return n;
+    }
+
+    /** Registro de {@link #TAM_REGISTRO} bytes (en la posición 0 de {@code bb}) íntegro y con la secuencia esperada. */
+    static boolean registroValido(ByteBuffer bb, CRC32C crc, long esperada) {
+        if (bb.getLong(0) != esperada) return false;
+        if (TipoMovimiento.desdeCodigo(bb.get(16)) == null) return false;
+        crc.reset();
+        crc.update(bb.array(), 0, TAM_REGISTRO - 4);
+        return bb.getInt(TAM_REGISTRO - 4) == (int) crc.getValue();
+    }
+}
@@ -0,0 +1,74 @@
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conversión entre montos en soles (texto) y céntimos (long).
+ * Todo el sistema contable trabaja en céntimos; el texto solo aparece en la UI y en los
+ * extractos.
+ *
+ * El formato ("1,234.56", como el DecimalFormat "###,##0.00" que se usaba antes) se arma con
+ * aritmética entera: {@link #escribir} deja los dígitos ASCII en un arreglo del llamador, sin
+ * crear objetos ni estado compartido, así lo pueden usar muchos hilos a la vez
+ * ({@link GeneradorEstados} escribe millones de montos por corrida).
+ */
+final class Dinero {
+
+    /** Lo más largo que escribe {@link #escribir}: "-92,233,720,368,547,758.08". */
+    static final int LARGO_MAXIMO = 26;
+
+    private Dinero() {
+    }
+
+    /**
+     * Convierte "1234.5" en 123450 céntimos.
+     *
+     * @throws NumberFormatException si el texto no es un número o tiene más de 2 decimales
+     */
+    static long aCentimos(String texto) {
+        BigDecimal valor = new BigDecimal(texto.trim());
+        try {
+            return valor.movePointRight(2).longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new NumberFormatException("Monto fuera de rango o con más de 2 decimales: " + texto);
+        }
+    }
+
+    static BigDecimal aSoles(long centimos) {
+        return BigDecimal.valueOf(centimos, 2);
+    }
+
+    /** 123456 -> "1,234.56" (sin el prefijo "S/ "). */
+    static String formatear(long centimos) {
+        byte[] b = new byte[LARGO_MAXIMO];
+        return new String(b, 0, escribir(centimos, true, b, 0), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Escribe el monto en ASCII a partir de {@code pos}: "1,234.56", o "1234.56" sin
+     * separador de miles (CSV). Devuelve la posición siguiente; hacen falta hasta
+     * {@link #LARGO_MAXIMO} bytes libres.
+     */
+    static int escribir(long centimos, boolean miles, byte[] destino, int pos) {
+        // en negativo: -Long.MIN_VALUE no existe, Long.MIN_VALUE sí
+        long v = centimos < 0 ? centimos : -centimos;
+        int digitos = 1;
+        for (long t = v / 10; t != 0; t /= 10) digitos++;
+        int enteros = Math.max(1, digitos - 2);
+        int largo = (centimos < 0 ? 1 : 0) + enteros + (miles ? (enteros - 1) / 3 : 0) + 3;
+        int p = pos + largo;
+        destino[--p] = (byte) ('0' - v % 10);
+        v /= 10;
+        destino[--p] = (byte) ('0' - v % 10);
+        v /= 10;
+        destino[--p] = '.';
+        int n = 0;
+        do {
+            if (miles && n > 0 && n % 3 == 0) destino[--p] = ',';
+            destino[--p] = (byte) ('0' - v % 10);
+            v /= 10;
+            n++;
+        } while (v != 0);
+        if (centimos < 0) destino[--p] = '-';
+        return pos + largo;
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Modo de durabilidad del {@link DiarioTransacciones}.
+ */
+enum Durabilidad {
+    /** Cada operación espera a que su registro llegue al disco (fsync compartido por grupo). */
+    POR_TRANSACCION,
+    /** La operación no espera; un hilo de fondo hace fsync cada pocos milisegundos. */
+    POR_LOTES
+}
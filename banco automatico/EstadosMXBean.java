@@ -0,0 +1,16 @@
+import java.io.IOException;
+
+/**
+ * Estados de cuenta desde JMX, dentro del servidor que está atendiendo (ver {@link GeneradorEstados}).
+ */
+public interface EstadosMXBean {
+
+    /**
+     * Genera los estados del mes "AAAA-MM" en dirDatos/estados/AAAA-MM con todos los núcleos y
+     * devuelve el resumen. Una generación a la vez: otra llamada espera a que termine la anterior.
+     */
+    String generar(String mes, boolean csv) throws IOException;
+
+    /** Resumen de la última generación ("" si todavía no hubo). */
+    String getUltima();
+}
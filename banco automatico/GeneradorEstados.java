@@ -0,0 +1,640 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GeneradorEstados.java
+ *
+ * Estados de cuenta mensuales de todos los clientes: por cada Persona, cada subcuenta con su
+ * saldo inicial, los movimientos del mes con el saldo después de cada uno y el saldo final.
+ *
+ * - Texto (para imprimir, un estado por página) o CSV (una fila por movimiento).
+ * - Las personas se ordenan por DNI y se reparten en archivos de {@link #PERSONAS_POR_ARCHIVO};
+ *   varios hilos toman archivos de a uno y los escriben completos (".tmp" + renombrado).
+ * - Cada hilo arma el texto en un buffer de bytes propio que se reusa de persona en persona y
+ *   se vuelca al canal por tramos de {@link #UMBRAL_VOLCADO}: montos con {@link Dinero#escribir},
+ *   números de cuenta con {@link AlmacenCuentas#escribirNumero}, fechas con aritmética entera
+ *   sobre una tabla de desfases del mes. Sin String.format ni objetos por movimiento.
+ * - Los movimientos salen del {@link HistorialMovimientos} (búsqueda por fechas); el saldo
+ *   final del mes es el saldo actual menos lo que entró después.
+ *
+ * Con el cajero atendiendo se generan dentro del servidor, por JMX (operación "generar" de
+ * banco.cajero:type=Estados, ver {@link #publicar}; también en una réplica): los saldos y el
+ * historial de una persona se leen con un chequeo optimista (si a alguna de sus cuentas le llegó
+ * un movimiento mientras se armaba su estado, se vuelve a armar).
+ *
+ * Uso sin servidor: java GeneradorEstados AAAA-MM [dirDatos] [--csv] [--hilos=N]
+ *      deja los archivos en dirDatos/estados/AAAA-MM/. Abre el directorio de datos, así que el
+ *      servidor tiene que estar detenido (si no, falla enseguida por el candado del directorio).
+ */
+final class GeneradorEstados {
+
+    enum Formato {
+        TEXTO(".txt"),
+        CSV(".csv");
+
+        final String extension;
+
+        Formato(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    static final String DIR_ESTADOS = "estados";
+    static final int PERSONAS_POR_ARCHIVO = 16_384;
+    static final int UMBRAL_VOLCADO = 1 << 20;
+    private static final String NOMBRE_JMX = "banco.cajero:type=Estados";
+
+    private static final long HORA = 3_600_000L;
+    private static final long DIA = 24 * HORA;
+    private static final String[] MESES = {"enero", "febrero", "marzo", "abril", "mayo", "junio", "julio",
+            "agosto", "septiembre", "octubre", "noviembre", "diciembre"};
+
+    // Texto fijo, ya en UTF-8
+    private static final byte[] TITULO = bytes("BANCO IBEROAMERICANO - ESTADO DE CUENTA ");
+    private static final byte[] PERIODO = bytes("Periodo: ");
+    private static final byte[] CLIENTE = bytes("Cliente: ");
+    private static final byte[] DNI = bytes("DNI: ");
+    private static final byte[] CUENTA = bytes("Cuenta ");
+    private static final byte[] SALDO_INICIAL = bytes("Saldo inicial");
+    private static final byte[] SALDO_FINAL = bytes("Saldo final");
+    private static final byte[] MOVIMIENTOS = bytes(" movimientos)");
+    private static final byte[] SIN_MOVIMIENTOS = bytes("Sin movimientos en el periodo");
+    private static final byte[] EFECTIVO = bytes("Efectivo");
+    private static final byte[] OTRA_PARTICION = bytes("Otra partición");
+    private static final byte[] SOLES = bytes("S/ ");
+    private static final byte[] CABECERA_CSV = bytes("dni,cuenta,tipo_cuenta,fecha,concepto,contraparte,monto,saldo\n");
+    private static final byte[] CSV_INICIAL = bytes("SALDO_INICIAL");
+    private static final byte[] CSV_FINAL = bytes("SALDO_FINAL");
+    private static final byte[][] ETIQUETAS = new byte[TipoMovimiento.values().length][];
+    private static final byte[][] NOMBRES_TIPO = new byte[TipoMovimiento.values().length][];
+    private static final byte[][] TIPOS_CUENTA = new byte[TipoCuenta.values().length][];
+
+    static {
+        for (TipoMovimiento t : TipoMovimiento.values()) {
+            ETIQUETAS[t.ordinal()] = bytes(t.etiqueta());
+            NOMBRES_TIPO[t.ordinal()] = bytes(t.name());
+        }
+        for (TipoCuenta t : TipoCuenta.values()) TIPOS_CUENTA[t.ordinal()] = bytes(t.etiqueta());
+    }
+
+    // Columnas del formato de texto (caracteres desde el inicio de la línea)
+    private static final int COL_CONCEPTO = 20;
+    private static final int COL_DETALLE = 46;
+    private static final int FIN_MONTO = 78;
+    private static final int FIN_SALDO = 100;
+
+    private GeneradorEstados() {
+    }
+
+    static final class Resultado {
+        final Path carpeta;
+        final int personas;
+        final int archivos;
+        final long cuentas;
+        final long movimientos;
+        final long bytes;
+        final long reintentos; // estados rearmados porque llegó un movimiento mientras se leían
+        final long ms;
+
+        Resultado(Path carpeta, int personas, int archivos, long cuentas, long movimientos, long bytes, long reintentos, long ms) {
+            this.carpeta = carpeta;
+            this.personas = personas;
+            this.archivos = archivos;
+            this.cuentas = cuentas;
+            this.movimientos = movimientos;
+            this.bytes = bytes;
+            this.reintentos = reintentos;
+            this.ms = ms;
+        }
+
+        @Override
+        public String toString() {
+            double s = Math.max(1, ms) / 1000.0;
+            return String.format("Estados de cuenta: %d personas, %d cuentas, %d movimientos en %d archivos (%s)%n"
+                            + "  %d ms: %.0f estados/s, %.1f MB/s%s",
+                    personas, cuentas, movimientos, archivos, carpeta, ms, personas / s, bytes / s / 1e6,
+                    reintentos > 0 ? String.format("%n  %d estados rearmados por movimientos concurrentes", reintentos) : "");
+        }
+    }
+
+    /**
+     * Escribe los estados del mes de todas las personas del ledger en {@code carpeta}, con
+     * {@code hilos} hilos. Reemplaza los archivos de una corrida anterior del mismo mes y formato.
+     */
+    static Resultado generar(Ledger ledger, Path carpeta, YearMonth mes, Formato formato, int hilos) throws IOException {
+        long t0 = System.nanoTime();
+        Files.createDirectories(carpeta);
+        Persona[] personas = ledger.personas().toArray(new Persona[0]);
+        Arrays.sort(personas, Comparator.comparing(p -> p.dni));
+        Calendario calendario = new Calendario(mes, ZoneId.systemDefault());
+        int archivos = (personas.length + PERSONAS_POR_ARCHIVO - 1) / PERSONAS_POR_ARCHIVO;
+
+        AtomicInteger siguiente = new AtomicInteger();
+        AtomicInteger n = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(hilos, archivos)), r -> {
+            Thread t = new Thread(r, "estados-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<Escritor>> trabajos = new ArrayList<>();
+        try {
+            for (int h = 0; h < Math.max(1, Math.min(hilos, archivos)); h++) {
+                trabajos.add(pool.submit((Callable<Escritor>) () -> {
+                    Escritor e = new Escritor(ledger, calendario, formato);
+                    for (int a; (a = siguiente.getAndIncrement()) < archivos; ) {
+                        Path archivo = carpeta.resolve(String.format("estados-%s-%05d%s", mes, a + 1, formato.extension));
+                        int desde = a * PERSONAS_POR_ARCHIVO;
+                        e.archivo(archivo, personas, desde, Math.min(personas.length, desde + PERSONAS_POR_ARCHIVO));
+                    }
+                    return e;
+                }));
+            }
+            long cuentas = 0, movimientos = 0, bytes = 0, reintentos = 0;
+            for (Future<Escritor> f : trabajos) {
+                Escritor e = f.get();
+                cuentas += e.cuentas;
+                movimientos += e.movimientos;
+                bytes += e.bytes;
+                reintentos += e.reintentos;
+            }
+            return new Resultado(carpeta, personas.length, archivos, cuentas, movimientos, bytes, reintentos,
+                    (System.nanoTime() - t0) / 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Generación de estados interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("No se pudieron generar los estados de cuenta", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Límites del mes en ms y el desfase horario local de cada hora, para pasar fechas a texto sin java.time. */
+    static final class Calendario {
+        final long desde;   // primer instante del mes (hora local)
+        final long hasta;   // primer instante del mes siguiente
+        final int anio;
+        final int mes;
+        final int dias;
+        private final long primerDia;   // día local del 1.º del mes, en días desde epoch
+        private final int[] desfases;   // ms a sumar en cada hora (cambia con el horario de verano)
+
+        Calendario(YearMonth mes, ZoneId zona) {
+            this.desde = mes.atDay(1).atStartOfDay(zona).toInstant().toEpochMilli();
+            this.hasta = mes.plusMonths(1).atDay(1).atStartOfDay(zona).toInstant().toEpochMilli();
+            this.anio = mes.getYear();
+            this.mes = mes.getMonthValue();
+            this.dias = mes.lengthOfMonth();
+            this.primerDia = mes.atDay(1).toEpochDay();
+            this.desfases = new int[(int) ((hasta - desde + HORA - 1) / HORA)];
+            for (int h = 0; h < desfases.length; h++) {
+                desfases[h] = zona.getRules().getOffset(Instant.ofEpochMilli(desde + h * HORA)).getTotalSeconds() * 1000;
+            }
+        }
+
+        /** "dd/MM/yyyy HH:mm" o, en ISO, "yyyy-MM-dd HH:mm" para una fecha del mes; devuelve la posición siguiente. */
+        int escribir(long ms, boolean iso, byte[] b, int pos) {
+            long local = ms + desfases[(int) ((ms - desde) / HORA)];
+            int dia = (int) (Math.floorDiv(local, DIA) - primerDia) + 1;
+            int minutos = (int) (Math.floorMod(local, DIA) / 60_000);
+            if (iso) {
+                pos = digitos(anio, 4, b, pos);
+                b[pos++] = '-';
+                pos = digitos(mes, 2, b, pos);
+                b[pos++] = '-';
+                pos = digitos(dia, 2, b, pos);
+            } else {
+                pos = digitos(dia, 2, b, pos);
+                b[pos++] = '/';
+                pos = digitos(mes, 2, b, pos);
+                b[pos++] = '/';
+                pos = digitos(anio, 4, b, pos);
+            }
+            b[pos++] = ' ';
+            pos = digitos(minutos / 60, 2, b, pos);
+            b[pos++] = ':';
+            return digitos(minutos % 60, 2, b, pos);
+        }
+
+        /** Día {@code dia} del mes como "dd/MM/yyyy". */
+        int escribirDia(int dia, byte[] b, int pos) {
+            pos = digitos(dia, 2, b, pos);
+            b[pos++] = '/';
+            pos = digitos(mes, 2, b, pos);
+            b[pos++] = '/';
+            return digitos(anio, 4, b, pos);
+        }
+
+        private static int digitos(int valor, int ancho, byte[] b, int pos) {
+            for (int i = ancho - 1; i >= 0; i--) {
+                b[pos + i] = (byte) ('0' + valor % 10);
+                valor /= 10;
+            }
+            return pos + ancho;
+        }
+    }
+
+    /** Lo de un hilo: buffer de salida, página de historial y contadores. Se reusa entre personas y archivos. */
+    private static final class Escritor {
+        final Ledger ledger;
+        final AlmacenCuentas almacen;
+        final HistorialMovimientos historial; // null = ledger sin historial: solo saldos
+        final Calendario calendario;
+        final Formato formato;
+        byte[] buf = new byte[UMBRAL_VOLCADO + (64 << 10)];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        int largo;
+        int inicioLinea;
+        int extraLinea; // bytes de continuación UTF-8 en la línea: no ocupan columna
+        final byte[] cifra = new byte[Dinero.LARGO_MAXIMO];
+        long[] saldos = new long[4];
+        HistorialMovimientos.Pagina mes = new HistorialMovimientos.Pagina(1024);
+        final HistorialMovimientos.Pagina posteriores = new HistorialMovimientos.Pagina(1024);
+        final byte[] encabezado;
+        long cuentas;
+        long movimientos;
+        long bytes;
+        long reintentos;
+
+        Escritor(Ledger ledger, Calendario calendario, Formato formato) {
+            this.ledger = ledger;
+            this.almacen = ledger.almacen();
+            this.historial = ledger.historial();
+            this.calendario = calendario;
+            this.formato = formato;
+            // "septiembre 2026 - Periodo: 01/09/2026 al 30/09/2026", igual para todas las personas
+            byte[] b = new byte[128];
+            int p = copiar(bytes(MESES[calendario.mes - 1] + " " + calendario.anio + "\n"), b, 0);
+            p = copiar(PERIODO, b, p);
+            p = calendario.escribirDia(1, b, p);
+            p = copiar(bytes(" al "), b, p);
+            p = calendario.escribirDia(calendario.dias, b, p);
+            b[p++] = '\n';
+            this.encabezado = Arrays.copyOf(b, p);
+        }
+
+        void archivo(Path archivo, Persona[] personas, int desde, int hasta) throws IOException {
+            Path tmp = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                largo = 0;
+                if (formato == Formato.CSV) ascii(CABECERA_CSV);
+                for (int i = desde; i < hasta; i++) {
+                    persona(personas[i]);
+                    if (largo >= UMBRAL_VOLCADO) volcar(ch);
+                }
+                volcar(ch);
+            }
+            Files.move(tmp, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void volcar(FileChannel ch) throws IOException {
+            bb.clear().limit(largo);
+            while (bb.hasRemaining()) ch.write(bb);
+            bytes += largo;
+            largo = 0;
+        }
+
+        // Saldos e historial de la persona en un mismo estado: si cambió algo mientras se leía, otra vez
+        private void persona(Persona p) {
+            int[] ids = p.idsCuentas;
+            if (saldos.length < ids.length) saldos = new long[ids.length];
+            int inicio = largo;
+            long cuentasAntes = cuentas, movimientosAntes = movimientos;
+            while (true) {
+                long antes = cantidadHistorial(ids);
+                ledger.leerSaldos(ids, ids.length, saldos);
+                if (formato == Formato.TEXTO) cabeceraTexto(p);
+                for (int j = 0; j < ids.length; j++) cuenta(p, ids[j], saldos[j]);
+                if (formato == Formato.TEXTO) {
+                    asegurar(2);
+                    buf[largo++] = '\f';
+                    buf[largo++] = '\n';
+                }
+                if (cantidadHistorial(ids) == antes) return;
+                largo = inicio;
+                cuentas = cuentasAntes;
+                movimientos = movimientosAntes;
+                reintentos++;
+            }
+        }
+
+        private long cantidadHistorial(int[] ids) {
+            if (historial == null) return 0;
+            long n = 0;
+            for (int id : ids) n += historial.cantidad(id);
+            return n;
+        }
+
+        private void cabeceraTexto(Persona p) {
+            ascii(TITULO);
+            ascii(encabezado);
+            ascii(CLIENTE);
+            texto(p.nombre);
+            espacios(2);
+            ascii(DNI);
+            texto(p.dni);
+            nuevaLinea();
+        }
+
+        private void cuenta(Persona p, int id, long saldoActual) {
+            cuentas++;
+            long saldoFinal = saldoActual;
+            int n = 0;
+            if (historial != null) {
+                // lo que entró después del mes no es del estado
+                for (int saltar = 0, k; (k = historial.entreFechas(id, calendario.hasta, Long.MAX_VALUE, saltar, posteriores)) > 0; saltar += k) {
+                    for (int i = 0; i < k; i++) saldoFinal -= posteriores.montos[i];
+                }
+                while ((n = historial.entreFechas(id, calendario.desde, calendario.hasta, 0, mes)) == mes.capacidad()) {
+                    mes = new HistorialMovimientos.Pagina(mes.capacidad() * 2);
+                }
+            }
+            long saldo = saldoFinal;
+            for (int i = 0; i < n; i++) saldo -= mes.montos[i];
+            movimientos += n;
+            byte[] tipoCuenta = TIPOS_CUENTA[almacen.tipo(id).ordinal()];
+
+            if (formato == Formato.CSV) {
+                filaCsv(p, id, tipoCuenta, -1, CSV_INICIAL, -1, false, 0, saldo);
+                for (int i = 0; i < n; i++) {
+                    saldo += mes.montos[i];
+                    filaCsv(p, id, tipoCuenta, mes.fechas[i], NOMBRES_TIPO[mes.tipos[i] - 1], mes.contrapartes[i], true,
+                            mes.montos[i], saldo);
+                }
+                filaCsv(p, id, tipoCuenta, -1, CSV_FINAL, -1, false, 0, saldo);
+                return;
+            }
+
+            nuevaLinea();
+            ascii(CUENTA);
+            numero(id);
+            asegurar(2);
+            buf[largo++] = ' ';
+            buf[largo++] = '(';
+            ascii(tipoCuenta);
+            asegurar(1);
+            buf[largo++] = ')';
+            nuevaLinea();
+            espacios(2);
+            ascii(SALDO_INICIAL);
+            montoAlineado(saldo, false, FIN_SALDO);
+            nuevaLinea();
+            if (n == 0) {
+                espacios(2);
+                ascii(SIN_MOVIMIENTOS);
+                nuevaLinea();
+            }
+            for (int i = 0; i < n; i++) {
+                long monto = mes.montos[i];
+                saldo += monto;
+                espacios(2);
+                asegurar(20);
+                largo = calendario.escribir(mes.fechas[i], false, buf, largo);
+                columna(COL_CONCEPTO);
+                texto(ETIQUETAS[mes.tipos[i] - 1]);
+                columna(COL_DETALLE);
+                int otra = mes.contrapartes[i];
+                if (otra == HistorialMovimientos.SIN_CONTRAPARTE) {
+                    texto(mes.tipos[i] == TipoMovimiento.DEPOSITO.codigo() || mes.tipos[i] == TipoMovimiento.RETIRO.codigo()
+                            ? EFECTIVO : OTRA_PARTICION);
+                } else {
+                    asegurar(3);
+                    if (monto < 0) buf[largo++] = 'a';
+                    else {
+                        buf[largo++] = 'd';
+                        buf[largo++] = 'e';
+                    }
+                    buf[largo++] = ' ';
+                    numero(otra);
+                }
+                montoAlineado(monto, true, FIN_MONTO);
+                montoAlineado(saldo, false, FIN_SALDO);
+                nuevaLinea();
+            }
+            espacios(2);
+            ascii(SALDO_FINAL);
+            asegurar(16);
+            buf[largo++] = ' ';
+            buf[largo++] = '(';
+            largo = entero(n, buf, largo);
+            ascii(MOVIMIENTOS);
+            montoAlineado(saldo, false, FIN_SALDO);
+            nuevaLinea();
+        }
+
+        // dni,cuenta,tipo_cuenta,fecha,concepto,contraparte,monto,saldo
+        private void filaCsv(Persona p, int id, byte[] tipoCuenta, long fecha, byte[] concepto, int contraparte,
+                             boolean conMonto, long monto, long saldo) {
+            texto(p.dni);
+            asegurar(1);
+            buf[largo++] = ',';
+            numero(id);
+            asegurar(1);
+            buf[largo++] = ',';
+            ascii(tipoCuenta);
+            asegurar(20);
+            buf[largo++] = ',';
+            if (fecha >= 0) largo = calendario.escribir(fecha, true, buf, largo);
+            buf[largo++] = ',';
+            ascii(concepto);
+            asegurar(1);
+            buf[largo++] = ',';
+            if (contraparte >= 0) numero(contraparte);
+            asegurar(2 * Dinero.LARGO_MAXIMO + 3);
+            buf[largo++] = ',';
+            if (conMonto) largo = Dinero.escribir(monto, false, buf, largo);
+            buf[largo++] = ',';
+            largo = Dinero.escribir(saldo, false, buf, largo);
+            buf[largo++] = '\n';
+        }
+
+        // "S/ 1,234.56" (con signo si se pide) terminando en la columna indicada
+        private void montoAlineado(long centimos, boolean conSigno, int fin) {
+            int n = Dinero.escribir(centimos, true, cifra, 0);
+            int desde = centimos < 0 ? 1 : 0; // el '-' va antes de "S/"
+            boolean signo = conSigno || centimos < 0;
+            int ancho = n - desde + SOLES.length + (signo ? 2 : 0);
+            columna(fin - ancho);
+            asegurar(ancho);
+            if (signo) {
+                buf[largo++] = (byte) (centimos < 0 ? '-' : '+');
+                buf[largo++] = ' ';
+            }
+            largo = copiar(SOLES, buf, largo);
+            System.arraycopy(cifra, desde, buf, largo, n - desde);
+            largo += n - desde;
+        }
+
+        private void numero(int id) {
+            asegurar(16);
+            int p = almacen.escribirNumero(id, buf, largo);
+            if (p >= 0) largo = p;
+            else texto(almacen.numero(id));
+        }
+
+        private void columna(int col) {
+            int actual = largo - inicioLinea - extraLinea;
+            espacios(Math.max(1, col - actual));
+        }
+
+        private void espacios(int n) {
+            asegurar(n);
+            for (int i = 0; i < n; i++) buf[largo++] = ' ';
+        }
+
+        private void nuevaLinea() {
+            asegurar(1);
+            buf[largo++] = '\n';
+            inicioLinea = largo;
+            extraLinea = 0;
+        }
+
+        private void ascii(byte[] b) {
+            asegurar(b.length);
+            largo = copiar(b, buf, largo);
+        }
+
+        // Texto ya en UTF-8: cuenta los bytes de continuación para alinear columnas
+        private void texto(byte[] b) {
+            ascii(b);
+            for (byte x : b) if ((x & 0xC0) == 0x80) extraLinea++;
+        }
+
+        // UTF-8 sin pasar por getBytes (que crea un arreglo por llamada)
+        private void texto(String s) {
+            asegurar(s.length() * 3);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[largo++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[largo++] = (byte) (0xC0 | (c >> 6));
+                    buf[largo++] = (byte) (0x80 | (c & 0x3F));
+                    extraLinea++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[largo++] = (byte) (0xF0 | (cp >> 18));
+                    buf[largo++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[largo++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[largo++] = (byte) (0x80 | (cp & 0x3F));
+                    extraLinea += 3;
+                } else {
+                    if (Character.isSurrogate(c)) c = '?';
+                    buf[largo++] = (byte) (0xE0 | (c >> 12));
+                    buf[largo++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[largo++] = (byte) (0x80 | (c & 0x3F));
+                    extraLinea += 2;
+                }
+            }
+        }
+
+        // Un estado enorme (una cuenta con muchísimos movimientos) agranda el buffer en vez de volcarlo a medias
+        private void asegurar(int n) {
+            if (largo + n <= buf.length) return;
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, largo + n));
+            bb = ByteBuffer.wrap(buf);
+        }
+    }
+
+    private static int entero(int valor, byte[] b, int pos) {
+        int digitos = 1;
+        for (int t = valor / 10; t != 0; t /= 10) digitos++;
+        for (int i = pos + digitos - 1; i >= pos; i--) {
+            b[i] = (byte) ('0' + valor % 10);
+            valor /= 10;
+        }
+        return pos + digitos;
+    }
+
+    private static int copiar(byte[] origen, byte[] destino, int pos) {
+        System.arraycopy(origen, 0, destino, pos, origen.length);
+        return pos + origen.length;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Publica la generación por JMX para el ledger en uso; los archivos van a dir/estados/AAAA-MM. */
+    static void publicar(Ledger ledger, Path dir) {
+        MBeanServer servidorJmx = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName nombre = new ObjectName(NOMBRE_JMX);
+            if (servidorJmx.isRegistered(nombre)) servidorJmx.unregisterMBean(nombre);
+            servidorJmx.registerMBean(new VistaJmx(ledger, dir), nombre);
+        } catch (JMException e) {
+            System.err.println("No se pudo publicar la generación de estados por JMX: " + e);
+        }
+    }
+
+    private static final class VistaJmx implements EstadosMXBean {
+        private final Ledger ledger;
+        private final Path dir;
+        private String ultima = "";
+
+        VistaJmx(Ledger ledger, Path dir) {
+            this.ledger = ledger;
+            this.dir = dir;
+        }
+
+        @Override
+        public synchronized String generar(String mes, boolean csv) throws IOException {
+            YearMonth m = YearMonth.parse(mes);
+            Resultado r = GeneradorEstados.generar(ledger, dir.resolve(DIR_ESTADOS).resolve(m.toString()), m,
+                    csv ? Formato.CSV : Formato.TEXTO, Runtime.getRuntime().availableProcessors());
+            System.out.println(r);
+            ultima = r.toString();
+            return ultima;
+        }
+
+        @Override
+        public synchronized String getUltima() {
+            return ultima;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: java GeneradorEstados AAAA-MM [dirDatos] [--csv] [--hilos=N]");
+            System.exit(2);
+        }
+        YearMonth mes = YearMonth.parse(args[0]);
+        Path dir = Paths.get(System.getProperty("cajero.datos", "datos"));
+        Formato formato = Formato.TEXTO;
+        int hilos = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--csv")) formato = Formato.CSV;
+            else if (args[i].startsWith("--hilos=")) hilos = Integer.parseInt(args[i].substring("--hilos=".length()));
+            else dir = Paths.get(args[i]);
+        }
+        try (PersistenciaBanco persistencia = PersistenciaBanco.abrir(dir, Durabilidad.POR_LOTES, l -> { }, 0)) {
+            System.out.println(generar(persistencia.ledger(), dir.resolve(DIR_ESTADOS).resolve(mes.toString()), mes, formato, hilos));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GestorSesiones.java
+ *
+ * Sesiones de cajero abiertas en un mismo backend, indexadas por token.
+ *
+ * - Crear, buscar y cerrar son O(1) (ConcurrentHashMap).
+ * - La expiración por inactividad la hace una rueda de tiempo: cada sesión está en la
+ *   ranura de su vencimiento (lista doblemente enlazada, O(1) al insertar y al quitar).
+ *   Un solo hilo avanza la rueda cada {@code tickMs}; no hay un temporizador por sesión.
+ * - Usar una sesión solo actualiza su último acceso. Cuando su ranura vence, la rueda
+ *   mira ese valor y la expira o la vuelve a colocar en la ranura que corresponde.
+ * - {@link #obtener} también comprueba el vencimiento, así una sesión no sobrevive al
+ *   timeout aunque la rueda vaya atrasada.
+ */
+final class GestorSesiones implements AutoCloseable {
+
+    static final long TIMEOUT_POR_DEFECTO_MS = TimeUnit.MINUTES.toMillis(5);
+    static final long TICK_POR_DEFECTO_MS = 1000;
+
+    /** Sesión de un cliente. Los enlaces de la rueda se protegen con el candado de la ranura. */
+    static final class Sesion {
+        final long token;
+        final Persona persona;
+        private volatile long ultimoAcceso;
+        private volatile boolean cerrada;
+
+        private volatile int ranura = -1;
+        private Sesion anterior;
+        private Sesion siguiente;
+
+        private Sesion(long token, Persona persona, long ahora) {
+            this.token = token;
+            this.persona = persona;
+            this.ultimoAcceso = ahora;
+        }
+
+        boolean cerrada() {
+            return cerrada;
+        }
+    }
+
+    /** Cabeza de la lista de una ranura; también es su candado. */
+    private static final class Ranura {
+        Sesion primera;
+    }
+
+    private final Ledger ledger;
+    private final long timeoutMs;
+    private final long tickMs;
+    private final Ranura[] rueda;
+    private final int mascara;
+    private final ConcurrentHashMap<Long, Sesion> sesiones = new ConcurrentHashMap<>();
+    private final SecureRandom aleatorio = new SecureRandom();
+    private final Thread hiloRueda;
+    private volatile long tickActual; // último tick ya procesado
+    private volatile boolean activo = true;
+
+    GestorSesiones(Ledger ledger) {
+        this(ledger, TIMEOUT_POR_DEFECTO_MS, TICK_POR_DEFECTO_MS);
+    }
+
+    GestorSesiones(Ledger ledger, long timeoutMs, long tickMs) {
+        if (timeoutMs <= 0 || tickMs <= 0) throw new IllegalArgumentException("timeout y tick deben ser > 0");
+        this.ledger = ledger;
+        this.timeoutMs = timeoutMs;
+        this.tickMs = tickMs;
+        // la rueda debe cubrir un timeout completo más el tick en curso
+        int n = Integer.highestOneBit((int) Math.min(1 << 20, timeoutMs / tickMs + 2) * 2 - 1);
+        this.rueda = new Ranura[n];
+        for (int i = 0; i < n; i++) rueda[i] = new Ranura();
+        this.mascara = n - 1;
+        this.tickActual = ahora() / tickMs;
+        this.hiloRueda = new Thread(this::girar, "sesiones-rueda");
+        hiloRueda.setDaemon(true);
+        hiloRueda.start();
+    }
+
+    Ledger ledger() {
+        return ledger;
+    }
+
+    /** Autentica y abre una sesión; devuelve null si el DNI o la contraseña no coinciden. */
+    Sesion iniciar(String dni, String password) {
+        Persona p = ledger.autenticar(dni, password);
+        if (p == null) return null;
+        long ahora = ahora();
+        Sesion s;
+        do {
+            s = new Sesion(aleatorio.nextLong(), p, ahora);
+        } while (sesiones.putIfAbsent(s.token, s) != null);
+        colocar(s, ahora + timeoutMs);
+        return s;
+    }
+
+    /** Sesión viva con ese token (y marca actividad), o null si no existe o expiró. */
+    Sesion obtener(long token) {
+        Sesion s = sesiones.get(token);
+        if (s == null) return null;
+        long ahora = ahora();
+        long ultimo = s.ultimoAcceso;
+        if (ahora - ultimo >= timeoutMs) {
+            expirar(s);
+            return null;
+        }
+        // evita escribir la misma línea de caché en cada operación: basta con la resolución del tick
+        if (ahora - ultimo >= tickMs) s.ultimoAcceso = ahora;
+        return s;
+    }
+
+    /** Cierra la sesión (logout). Devuelve false si ya no existía. */
+    boolean cerrar(long token) {
+        Sesion s = sesiones.remove(token);
+        if (s == null) return false;
+        s.cerrada = true;
+        quitar(s);
+        return true;
+    }
+
+    int activas() {
+        return sesiones.size();
+    }
+
+    @Override
+    public void close() {
+        activo = false;
+        hiloRueda.interrupt();
+        try {
+            hiloRueda.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void expirar(Sesion s) {
+        if (sesiones.remove(s.token, s)) {
+            s.cerrada = true;
+            quitar(s);
+        }
+    }
+
+    // --- Rueda de tiempo ---
+
+    private void colocar(Sesion s, long vence) {
+        long tick = Math.max(vence / tickMs, tickActual + 1);
+        Ranura r = rueda[(int) (tick & mascara)];
+        synchronized (r) {
+            if (s.cerrada) return;
+            s.anterior = null;
+            s.siguiente = r.primera;
+            if (r.primera != null) r.primera.anterior = s;
+            r.primera = s;
+            s.ranura = (int) (tick & mascara);
+        }
+    }
+
+    private void quitar(Sesion s) {
+        while (true) {
+            int i = s.ranura;
+            if (i < 0) return; // no está en la rueda (o la rueda la está procesando)
+            Ranura r = rueda[i];
+            synchronized (r) {
+                if (s.ranura != i) continue; // la movieron entre tanto
+                if (s.anterior != null) s.anterior.siguiente = s.siguiente;
+                else r.primera = s.siguiente;
+                if (s.siguiente != null) s.siguiente.anterior = s.anterior;
+                s.anterior = s.siguiente = null;
+                s.ranura = -1;
+                return;
+            }
+        }
+    }
+
+    private void girar() {
+        while (activo) {
+            try {
+                Thread.sleep(tickMs);
+            } catch (InterruptedException e) {
+                if (!activo) return;
+            }
+            long hasta = ahora() / tickMs;
+            for (long t = tickActual + 1; t <= hasta; t++) {
+                vencerRanura(t);
+                tickActual = t;
+            }
+        }
+    }
+
+    private void vencerRanura(long tick) {
+        Ranura r = rueda[(int) (tick & mascara)];
+        Sesion lista;
+        synchronized (r) {
+            lista = r.primera;
+            r.primera = null;
+            for (Sesion s = lista; s != null; s = s.siguiente) s.ranura = -1;
+        }
+        long ahora = ahora();
+        while (lista != null) {
+            Sesion s = lista;
+            lista = s.siguiente;
+            s.anterior = s.siguiente = null;
+            if (s.cerrada) continue;
+            long vence = s.ultimoAcceso + timeoutMs;
+            if (vence <= ahora) expirar(s);
+            else colocar(s, vence);
+        }
+    }
+
+    private static long ahora() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,29 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecutores compartidos.
+ */
+final class Hilos {
+
+    private Hilos() {
+    }
+
+    /**
+     * Un hilo por tarea: virtual si la JVM los tiene (Java 21+), si no un pool
+     * "cached" de hilos daemon con el nombre dado.
+     */
+    static ExecutorService porTarea(String nombre) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, nombre + "-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,462 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HistorialMovimientos.java
+ *
+ * Historial de movimientos por subcuenta (fecha, tipo, cuenta contraparte, monto con signo).
+ *
+ * - Cada cuenta guarda sus movimientos en bloques de {@link #TAM_BLOQUE} con columnas
+ *   primitivas. Solo el bloque en curso vive en memoria; al llenarse se agrega al
+ *   archivo "historial.bin" y en memoria queda su posición y la fecha de su primer movimiento.
+ * - "Últimos N" va directo a la posición (posición / TAM_BLOQUE = bloque), y un rango de
+ *   fechas se ubica con búsqueda binaria sobre las fechas de inicio de los bloques y
+ *   luego dentro del bloque. Nunca se recorre el historial completo.
+ * - Las consultas llenan una {@link Pagina} reutilizable y leen el disco a un buffer por hilo.
+ *
+ * Durabilidad: junto con cada instantánea se escribe "historial-indice.bin" (bloques de
+ * cada cuenta + bloque en curso + última secuencia del diario vista por cuenta). Al arrancar
+ * se reaplica el diario posterior y cada cuenta descarta lo que ya tenía.
+ *
+ * Formato de un bloque en disco (big endian, por columnas):
+ *   long[TAM_BLOQUE] fechas, long[TAM_BLOQUE] montos, int[TAM_BLOQUE] contrapartes, byte[TAM_BLOQUE] tipos
+ */
+final class HistorialMovimientos implements AutoCloseable {
+
+    static final int TAM_BLOQUE = 256;
+    static final String ARCHIVO = "historial.bin";
+    static final String ARCHIVO_INDICE = "historial-indice.bin";
+    static final int SIN_CONTRAPARTE = -1;
+
+    private static final int BYTES_BLOQUE = TAM_BLOQUE * (8 + 8 + 4 + 1);
+    private static final int OFF_MONTOS = TAM_BLOQUE * 8;
+    private static final int OFF_CONTRAPARTES = TAM_BLOQUE * 16;
+    private static final int OFF_TIPOS = TAM_BLOQUE * 20;
+    private static final int CAPACIDAD_INICIAL = 4;
+
+    private static final int MAGIA = 0x434A4849; // "CJHI"
+    private static final short VERSION = 1;
+    private static final long FIN = 0x46494E5F434A4849L; // "FIN_CJHI"
+
+    private static final VarHandle CUENTAS = MethodHandles.arrayElementVarHandle(Cuenta[].class);
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BYTES_BLOQUE));
+
+    /** Resultado reutilizable de una consulta. */
+    static final class Pagina {
+        int cantidad;
+        final long[] fechas;
+        final byte[] tipos;
+        final int[] contrapartes;   // id de la otra cuenta o SIN_CONTRAPARTE
+        final long[] montos;        // céntimos; negativo = sale de la cuenta
+
+        Pagina(int capacidad) {
+            fechas = new long[capacidad];
+            tipos = new byte[capacidad];
+            contrapartes = new int[capacidad];
+            montos = new long[capacidad];
+        }
+
+        int capacidad() {
+            return fechas.length;
+        }
+
+        TipoMovimiento tipo(int i) {
+            return TipoMovimiento.desdeCodigo(tipos[i]);
+        }
+    }
+
+    /** Historial de una cuenta; se sincroniza sobre sí mismo. */
+    private static final class Cuenta {
+        long ultimaSecuencia;
+        long ultimaFecha = Long.MIN_VALUE;
+        int cantidad;
+        long[] posicionesBloques = new long[0];  // en el archivo
+        long[] iniciosBloques = new long[0];     // fecha del primer movimiento de cada bloque
+        // bloque en curso (cantidad % TAM_BLOQUE movimientos)
+        long[] fechas;
+        long[] montos;
+        int[] contrapartes;
+        byte[] tipos;
+
+        int bloquesEnDisco() {
+            return cantidad / TAM_BLOQUE;
+        }
+
+        int enCurso() {
+            return cantidad % TAM_BLOQUE;
+        }
+    }
+
+    private final Path archivoIndice;    // null = sin índice persistente
+    private final FileChannel datos;
+    private final AtomicLong largo;
+    private volatile Cuenta[][] paginas = new Cuenta[16][];
+    private long base;                     // secuencia del diario desde la que hay que reaplicar
+
+    private HistorialMovimientos(Path archivoIndice, FileChannel datos, long largo) {
+        this.archivoIndice = archivoIndice;
+        this.datos = datos;
+        this.largo = new AtomicLong(largo);
+    }
+
+    /** Historial sin índice persistente (los bloques van a un archivo temporal). */
+    static HistorialMovimientos temporal() throws IOException {
+        Path tmp = Files.createTempFile("historial-", ".bin");
+        FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        return new HistorialMovimientos(null, ch, 0);
+    }
+
+    /**
+     * Abre el historial de un directorio de datos. Si hay índice, lo carga y recorta del
+     * archivo de bloques lo que se escribió después (quedará cubierto al reaplicar el diario).
+     */
+    static HistorialMovimientos abrir(Path dir) throws IOException {
+        Path indice = dir.resolve(ARCHIVO_INDICE);
+        FileChannel ch = FileChannel.open(dir.resolve(ARCHIVO), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (!Files.exists(indice)) {
+            ch.truncate(0);
+            return new HistorialMovimientos(indice, ch, 0);
+        }
+        try {
+            HistorialMovimientos h = new HistorialMovimientos(indice, ch, 0);
+            h.cargarIndice();
+            return h;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /** Secuencia del diario desde la que hay que reaplicar para completar el historial. */
+    long base() {
+        return base;
+    }
+
+    /**
+     * Anota un movimiento del diario en las cuentas que toca (origen con monto negativo).
+     * Se llama con los candados de esas cuentas tomados. Al reaplicar el diario, cada
+     * cuenta ignora las secuencias que ya tenía; la secuencia 0 (sin diario) siempre se anota.
+     */
+    void registrar(long secuencia, long marcaTiempo, TipoMovimiento tipo, int origen, int destino, long monto) {
+        // una cuenta de otra partición (referencia negativa) queda sin contraparte
+        if (origen >= 0) agregar(origen, secuencia, marcaTiempo, tipo, destino >= 0 ? destino : SIN_CONTRAPARTE, -monto);
+        if (destino >= 0) agregar(destino, secuencia, marcaTiempo, tipo, origen >= 0 ? origen : SIN_CONTRAPARTE, monto);
+    }
+
+    private void agregar(int id, long secuencia, long marcaTiempo, TipoMovimiento tipo, int contraparte, long monto) {
+        Cuenta c = cuentaParaEscribir(id);
+        synchronized (c) {
+            if (secuencia > 0 && secuencia <= c.ultimaSecuencia) return;
+            int i = c.enCurso();
+            if (c.fechas == null || i == c.fechas.length) crecer(c);
+            // fechas no decrecientes dentro de la cuenta (por si el reloj retrocede)
+            c.ultimaFecha = Math.max(marcaTiempo, c.ultimaFecha);
+            c.fechas[i] = c.ultimaFecha;
+            c.montos[i] = monto;
+            c.contrapartes[i] = contraparte;
+            c.tipos[i] = tipo.codigo();
+            c.cantidad++;
+            if (secuencia > 0) c.ultimaSecuencia = secuencia;
+            if (c.enCurso() == 0) volcar(c);
+        }
+    }
+
+    int cantidad(int id) {
+        Cuenta c = cuenta(id);
+        if (c == null) return 0;
+        synchronized (c) {
+            return c.cantidad;
+        }
+    }
+
+    /**
+     * Movimientos más recientes primero: salta los {@code saltar} más nuevos y copia hasta
+     * la capacidad de la página. Devuelve cuántos copió.
+     */
+    int ultimos(int id, int saltar, Pagina pagina) {
+        pagina.cantidad = 0;
+        Cuenta c = cuenta(id);
+        if (c == null) return 0;
+        synchronized (c) {
+            ByteBuffer buf = BUFFER.get();
+            int cargado = -1;
+            for (int pos = c.cantidad - 1 - saltar; pos >= 0 && pagina.cantidad < pagina.capacidad(); pos--) {
+                cargado = copiar(c, pos, cargado, buf, pagina);
+            }
+            return pagina.cantidad;
+        }
+    }
+
+    /**
+     * Movimientos con fecha en [desde, hasta) en orden cronológico: salta los primeros
+     * {@code saltar} del rango y copia hasta la capacidad de la página. Devuelve cuántos copió.
+     */
+    int entreFechas(int id, long desde, long hasta, int saltar, Pagina pagina) {
+        pagina.cantidad = 0;
+        Cuenta c = cuenta(id);
+        if (c == null) return 0;
+        synchronized (c) {
+            ByteBuffer buf = BUFFER.get();
+            int cargado = -1;
+            for (int pos = primeraDesde(c, desde, buf) + saltar; pos < c.cantidad && pagina.cantidad < pagina.capacidad(); pos++) {
+                cargado = cargar(c, pos / TAM_BLOQUE, cargado, buf);
+                if (fecha(c, pos, buf) >= hasta) break;
+                copiar(c, pos, cargado, buf, pagina);
+            }
+            return pagina.cantidad;
+        }
+    }
+
+    // Primera posición con fecha >= desde: búsqueda binaria entre bloques y luego dentro del bloque
+    private int primeraDesde(Cuenta c, long desde, ByteBuffer buf) {
+        int enDisco = c.bloquesEnDisco();
+        int bloques = enDisco + (c.enCurso() > 0 ? 1 : 0);
+        int lo = 0, hi = bloques; // primer bloque cuyo inicio es >= desde
+        while (lo < hi) {
+            int m = (lo + hi) >>> 1;
+            long inicio = m < enDisco ? c.iniciosBloques[m] : c.fechas[0];
+            if (inicio < desde) lo = m + 1;
+            else hi = m;
+        }
+        if (lo == 0) return 0;
+        int bloque = lo - 1; // empieza antes de "desde": la respuesta puede estar dentro
+        cargar(c, bloque, -1, buf);
+        int a = bloque * TAM_BLOQUE, b = Math.min(c.cantidad, a + TAM_BLOQUE);
+        while (a < b) {
+            int m = (a + b) >>> 1;
+            if (fecha(c, m, buf) < desde) a = m + 1;
+            else b = m;
+        }
+        return a;
+    }
+
+    // Copia la posición a la página; devuelve el bloque que queda cargado en el buffer
+    private int copiar(Cuenta c, int pos, int cargado, ByteBuffer buf, Pagina p) {
+        int bloque = pos / TAM_BLOQUE;
+        int i = pos % TAM_BLOQUE;
+        int n = p.cantidad++;
+        if (bloque == c.bloquesEnDisco()) {
+            p.fechas[n] = c.fechas[i];
+            p.montos[n] = c.montos[i];
+            p.contrapartes[n] = c.contrapartes[i];
+            p.tipos[n] = c.tipos[i];
+            return cargado;
+        }
+        cargado = cargar(c, bloque, cargado, buf);
+        p.fechas[n] = buf.getLong(i * 8);
+        p.montos[n] = buf.getLong(OFF_MONTOS + i * 8);
+        p.contrapartes[n] = buf.getInt(OFF_CONTRAPARTES + i * 4);
+        p.tipos[n] = buf.get(OFF_TIPOS + i);
+        return cargado;
+    }
+
+    private static long fecha(Cuenta c, int pos, ByteBuffer buf) {
+        int bloque = pos / TAM_BLOQUE;
+        int i = pos % TAM_BLOQUE;
+        return bloque == c.bloquesEnDisco() ? c.fechas[i] : buf.getLong(i * 8);
+    }
+
+    // Lee el bloque al buffer si es de disco y no es el que ya estaba cargado
+    private int cargar(Cuenta c, int bloque, int cargado, ByteBuffer buf) {
+        if (bloque == cargado || bloque >= c.bloquesEnDisco()) return cargado;
+        buf.clear();
+        long posicion = c.posicionesBloques[bloque];
+        try {
+            while (buf.hasRemaining()) {
+                if (datos.read(buf, posicion + buf.position()) < 0) throw new IOException("Bloque del historial truncado");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer el historial", e);
+        }
+        return bloque;
+    }
+
+    // --- Escritura de bloques ---
+
+    private static void crecer(Cuenta c) {
+        int n = c.fechas == null ? CAPACIDAD_INICIAL : Math.min(TAM_BLOQUE, c.fechas.length * 2);
+        c.fechas = c.fechas == null ? new long[n] : Arrays.copyOf(c.fechas, n);
+        c.montos = c.montos == null ? new long[n] : Arrays.copyOf(c.montos, n);
+        c.contrapartes = c.contrapartes == null ? new int[n] : Arrays.copyOf(c.contrapartes, n);
+        c.tipos = c.tipos == null ? new byte[n] : Arrays.copyOf(c.tipos, n);
+    }
+
+    // El bloque en curso se llenó: al archivo, y en memoria solo su posición y su primera fecha
+    private void volcar(Cuenta c) {
+        ByteBuffer buf = BUFFER.get();
+        buf.clear();
+        for (int i = 0; i < TAM_BLOQUE; i++) buf.putLong(i * 8, c.fechas[i]);
+        for (int i = 0; i < TAM_BLOQUE; i++) buf.putLong(OFF_MONTOS + i * 8, c.montos[i]);
+        for (int i = 0; i < TAM_BLOQUE; i++) buf.putInt(OFF_CONTRAPARTES + i * 4, c.contrapartes[i]);
+        buf.position(OFF_TIPOS);
+        buf.put(c.tipos, 0, TAM_BLOQUE);
+        buf.flip();
+        long posicion = largo.getAndAdd(BYTES_BLOQUE);
+        try {
+            while (buf.hasRemaining()) datos.write(buf, posicion + buf.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir el historial", e);
+        }
+        int b = c.bloquesEnDisco() - 1;
+        if (b == c.posicionesBloques.length) {
+            int n = Math.max(4, b * 2);
+            c.posicionesBloques = Arrays.copyOf(c.posicionesBloques, n);
+            c.iniciosBloques = Arrays.copyOf(c.iniciosBloques, n);
+        }
+        c.posicionesBloques[b] = posicion;
+        c.iniciosBloques[b] = c.fechas[0];
+        c.fechas = null;
+        c.montos = null;
+        c.contrapartes = null;
+        c.tipos = null;
+    }
+
+    // --- Cuentas (páginas de 64K como en AlmacenCuentas) ---
+
+    private Cuenta cuenta(int id) {
+        Cuenta[][] p = paginas;
+        int pagina = id >>> AlmacenCuentas.BITS_PAGINA;
+        if (id < 0 || pagina >= p.length || p[pagina] == null) return null;
+        return (Cuenta) CUENTAS.getAcquire(p[pagina], id & AlmacenCuentas.MASCARA_PAGINA);
+    }
+
+    // Crea el historial de la cuenta la primera vez, sin candados (CAS sobre la página)
+    private Cuenta cuentaParaEscribir(int id) {
+        Cuenta[] pagina = pagina(id >>> AlmacenCuentas.BITS_PAGINA);
+        int i = id & AlmacenCuentas.MASCARA_PAGINA;
+        Cuenta c = (Cuenta) CUENTAS.getAcquire(pagina, i);
+        if (c != null) return c;
+        Cuenta nueva = new Cuenta();
+        Cuenta previa = (Cuenta) CUENTAS.compareAndExchangeRelease(pagina, i, null, nueva);
+        return previa == null ? nueva : previa;
+    }
+
+    private Cuenta[] pagina(int p) {
+        Cuenta[][] actual = paginas;
+        if (p < actual.length && actual[p] != null) return actual[p];
+        synchronized (this) {
+            if (p >= paginas.length) {
+                int n = paginas.length;
+                while (n <= p) n *= 2;
+                paginas = Arrays.copyOf(paginas, n);
+            }
+            if (paginas[p] == null) paginas[p] = new Cuenta[AlmacenCuentas.TAM_PAGINA];
+            return paginas[p];
+        }
+    }
+
+    // --- Índice persistente ---
+
+    /**
+     * Escribe el índice junto con una instantánea que cubre hasta {@code secuencia}: todo
+     * movimiento con secuencia menor o igual ya está en el historial. Los bloques se
+     * sincronizan antes de publicar el índice que los referencia.
+     */
+    void escribirIndice(long secuencia) throws IOException {
+        if (archivoIndice == null) return;
+        Path tmp = archivoIndice.resolveSibling(archivoIndice.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Instantanea.Escritor out = new Instantanea.Escritor(ch);
+            out.putInt(MAGIA);
+            out.putShort(VERSION);
+            out.putLong(secuencia);
+            Cuenta[][] p = paginas;
+            for (int pg = 0; pg < p.length; pg++) {
+                if (p[pg] == null) continue;
+                for (int i = 0; i < AlmacenCuentas.TAM_PAGINA; i++) {
+                    Cuenta c = cuenta((pg << AlmacenCuentas.BITS_PAGINA) | i);
+                    if (c == null) continue;
+                    synchronized (c) {
+                        escribirCuenta(out, (pg << AlmacenCuentas.BITS_PAGINA) | i, c);
+                    }
+                }
+            }
+            out.putInt(-1);
+            long hasta = largo.get();
+            datos.force(false);
+            out.putLong(hasta);
+            out.putLong(FIN);
+            out.vaciar();
+            ch.force(true);
+        }
+        Files.move(tmp, archivoIndice, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void escribirCuenta(Instantanea.Escritor out, int id, Cuenta c) throws IOException {
+        out.putInt(id);
+        out.putLong(c.ultimaSecuencia);
+        out.putLong(c.ultimaFecha);
+        out.putInt(c.cantidad);
+        out.putLongs(c.posicionesBloques, c.bloquesEnDisco());
+        out.putLongs(c.iniciosBloques, c.bloquesEnDisco());
+        int n = c.enCurso();
+        if (n > 0) {
+            out.putLongs(c.fechas, n);
+            out.putLongs(c.montos, n);
+            for (int i = 0; i < n; i++) out.putInt(c.contrapartes[i]);
+            out.putBytes(c.tipos, n);
+        }
+    }
+
+    private void cargarIndice() throws IOException {
+        try (FileChannel ch = FileChannel.open(archivoIndice, StandardOpenOption.READ)) {
+            Instantanea.Lector in = new Instantanea.Lector(ch);
+            if (in.getInt() != MAGIA) throw new IOException("No es un índice de historial: " + archivoIndice);
+            short version = in.getShort();
+            if (version != VERSION) throw new IOException("Versión de historial no soportada: " + version);
+            base = in.getLong();
+            for (int id; (id = in.getInt()) >= 0; ) {
+                Cuenta c = cuentaParaEscribir(id);
+                c.ultimaSecuencia = in.getLong();
+                c.ultimaFecha = in.getLong();
+                c.cantidad = in.getInt();
+                int bloques = c.bloquesEnDisco();
+                c.posicionesBloques = new long[Math.max(4, bloques)];
+                c.iniciosBloques = new long[Math.max(4, bloques)];
+                in.getLongs(c.posicionesBloques, bloques);
+                in.getLongs(c.iniciosBloques, bloques);
+                int n = c.enCurso();
+                if (n > 0) {
+                    int capacidad = CAPACIDAD_INICIAL;
+                    while (capacidad < n) capacidad *= 2;
+                    c.fechas = new long[capacidad];
+                    c.montos = new long[capacidad];
+                    c.contrapartes = new int[capacidad];
+                    c.tipos = new byte[capacidad];
+                    in.getLongs(c.fechas, n);
+                    in.getLongs(c.montos, n);
+                    for (int i = 0; i < n; i++) c.contrapartes[i] = in.getInt();
+                    in.getBytes(c.tipos, n);
+                }
+            }
+            long hasta = in.getLong();
+            if (in.getLong() != FIN) throw new IOException("Índice de historial incompleto: " + archivoIndice);
+            // bloques escritos después del índice: se vuelven a generar al reaplicar el diario
+            if (datos.size() < hasta) throw new IOException("Faltan bloques del historial: " + ARCHIVO);
+            datos.truncate(hasta);
+            largo.set(hasta);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            datos.close();
+        } catch (IOException e) {
+            System.err.println("No se pudo cerrar el historial: " + e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice global número de cuenta -> id de cuenta, en O(1).
+ *
+ * Las claves se normalizan (trim + mayúsculas) igual que la búsqueda sin distinguir
+ * mayúsculas que hacía el recorrido anterior. La tabla es de direccionamiento abierto
+ * y solo guarda el id (+1) de cada cuenta; la clave se compara contra la columna de
+ * números del {@link AlmacenCuentas}, así el índice cuesta ~8 bytes por cuenta.
+ * Los números no codificables van a un mapa aparte.
+ *
+ * Concurrencia: las altas se serializan con el monitor; {@link #buscar} no toma lock. Cada
+ * celda se escribe con release y se lee con acquire, así quien ve el id ve también el número
+ * que {@link AlmacenCuentas#crear} guardó antes. Una tabla agrandada se llena aparte y se
+ * publica entera por el campo volatile. Un número ya indexado con otro id se rechaza.
+ */
+class IndiceCuentas {
+    private static final int NO_ENCONTRADA = -1;
+    private static final VarHandle CELDAS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final AlmacenCuentas almacen;
+    private volatile int[] tabla = new int[1024]; // id + 1; 0 = vacío
+    private int ocupados;
+    private final Map<String, Integer> libres = new ConcurrentHashMap<>();
+
+    IndiceCuentas(AlmacenCuentas almacen) {
+        this.almacen = almacen;
+    }
+
+    /**
+     * Indexa la cuenta; volver a agregar el mismo id no cambia nada.
+     *
+     * @throws IllegalArgumentException si el número ya está indexado con otra cuenta
+     */
+    synchronized void agregar(int id) {
+        long clave = almacen.numeroCodificado(id);
+        if (clave == AlmacenCuentas.NUMERO_NO_CODIFICABLE) {
+            Integer previo = libres.putIfAbsent(almacen.numero(id), id);
+            if (previo != null && previo != id) throw duplicada(id);
+            return;
+        }
+        if ((ocupados + 1) * 2 > tabla.length) {
+            tabla = redimensionar(tabla, tabla.length * 2);
+        }
+        if (insertar(tabla, clave, id)) ocupados++;
+    }
+
+    /** Agranda la tabla de antemano para {@code n} cuentas (evita redimensionar en cargas masivas). */
+    synchronized void reservar(int n) {
+        int capacidad = tabla.length;
+        while (capacidad < 2L * n + 2) capacidad *= 2;
+        if (capacidad != tabla.length) tabla = redimensionar(tabla, capacidad);
+    }
+
+    /** Devuelve el id de la cuenta o -1 si no existe. */
+    int buscar(String numero) {
+        if (numero == null) return NO_ENCONTRADA;
+        long clave = AlmacenCuentas.codificar(numero);
+        if (clave == AlmacenCuentas.NUMERO_NO_CODIFICABLE) {
+            Integer id = libres.get(AlmacenCuentas.normalizar(numero));
+            return id == null ? NO_ENCONTRADA : id;
+        }
+        int[] t = tabla;
+        int mascara = t.length - 1;
+        for (int i = posicion(clave, mascara); ; i = (i + 1) & mascara) {
+            int v = (int) CELDAS.getAcquire(t, i);
+            if (v == 0) return NO_ENCONTRADA;
+            if (almacen.numeroCodificado(v - 1) == clave) return v - 1;
+        }
+    }
+
+    synchronized int size() {
+        return ocupados + libres.size();
+    }
+
+    /** Celdas que mira en promedio una búsqueda exitosa (1 = sin colisiones); para benchmarks. */
+    synchronized double sondeosPromedio() {
+        int[] t = tabla;
+        int mascara = t.length - 1;
+        long sondeos = 0;
+        for (int i = 0; i < t.length; i++) {
+            if (t[i] != 0) sondeos += ((i - posicion(almacen.numeroCodificado(t[i] - 1), mascara)) & mascara) + 1;
+        }
+        return ocupados == 0 ? 0 : (double) sondeos / ocupados;
+    }
+
+    // Devuelve true si ocupó una celda nueva (false si la cuenta ya estaba)
+    private boolean insertar(int[] t, long clave, int id) {
+        int mascara = t.length - 1;
+        for (int i = posicion(clave, mascara); ; i = (i + 1) & mascara) {
+            int v = t[i]; // solo se escribe bajo el monitor
+            if (v == 0) {
+                CELDAS.setRelease(t, i, id + 1);
+                return true;
+            }
+            if (almacen.numeroCodificado(v - 1) == clave) {
+                if (v - 1 != id) throw duplicada(id);
+                return false;
+            }
+        }
+    }
+
+    private IllegalArgumentException duplicada(int id) {
+        return new IllegalArgumentException("Número de cuenta repetido: " + almacen.numero(id));
+    }
+
+    private int[] redimensionar(int[] vieja, int capacidad) {
+        int[] nueva = new int[capacidad];
+        for (int v : vieja) {
+            if (v != 0) insertar(nueva, almacen.numeroCodificado(v - 1), v - 1);
+        }
+        return nueva;
+    }
+
+    private static int posicion(long clave, int mascara) {
+        // mezcla de MurmurHash3 (fmix64) para repartir números correlativos
+        long h = clave;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb53fe1a85b4dL;
+        h ^= h >>> 33;
+        return (int) h & mascara;
+    }
+}
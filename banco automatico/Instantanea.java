@@ -0,0 +1,362 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instantanea.java
+ *
+ * Formato binario compacto y versionado con el estado completo del Ledger.
+ * Las cuentas se escriben por columnas (igual que en {@link AlmacenCuentas}), así la
+ * carga copia páginas enteras en vez de crear objetos cuenta por cuenta.
+ *
+ * Formato (big endian):
+ *   int   MAGIA, short VERSION, long secuencia del diario, int cantidad de cuentas
+ *   byte[cantidad] tipos, long[cantidad] números codificados, long[cantidad] saldos
+ *   int k, k x (int id, texto número)          números no codificables
+ *   int m, m x (texto nombre, texto dni, texto password, byte n, n x int id)   personas
+ *   int a, a x (int id, long saldo inicial)    altas del día (desde la versión 2)
+ *   long FIN
+ * Los textos van como short (largo en bytes) + UTF-8.
+ *
+ * Se escribe a un ".tmp", se sincroniza y se renombra de forma atómica: una caída a
+ * mitad de escritura deja intacta la instantánea anterior.
+ */
+final class Instantanea {
+
+    static final String ARCHIVO = "instantanea.bin";
+    private static final int MAGIA = 0x434A534E; // "CJSN"
+    private static final short VERSION = 2; // se leen también las de la versión 1 (sin altas)
+    private static final long FIN = 0x46494E5F434A534EL; // "FIN_CJSN"
+    private static final int TAM_BUFFER = 1 << 20;
+    private static final int CABECERA = 4 + 2 + 8 + 4;
+
+    private Instantanea() {
+    }
+
+    /**
+     * Escribe la instantánea sin detener las transferencias: el corte de saldos
+     * ({@link Ledger#capturar()}) toma los candados solo un instante; el resto se escribe
+     * desde esa copia.
+     *
+     * @return la secuencia del diario que cubre la instantánea
+     */
+    static long escribir(Ledger ledger, Path archivo) throws IOException {
+        return escribir(ledger, ledger.capturar(), archivo);
+    }
+
+    /** Escribe una captura ya tomada (p. ej. la misma que se usó para conciliar el día). */
+    static long escribir(Ledger ledger, Ledger.Captura captura, Path archivo) throws IOException {
+        AlmacenCuentas almacen = ledger.almacen();
+        int n = captura.cantidad;
+        Path tmp = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Escritor out = new Escritor(ch);
+            out.putInt(MAGIA);
+            out.putShort(VERSION);
+            out.putLong(captura.secuencia);
+            out.putInt(n);
+            for (int p = 0; p < AlmacenCuentas.paginas(n); p++) {
+                out.putBytes(almacen.paginaTipos(p), largoPagina(n, p));
+            }
+            for (int p = 0; p < AlmacenCuentas.paginas(n); p++) {
+                out.putLongs(almacen.paginaNumeros(p), largoPagina(n, p));
+            }
+            for (int p = 0; p < AlmacenCuentas.paginas(n); p++) {
+                out.putLongs(captura.saldos[p], largoPagina(n, p));
+            }
+
+            List<Map.Entry<Integer, String>> libres = new ArrayList<>();
+            for (Map.Entry<Integer, String> e : almacen.numerosLibres().entrySet()) {
+                if (e.getKey() < n) libres.add(e);
+            }
+            out.putInt(libres.size());
+            for (Map.Entry<Integer, String> e : libres) {
+                out.putInt(e.getKey());
+                out.putTexto(e.getValue());
+            }
+
+            List<Persona> personas = new ArrayList<>();
+            for (Persona p : ledger.personas()) {
+                if (cuentasCapturadas(p.idsCuentas, n)) personas.add(p);
+            }
+            out.putInt(personas.size());
+            for (Persona p : personas) {
+                int[] ids = p.idsCuentas;
+                out.putTexto(p.nombre);
+                out.putTexto(p.dni);
+                out.putTexto(p.password);
+                out.putByte((byte) ids.length);
+                for (int id : ids) out.putInt(id);
+            }
+
+            List<Map.Entry<Integer, Long>> altas = new ArrayList<>();
+            for (Map.Entry<Integer, Long> e : almacen.altas().entrySet()) {
+                if (e.getKey() < n) altas.add(e);
+            }
+            out.putInt(altas.size());
+            for (Map.Entry<Integer, Long> e : altas) {
+                out.putInt(e.getKey());
+                out.putLong(e.getValue());
+            }
+            out.putLong(FIN);
+            out.vaciar();
+            ch.force(true);
+        }
+        Files.move(tmp, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return captura.secuencia;
+    }
+
+    /**
+     * Carga la instantánea en un Ledger vacío.
+     *
+     * @return la secuencia del diario que cubre la instantánea (reaplicar solo las posteriores)
+     */
+    static long cargar(Path archivo, Ledger ledger) throws IOException {
+        AlmacenCuentas almacen = ledger.almacen();
+        try (FileChannel ch = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            Lector in = new Lector(ch);
+            short version = leerCabecera(in, archivo);
+            long secuencia = in.getLong();
+            int n = in.getInt();
+
+            almacen.reservar(n);
+            for (int p = 0; p < AlmacenCuentas.paginas(n); p++) {
+                in.getBytes(almacen.paginaTipos(p), largoPagina(n, p));
+            }
+            for (int p = 0; p < AlmacenCuentas.paginas(n); p++) {
+                in.getLongs(almacen.paginaNumeros(p), largoPagina(n, p));
+            }
+            for (int p = 0; p < AlmacenCuentas.paginas(n); p++) {
+                in.getLongs(almacen.paginaSaldos(p), largoPagina(n, p));
+            }
+
+            int libres = in.getInt();
+            for (int i = 0; i < libres; i++) {
+                int id = in.getInt();
+                almacen.numerosLibres().put(id, in.getTexto());
+            }
+
+            ledger.indice().reservar(n);
+            int personas = in.getInt();
+            for (int i = 0; i < personas; i++) {
+                Persona p = new Persona(in.getTexto(), in.getTexto(), in.getTexto());
+                int[] ids = new int[in.getByte()];
+                for (int j = 0; j < ids.length; j++) ids[j] = in.getInt();
+                p.idsCuentas = ids;
+                p.almacen = almacen;
+                ledger.registrarPersona(p);
+            }
+            if (version >= 2) {
+                int altas = in.getInt();
+                for (int i = 0; i < altas; i++) {
+                    int id = in.getInt();
+                    almacen.altas().put(id, in.getLong());
+                }
+            }
+            if (in.getLong() != FIN) throw new IOException("Instantánea incompleta: " + archivo);
+            return secuencia;
+        }
+    }
+
+    /** Solo la secuencia del diario que cubre la instantánea (lee la cabecera). */
+    static long leerSecuencia(Path archivo) throws IOException {
+        try (FileChannel ch = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            return leerSecuencia(ch, archivo);
+        }
+    }
+
+    /** Igual, sobre un canal ya abierto; lo deja otra vez en la posición 0. */
+    static long leerSecuencia(FileChannel ch, Path archivo) throws IOException {
+        ch.position(0);
+        Lector in = new Lector(ch);
+        leerCabecera(in, archivo);
+        long secuencia = in.getLong();
+        ch.position(0);
+        return secuencia;
+    }
+
+    /**
+     * Lee solo la secuencia y la columna de saldos (sin personas ni índice), para comparar
+     * contra otro estado sin cargar un Ledger completo.
+     */
+    static Ledger.Captura leerSaldos(Path archivo) throws IOException {
+        try (FileChannel ch = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            Lector in = new Lector(ch);
+            leerCabecera(in, archivo);
+            long secuencia = in.getLong();
+            int n = in.getInt();
+            // saltar tipos (1 byte) y números (8 bytes) por cuenta
+            ch.position(CABECERA + 9L * n);
+            in = new Lector(ch);
+            long[][] saldos = new long[AlmacenCuentas.paginas(n)][];
+            for (int p = 0; p < saldos.length; p++) {
+                saldos[p] = new long[AlmacenCuentas.TAM_PAGINA];
+                in.getLongs(saldos[p], largoPagina(n, p));
+            }
+            return new Ledger.Captura(secuencia, n, saldos);
+        }
+    }
+
+    private static short leerCabecera(Lector in, Path archivo) throws IOException {
+        if (in.getInt() != MAGIA) throw new IOException("No es una instantánea del cajero: " + archivo);
+        short version = in.getShort();
+        if (version < 1 || version > VERSION) throw new IOException("Versión de instantánea no soportada: " + version);
+        return version;
+    }
+
+    private static boolean cuentasCapturadas(int[] ids, int n) {
+        for (int id : ids) {
+            if (id >= n) return false;
+        }
+        return true;
+    }
+
+    private static int largoPagina(int n, int pagina) {
+        return Math.min(AlmacenCuentas.TAM_PAGINA, n - pagina * AlmacenCuentas.TAM_PAGINA);
+    }
+
+    // --- E/S con buffer propio (también la usa HistorialMovimientos) ---
+
+    static final class Escritor {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(TAM_BUFFER);
+
+        Escritor(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        void putByte(byte v) throws IOException {
+            asegurar(1);
+            buf.put(v);
+        }
+
+        void putShort(short v) throws IOException {
+            asegurar(2);
+            buf.putShort(v);
+        }
+
+        void putInt(int v) throws IOException {
+            asegurar(4);
+            buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            asegurar(8);
+            buf.putLong(v);
+        }
+
+        void putBytes(byte[] a, int largo) throws IOException {
+            for (int i = 0; i < largo; ) {
+                asegurar(1);
+                int n = Math.min(largo - i, buf.remaining());
+                buf.put(a, i, n);
+                i += n;
+            }
+        }
+
+        void putLongs(long[] a, int largo) throws IOException {
+            for (int i = 0; i < largo; ) {
+                asegurar(8);
+                int n = Math.min(largo - i, buf.remaining() / 8);
+                buf.asLongBuffer().put(a, i, n);
+                buf.position(buf.position() + n * 8);
+                i += n;
+            }
+        }
+
+        void putTexto(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            if (b.length > 0xFFFF) throw new IOException("Texto demasiado largo para la instantánea");
+            putShort((short) b.length);
+            putBytes(b, b.length);
+        }
+
+        void vaciar() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        private void asegurar(int n) throws IOException {
+            if (buf.remaining() < n) vaciar();
+        }
+    }
+
+    static final class Lector {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(TAM_BUFFER);
+        private byte[] texto = new byte[256];
+
+        Lector(FileChannel ch) {
+            this.ch = ch;
+            buf.flip();
+        }
+
+        byte getByte() throws IOException {
+            asegurar(1);
+            return buf.get();
+        }
+
+        short getShort() throws IOException {
+            asegurar(2);
+            return buf.getShort();
+        }
+
+        int getInt() throws IOException {
+            asegurar(4);
+            return buf.getInt();
+        }
+
+        long getLong() throws IOException {
+            asegurar(8);
+            return buf.getLong();
+        }
+
+        void getBytes(byte[] a, int largo) throws IOException {
+            for (int i = 0; i < largo; ) {
+                asegurar(1);
+                int n = Math.min(largo - i, buf.remaining());
+                buf.get(a, i, n);
+                i += n;
+            }
+        }
+
+        void getLongs(long[] a, int largo) throws IOException {
+            for (int i = 0; i < largo; ) {
+                asegurar(8);
+                int n = Math.min(largo - i, buf.remaining() / 8);
+                buf.asLongBuffer().get(a, i, n);
+                buf.position(buf.position() + n * 8);
+                i += n;
+            }
+        }
+
+        String getTexto() throws IOException {
+            int largo = getShort() & 0xFFFF;
+            if (texto.length < largo) texto = new byte[largo];
+            getBytes(texto, largo);
+            return new String(texto, 0, largo, StandardCharsets.UTF_8);
+        }
+
+        // Garantiza al menos n bytes disponibles en el buffer
+        private void asegurar(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            buf.compact();
+            while (buf.position() < n) {
+                if (ch.read(buf) < 0) throw new EOFException("Instantánea truncada");
+            }
+            buf.flip();
+        }
+    }
+}
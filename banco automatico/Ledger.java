@@ -0,0 +1,554 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Ledger.java
+ *
+ * Núcleo contable sin Swing: registro de personas/cuentas y movimientos de saldo.
+ * Los saldos viven en céntimos (long) dentro del {@link AlmacenCuentas}.
+ * Seguro ante concurrencia real (varios cajeros o un proceso por lotes):
+ *
+ * - Candados por franjas (striping) elegidos por el id denso de la cuenta.
+ * - Las transferencias toman los dos candados en orden ascendente de franja,
+ *   así dos transferencias cruzadas nunca se interbloquean.
+ * - La validación de fondos y el débito ocurren dentro del mismo candado
+ *   (no hay ventana entre "hay saldo" y "debitar").
+ * - Si hay {@link DiarioTransacciones}, cada movimiento se registra en el diario antes de
+ *   aplicarse (con el candado tomado) y se confirma en disco después de soltarlo.
+ * - Si hay {@link HistorialMovimientos}, el movimiento se anota en el historial de cada
+ *   cuenta con los mismos candados tomados (mismo orden que el diario).
+ * - Los candados son StampedLock: las consultas de varios saldos ({@link #leerSaldos}) leen
+ *   en modo optimista, sin bloquear ni frenar a las transferencias, y validan que ninguna
+ *   escritura haya tocado esas franjas mientras leían (nunca ven un estado a medias).
+ * - {@link #capturar()} copia los saldos con copia en escritura: los candados se toman solo para
+ *   fijar el corte y la copia corre después; quien va a cambiar un saldo de una página que
+ *   todavía no se copió la copia primero (una página, no toda la columna).
+ */
+class Ledger {
+
+    private static final int FRANJAS = 1024; // potencia de 2
+    private static final long SIN_FONDOS = -1;
+    private static final int INTENTOS_OPTIMISTAS = 8;
+
+    private final Map<String, Persona> personasPorDni = new ConcurrentHashMap<>();
+    private final AlmacenCuentas almacen = new AlmacenCuentas();
+    private final IndiceCuentas indice = new IndiceCuentas(almacen);
+    private final StampedLock[] candados = new StampedLock[FRANJAS];
+    private volatile DiarioTransacciones diario; // null = solo en memoria
+    private volatile HistorialMovimientos historial; // null = sin historial
+    private volatile boolean soloLectura; // réplica en espera: solo consultas
+    private volatile CopiaEnCurso copiaEnCurso; // capturar() en marcha
+    private final Object capturas = new Object(); // una captura a la vez
+
+    Ledger() {
+        for (int i = 0; i < FRANJAS; i++) {
+            candados[i] = new StampedLock();
+        }
+    }
+
+    // --- Registro ---
+
+    /**
+     * Crea la cuenta en el almacén; queda indexada al agregarla a una persona registrada.
+     * Las altas no van al diario: la cuenta y su saldo inicial llegan al disco con la próxima
+     * instantánea. Con diario (banco en marcha) el saldo inicial se anota como alta del día.
+     */
+    SubCuenta abrirCuenta(TipoCuenta tipo, String numero, long saldoCentimos) {
+        return new SubCuenta(almacen, almacen.crear(tipo, numero, saldoCentimos, diario != null));
+    }
+
+    // Registra a la persona y enlaza sus cuentas (actuales y futuras) al índice global
+    void registrarPersona(Persona p) {
+        p.indice = indice;
+        for (int id : p.idsCuentas) {
+            indice.agregar(id);
+        }
+        personasPorDni.put(p.dni, p);
+    }
+
+    Persona buscarPersona(String dni) {
+        return dni == null ? null : personasPorDni.get(dni);
+    }
+
+    /** Login por DNI + contraseña; devuelve null si alguno no coincide. */
+    Persona autenticar(String dni, String password) {
+        Persona p = buscarPersona(dni);
+        return p != null && p.password.equals(password) ? p : null;
+    }
+
+    SubCuenta buscarCuenta(String numero) {
+        int id = indice.buscar(numero);
+        return id < 0 ? null : new SubCuenta(almacen, id);
+    }
+
+    /** Id de la cuenta o -1 si no existe (sin crear la vista). */
+    int idCuenta(String numero) {
+        return indice.buscar(numero);
+    }
+
+    Collection<Persona> personas() {
+        return personasPorDni.values();
+    }
+
+    int cantidadCuentas() {
+        return almacen.cantidad();
+    }
+
+    AlmacenCuentas almacen() {
+        return almacen;
+    }
+
+    IndiceCuentas indice() {
+        return indice;
+    }
+
+    void usarDiario(DiarioTransacciones diario) {
+        this.diario = diario;
+    }
+
+    DiarioTransacciones diario() {
+        return diario;
+    }
+
+    void usarHistorial(HistorialMovimientos historial) {
+        this.historial = historial;
+    }
+
+    HistorialMovimientos historial() {
+        return historial;
+    }
+
+    // --- Movimientos (montos en céntimos) ---
+
+    ResultadoOperacion transferir(SubCuenta origen, SubCuenta destino, long monto) {
+        if (monto <= 0) return ResultadoOperacion.MONTO_INVALIDO;
+        if (origen == null || destino == null) return ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+        if (origen.id == destino.id) return ResultadoOperacion.MISMA_CUENTA;
+
+        long secuencia = aplicarTransferencia(TipoMovimiento.TRANSFERENCIA, origen.id, destino.id, monto,
+                System.currentTimeMillis());
+        if (secuencia == SIN_FONDOS) return ResultadoOperacion.FONDOS_INSUFICIENTES;
+        confirmar(secuencia);
+        return ResultadoOperacion.EXITOSA;
+    }
+
+    /**
+     * Aplica un lote de transferencias ya validadas (cuentas existentes, distintas, monto &gt; 0)
+     * y espera al disco una sola vez al final, por todo el lote.
+     */
+    void transferirLote(int[] origenes, int[] destinos, long[] montos, int n, ResultadoOperacion[] resultados) {
+        transferirLote(TipoMovimiento.TRANSFERENCIA, origenes, destinos, montos, null, n, resultados);
+    }
+
+    /**
+     * Igual, con el tipo que queda en el diario y la marca de tiempo de cada una (null: ahora).
+     * Lo usan las transferencias programadas, que se anotan con su vencimiento.
+     */
+    void transferirLote(TipoMovimiento tipo, int[] origenes, int[] destinos, long[] montos, long[] marcas,
+                        int n, ResultadoOperacion[] resultados) {
+        long ultima = 0;
+        for (int i = 0; i < n; i++) {
+            long marcaTiempo = marcas == null ? System.currentTimeMillis() : marcas[i];
+            long secuencia = aplicarTransferencia(tipo, origenes[i], destinos[i], montos[i], marcaTiempo);
+            if (secuencia == SIN_FONDOS) {
+                resultados[i] = ResultadoOperacion.FONDOS_INSUFICIENTES;
+            } else {
+                resultados[i] = ResultadoOperacion.EXITOSA;
+                ultima = Math.max(ultima, secuencia);
+            }
+        }
+        confirmar(ultima);
+    }
+
+    // Valida fondos y mueve el saldo con ambos candados tomados; devuelve la secuencia del diario
+    private long aplicarTransferencia(TipoMovimiento tipo, int origen, int destino, long monto, long marcaTiempo) {
+        int a = franja(origen);
+        int b = franja(destino);
+        StampedLock primero = candados[Math.min(a, b)];
+        StampedLock segundo = candados[Math.max(a, b)];
+        long sello1 = primero.writeLock();
+        try {
+            long sello2 = segundo != primero ? segundo.writeLock() : 0;
+            try {
+                long saldoOrigen = almacen.saldo(origen);
+                if (saldoOrigen < monto) return SIN_FONDOS;
+                long saldoDestino = Math.addExact(almacen.saldo(destino), monto);
+                long secuencia = registrar(tipo, origen, destino, monto, marcaTiempo);
+                fijarSaldo(origen, saldoOrigen - monto);
+                fijarSaldo(destino, saldoDestino);
+                anotar(secuencia, marcaTiempo, tipo, origen, destino, monto);
+                return secuencia;
+            } finally {
+                if (segundo != primero) segundo.unlockWrite(sello2);
+            }
+        } finally {
+            primero.unlockWrite(sello1);
+        }
+    }
+
+    ResultadoOperacion depositar(SubCuenta destino, long monto) {
+        if (monto <= 0) return ResultadoOperacion.MONTO_INVALIDO;
+        if (destino == null) return ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+
+        confirmar(contabilizarDeposito(destino.id, monto));
+        return ResultadoOperacion.EXITOSA;
+    }
+
+    /**
+     * Aplica un depósito ya validado y lo registra en el diario, sin esperar al disco.
+     * Devuelve la secuencia para {@link #confirmar(long)}.
+     */
+    long contabilizarDeposito(int destino, long monto) {
+        return acreditar(TipoMovimiento.DEPOSITO, -1, destino, monto);
+    }
+
+    /**
+     * Abona el monto a una cuenta sin debitar otra del ledger (depósito, o la fase final de
+     * una transferencia entre particiones, con la referencia remota en {@code origen}).
+     * No espera al disco: devuelve la secuencia para {@link #confirmar(long)}.
+     */
+    long acreditar(TipoMovimiento tipo, int origen, int destino, long monto) {
+        StampedLock candado = candados[franja(destino)];
+        long sello = candado.writeLock();
+        try {
+            long saldoDestino = Math.addExact(almacen.saldo(destino), monto);
+            long marcaTiempo = System.currentTimeMillis();
+            long secuencia = registrar(tipo, origen, destino, monto, marcaTiempo);
+            fijarSaldo(destino, saldoDestino);
+            anotar(secuencia, marcaTiempo, tipo, origen, destino, monto);
+            return secuencia;
+        } finally {
+            candado.unlockWrite(sello);
+        }
+    }
+
+    ResultadoOperacion retirar(SubCuenta origen, long monto) {
+        if (monto <= 0) return ResultadoOperacion.MONTO_INVALIDO;
+        if (origen == null) return ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+
+        long secuencia = debitar(TipoMovimiento.RETIRO, origen.id, -1, monto);
+        if (secuencia == SIN_FONDOS) return ResultadoOperacion.FONDOS_INSUFICIENTES;
+        confirmar(secuencia);
+        return ResultadoOperacion.EXITOSA;
+    }
+
+    /**
+     * Primera fase de una transferencia a otra partición: valida fondos y debita el origen
+     * con el candado tomado (SALIDA_PREPARADA, la referencia remota va en el destino).
+     * Devuelve la secuencia del diario o -1 si no hay fondos.
+     */
+    long reservarSalida(int origen, int referencia, long monto) {
+        return debitar(TipoMovimiento.SALIDA_PREPARADA, origen, referencia, monto);
+    }
+
+    // Valida fondos y debita el origen sin acreditar otra cuenta del ledger; devuelve la secuencia o SIN_FONDOS
+    private long debitar(TipoMovimiento tipo, int origen, int referencia, long monto) {
+        StampedLock candado = candados[franja(origen)];
+        long sello = candado.writeLock();
+        try {
+            long saldoOrigen = almacen.saldo(origen);
+            if (saldoOrigen < monto) return SIN_FONDOS;
+            long marcaTiempo = System.currentTimeMillis();
+            long secuencia = registrar(tipo, origen, referencia, monto, marcaTiempo);
+            fijarSaldo(origen, saldoOrigen - monto);
+            anotar(secuencia, marcaTiempo, tipo, origen, referencia, monto);
+            return secuencia;
+        } finally {
+            candado.unlockWrite(sello);
+        }
+    }
+
+    /**
+     * Registra en el diario una marca que no mueve saldo (p. ej. ENTRADA_PREPARADA); no
+     * necesita candados de cuentas. Devuelve la secuencia.
+     */
+    long marcar(TipoMovimiento tipo, int origen, int destino, long monto) {
+        return registrar(tipo, origen, destino, monto, System.currentTimeMillis());
+    }
+
+    /**
+     * Abona a las cuentas [primera, primera + n) los montos ya calculados (0 = no se abona),
+     * cada uno como un movimiento sin cuenta de origen. No espera al disco: devuelve la
+     * última secuencia para {@link #confirmar(long)}, o 0 si no abonó nada.
+     */
+    long abonarLote(TipoMovimiento tipo, int primera, long[] montos, int n) {
+        long ultima = 0;
+        for (int i = 0; i < n; i++) {
+            long monto = montos[i];
+            if (monto == 0) continue;
+            int id = primera + i;
+            StampedLock candado = candados[franja(id)];
+            long sello = candado.writeLock();
+            try {
+                long saldo = Math.addExact(almacen.saldo(id), monto);
+                long marcaTiempo = System.currentTimeMillis();
+                long secuencia = registrar(tipo, -1, id, monto, marcaTiempo);
+                fijarSaldo(id, saldo);
+                anotar(secuencia, marcaTiempo, tipo, -1, id, monto);
+                ultima = Math.max(ultima, secuencia);
+            } finally {
+                candado.unlockWrite(sello);
+            }
+        }
+        return ultima;
+    }
+
+    long saldo(SubCuenta sc) {
+        return almacen.saldo(sc.id);
+    }
+
+    /**
+     * Saldos de varias cuentas en un mismo instante (p. ej. Corriente y Ahorros de una
+     * persona): ninguna transferencia queda a medias entre ellas.
+     *
+     * Lectura optimista: toma el sello de cada franja, lee y valida; si una transferencia
+     * tocó alguna franja, reintenta. Solo tras varios intentos fallidos (franjas muy
+     * calientes) toma los candados en modo lectura, en orden, por el tiempo de leer.
+     */
+    void leerSaldos(int[] ids, int n, long[] destino) {
+        long[] sellos = new long[n];
+        for (int intento = 0; intento < INTENTOS_OPTIMISTAS; intento++) {
+            boolean valido = true;
+            for (int i = 0; i < n && valido; i++) {
+                sellos[i] = candados[franja(ids[i])].tryOptimisticRead();
+                valido = sellos[i] != 0;
+            }
+            if (!valido) {
+                Thread.onSpinWait();
+                continue;
+            }
+            for (int i = 0; i < n; i++) destino[i] = almacen.saldo(ids[i]);
+            for (int i = 0; i < n && valido; i++) valido = candados[franja(ids[i])].validate(sellos[i]);
+            if (valido) return;
+            Thread.onSpinWait();
+        }
+        // Franjas distintas en orden ascendente (como las transferencias: sin interbloqueos)
+        int[] franjas = new int[n];
+        for (int i = 0; i < n; i++) franjas[i] = franja(ids[i]);
+        Arrays.sort(franjas);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || franjas[m - 1] != franjas[i]) franjas[m++] = franjas[i];
+        }
+        for (int i = 0; i < m; i++) sellos[i] = candados[franjas[i]].readLock();
+        try {
+            for (int i = 0; i < n; i++) destino[i] = almacen.saldo(ids[i]);
+        } finally {
+            for (int i = m - 1; i >= 0; i--) candados[franjas[i]].unlockRead(sellos[i]);
+        }
+    }
+
+    // --- Recuperación e instantáneas ---
+
+    /** Saldos copiados en un instante consistente, junto con la última secuencia del diario aplicada. */
+    static final class Captura {
+        final long secuencia;
+        final int cantidad;
+        final long[][] saldos; // una copia por página
+
+        Captura(long secuencia, int cantidad, long[][] saldos) {
+            this.secuencia = secuencia;
+            this.cantidad = cantidad;
+            this.saldos = saldos;
+        }
+    }
+
+    /** Páginas de saldos copiadas al corte de una captura; null = todavía sin copiar. */
+    private static final class CopiaEnCurso {
+        final AtomicReferenceArray<long[]> paginas;
+        final Object[] monitores;
+
+        CopiaEnCurso(int paginas) {
+            this.paginas = new AtomicReferenceArray<>(paginas);
+            this.monitores = new Object[paginas];
+            for (int p = 0; p < paginas; p++) monitores[p] = new Object();
+        }
+    }
+
+    /**
+     * Corte consistente de los saldos sin frenar a los cajeros mientras se copia: toma todos los
+     * candados en modo lectura (en orden) solo para leer la secuencia y publicar la copia en curso;
+     * con los candados tomados, todo registro del diario hasta esa secuencia ya está aplicado y
+     * ninguno posterior lo está. Después copia las páginas sin candados; un saldo que cambia antes
+     * de que su página se copie hace copiar esa página primero ({@link #fijarSaldo}).
+     */
+    Captura capturar() {
+        synchronized (capturas) {
+            long[] sellos = new long[FRANJAS];
+            long secuencia;
+            int n;
+            CopiaEnCurso copia;
+            for (int i = 0; i < FRANJAS; i++) sellos[i] = candados[i].readLock();
+            try {
+                DiarioTransacciones d = diario;
+                secuencia = d == null ? 0 : d.ultimaSecuencia();
+                n = almacen.cantidad();
+                copia = new CopiaEnCurso(AlmacenCuentas.paginas(n));
+                copiaEnCurso = copia; // los escritores lo leen con su candado tomado
+            } finally {
+                for (int i = FRANJAS - 1; i >= 0; i--) candados[i].unlockRead(sellos[i]);
+            }
+            long[][] saldos = new long[copia.paginas.length()][];
+            try {
+                for (int p = 0; p < saldos.length; p++) saldos[p] = copiarPagina(copia, p);
+            } finally {
+                copiaEnCurso = null;
+            }
+            return new Captura(secuencia, n, saldos);
+        }
+    }
+
+    private long[] copiarPagina(CopiaEnCurso copia, int p) {
+        long[] hecha = copia.paginas.get(p);
+        if (hecha != null) return hecha;
+        synchronized (copia.monitores[p]) {
+            hecha = copia.paginas.get(p);
+            if (hecha == null) {
+                hecha = almacen.paginaSaldos(p).clone();
+                copia.paginas.set(p, hecha);
+            }
+            return hecha;
+        }
+    }
+
+    // Todo cambio de saldo pasa por aquí, con el candado de la cuenta tomado
+    private void fijarSaldo(int id, long centimos) {
+        CopiaEnCurso copia = copiaEnCurso;
+        if (copia != null) {
+            int p = id >>> AlmacenCuentas.BITS_PAGINA;
+            if (p < copia.paginas.length()) copiarPagina(copia, p);
+        }
+        almacen.fijarSaldo(id, centimos);
+    }
+
+    /**
+     * Reaplica un registro del diario tal cual (sin validar ni volver a registrarlo).
+     * Devuelve false si el registro menciona una cuenta que este ledger no tiene.
+     */
+    boolean aplicarRegistro(TipoMovimiento tipo, int origen, int destino, long monto) {
+        return aplicar(tipo, origen, destino, monto, false, 0);
+    }
+
+    /**
+     * Aplica un registro recibido del diario del primario (réplica en espera): igual que
+     * {@link #aplicarRegistro}, pero además lo escribe en el diario local con la misma
+     * secuencia y marca de tiempo, y lo anota en el historial. Los registros deben llegar
+     * en orden y sin huecos; no espera al disco (ver {@link #confirmar(long)}).
+     */
+    boolean replicarRegistro(long secuencia, long marcaTiempo, TipoMovimiento tipo, int origen, int destino, long monto) {
+        DiarioTransacciones d = diario;
+        long esperada = d == null ? secuencia : d.ultimaSecuencia() + 1;
+        if (secuencia != esperada) throw new IllegalStateException("Secuencia " + secuencia + " fuera de orden (se esperaba " + esperada + ")");
+        return aplicar(tipo, origen, destino, monto, true, marcaTiempo);
+    }
+
+    /** Fija si el ledger rechaza operaciones de los cajeros (réplica aún no promovida). */
+    void fijarSoloLectura(boolean soloLectura) {
+        this.soloLectura = soloLectura;
+    }
+
+    boolean soloLectura() {
+        return soloLectura;
+    }
+
+    private boolean aplicar(TipoMovimiento tipo, int origen, int destino, long monto, boolean replicar, long marcaTiempo) {
+        int n = almacen.cantidad();
+        boolean debita = tipo == TipoMovimiento.TRANSFERENCIA || tipo == TipoMovimiento.SALIDA_PREPARADA
+                || tipo == TipoMovimiento.RETIRO || tipo == TipoMovimiento.PROGRAMADA;
+        boolean acredita = tipo != TipoMovimiento.SALIDA_PREPARADA && tipo != TipoMovimiento.SALIDA_CONFIRMADA
+                && tipo != TipoMovimiento.RETIRO;
+        if ((debita && (origen < 0 || origen >= n)) || (acredita && (destino < 0 || destino >= n))) {
+            return false;
+        }
+        if (!tipo.mueveSaldo()) {
+            if (replicar) registrar(tipo, origen, destino, monto, marcaTiempo);
+            return true;
+        }
+        switch (tipo) {
+            case TRANSFERENCIA:
+            case PROGRAMADA: {
+                int a = franja(origen);
+                int b = franja(destino);
+                StampedLock primero = candados[Math.min(a, b)];
+                StampedLock segundo = candados[Math.max(a, b)];
+                long sello1 = primero.writeLock();
+                long sello2 = segundo != primero ? segundo.writeLock() : 0;
+                try {
+                    if (replicar) replicar(tipo, origen, destino, monto, marcaTiempo);
+                    fijarSaldo(origen, almacen.saldo(origen) - monto);
+                    fijarSaldo(destino, almacen.saldo(destino) + monto);
+                } finally {
+                    if (segundo != primero) segundo.unlockWrite(sello2);
+                    primero.unlockWrite(sello1);
+                }
+                return true;
+            }
+            case SALIDA_PREPARADA:
+            case RETIRO: {
+                StampedLock candado = candados[franja(origen)];
+                long sello = candado.writeLock();
+                try {
+                    if (replicar) replicar(tipo, origen, destino, monto, marcaTiempo);
+                    fijarSaldo(origen, almacen.saldo(origen) - monto);
+                } finally {
+                    candado.unlockWrite(sello);
+                }
+                return true;
+            }
+            case DEPOSITO:
+            case INTERES:
+            case SALIDA_ANULADA:
+            case ENTRADA_CONFIRMADA: {
+                StampedLock candado = candados[franja(destino)];
+                long sello = candado.writeLock();
+                try {
+                    if (replicar) replicar(tipo, origen, destino, monto, marcaTiempo);
+                    fijarSaldo(destino, almacen.saldo(destino) + monto);
+                } finally {
+                    candado.unlockWrite(sello);
+                }
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    // Diario e historial de un registro replicado, con los candados de sus cuentas tomados
+    private void replicar(TipoMovimiento tipo, int origen, int destino, long monto, long marcaTiempo) {
+        long secuencia = registrar(tipo, origen, destino, monto, marcaTiempo);
+        anotar(secuencia, marcaTiempo, tipo, origen, destino, monto);
+    }
+
+    // Registro write-ahead: se llama con los candados de las cuentas tomados
+    private long registrar(TipoMovimiento tipo, int origen, int destino, long monto, long marcaTiempo) {
+        DiarioTransacciones d = diario;
+        return d == null ? 0 : d.registrar(tipo, origen, destino, monto, marcaTiempo);
+    }
+
+    // Historial por cuenta: también con los candados tomados, así queda en orden de secuencia
+    private void anotar(long secuencia, long marcaTiempo, TipoMovimiento tipo, int origen, int destino, long monto) {
+        HistorialMovimientos h = historial;
+        if (h != null) h.registrar(secuencia, marcaTiempo, tipo, origen, destino, monto);
+    }
+
+    /** Espera (según el modo de durabilidad del diario) a que la secuencia esté en disco. */
+    void confirmar(long secuencia) {
+        DiarioTransacciones d = diario;
+        if (d != null && secuencia > 0) d.confirmar(secuencia);
+    }
+
+    /** Espera a que la secuencia esté en disco en cualquier modo (fases del protocolo entre particiones). */
+    void esperarDisco(long secuencia) {
+        DiarioTransacciones d = diario;
+        if (d != null && secuencia > 0) d.esperarDurable(secuencia);
+    }
+
+    private static int franja(int id) {
+        return id & (FRANJAS - 1);
+    }
+}
@@ -0,0 +1,339 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LimitesTransferencia.java
+ *
+ * Límites de velocidad para transferencias a otra persona, por cuenta de origen y por DNI:
+ * cantidad de operaciones y monto total, por día calendario y en ventanas deslizantes
+ * (p. ej. "no más de 5 transferencias ni S/ 2,000 en 60 minutos").
+ *
+ * - Cada cuenta/DNI que transfiere tiene sus contadores, creados al primer uso. Los de
+ *   las cuentas están en páginas de 64K por id denso (como en {@link AlmacenCuentas}, se
+ *   crean con CAS); los de DNI en un ConcurrentHashMap. Las claves inactivas se purgan una
+ *   vez por día en un hilo aparte: la reserva que nota el cambio de día no recorre las claves.
+ * - Verificar y reservar es O(1) bajo el candado de esa clave: no hay contención entre
+ *   cuentas distintas. Todo el estado de una clave es un solo long[] (pocas líneas de caché).
+ * - Una ventana deslizante es un anillo de ranuras de tiempo con las sumas ya acumuladas.
+ *   Avanzar el anillo solo resta las ranuras que salen, así que el costo no depende de
+ *   cuántas operaciones hubo. El anillo tiene una ranura de más: la ventana efectiva
+ *   cubre entre {@code ventana} y {@code ventana + ventana/RANURAS}, nunca menos (el error
+ *   siempre es a favor de limitar).
+ * - El día calendario es una ventana de una sola ranura de 24 h alineada con la zona horaria.
+ * - {@link #reservar} anota la operación antes de transferir; si la transferencia falla
+ *   (p. ej. fondos insuficientes) {@link #liberar} la descuenta.
+ *
+ * Los contadores viven en memoria: un reinicio del cajero los deja en cero.
+ *
+ * Configuración: -Dcajero.limites="cuenta.dia=20/5000,cuenta.60m=5/2000,dni.dia=30/8000,dni.60m=10/3000"
+ * (ámbito.periodo=cantidad/monto en soles; periodo "dia" o minutos "Nm").
+ */
+final class LimitesTransferencia {
+
+    static final String POR_DEFECTO = "cuenta.dia=20/5000,cuenta.60m=5/2000,dni.dia=30/8000,dni.60m=10/3000";
+    static final int RANURAS = 6;
+
+    private static final long DIA_MS = TimeUnit.DAYS.toMillis(1);
+    private static final int SUPERADO = 0;
+    private static final int RESERVADO = 1;
+    private static final int RETIRADO = -1; // la purga lo quitó: volver a buscarlo
+    private static final VarHandle CONTADORES = MethodHandles.arrayElementVarHandle(Contadores[].class);
+    private static final ExecutorService PURGA = Hilos.porTarea("limites-purga");
+
+    enum Ambito { CUENTA, DNI }
+
+    /** Un límite: a lo sumo {@code maxCantidad} transferencias y {@code maxMonto} céntimos por período. */
+    static final class Limite {
+        final Ambito ambito;
+        final long ventanaMs; // 0 = día calendario
+        final int maxCantidad;
+        final long maxMonto;
+
+        Limite(Ambito ambito, long ventanaMs, int maxCantidad, long maxMonto) {
+            if (ventanaMs < 0 || maxCantidad <= 0 || maxMonto <= 0) throw new IllegalArgumentException("Límite inválido");
+            this.ambito = ambito;
+            this.ventanaMs = ventanaMs;
+            this.maxCantidad = maxCantidad;
+            this.maxMonto = maxMonto;
+        }
+    }
+
+    private final Plan planCuenta;
+    private final Plan planDni;
+    private final long desfaseZonaMs;
+    private volatile Contadores[][] paginas = new Contadores[16][];
+    private final ConcurrentHashMap<String, Contadores> dnis = new ConcurrentHashMap<>();
+    private final AtomicLong diaPurgado = new AtomicLong();
+
+    LimitesTransferencia(List<Limite> limites) {
+        this(limites, ZoneId.systemDefault());
+    }
+
+    LimitesTransferencia(List<Limite> limites, ZoneId zona) {
+        // desfase fijo al arrancar: un cambio de horario mueve la medianoche una hora
+        this.desfaseZonaMs = zona.getRules().getOffset(Instant.now()).getTotalSeconds() * 1000L;
+        this.planCuenta = new Plan(limites.stream().filter(l -> l.ambito == Ambito.CUENTA).toArray(Limite[]::new), desfaseZonaMs);
+        this.planDni = new Plan(limites.stream().filter(l -> l.ambito == Ambito.DNI).toArray(Limite[]::new), desfaseZonaMs);
+        this.diaPurgado.set(dia(System.currentTimeMillis()));
+    }
+
+    /** "ámbito.periodo=cantidad/monto,..."; una cadena vacía no pone límites. */
+    static LimitesTransferencia parsear(String texto) {
+        List<Limite> limites = new ArrayList<>();
+        for (String parte : texto.split(",")) {
+            if (parte.isBlank()) continue;
+            String[] kv = parte.trim().split("=");
+            String[] clave = kv.length == 2 ? kv[0].split("\\.") : new String[0];
+            String[] valor = kv.length == 2 ? kv[1].split("/") : new String[0];
+            if (clave.length != 2 || valor.length != 2) throw new IllegalArgumentException("Límite inválido: " + parte);
+            Ambito ambito = Ambito.valueOf(clave[0].trim().toUpperCase());
+            String periodo = clave[1].trim();
+            long ventanaMs;
+            if (periodo.equals("dia")) {
+                ventanaMs = 0;
+            } else if (periodo.endsWith("m")) {
+                ventanaMs = TimeUnit.MINUTES.toMillis(Long.parseLong(periodo.substring(0, periodo.length() - 1)));
+            } else {
+                throw new IllegalArgumentException("Período inválido: " + periodo);
+            }
+            limites.add(new Limite(ambito, ventanaMs, Integer.parseInt(valor[0].trim()), Dinero.aCentimos(valor[1])));
+        }
+        return new LimitesTransferencia(limites);
+    }
+
+    static LimitesTransferencia porDefecto() {
+        return parsear(System.getProperty("cajero.limites", POR_DEFECTO));
+    }
+
+    /**
+     * Anota una transferencia de {@code monto} si ningún límite de la cuenta ni del DNI se
+     * supera; si alguno se supera no anota nada y devuelve false.
+     */
+    boolean reservar(int cuenta, String dni, long monto, long ahora) {
+        purgarSiCambioElDia(ahora);
+        if (planCuenta.vacio()) {
+            return planDni.vacio() || reservarDni(dni, monto, ahora) != SUPERADO;
+        }
+        int r;
+        Contadores c;
+        do {
+            c = contadoresCuenta(cuenta);
+            r = c.reservar(monto, ahora);
+        } while (r == RETIRADO);
+        if (r == SUPERADO) return false;
+        if (!planDni.vacio() && reservarDni(dni, monto, ahora) == SUPERADO) {
+            c.liberar(monto, ahora);
+            return false;
+        }
+        return true;
+    }
+
+    private int reservarDni(String dni, long monto, long ahora) {
+        while (true) {
+            int r = dnis.computeIfAbsent(dni, k -> new Contadores(planDni)).reservar(monto, ahora);
+            if (r != RETIRADO) return r;
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Deshace un {@link #reservar} exitoso (la transferencia no se hizo); {@code momento} es el de la reserva. */
+    void liberar(int cuenta, String dni, long monto, long momento) {
+        Contadores c = planCuenta.vacio() ? null : buscarCuenta(cuenta);
+        if (c != null) c.liberar(monto, momento);
+        Contadores d = dnis.get(dni);
+        if (d != null) d.liberar(monto, momento);
+    }
+
+    /** Cuentas y DNI con contadores en memoria. */
+    int clavesActivas() {
+        int n = dnis.size();
+        for (Contadores[] pagina : paginas) {
+            if (pagina == null) continue;
+            for (int i = 0; i < pagina.length; i++) if (CONTADORES.getAcquire(pagina, i) != null) n++;
+        }
+        return n;
+    }
+
+    private long dia(long ahora) {
+        return Math.floorDiv(ahora + desfaseZonaMs, DIA_MS);
+    }
+
+    // Una vez por día, el primer hilo que lo nota encarga la purga (O(claves)) y sigue con su reserva
+    private void purgarSiCambioElDia(long ahora) {
+        long hoy = dia(ahora);
+        long anterior = diaPurgado.get();
+        if (hoy <= anterior || !diaPurgado.compareAndSet(anterior, hoy)) return;
+        PURGA.execute(() -> purgar(ahora));
+    }
+
+    // Quita las claves sin movimiento en ninguna ventana; una reserva concurrente sobre una clave
+    // retirada la vuelve a crear (RETIRADO)
+    private void purgar(long ahora) {
+        for (Contadores[] pagina : paginas) {
+            if (pagina == null) continue;
+            for (int i = 0; i < pagina.length; i++) {
+                Contadores c = (Contadores) CONTADORES.getAcquire(pagina, i);
+                if (c != null && c.retirarSiInactivo(ahora)) CONTADORES.compareAndSet(pagina, i, c, null);
+            }
+        }
+        dnis.values().removeIf(c -> c.retirarSiInactivo(ahora));
+    }
+
+    // --- Cuentas (páginas de 64K como en AlmacenCuentas) ---
+
+    private Contadores buscarCuenta(int id) {
+        Contadores[][] p = paginas;
+        int pagina = id >>> AlmacenCuentas.BITS_PAGINA;
+        if (id < 0 || pagina >= p.length || p[pagina] == null) return null;
+        return (Contadores) CONTADORES.getAcquire(p[pagina], id & AlmacenCuentas.MASCARA_PAGINA);
+    }
+
+    private Contadores contadoresCuenta(int id) {
+        Contadores[] pagina = pagina(id >>> AlmacenCuentas.BITS_PAGINA);
+        int i = id & AlmacenCuentas.MASCARA_PAGINA;
+        Contadores c = (Contadores) CONTADORES.getAcquire(pagina, i);
+        if (c != null) return c;
+        Contadores nuevos = new Contadores(planCuenta);
+        Contadores previos = (Contadores) CONTADORES.compareAndExchangeRelease(pagina, i, null, nuevos);
+        return previos == null ? nuevos : previos;
+    }
+
+    private Contadores[] pagina(int p) {
+        Contadores[][] actual = paginas;
+        if (p < actual.length && actual[p] != null) return actual[p];
+        synchronized (this) {
+            if (p >= paginas.length) {
+                int n = paginas.length;
+                while (n <= p) n *= 2;
+                paginas = Arrays.copyOf(paginas, n);
+            }
+            if (paginas[p] == null) paginas[p] = new Contadores[AlmacenCuentas.TAM_PAGINA];
+            return paginas[p];
+        }
+    }
+
+    // --- Ventanas ---
+
+    /**
+     * Geometría de las ventanas de un ámbito, compartida por todas sus claves. En el estado
+     * de una clave, el límite i ocupa [inicio[i], inicio[i] + 3 + 2 x ranuras[i]):
+     * última ranura vista, cantidad y monto acumulados, y (cantidad, monto) por ranura.
+     */
+    private static final class Plan {
+        final Limite[] limites;
+        final int[] inicio;
+        final int[] ranuras;
+        final long[] anchoMs;
+        final long[] desfaseMs;
+        final int largo;
+
+        Plan(Limite[] limites, long desfaseZonaMs) {
+            this.limites = limites;
+            int n = limites.length;
+            inicio = new int[n];
+            ranuras = new int[n];
+            anchoMs = new long[n];
+            desfaseMs = new long[n];
+            int largo = 0;
+            for (int i = 0; i < n; i++) {
+                boolean diario = limites[i].ventanaMs == 0;
+                ranuras[i] = diario ? 1 : RANURAS + 1;
+                anchoMs[i] = diario ? DIA_MS : Math.max(1, limites[i].ventanaMs / RANURAS);
+                desfaseMs[i] = diario ? desfaseZonaMs : 0;
+                inicio[i] = largo;
+                largo += 3 + 2 * ranuras[i];
+            }
+            this.largo = largo;
+        }
+
+        boolean vacio() {
+            return limites.length == 0;
+        }
+
+        long ranura(int i, long momento) {
+            return Math.floorDiv(momento + desfaseMs[i], anchoMs[i]);
+        }
+    }
+
+    /** Contadores de una cuenta o un DNI: todas las ventanas de su ámbito, con un solo candado. */
+    private static final class Contadores {
+        private final Plan plan;
+        private final long[] estado;
+        private boolean retirado;
+
+        Contadores(Plan plan) {
+            this.plan = plan;
+            this.estado = new long[plan.largo];
+            for (int i = 0; i < plan.inicio.length; i++) estado[plan.inicio[i]] = Long.MIN_VALUE;
+        }
+
+        synchronized int reservar(long monto, long ahora) {
+            if (retirado) return RETIRADO;
+            Limite[] limites = plan.limites;
+            for (int i = 0; i < limites.length; i++) {
+                int b = avanzar(i, ahora);
+                if (estado[b + 1] + 1 > limites[i].maxCantidad || estado[b + 2] > limites[i].maxMonto - monto) {
+                    return SUPERADO;
+                }
+            }
+            for (int i = 0; i < limites.length; i++) sumar(i, ahora, 1, monto);
+            return RESERVADO;
+        }
+
+        synchronized void liberar(long monto, long momento) {
+            for (int i = 0; i < plan.limites.length; i++) sumar(i, momento, -1, -monto);
+        }
+
+        synchronized boolean retirarSiInactivo(long ahora) {
+            for (int i = 0; i < plan.limites.length; i++) {
+                if (estado[avanzar(i, ahora) + 1] != 0) return false;
+            }
+            retirado = true;
+            return true;
+        }
+
+        // Recicla las ranuras del límite i que quedaron fuera de la ventana; devuelve su inicio
+        private int avanzar(int i, long ahora) {
+            int b = plan.inicio[i];
+            int n = plan.ranuras[i];
+            long r = plan.ranura(i, ahora);
+            long ultima = estado[b];
+            if (r <= ultima) return b;
+            if (ultima == Long.MIN_VALUE || r - ultima >= n) {
+                Arrays.fill(estado, b + 1, b + 3 + 2 * n, 0);
+            } else {
+                for (long k = ultima + 1; k <= r; k++) {
+                    int s = b + 3 + 2 * (int) Math.floorMod(k, (long) n);
+                    estado[b + 1] -= estado[s];
+                    estado[b + 2] -= estado[s + 1];
+                    estado[s] = 0;
+                    estado[s + 1] = 0;
+                }
+            }
+            estado[b] = r;
+            return b;
+        }
+
+        // Suma en la ranura de "momento", si todavía está dentro de la ventana
+        private void sumar(int i, long momento, long cantidad, long monto) {
+            int b = plan.inicio[i];
+            int n = plan.ranuras[i];
+            long r = plan.ranura(i, momento);
+            if (r > estado[b] || r <= estado[b] - n) return;
+            int s = b + 3 + 2 * (int) Math.floorMod(r, (long) n);
+            estado[s] += cantidad;
+            estado[s + 1] += monto;
+            estado[b + 1] += cantidad;
+            estado[b + 2] += monto;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * LoteTransferencias.java
+ *
+ * Transferencias masivas (planillas, pagos a proveedores) sin interfaz gráfica.
+ * Lee un archivo con una transferencia por línea "origen,destino,monto" (también ';'
+ * o espacios; '#' inicia un comentario) y lo procesa como un pipeline:
+ *
+ *   lectura+parseo (1 hilo) -> validación (N hilos) -> reparto (1 hilo) -> aplicación (M hilos) -> resultados (1 hilo)
+ *
+ * Las etapas se pasan lotes de líneas por colas acotadas, así una etapa lenta frena a
+ * la anterior en vez de llenar la memoria. La validación solo mira el formato de la línea:
+ * cuentas existentes, monto &gt; 0 y cuentas distintas; los fondos los valida el Ledger de forma
+ * atómica al aplicar, que confirma el diario una vez por lote.
+ *
+ * El lote está exento de los límites de velocidad ({@link LimitesTransferencia}) y del código
+ * de autorización de la UI: es una herramienta de operaciones, el archivo ya viene autorizado,
+ * y los contadores de límites viven en memoria del proceso que atiende a los cajeros, no en
+ * los datos que abre este.
+ *
+ * Cada cuenta ve sus líneas en el orden del archivo (un abono de una línea anterior ya está
+ * cuando se valida un débito posterior): el reparto vuelve a ordenar los lotes validados y
+ * manda juntas al mismo aplicador las líneas de un lote que comparten cuentas; un lote se
+ * aplica cuando el anterior terminó en todos los aplicadores.
+ *
+ * Si una etapa falla, las demás descartan lo que les llega (las colas se siguen vaciando),
+ * la lectura se corta y {@link #procesar} lanza esa excepción.
+ *
+ * Archivo de resultados: "linea,RESULTADO,texto original" por cada línea procesada
+ * (en el orden en que terminan, no necesariamente el del archivo).
+ *
+ * Uso: java LoteTransferencias entrada.csv resultados.csv [dirDatos]
+ */
+final class LoteTransferencias {
+
+    static final int TAM_LOTE = 1024;
+    private static final int CAPACIDAD_COLA = 64;
+
+    private final Ledger ledger;
+    private final int validadores;
+    private final int aplicadores;
+
+    LoteTransferencias(Ledger ledger, int validadores, int aplicadores) {
+        this.ledger = ledger;
+        this.validadores = validadores;
+        this.aplicadores = aplicadores;
+    }
+
+    /** Bloque de líneas que viaja entre etapas (arreglos paralelos). */
+    private static final class Lote {
+        final long[] lineas;
+        final String[] textos;
+        final int[] origenes;
+        final int[] destinos;
+        final long[] montos;
+        final ResultadoOperacion[] resultados;
+        int n;
+        long numero; // orden del lote en el archivo
+        // parte para un aplicador: espera a que el lote anterior termine y avisa al terminar
+        CountDownLatch previo;
+        CountDownLatch hecho;
+
+        Lote(int capacidad) {
+            lineas = new long[capacidad];
+            textos = new String[capacidad];
+            origenes = new int[capacidad];
+            destinos = new int[capacidad];
+            montos = new long[capacidad];
+            resultados = new ResultadoOperacion[capacidad];
+        }
+
+        void copiar(Lote o, int i) {
+            int j = n++;
+            lineas[j] = o.lineas[i];
+            textos[j] = o.textos[i];
+            origenes[j] = o.origenes[i];
+            destinos[j] = o.destinos[i];
+            montos[j] = o.montos[i];
+            resultados[j] = o.resultados[i];
+        }
+
+        /** Se tira sin procesar (después de una falla): el lote siguiente no debe esperarlo. */
+        void descartar() {
+            if (hecho != null) hecho.countDown();
+        }
+    }
+
+    private static final Lote FIN = new Lote(0);
+
+    /**
+     * Procesa todo el archivo; devuelve cuántas líneas terminaron con cada resultado.
+     * Si una etapa falla lanza su excepción y el archivo de resultados queda incompleto.
+     */
+    Map<ResultadoOperacion, Long> procesar(Path entrada, Path salida) throws IOException, InterruptedException {
+        BlockingQueue<Lote> aValidar = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+        BlockingQueue<Lote> aRepartir = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+        List<BlockingQueue<Lote>> aAplicar = new ArrayList<>();
+        BlockingQueue<Lote> aEscribir = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+        Map<ResultadoOperacion, Long> totales = new EnumMap<>(ResultadoOperacion.class);
+        AtomicReference<Throwable> falla = new AtomicReference<>();
+
+        List<Thread> hilos = new ArrayList<>();
+        for (int i = 0; i < validadores; i++) {
+            hilos.add(iniciar("lote-validar-" + i, () -> etapa(aValidar, falla, lote -> {
+                validar(lote);
+                aRepartir.put(lote);
+            })));
+        }
+        Reparto reparto = new Reparto(aAplicar);
+        Thread repartidor = iniciar("lote-repartir", () -> etapa(aRepartir, falla, reparto));
+        for (int i = 0; i < aplicadores; i++) {
+            BlockingQueue<Lote> cola = new ArrayBlockingQueue<>(CAPACIDAD_COLA);
+            aAplicar.add(cola);
+            hilos.add(iniciar("lote-aplicar-" + i, () -> etapa(cola, falla, lote -> {
+                lote.previo.await();
+                aplicar(lote);
+                lote.hecho.countDown();
+                aEscribir.put(lote);
+            })));
+        }
+        Thread escritor = iniciar("lote-resultados", () -> escribir(aEscribir, salida, totales, falla));
+
+        try (BufferedReader in = Files.newBufferedReader(entrada, StandardCharsets.UTF_8)) {
+            Lote lote = new Lote(TAM_LOTE);
+            long numero = 0;
+            long lotes = 0;
+            String linea;
+            while ((linea = in.readLine()) != null && falla.get() == null) {
+                numero++;
+                String texto = linea.trim();
+                if (texto.isEmpty() || texto.startsWith("#")) continue;
+                parsear(lote, numero, texto);
+                if (lote.n == TAM_LOTE) {
+                    lote.numero = lotes++;
+                    aValidar.put(lote);
+                    lote = new Lote(TAM_LOTE);
+                }
+            }
+            if (lote.n > 0) {
+                lote.numero = lotes;
+                aValidar.put(lote);
+            }
+        } finally {
+            // cada etapa termina al recibir un FIN por hilo y pasa uno adelante cuando terminan todos
+            for (int i = 0; i < validadores; i++) aValidar.put(FIN);
+            esperar(hilos.subList(0, validadores));
+            aRepartir.put(FIN);
+            repartidor.join();
+            for (BlockingQueue<Lote> cola : aAplicar) cola.put(FIN);
+            esperar(hilos.subList(validadores, hilos.size()));
+            aEscribir.put(FIN);
+            escritor.join();
+        }
+        Throwable f = falla.get();
+        if (f instanceof IOException) throw (IOException) f;
+        if (f instanceof RuntimeException) throw (RuntimeException) f;
+        if (f instanceof Error) throw (Error) f;
+        return totales;
+    }
+
+    // --- Etapas ---
+
+    private void parsear(Lote lote, long numero, String texto) {
+        int i = lote.n++;
+        lote.lineas[i] = numero;
+        lote.textos[i] = texto;
+        lote.resultados[i] = null;
+        String[] campos = texto.split("[,;\\s]+");
+        if (campos.length != 3) {
+            lote.resultados[i] = ResultadoOperacion.FORMATO_INVALIDO;
+            return;
+        }
+        lote.origenes[i] = ledger.idCuenta(campos[0]);
+        lote.destinos[i] = ledger.idCuenta(campos[1]);
+        try {
+            lote.montos[i] = Dinero.aCentimos(campos[2]);
+        } catch (NumberFormatException ex) {
+            lote.resultados[i] = ResultadoOperacion.MONTO_INVALIDO;
+        }
+    }
+
+    // Formato de la línea; sin código ni límites de velocidad (ver la documentación de la clase).
+    // Los fondos no se miran aquí: dependen de las líneas anteriores, que quizá aún no se aplicaron.
+    private static void validar(Lote lote) {
+        for (int i = 0; i < lote.n; i++) {
+            if (lote.resultados[i] != null) continue;
+            if (lote.origenes[i] < 0 || lote.destinos[i] < 0) {
+                lote.resultados[i] = ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+            } else if (lote.montos[i] <= 0) {
+                lote.resultados[i] = ResultadoOperacion.MONTO_INVALIDO;
+            } else if (lote.origenes[i] == lote.destinos[i]) {
+                lote.resultados[i] = ResultadoOperacion.MISMA_CUENTA;
+            }
+        }
+    }
+
+    /**
+     * Devuelve los lotes validados al orden del archivo y reparte sus líneas: las que comparten
+     * una cuenta, directamente o encadenadas dentro del lote (conjuntos disjuntos), van al
+     * mismo aplicador, que las aplica en orden. Cada parte espera a que todas las del lote
+     * anterior terminen, así ninguna cuenta ve sus líneas fuera de orden.
+     */
+    private static final class Reparto implements Paso {
+        // a lo sumo 2 cuentas por línea: 4 * TAM_LOTE posiciones dejan la tabla a medias
+        private static final int BITS_TABLA = Integer.numberOfTrailingZeros(TAM_LOTE) + 2;
+
+        private final List<BlockingQueue<Lote>> aAplicar;
+        private final Map<Long, Lote> adelantados = new HashMap<>();
+        private long siguiente;
+        private CountDownLatch anterior = new CountDownLatch(0);
+        private final int[] tabla = new int[1 << BITS_TABLA]; // cuenta -> nodo + 1 (0 = libre)
+        private final int[] cuentas = new int[2 * TAM_LOTE];
+        private final int[] padres = new int[2 * TAM_LOTE];
+        private int nodos;
+        private final int[] aplicadorDe = new int[TAM_LOTE];
+
+        Reparto(List<BlockingQueue<Lote>> aAplicar) {
+            this.aAplicar = aAplicar;
+        }
+
+        @Override
+        public void procesar(Lote lote) throws InterruptedException {
+            // los validadores terminan en cualquier orden
+            adelantados.put(lote.numero, lote);
+            for (Lote l; (l = adelantados.remove(siguiente)) != null; siguiente++) repartir(l);
+        }
+
+        private void repartir(Lote lote) throws InterruptedException {
+            int m = aAplicar.size();
+            Arrays.fill(tabla, 0);
+            nodos = 0;
+            for (int i = 0; i < lote.n; i++) {
+                if (lote.resultados[i] == null) unir(nodo(lote.origenes[i]), nodo(lote.destinos[i]));
+            }
+            int[] conteos = new int[m];
+            for (int i = 0; i < lote.n; i++) {
+                int a = lote.resultados[i] != null
+                        ? (int) (lote.lineas[i] % m) // no se aplica: cualquiera
+                        : cuentas[raiz(nodo(lote.origenes[i]))] % m;
+                aplicadorDe[i] = a;
+                conteos[a]++;
+            }
+            Lote[] partes = new Lote[m];
+            int usadas = 0;
+            for (int a = 0; a < m; a++) {
+                if (conteos[a] > 0) {
+                    partes[a] = new Lote(conteos[a]);
+                    usadas++;
+                }
+            }
+            for (int i = 0; i < lote.n; i++) partes[aplicadorDe[i]].copiar(lote, i);
+            CountDownLatch hecho = new CountDownLatch(usadas);
+            for (int a = 0; a < m; a++) {
+                if (partes[a] == null) continue;
+                partes[a].previo = anterior;
+                partes[a].hecho = hecho;
+                aAplicar.get(a).put(partes[a]);
+            }
+            anterior = hecho;
+        }
+
+        private int nodo(int cuenta) {
+            int mascara = tabla.length - 1;
+            for (int h = (cuenta * 0x9E3779B9) >>> (32 - BITS_TABLA); ; h = (h + 1) & mascara) {
+                int t = tabla[h];
+                if (t == 0) {
+                    cuentas[nodos] = cuenta;
+                    padres[nodos] = nodos;
+                    tabla[h] = ++nodos;
+                    return nodos - 1;
+                }
+                if (cuentas[t - 1] == cuenta) return t - 1;
+            }
+        }
+
+        private int raiz(int x) {
+            while (padres[x] != x) {
+                padres[x] = padres[padres[x]];
+                x = padres[x];
+            }
+            return x;
+        }
+
+        private void unir(int x, int y) {
+            padres[raiz(x)] = raiz(y);
+        }
+    }
+
+    private void aplicar(Lote lote) {
+        // se compactan las líneas válidas para aplicarlas juntas
+        int[] origenes = new int[lote.n];
+        int[] destinos = new int[lote.n];
+        long[] montos = new long[lote.n];
+        int[] posiciones = new int[lote.n];
+        int m = 0;
+        for (int i = 0; i < lote.n; i++) {
+            if (lote.resultados[i] != null) continue;
+            origenes[m] = lote.origenes[i];
+            destinos[m] = lote.destinos[i];
+            montos[m] = lote.montos[i];
+            posiciones[m++] = i;
+        }
+        ResultadoOperacion[] resultados = new ResultadoOperacion[m];
+        ledger.transferirLote(origenes, destinos, montos, m, resultados);
+        for (int j = 0; j < m; j++) {
+            lote.resultados[posiciones[j]] = resultados[j];
+        }
+    }
+
+    private interface Paso {
+        void procesar(Lote lote) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Consume la cola hasta el FIN. Después de una falla (de esta etapa o de otra) descarta
+     * lo que llega en vez de procesarlo: la cola se sigue vaciando y nadie queda bloqueado en put.
+     */
+    private static void etapa(BlockingQueue<Lote> entrada, AtomicReference<Throwable> falla, Paso paso) {
+        try {
+            for (Lote lote = entrada.take(); lote != FIN; lote = entrada.take()) {
+                if (falla.get() == null) {
+                    try {
+                        paso.procesar(lote);
+                        continue;
+                    } catch (IOException | RuntimeException | Error e) {
+                        falla.compareAndSet(null, e);
+                    }
+                }
+                lote.descartar();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void escribir(BlockingQueue<Lote> entrada, Path salida, Map<ResultadoOperacion, Long> totales,
+                                 AtomicReference<Throwable> falla) {
+        BufferedWriter out;
+        try {
+            out = Files.newBufferedWriter(salida, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            falla.compareAndSet(null, e);
+            etapa(entrada, falla, lote -> { }); // solo vacía la cola
+            return;
+        }
+        try (BufferedWriter w = out) {
+            etapa(entrada, falla, lote -> {
+                for (int i = 0; i < lote.n; i++) {
+                    w.write(Long.toString(lote.lineas[i]));
+                    w.write(',');
+                    w.write(lote.resultados[i].name());
+                    w.write(',');
+                    w.write(lote.textos[i]);
+                    w.newLine();
+                    totales.merge(lote.resultados[i], 1L, Long::sum);
+                }
+            });
+        } catch (IOException e) {
+            falla.compareAndSet(null, e);
+        }
+    }
+
+    private static Thread iniciar(String nombre, Runnable r) {
+        Thread t = new Thread(r, nombre);
+        t.start();
+        return t;
+    }
+
+    private static void esperar(List<Thread> hilos) throws InterruptedException {
+        for (Thread t : hilos) t.join();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Uso: java LoteTransferencias entrada.csv resultados.csv [dirDatos]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args.length > 2 ? args[2] : System.getProperty("cajero.datos", "datos"));
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        try (PersistenciaBanco persistencia = PersistenciaBanco.abrir(dir, Durabilidad.POR_TRANSACCION,
+                CajeroBancoAvanzado::crearPersonasYCuentasDemo, 0)) {
+            LoteTransferencias lote = new LoteTransferencias(persistencia.ledger(),
+                    Math.max(1, nucleos / 2), Math.max(1, nucleos / 2));
+            long t0 = System.nanoTime();
+            Map<ResultadoOperacion, Long> totales = lote.procesar(Paths.get(args[0]), Paths.get(args[1]));
+            long ms = Math.max(1, (System.nanoTime() - t0) / 1_000_000);
+            long lineas = totales.values().stream().mapToLong(Long::longValue).sum();
+            System.out.printf("%d líneas en %d ms (%d por minuto): %s%n", lineas, ms, lineas * 60_000 / ms, totales);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.net.InetSocketAddress;
+import java.util.function.Consumer;
+
+/**
+ * MapaParticiones.java
+ *
+ * Reparto de las cuentas entre N procesos del ledger (particiones), por el prefijo de
+ * cliente del número de cuenta ("1001-C" y "1001-A" -> "1001"). Todas las cuentas de un
+ * cliente quedan en la misma partición, así el login, los saldos, los límites por DNI y
+ * las transferencias entre cuentas propias no salen del proceso.
+ *
+ * - Prefijo numérico: partición = prefijo mod N (se puede planificar a mano).
+ * - Otro prefijo: hash del prefijo normalizado mod N.
+ *
+ * Cada partición tiene una dirección para el protocolo entre particiones
+ * ({@link TransaccionesDistribuidas}); la lista es la misma en todos los procesos y la
+ * posición en la lista es el índice de la partición.
+ *
+ * Configuración: -Dcajero.particiones=host:puerto,host:puerto,...  -Dcajero.particion=i
+ */
+final class MapaParticiones {
+
+    static final int MAX_PARTICIONES = 127; // el índice viaja en 7 bits de la referencia remota
+
+    private final InetSocketAddress[] pares;
+    private final int propia;
+
+    MapaParticiones(InetSocketAddress[] pares, int propia) {
+        if (pares.length == 0 || pares.length > MAX_PARTICIONES) throw new IllegalArgumentException("Cantidad de particiones inválida");
+        if (propia < 0 || propia >= pares.length) throw new IllegalArgumentException("Partición propia fuera de rango: " + propia);
+        this.pares = pares.clone();
+        this.propia = propia;
+    }
+
+    /** Desde las propiedades del sistema, o null si el ledger no está particionado. */
+    static MapaParticiones porDefecto() {
+        String lista = System.getProperty("cajero.particiones");
+        if (lista == null || lista.isBlank()) return null;
+        return parsear(lista, Integer.getInteger("cajero.particion", 0));
+    }
+
+    static MapaParticiones parsear(String lista, int propia) {
+        String[] partes = lista.split(",");
+        InetSocketAddress[] pares = new InetSocketAddress[partes.length];
+        for (int i = 0; i < partes.length; i++) {
+            String p = partes[i].trim();
+            int sep = p.lastIndexOf(':');
+            if (sep <= 0) throw new IllegalArgumentException("Se espera host:puerto: " + p);
+            pares[i] = InetSocketAddress.createUnresolved(p.substring(0, sep), Integer.parseInt(p.substring(sep + 1)));
+        }
+        return new MapaParticiones(pares, propia);
+    }
+
+    int cantidad() {
+        return pares.length;
+    }
+
+    int propia() {
+        return propia;
+    }
+
+    InetSocketAddress direccion(int particion) {
+        return pares[particion];
+    }
+
+    /** Partición a la que pertenece el número de cuenta. */
+    int particion(String numero) {
+        String s = AlmacenCuentas.normalizar(numero);
+        int fin = s.indexOf('-');
+        if (fin < 0) fin = s.length();
+        long valor = 0;
+        boolean numerico = fin > 0 && fin <= 18;
+        for (int i = 0; i < fin && numerico; i++) {
+            char c = s.charAt(i);
+            numerico = c >= '0' && c <= '9';
+            valor = valor * 10 + (c - '0');
+        }
+        if (numerico) return (int) (valor % pares.length);
+        return Math.floorMod(s.substring(0, fin).hashCode(), pares.length);
+    }
+
+    boolean esPropia(String numero) {
+        return particion(numero) == propia;
+    }
+
+    /**
+     * Semilla de una partición: siembra un ledger aparte con {@code sembrar} y copia solo
+     * las personas cuyas cuentas son de esta partición.
+     */
+    Consumer<Ledger> sembrarParticion(Consumer<Ledger> sembrar) {
+        return ledger -> {
+            Ledger completo = new Ledger();
+            sembrar.accept(completo);
+            AlmacenCuentas almacen = completo.almacen();
+            for (Persona p : completo.personas()) {
+                if (p.idsCuentas.length == 0 || !esPropia(almacen.numero(p.idsCuentas[0]))) continue;
+                Persona copia = new Persona(p.nombre, p.dni, p.password);
+                for (int id : p.idsCuentas) {
+                    copia.agregarCuenta(ledger.abrirCuenta(almacen.tipo(id), almacen.numero(id), almacen.saldo(id)));
+                }
+                ledger.registrarPersona(copia);
+            }
+        };
+    }
+}
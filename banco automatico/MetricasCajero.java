@@ -0,0 +1,261 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * MetricasCajero.java
+ *
+ * Contadores y latencias por operación y por resultado, sin candados y sin crear objetos
+ * al registrar (solo incrementos atómicos sobre arreglos fijos).
+ *
+ * - Histograma log-lineal de buckets fijos: 8 sub-buckets por potencia de 2 (error
+ *   relativo &lt;= 12,5 %) desde 1 ns hasta ~292 años, 488 buckets por serie.
+ * - Una serie por (operación, resultado); los percentiles de la operación suman sus series.
+ * - Se publican como MXBeans "banco.cajero:type=Operacion,name=..." (jconsole, VisualVM)
+ *   y, si se pide, como texto periódico en la salida estándar.
+ *
+ * Uso:
+ *   long t0 = System.nanoTime();
+ *   ...
+ *   MetricasCajero.GLOBAL.registrar(Operacion.DEPOSITO, resultado, t0);
+ */
+final class MetricasCajero {
+
+    enum Operacion {
+        LOGIN,
+        SALDO,
+        SALDOS,
+        TRANSFERENCIA_INTERNA,
+        TRANSFERENCIA_EXTERNA,
+        DEPOSITO,
+        RETIRO,
+        PROGRAMAR
+    }
+
+    static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS; // 488
+
+    private static final Operacion[] OPERACIONES = Operacion.values();
+    private static final ResultadoOperacion[] RESULTADOS = ResultadoOperacion.values();
+
+    // después de OPERACIONES y RESULTADOS: el constructor los usa
+    static final MetricasCajero GLOBAL = new MetricasCajero();
+
+    /** Una serie: histograma de latencias + suma para el promedio. */
+    private static final class Serie {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final LongAdder suma = new LongAdder();
+        final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+        void registrar(long nanos) {
+            buckets.getAndIncrement(bucket(nanos));
+            suma.add(nanos);
+            maximo.accumulate(nanos);
+        }
+    }
+
+    private final Serie[] series = new Serie[OPERACIONES.length * RESULTADOS.length];
+
+    MetricasCajero() {
+        for (int i = 0; i < series.length; i++) series[i] = new Serie();
+    }
+
+    /** Registra una operación que empezó en {@code inicioNanos} (System.nanoTime()). */
+    void registrar(Operacion op, ResultadoOperacion resultado, long inicioNanos) {
+        long nanos = System.nanoTime() - inicioNanos;
+        series[op.ordinal() * RESULTADOS.length + resultado.ordinal()].registrar(Math.max(0, nanos));
+    }
+
+    // --- Buckets ---
+
+    /** Bucket de un valor: exacto hasta 7, luego 8 sub-buckets por potencia de 2. */
+    static int bucket(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v); // e >= SUB_BITS
+        return ((e - SUB_BITS + 1) << SUB_BITS) + (int) ((v >>> (e - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /** Mayor valor que cae en el bucket (cota superior que se informa). */
+    static long techo(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int e = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        long sub = bucket & (SUB_BUCKETS - 1);
+        long inicio = (SUB_BUCKETS + sub) << (e - SUB_BITS);
+        return inicio + (1L << (e - SUB_BITS)) - 1;
+    }
+
+    // --- Lectura ---
+
+    /** Foto de una operación: suma de sus series en el momento de leer. */
+    final class Resumen {
+        final Operacion operacion;
+        final long[] buckets = new long[BUCKETS];
+        final long[] porResultado = new long[RESULTADOS.length];
+        long cantidad;
+        long sumaNanos;
+        long maximoNanos;
+
+        Resumen(Operacion op) {
+            this.operacion = op;
+            for (ResultadoOperacion r : RESULTADOS) {
+                Serie s = series[op.ordinal() * RESULTADOS.length + r.ordinal()];
+                long n = 0;
+                for (int b = 0; b < BUCKETS; b++) {
+                    long c = s.buckets.get(b);
+                    buckets[b] += c;
+                    n += c;
+                }
+                porResultado[r.ordinal()] = n;
+                cantidad += n;
+                sumaNanos += s.suma.sum();
+                maximoNanos = Math.max(maximoNanos, s.maximo.get());
+            }
+        }
+
+        long fallidas() {
+            return cantidad - porResultado[ResultadoOperacion.EXITOSA.ordinal()];
+        }
+
+        double promedioMicros() {
+            return cantidad == 0 ? 0 : sumaNanos / 1000.0 / cantidad;
+        }
+
+        /** Percentil (0-1) en microsegundos, por la cota superior de su bucket. */
+        double percentilMicros(double p) {
+            if (cantidad == 0) return 0;
+            long objetivo = (long) Math.ceil(p * cantidad);
+            long acumulado = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                acumulado += buckets[b];
+                if (acumulado >= objetivo) return Math.min(techo(b), maximoNanos) / 1000.0;
+            }
+            return maximoNanos / 1000.0;
+        }
+    }
+
+    Resumen resumen(Operacion op) {
+        return new Resumen(op);
+    }
+
+    /** Tabla de texto con todas las operaciones que tuvieron actividad. */
+    String volcado() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-22s %10s %9s %10s %10s %10s %10s %10s  %s%n",
+                "operacion", "cantidad", "fallidas", "prom_us", "p50_us", "p99_us", "p999_us", "max_us", "resultados"));
+        for (Operacion op : OPERACIONES) {
+            Resumen r = resumen(op);
+            if (r.cantidad == 0) continue;
+            StringBuilder resultados = new StringBuilder();
+            for (ResultadoOperacion res : RESULTADOS) {
+                long n = r.porResultado[res.ordinal()];
+                if (n > 0) resultados.append(resultados.length() == 0 ? "" : " ").append(res.name()).append('=').append(n);
+            }
+            sb.append(String.format(Locale.ROOT, "%-22s %10d %9d %10.1f %10.1f %10.1f %10.1f %10.1f  %s%n",
+                    op.name(), r.cantidad, r.fallidas(), r.promedioMicros(), r.percentilMicros(0.50),
+                    r.percentilMicros(0.99), r.percentilMicros(0.999), r.maximoNanos / 1000.0, resultados));
+        }
+        return sb.toString();
+    }
+
+    // --- Publicación ---
+
+    /** Publica un MXBean por operación en el servidor de plataforma (idempotente). */
+    synchronized void registrarJmx() {
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        for (Operacion op : OPERACIONES) {
+            try {
+                ObjectName nombre = new ObjectName("banco.cajero:type=Operacion,name=" + op.name());
+                if (!servidor.isRegistered(nombre)) servidor.registerMBean(new VistaJmx(op), nombre);
+            } catch (JMException e) {
+                System.err.println("No se pudieron publicar las métricas por JMX: " + e);
+                return;
+            }
+        }
+    }
+
+    /** Imprime {@link #volcado()} cada {@code intervaloSeg} segundos en un hilo daemon (0 = nunca). */
+    ScheduledExecutorService iniciarVolcado(long intervaloSeg) {
+        if (intervaloSeg <= 0) return null;
+        ScheduledExecutorService programador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metricas");
+            t.setDaemon(true);
+            return t;
+        });
+        programador.scheduleAtFixedRate(() -> System.out.print("--- Métricas del cajero ---\n" + volcado()),
+                intervaloSeg, intervaloSeg, TimeUnit.SECONDS);
+        return programador;
+    }
+
+    /**
+     * Configuración común de los programas: JMX siempre y volcado de texto cada
+     * -Dcajero.metricasSeg segundos (por defecto 0 = sin volcado).
+     */
+    static void publicar() {
+        GLOBAL.registrarJmx();
+        GLOBAL.iniciarVolcado(Long.getLong("cajero.metricasSeg", 0));
+    }
+
+    private final class VistaJmx implements MetricasOperacionMXBean {
+        private final Operacion op;
+
+        VistaJmx(Operacion op) {
+            this.op = op;
+        }
+
+        @Override
+        public long getCantidad() {
+            return resumen(op).cantidad;
+        }
+
+        @Override
+        public long getFallidas() {
+            return resumen(op).fallidas();
+        }
+
+        @Override
+        public double getPromedioMicros() {
+            return resumen(op).promedioMicros();
+        }
+
+        @Override
+        public double getP50Micros() {
+            return resumen(op).percentilMicros(0.50);
+        }
+
+        @Override
+        public double getP99Micros() {
+            return resumen(op).percentilMicros(0.99);
+        }
+
+        @Override
+        public double getP999Micros() {
+            return resumen(op).percentilMicros(0.999);
+        }
+
+        @Override
+        public double getMaximoMicros() {
+            return resumen(op).maximoNanos / 1000.0;
+        }
+
+        @Override
+        public Map<String, Long> getPorResultado() {
+            Resumen r = resumen(op);
+            Map<String, Long> mapa = new LinkedHashMap<>();
+            for (ResultadoOperacion res : RESULTADOS) {
+                mapa.put(res.name(), r.porResultado[res.ordinal()]);
+            }
+            return mapa;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import java.util.Map;
+
+/**
+ * Vista JMX de las métricas de una operación del cajero (ver {@link MetricasCajero}).
+ * Latencias en microsegundos, desde que arrancó el proceso.
+ */
+public interface MetricasOperacionMXBean {
+
+    long getCantidad();
+
+    long getFallidas();
+
+    double getPromedioMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaximoMicros();
+
+    /** Cantidad por resultado (EXITOSA, FONDOS_INSUFICIENTES, CODIGO_INCORRECTO, ...). */
+    Map<String, Long> getPorResultado();
+}
@@ -0,0 +1,45 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lo que un terminal sabe del cliente que inició sesión: nombre, DNI y sus cuentas.
+ * No tiene saldos (se piden al servicio en el momento) ni referencias al Ledger,
+ * así sirve igual para el cajero local y para el remoto.
+ */
+final class PerfilCliente {
+    final String nombre;
+    final String dni;
+    final List<CuentaPerfil> cuentas;
+
+    PerfilCliente(String nombre, String dni, List<CuentaPerfil> cuentas) {
+        this.nombre = nombre;
+        this.dni = dni;
+        this.cuentas = Collections.unmodifiableList(cuentas);
+    }
+
+    /** Cuenta del cliente tal como se muestra en el combo "Selecciona tu cuenta". */
+    static final class CuentaPerfil {
+        final TipoCuenta tipo;
+        final String numero;
+
+        CuentaPerfil(TipoCuenta tipo, String numero) {
+            this.tipo = tipo;
+            this.numero = numero;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CuentaPerfil && ((CuentaPerfil) o).numero.equals(numero);
+        }
+
+        @Override
+        public int hashCode() {
+            return numero.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return tipo + " (" + numero + ")";
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * PersistenciaBanco.java
+ *
+ * Arranque y recuperación del Ledger desde disco:
+ *
+ * - Carga la última instantánea (si existe) y reaplica solo la cola del diario posterior.
+ * - Si no hay instantánea, siembra el Ledger (p. ej. cuentas demo), reaplica el diario
+ *   completo y escribe la primera instantánea.
+ * - Escribe instantáneas periódicas en segundo plano y borra los segmentos del diario
+ *   que quedan cubiertos por ellas.
+ * - El historial de movimientos guarda su índice con cada instantánea; al arrancar se
+ *   reaplica el diario desde la más antigua de las dos.
+ * - {@link #cerrarDia()} concilia el día ({@link ConciliacionDiaria}) y guarda el corte
+ *   como apertura del día siguiente; el diario se conserva desde esa apertura aunque
+ *   las instantáneas sean más recientes. Antes del cierre programado se devengan los
+ *   intereses de Ahorros ({@link DevengoIntereses}).
+ * - Con el ledger particionado, las transferencias entre particiones que quedaron a medias
+ *   se reconstruyen desde el diario ({@link TransaccionesDistribuidas}), que se conserva
+ *   desde la más antigua de ellas.
+ * - Las transferencias programadas ({@link TransferenciasProgramadas}) guardan sus órdenes con
+ *   cada instantánea; el diario se conserva desde la secuencia que cubren, para no repetir al
+ *   arrancar una ejecución que no llegó a la base. Se ejecutan recién con
+ *   {@link TransferenciasProgramadas#iniciar()} (solo el primario).
+ * - Una réplica en espera ({@link ReplicacionDiario}) arranca desde la instantánea y el
+ *   diario que le envió el primario, con el mismo procedimiento.
+ * - Un solo proceso abre el directorio de datos a la vez ({@link Candado} sobre "lock"): otro
+ *   que lo abriera recortaría el último segmento del diario mientras el servidor escribe en él.
+ *   Las herramientas de línea de comandos fallan enseguida si el servidor está corriendo.
+ */
+final class PersistenciaBanco implements AutoCloseable {
+
+    static final String ARCHIVO_CANDADO = "lock";
+
+    private final Path dir;
+    private final Candado candado;
+    private final Ledger ledger;
+    private final DiarioTransacciones diario;
+    private final HistorialMovimientos historial;
+    private final TransaccionesDistribuidas distribuidas;
+    private final TransferenciasProgramadas programadas;
+    private final ScheduledExecutorService programador;
+    private volatile long secuenciaApertura;
+
+    /**
+     * Candado exclusivo del directorio de datos (FileLock sobre dir/"lock"), entre procesos y
+     * dentro de la JVM: cerrar otro canal sobre el mismo archivo soltaría el candado del primero,
+     * así que antes de abrir el archivo se anota el directorio en {@code TOMADOS}.
+     */
+    static final class Candado implements AutoCloseable {
+        private static final Set<Path> TOMADOS = ConcurrentHashMap.newKeySet();
+
+        private final Path dir;
+        private final FileChannel canal;
+
+        private Candado(Path dir, FileChannel canal) {
+            this.dir = dir;
+            this.canal = canal;
+        }
+
+        static Candado tomar(Path dir) throws IOException {
+            Files.createDirectories(dir);
+            Path real = dir.toRealPath();
+            if (!TOMADOS.add(real)) throw enUso(dir);
+            FileChannel canal = null;
+            try {
+                canal = FileChannel.open(real.resolve(ARCHIVO_CANDADO), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = canal.tryLock();
+                if (lock == null) throw enUso(dir);
+                return new Candado(real, canal);
+            } catch (IOException | RuntimeException e) {
+                if (canal != null) canal.close();
+                TOMADOS.remove(real);
+                if (e instanceof OverlappingFileLockException) throw enUso(dir);
+                throw e;
+            }
+        }
+
+        private static IOException enUso(Path dir) {
+            return new IOException("El directorio de datos " + dir
+                    + " está abierto por otro proceso (¿el servidor del cajero está corriendo?)");
+        }
+
+        @Override
+        public void close() {
+            try {
+                canal.close(); // suelta el FileLock
+            } catch (IOException ignored) {
+            } finally {
+                TOMADOS.remove(dir);
+            }
+        }
+    }
+
+    private PersistenciaBanco(Path dir, Candado candado, Ledger ledger, DiarioTransacciones diario, HistorialMovimientos historial,
+                              TransaccionesDistribuidas distribuidas, long intervaloSeg) {
+        this.dir = dir;
+        this.candado = candado;
+        this.ledger = ledger;
+        this.diario = diario;
+        this.historial = historial;
+        this.distribuidas = distribuidas;
+        this.programadas = new TransferenciasProgramadas(dir, ledger);
+        this.programador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "instantaneas");
+            t.setDaemon(true);
+            return t;
+        });
+        if (intervaloSeg > 0) {
+            programador.scheduleWithFixedDelay(this::instantaneaPeriodica, intervaloSeg, intervaloSeg, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @param sembrar      llena un Ledger nuevo cuando todavía no hay instantánea
+     * @param intervaloSeg cada cuántos segundos escribir una instantánea (0 = nunca)
+     */
+    static PersistenciaBanco abrir(Path dir, Durabilidad modo, Consumer<Ledger> sembrar, long intervaloSeg) throws IOException {
+        Candado candado = Candado.tomar(dir);
+        try {
+            return abrir(dir, candado, modo, sembrar, intervaloSeg);
+        } catch (IOException | RuntimeException | Error e) {
+            candado.close();
+            throw e;
+        }
+    }
+
+    private static PersistenciaBanco abrir(Path dir, Candado candado, Durabilidad modo, Consumer<Ledger> sembrar,
+                                           long intervaloSeg) throws IOException {
+        long t0 = System.nanoTime();
+        Ledger ledger = new Ledger();
+        Path archivo = dir.resolve(Instantanea.ARCHIVO);
+        boolean habiaInstantanea = Files.exists(archivo);
+        long desde = 0;
+        if (habiaInstantanea) {
+            desde = Instantanea.cargar(archivo, ledger);
+        } else {
+            sembrar.accept(ledger);
+        }
+        HistorialMovimientos historial = HistorialMovimientos.abrir(dir);
+        TransaccionesDistribuidas distribuidas = new TransaccionesDistribuidas(ledger);
+        long t1 = System.nanoTime();
+
+        // el historial y las transferencias entre particiones pueden necesitar registros
+        // anteriores a la instantánea: reaplicar desde el más antiguo
+        long saldosDesde = desde;
+        int cuentas = ledger.cantidadCuentas();
+        long[] reaplicados = new long[2]; // [aplicados, ignorados]
+        long inicio = Math.min(Math.min(desde, historial.base()), distribuidas.leerBase(dir));
+        try {
+            DiarioTransacciones.leer(dir, inicio, (secuencia, marcaTiempo, tipo, origen, destino, monto) -> {
+                // las altas de cuentas no van al diario: solo llegan con la instantánea (o la semilla),
+                // así que un registro con una cuenta desconocida es de otros datos
+                if (origen >= cuentas || destino >= cuentas) {
+                    throw new UncheckedIOException(new IOException("El registro " + secuencia + " del diario menciona la cuenta "
+                            + Math.max(origen, destino) + " y los datos tienen " + cuentas + " cuentas: el diario de " + dir
+                            + " no corresponde a su instantánea (¿cambió la semilla o se borró la instantánea?)"));
+                }
+                if (secuencia > saldosDesde) {
+                    if (!ledger.aplicarRegistro(tipo, origen, destino, monto)) {
+                        reaplicados[1]++;
+                        return;
+                    }
+                    reaplicados[0]++;
+                }
+                if (tipo.distribuida()) distribuidas.recuperar(secuencia, tipo, origen, destino, monto);
+                if (tipo.mueveSaldo()) historial.registrar(secuencia, marcaTiempo, tipo, origen, destino, monto);
+            });
+        } catch (UncheckedIOException e) {
+            historial.close();
+            throw e.getCause();
+        }
+        long t2 = System.nanoTime();
+
+        DiarioTransacciones diario = DiarioTransacciones.abrir(dir, modo);
+        if (diario.ultimaSecuencia() < desde) diario.continuarDesde(desde); // réplica con la instantánea del primario
+        ledger.usarDiario(diario);
+        ledger.usarHistorial(historial);
+        PersistenciaBanco persistencia = new PersistenciaBanco(dir, candado, ledger, diario, historial, distribuidas, intervaloSeg);
+        if (!habiaInstantanea) persistencia.escribirInstantanea();
+        Path apertura = dir.resolve(ConciliacionDiaria.APERTURA);
+        if (Files.exists(apertura)) {
+            persistencia.secuenciaApertura = Instantanea.leerSecuencia(apertura);
+        } else {
+            // primer arranque: el día contable empieza ahora
+            persistencia.secuenciaApertura = Instantanea.escribir(ledger, apertura);
+        }
+
+        System.out.printf("Arranque: %d cuentas (%s) en %d ms; %d registros del diario reaplicados en %d ms%s%n",
+                ledger.cantidadCuentas(), habiaInstantanea ? "instantánea" : "semilla",
+                (t1 - t0) / 1_000_000, reaplicados[0], (t2 - t1) / 1_000_000,
+                reaplicados[1] > 0 ? " (" + reaplicados[1] + " ignorados)" : "");
+        return persistencia;
+    }
+
+    Ledger ledger() {
+        return ledger;
+    }
+
+    DiarioTransacciones diario() {
+        return diario;
+    }
+
+    TransaccionesDistribuidas distribuidas() {
+        return distribuidas;
+    }
+
+    TransferenciasProgramadas programadas() {
+        return programadas;
+    }
+
+    /** Vuelve a leer la secuencia de apertura del día (una réplica recibe apertura.bin del primario). */
+    void releerApertura() throws IOException {
+        Path apertura = dir.resolve(ConciliacionDiaria.APERTURA);
+        if (Files.exists(apertura)) secuenciaApertura = Instantanea.leerSecuencia(apertura);
+    }
+
+    /** Escribe una instantánea ahora y recorta el diario que quedó cubierto. */
+    synchronized long escribirInstantanea() throws IOException {
+        long secuencia = Instantanea.escribir(ledger, dir.resolve(Instantanea.ARCHIVO));
+        historial.escribirIndice(secuencia);
+        long base = Math.min(distribuidas.escribirBase(dir, secuencia), programadas.escribirBase());
+        DiarioTransacciones.eliminarSegmentosCubiertos(dir, Math.min(base, secuenciaApertura));
+        return secuencia;
+    }
+
+    /**
+     * Concilia el día sin detener las operaciones, escribe el informe y deja el corte de
+     * cierre como apertura del día siguiente.
+     */
+    synchronized ConciliacionDiaria.Informe cerrarDia() throws IOException {
+        Path archivoApertura = dir.resolve(ConciliacionDiaria.APERTURA);
+        Ledger.Captura apertura = Instantanea.leerSaldos(archivoApertura);
+        Ledger.Captura cierre = ledger.capturar();
+        ConciliacionDiaria.Informe informe = ConciliacionDiaria.conciliar(dir, apertura, cierre, ledger.almacen().altas());
+        Path archivo = informe.escribir(dir, ledger.almacen());
+        Instantanea.escribir(ledger, cierre, archivoApertura);
+        secuenciaApertura = cierre.secuencia;
+        ledger.almacen().olvidarAltas(cierre.cantidad); // ya son parte de la apertura
+        System.out.printf("Cierre del día: %s (%s)%n", informe.cuadra() ? "cuadra" : "NO CUADRA", archivo);
+        return informe;
+    }
+
+    /** Devenga los intereses de Ahorros hasta la fecha (a lo sumo una vez por día). */
+    synchronized DevengoIntereses.Resultado devengarIntereses(LocalDate fecha) throws IOException {
+        DevengoIntereses.Resultado r = DevengoIntereses.devengarDia(dir, ledger, DevengoIntereses.TablaTasas.porDefecto(), fecha);
+        if (r != null) System.out.println(r);
+        return r;
+    }
+
+    /** Programa el devengo de intereses y {@link #cerrarDia()} todos los días a la hora indicada. */
+    void programarCierre(LocalTime hora) {
+        LocalDateTime ahora = LocalDateTime.now();
+        LocalDateTime siguiente = ahora.toLocalDate().atTime(hora);
+        if (!siguiente.isAfter(ahora)) siguiente = siguiente.plusDays(1);
+        programador.scheduleAtFixedRate(this::cierrePeriodico, Duration.between(ahora, siguiente).toMillis(),
+                TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        programador.shutdownNow();
+        programadas.close();
+        distribuidas.close();
+        diario.close();
+        historial.close();
+        candado.close();
+    }
+
+    private void cierrePeriodico() {
+        try {
+            devengarIntereses(LocalDate.now());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudieron devengar los intereses: " + e);
+        }
+        try {
+            cerrarDia();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo conciliar el día: " + e);
+        }
+    }
+
+    private void instantaneaPeriodica() {
+        try {
+            escribirInstantanea();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo escribir la instantánea: " + e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cliente del banco con sus subcuentas.
+ * Guarda solo los ids de sus cuentas (como mucho una por tipo); las vistas
+ * {@link SubCuenta} se crean al pedirlas.
+ */
+class Persona {
+    String nombre;
+    String dni;
+    String password;
+    int[] idsCuentas = new int[0];
+    AlmacenCuentas almacen; // se toma de la primera cuenta agregada
+    IndiceCuentas indice; // se asigna al registrar la persona en el banco
+
+    Persona(String nombre, String dni, String password) {
+        this.nombre = nombre;
+        this.dni = dni;
+        this.password = password;
+    }
+
+    // Una cuenta por tipo: si ya hay una del mismo tipo se reemplaza
+    void agregarCuenta(SubCuenta sc) {
+        almacen = sc.almacen;
+        TipoCuenta tipo = sc.tipo();
+        int i = 0;
+        while (i < idsCuentas.length && almacen.tipo(idsCuentas[i]) != tipo) i++;
+        if (i == idsCuentas.length) idsCuentas = Arrays.copyOf(idsCuentas, i + 1);
+        idsCuentas[i] = sc.id;
+        if (indice != null) indice.agregar(sc.id);
+    }
+
+    List<SubCuenta> cuentas() {
+        List<SubCuenta> lista = new ArrayList<>(idsCuentas.length);
+        for (int id : idsCuentas) {
+            lista.add(new SubCuenta(almacen, id));
+        }
+        return lista;
+    }
+
+    SubCuenta cuenta(TipoCuenta tipo) {
+        for (int id : idsCuentas) {
+            if (almacen.tipo(id) == tipo) return new SubCuenta(almacen, id);
+        }
+        return null;
+    }
+}
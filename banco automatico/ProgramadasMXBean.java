@@ -0,0 +1,26 @@
+/**
+ * Vista JMX de las transferencias programadas (ver {@link TransferenciasProgramadas}).
+ */
+public interface ProgramadasMXBean {
+
+    /** Órdenes vivas (esperando su fecha, un reintento o en ejecución). */
+    int getPendientes();
+
+    /** Ocurrencias ejecutadas desde el arranque. */
+    long getEjecutadas();
+
+    /** Intentos rechazados por fondos insuficientes (cada reintento cuenta). */
+    long getSinFondos();
+
+    /** Ocurrencias que se dieron por perdidas después de agotar los reintentos. */
+    long getFallidas();
+
+    /**
+     * Órdenes de lotes que fallaron a medias: no se sabe si se ejecutaron, así que no se
+     * repiten ni se reintentan hasta reiniciar el servidor, que las decide con el diario.
+     */
+    int getVaradas();
+
+    /** Duración del último lote ejecutado, en milisegundos. */
+    long getUltimoLoteMs();
+}
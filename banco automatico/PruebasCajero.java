@@ -0,0 +1,684 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * PruebasCajero.java
+ *
+ * Pruebas de punta a punta del cajero sin Swing ni dependencias: cada prueba levanta lo que
+ * necesita (servidores en procesos aparte, directorios de datos temporales, clientes) y
+ * comprueba invariantes del dinero, no tiempos. Se corren con solo javac:
+ *
+ *   javac -encoding UTF-8 -d out *.java
+ *   java -cp out PruebasCajero              (todas)
+ *   java -cp out PruebasCajero failover     (solo las nombradas, ver PRUEBAS)
+ *
+ * Imprime OK o FALLA por prueba y termina con código 1 si alguna falló.
+ *
+ * "failover": un primario con su réplica en espera, cada uno en su JVM. Un cliente transfiere
+ * sin pausa; se mata el primario (kill -9) y se comprueba que la réplica no se promueve sola
+ * (sigue respondiendo SOLO_LECTURA), que después de promoverla por JMX las transferencias
+ * siguen y que no aparece ni desaparece dinero: lo que se perdió en el cambio (lo confirmado
+ * que no llegó a replicarse) vuelve a la cuenta de origen, nunca al revés.
+ *
+ * "particiones": el ledger en dos particiones (1001-* en una, 2002-* en la otra) y un cliente
+ * transfiriendo de una a otra. Se mata (kill -9) y se vuelve a arrancar primero la partición
+ * participante y después la coordinadora, con transferencias en vuelo. Con todo resuelto, la
+ * suma de las dos particiones es la del principio, cada transferencia confirmada llegó y el
+ * contador de transacciones de la coordinadora no volvió atrás al reiniciarla.
+ *
+ * "conservacion": un Ledger en memoria con pocas cuentas de poco saldo (mucha contención y
+ * muchos FONDOS_INSUFICIENTES) y {@link #HILOS_CONSERVACION} hilos transfiriendo montos al
+ * azar entre cuentas al azar, mientras otro hilo toma capturas. Cada captura y el final suman
+ * lo mismo que al principio y ningún saldo queda negativo.
+ *
+ * "servidor": un {@link ServidorCajero} en este proceso con {@link #CLIENTES_SERVIDOR} clientes
+ * sintéticos y un {@link ClienteCajero} conectado y con sesión por cada uno, todos a la vez.
+ * Cada uno hace transferencias propias y a terceros, depósitos, retiros y consultas, y repite
+ * un depósito con el mismo id de operación. Al final el dinero del ledger es el inicial más
+ * los depósitos menos los retiros confirmados (el repetido cuenta una vez) y no queda
+ * ninguna sesión abierta.
+ *
+ * "importacion": un directorio de datos con movimientos en el diario recibe archivos
+ * accounts.json de {@link #CUENTAS_IMPORTADAS} cuentas nuevas con "java CuentasJson importar"
+ * en otra JVM. Primero un archivo cortado a la mitad (la importación falla), después varios
+ * que se matan (kill -9) en momentos al azar y al final uno que se deja terminar. Después de
+ * cada intento el directorio vuelve a abrir, tiene todas las cuentas de ese archivo o ninguna,
+ * con el dinero que corresponde, y el cierre del día cuadra (las importadas entran como altas
+ * con su saldo inicial).
+ */
+final class PruebasCajero {
+
+    static final long SALDO_DEMO = 200_000; // cada cuenta demo arranca con 2000.00
+    static final long ESPERA_ARRANQUE_MS = 30_000;
+    /** Límites de transferencias a terceros que no molestan a las pruebas (ver LimitesTransferencia). */
+    static final String SIN_LIMITES = "-Dcajero.limites=cuenta.dia=1000000000/1000000000";
+    static final int HILOS_CONSERVACION = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    static final int TRANSFERENCIAS_POR_HILO = 200_000;
+    static final int CLIENTES_SERVIDOR = 200;
+    static final int OPERACIONES_POR_CLIENTE = 100;
+    static final int CUENTAS_IMPORTADAS = 300_000;
+    static final int IMPORTACIONES_MATADAS = 4;
+
+    interface Prueba {
+        void correr() throws Exception;
+    }
+
+    static final Map<String, Prueba> PRUEBAS = new LinkedHashMap<>();
+    static {
+        PRUEBAS.put("conservacion", PruebasCajero::conservacion);
+        PRUEBAS.put("failover", PruebasCajero::failover);
+        PRUEBAS.put("particiones", PruebasCajero::particiones);
+        PRUEBAS.put("servidor", PruebasCajero::servidor);
+        PRUEBAS.put("importacion", PruebasCajero::importacion);
+    }
+
+    // --- conservacion -------------------------------------------------------------------
+
+    static void conservacion() throws Exception {
+        int cuentas = 64;
+        long saldoInicial = 10_000;
+        Ledger ledger = new Ledger();
+        SubCuenta[] subcuentas = new SubCuenta[cuentas];
+        for (int i = 0; i < cuentas; i++) {
+            subcuentas[i] = ledger.abrirCuenta(TipoCuenta.CORRIENTE, "9" + i + "-C", saldoInicial);
+        }
+        long total = cuentas * saldoInicial;
+
+        AtomicLong exitosas = new AtomicLong();
+        AtomicLong sinFondos = new AtomicLong();
+        AtomicReference<Throwable> falla = new AtomicReference<>();
+        CountDownLatch largada = new CountDownLatch(1);
+        List<Thread> hilos = new ArrayList<>();
+        for (int h = 0; h < HILOS_CONSERVACION; h++) {
+            Thread t = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                try {
+                    largada.await();
+                    for (int k = 0; k < TRANSFERENCIAS_POR_HILO; k++) {
+                        int o = r.nextInt(cuentas);
+                        int d = r.nextInt(cuentas - 1);
+                        if (d >= o) d++;
+                        ResultadoOperacion res = ledger.transferir(subcuentas[o], subcuentas[d], 1 + r.nextInt(5_000));
+                        if (res == ResultadoOperacion.EXITOSA) exitosas.incrementAndGet();
+                        else if (res == ResultadoOperacion.FONDOS_INSUFICIENTES) sinFondos.incrementAndGet();
+                        else throw new AssertionError("transferencia: " + res);
+                    }
+                } catch (Throwable e) {
+                    falla.compareAndSet(null, e);
+                }
+            }, "conservacion-" + h);
+            hilos.add(t);
+            t.start();
+        }
+        largada.countDown();
+        int capturas = 0;
+        while (hilos.stream().anyMatch(Thread::isAlive)) {
+            verificarCaptura(ledger.capturar(), total);
+            capturas++;
+        }
+        for (Thread t : hilos) t.join();
+        if (falla.get() != null) throw new AssertionError("un hilo falló", falla.get());
+        verificarCaptura(ledger.capturar(), total);
+        long suma = 0;
+        for (SubCuenta sc : subcuentas) suma += ledger.saldo(sc);
+        verificar(suma == total, "suma final " + suma + ", esperada " + total);
+        verificar(exitosas.get() + sinFondos.get() == (long) HILOS_CONSERVACION * TRANSFERENCIAS_POR_HILO, "transferencias contadas");
+        verificar(exitosas.get() > 0 && sinFondos.get() > 0, "la prueba no ejercitó los dos caminos");
+        System.out.printf("  %d hilos, %d exitosas, %d sin fondos, %d capturas%n",
+                HILOS_CONSERVACION, exitosas.get(), sinFondos.get(), capturas);
+    }
+
+    private static void verificarCaptura(Ledger.Captura c, long total) {
+        long suma = 0;
+        for (long[] pagina : c.saldos) {
+            for (long saldo : pagina) {
+                verificar(saldo >= 0, "saldo negativo en la captura " + c.secuencia + ": " + saldo);
+                suma += saldo;
+            }
+        }
+        verificar(suma == total, "la captura suma " + suma + ", esperado " + total);
+    }
+
+    // --- failover -----------------------------------------------------------------------
+
+    static void failover() throws Exception {
+        Path dirPrimario = Files.createTempDirectory("cajero-primario");
+        Path dirReplica = Files.createTempDirectory("cajero-replica");
+        int puertoPrimario = puertoLibre(), puertoDiario = puertoLibre();
+        int puertoReplica = puertoLibre(), puertoJmx = puertoLibre();
+        try (Servidor primario = Servidor.arrancar(dirPrimario, puertoPrimario, SIN_LIMITES,
+                     "-Dcajero.replicacion=" + puertoDiario);
+             Servidor replica = Servidor.arrancar(dirReplica, puertoReplica, SIN_LIMITES,
+                     "-Dcajero.primario=localhost:" + puertoDiario,
+                     "-Dcom.sun.management.jmxremote.port=" + puertoJmx,
+                     "-Dcom.sun.management.jmxremote.rmi.port=" + puertoJmx,
+                     "-Dcom.sun.management.jmxremote.authenticate=false",
+                     "-Dcom.sun.management.jmxremote.ssl=false",
+                     "-Djava.rmi.server.hostname=localhost");
+             JMXConnector jmx = JMXConnectorFactory.connect(new JMXServiceURL(
+                     "service:jmx:rmi:///jndi/rmi://localhost:" + puertoJmx + "/jmxrmi"));
+             ClienteCajero cliente = ClienteCajero.conectar("localhost:" + puertoPrimario + ",localhost:" + puertoReplica)) {
+            MBeanServerConnection mbeans = jmx.getMBeanServerConnection();
+            ObjectName replicacion = new ObjectName("banco.cajero:type=Replicacion");
+
+            verificar(cliente.iniciarSesion("12345678", "pass1") != null, "login en el primario");
+            long enviado = 0;
+            for (int i = 0; i < 200; i++) {
+                ResultadoOperacion r = cliente.transferir("1001-C", "2002-C", 1, "1234", ServicioCajero.nuevoIdOperacion());
+                verificar(r == ResultadoOperacion.EXITOSA, "transferencia en el primario: " + r);
+                enviado++;
+            }
+            long hastaCaida = System.currentTimeMillis() + 500;
+            while (System.currentTimeMillis() < hastaCaida) {
+                if (cliente.transferir("1001-C", "2002-C", 1, "1234", ServicioCajero.nuevoIdOperacion())
+                        == ResultadoOperacion.EXITOSA) enviado++;
+            }
+
+            primario.matar();
+            // Más que cualquier promocionMs razonable: sin configurarla la réplica no se promueve sola
+            Thread.sleep(1500);
+            verificar("SEGUIDOR".equals(String.valueOf(mbeans.getAttribute(replicacion, "Rol"))),
+                    "la réplica se promovió sola: " + mbeans.getAttribute(replicacion, "Rol"));
+            ResultadoOperacion antes = transferirReconectando(cliente);
+            verificar(antes == ResultadoOperacion.SOLO_LECTURA, "transferencia en la réplica sin promover: " + antes);
+
+            mbeans.invoke(replicacion, "promover", null, null);
+            verificar(replica.proceso.isAlive(), "la réplica terminó:\n" + replica.salida);
+            verificar("PRIMARIO".equals(String.valueOf(mbeans.getAttribute(replicacion, "Rol"))), "promoción por JMX");
+            int despues = 0;
+            for (int i = 0; i < 200; i++) {
+                ResultadoOperacion r = transferirReconectando(cliente);
+                verificar(r == ResultadoOperacion.EXITOSA, "transferencia después de promover: " + r);
+                despues++;
+            }
+            enviado += despues;
+
+            long origen = cliente.saldo("1001-C");
+            long propias = Arrays.stream(cliente.saldos("1234")).sum();
+            try (ClienteCajero otro = ClienteCajero.conectar("localhost:" + puertoReplica)) {
+                verificar(otro.iniciarSesion("87654321", "pass2") != null, "login del destinatario");
+                long destino = otro.saldo("2002-C");
+                verificar(origen + destino == 2 * SALDO_DEMO,
+                        "dinero creado o perdido: origen " + origen + " + destino " + destino);
+                verificar(Arrays.stream(otro.saldos("1234")).sum() + propias == 4 * SALDO_DEMO,
+                        "total de las cuentas demo");
+            }
+            // Lo confirmado y no replicado se pierde (vuelve al origen); a lo sumo una transferencia
+            // en vuelo al matar el primario pudo aplicarse sin que el cliente viera la respuesta.
+            long perdidas = origen - (SALDO_DEMO - enviado);
+            verificar(perdidas >= -1, "débitos fantasma en el origen: " + -perdidas);
+            System.out.printf("  %d transferencias confirmadas, %d perdidas en el cambio de servidor%n",
+                    enviado, Math.max(0, perdidas));
+        } finally {
+            borrar(dirPrimario);
+            borrar(dirReplica);
+        }
+    }
+
+    /** Transfiere un centavo; si el servidor cambió y la sesión no existe ahí, vuelve a entrar. */
+    private static ResultadoOperacion transferirReconectando(ClienteCajero cliente) throws IOException {
+        long id = ServicioCajero.nuevoIdOperacion();
+        ResultadoOperacion r = cliente.transferir("1001-C", "2002-C", 1, "1234", id);
+        if (r == ResultadoOperacion.SIN_SESION) {
+            verificar(cliente.iniciarSesion("12345678", "pass1") != null, "login después del cambio de servidor");
+            r = cliente.transferir("1001-C", "2002-C", 1, "1234", id);
+        }
+        return r;
+    }
+
+    // --- particiones ---------------------------------------------------------------------
+
+    static void particiones() throws Exception {
+        Path[] dirs = {Files.createTempDirectory("cajero-particion0"), Files.createTempDirectory("cajero-particion1")};
+        int[] puertos = {puertoLibre(), puertoLibre()};
+        int[] puertosParticion = {puertoLibre(), puertoLibre()};
+        String mapa = "-Dcajero.particiones=localhost:" + puertosParticion[0] + ",localhost:" + puertosParticion[1];
+        String direcciones = "localhost:" + puertos[0] + ",localhost:" + puertos[1];
+        Servidor[] particion = new Servidor[2];
+        CargaEntreParticiones carga = null;
+        try {
+            for (int i = 0; i < 2; i++) particion[i] = arrancarParticion(dirs[i], puertos[i], mapa, i);
+            carga = new CargaEntreParticiones(direcciones);
+            carga.start();
+            Thread.sleep(1000);
+            // 2002-C está en la partición 0 (participante), 1001-C en la 1 (coordinadora)
+            for (int i = 0; i < 2; i++) {
+                long antes = carga.confirmadas.get();
+                particion[i].matar();
+                Thread.sleep(500);
+                particion[i] = arrancarParticion(dirs[i], puertos[i], mapa, i);
+                long hasta = System.currentTimeMillis() + ESPERA_ARRANQUE_MS;
+                while (carga.confirmadas.get() < antes + 50 && System.currentTimeMillis() < hasta) Thread.sleep(50);
+                verificar(carga.confirmadas.get() >= antes + 50, "no se transfiere después de reiniciar la partición " + i);
+            }
+            carga.parar();
+            long confirmadas = carga.confirmadas.get(), dudosas = carga.dudosas.get();
+
+            long[] total = esperarResueltas(puertosParticion);
+            verificar(total[0] == 4 * SALDO_DEMO, "suma de las particiones: " + total[0]);
+            long recibido;
+            long enviado;
+            try (ClienteCajero destino = ClienteCajero.conectar(direcciones);
+                 ClienteCajero origen = ClienteCajero.conectar(direcciones)) {
+                verificar(destino.iniciarSesion("87654321", "pass2") != null, "login en la partición 0");
+                verificar(origen.iniciarSesion("12345678", "pass1") != null, "login en la partición 1");
+                recibido = destino.saldo("2002-C") - SALDO_DEMO;
+                enviado = SALDO_DEMO - origen.saldo("1001-C");
+            }
+            verificar(recibido == enviado, "enviado " + enviado + " y recibido " + recibido);
+            verificar(recibido >= confirmadas && recibido <= confirmadas + dudosas,
+                    "recibido " + recibido + " con " + confirmadas + " confirmadas y " + dudosas + " sin respuesta");
+
+            // El contador de t se guarda con la instantánea de la coordinadora (cada segundo)
+            Thread.sleep(1500);
+            String[] base = Files.readString(dirs[1].resolve(TransaccionesDistribuidas.ARCHIVO), StandardCharsets.UTF_8).trim().split("\\s+");
+            verificar(base.length == 2 && Long.parseLong(base[1]) >= confirmadas,
+                    "contador de transacciones de la coordinadora: " + String.join(" ", base));
+            System.out.printf("  %d transferencias confirmadas entre particiones, %d sin respuesta, %d céntimos movidos%n",
+                    confirmadas, dudosas, recibido);
+        } finally {
+            if (carga != null) carga.parar();
+            for (Servidor s : particion) if (s != null) s.close();
+            for (Path d : dirs) borrar(d);
+        }
+    }
+
+    private static Servidor arrancarParticion(Path dir, int puerto, String mapa, int i) throws IOException, InterruptedException {
+        return Servidor.arrancar(dir, puerto, SIN_LIMITES, mapa, "-Dcajero.particion=" + i, "-Dcajero.instantaneaSeg=1");
+    }
+
+    /** Pide TOTAL a cada partición hasta que no quedan transacciones pendientes: {centimos, cuentas}. */
+    private static long[] esperarResueltas(int[] puertosParticion) throws Exception {
+        long hasta = System.currentTimeMillis() + ESPERA_ARRANQUE_MS;
+        while (true) {
+            long centimos = 0, cuentas = 0, pendientes = 0;
+            for (int p : puertosParticion) {
+                try (Socket s = new Socket()) {
+                    s.connect(new InetSocketAddress("localhost", p), 5000);
+                    s.setSoTimeout(5000);
+                    Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+                    out.write("TOTAL\n");
+                    out.flush();
+                    String[] r = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)).readLine().split("\t");
+                    verificar(r[0].equals("OK"), "TOTAL respondió " + String.join(" ", r));
+                    cuentas += Long.parseLong(r[1]);
+                    centimos += Long.parseLong(r[2]);
+                    pendientes += Long.parseLong(r[3]) + Long.parseLong(r[4]);
+                }
+            }
+            if (pendientes == 0) return new long[]{centimos, cuentas};
+            verificar(System.currentTimeMillis() < hasta, pendientes + " transacciones entre particiones sin resolver");
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Transfiere 1001-C -> 2002-C de a un céntimo hasta que la paran. Si se corta la conexión
+     * o la sesión, vuelve a conectar y a entrar; una respuesta perdida cuenta como dudosa.
+     */
+    static final class CargaEntreParticiones extends Thread {
+        final String direcciones;
+        final AtomicLong confirmadas = new AtomicLong();
+        final AtomicLong dudosas = new AtomicLong();
+        volatile boolean parada;
+
+        CargaEntreParticiones(String direcciones) {
+            super("carga-particiones");
+            this.direcciones = direcciones;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            ClienteCajero cliente = null;
+            while (!parada) {
+                try {
+                    if (cliente == null) {
+                        cliente = ClienteCajero.conectar(direcciones);
+                        if (cliente.iniciarSesion("12345678", "pass1") == null) throw new IOException("login rechazado");
+                    }
+                    ResultadoOperacion r = cliente.transferir("1001-C", "2002-C", 1, "1234", ServicioCajero.nuevoIdOperacion());
+                    if (r == ResultadoOperacion.EXITOSA) confirmadas.incrementAndGet();
+                    else if (r == ResultadoOperacion.SIN_SESION) throw new IOException("sin sesión");
+                } catch (IOException e) {
+                    if (cliente != null) {
+                        dudosas.incrementAndGet(); // pudo quedar una transferencia en vuelo
+                        cerrar(cliente);
+                        cliente = null;
+                    }
+                    dormir(50);
+                }
+            }
+            if (cliente != null) cerrar(cliente);
+        }
+
+        void parar() throws InterruptedException {
+            parada = true;
+            join();
+        }
+
+        private static void cerrar(ClienteCajero c) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static void dormir(long ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // --- servidor -----------------------------------------------------------------------
+
+    static void servidor() throws Exception {
+        int n = CLIENTES_SERVIDOR;
+        Ledger ledger = new Ledger();
+        SimuladorCarga.poblar(ledger, n);
+        long inicial = 2L * n * SimuladorCarga.SALDO_INICIAL;
+        AtomicLong neto = new AtomicLong(); // depósitos - retiros confirmados
+        AtomicLong operaciones = new AtomicLong();
+        AtomicReference<Throwable> falla = new AtomicReference<>();
+        try (GestorSesiones sesiones = new GestorSesiones(ledger);
+             ServidorCajero servidor = new ServidorCajero(sesiones, LimitesTransferencia.parsear(""), CacheIdempotencia.porDefecto(),
+                     null, null, new InetSocketAddress("localhost", 0), 16)) {
+            String direccion = "localhost:" + servidor.puerto();
+            CountDownLatch conectados = new CountDownLatch(n);
+            List<Thread> hilos = new ArrayList<>();
+            for (int c = 0; c < n; c++) {
+                int cliente = c;
+                Thread t = new Thread(() -> {
+                    try (ClienteCajero cc = ClienteCajero.conectar(direccion)) {
+                        verificar(cc.iniciarSesion(SimuladorCarga.dni(cliente), SimuladorCarga.clave(cliente)) != null,
+                                "login del cliente " + cliente);
+                        conectados.countDown();
+                        conectados.await(); // todas las sesiones abiertas a la vez
+                        operarContraServidor(cc, cliente, n, neto);
+                        operaciones.addAndGet(OPERACIONES_POR_CLIENTE);
+                    } catch (Throwable e) {
+                        falla.compareAndSet(null, e);
+                        conectados.countDown();
+                    }
+                }, "cliente-" + c);
+                hilos.add(t);
+                t.start();
+            }
+            for (Thread t : hilos) t.join();
+            if (falla.get() != null) throw new AssertionError("un cliente falló", falla.get());
+            verificar(sesiones.activas() == 0, sesiones.activas() + " sesiones sin cerrar");
+        }
+        long suma = 0;
+        for (int c = 0; c < n; c++) {
+            suma += ledger.saldo(ledger.buscarCuenta(SimuladorCarga.numero(c, false)))
+                    + ledger.saldo(ledger.buscarCuenta(SimuladorCarga.numero(c, true)));
+        }
+        verificar(suma == inicial + neto.get(), "el ledger suma " + suma + ", esperado " + (inicial + neto.get()));
+        System.out.printf("  %d clientes a la vez, %d operaciones, %d céntimos netos depositados%n", n, operaciones.get(), neto.get());
+    }
+
+    private static void operarContraServidor(ClienteCajero cc, int cliente, int clientes, AtomicLong neto) throws IOException {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        String corriente = SimuladorCarga.numero(cliente, false);
+        String ahorros = SimuladorCarga.numero(cliente, true);
+        for (int k = 0; k < OPERACIONES_POR_CLIENTE; k++) {
+            long monto = 100 * (1 + r.nextInt(100));
+            ResultadoOperacion res;
+            switch (r.nextInt(5)) {
+                case 0:
+                    res = cc.transferir(corriente, ahorros, monto, null, ServicioCajero.nuevoIdOperacion());
+                    break;
+                case 1: {
+                    int otro = r.nextInt(clientes - 1);
+                    if (otro >= cliente) otro++;
+                    res = cc.transferir(corriente, SimuladorCarga.numero(otro, false), monto,
+                            ServicioCajeroLocal.CODIGO_SECRETO, ServicioCajero.nuevoIdOperacion());
+                    break;
+                }
+                case 2:
+                    res = cc.depositar(ahorros, monto, ServicioCajero.nuevoIdOperacion(), (p, e) -> { });
+                    if (res.exitosa()) neto.addAndGet(monto);
+                    break;
+                case 3:
+                    res = cc.retirar(corriente, monto, ServicioCajero.nuevoIdOperacion());
+                    if (res.exitosa()) neto.addAndGet(-monto);
+                    break;
+                default:
+                    verificar(cc.saldo(corriente) >= 0, "saldo de " + corriente);
+                    res = ResultadoOperacion.EXITOSA;
+            }
+            verificar(res == ResultadoOperacion.EXITOSA, "operación del cliente " + cliente + ": " + res);
+        }
+        // un reintento con el mismo id devuelve el resultado original sin volver a depositar
+        long id = ServicioCajero.nuevoIdOperacion();
+        verificar(cc.depositar(corriente, 500, id, (p, e) -> { }) == ResultadoOperacion.EXITOSA, "depósito");
+        verificar(cc.depositar(corriente, 500, id, (p, e) -> { }) == ResultadoOperacion.EXITOSA, "depósito repetido");
+        neto.addAndGet(500);
+        long[] propios = cc.saldos(ServicioCajeroLocal.CODIGO_SECRETO);
+        verificar(propios != null && propios.length == 2, "saldos propios");
+        cc.cerrarSesion();
+    }
+
+    // --- importacion ---------------------------------------------------------------------
+
+    static void importacion() throws Exception {
+        Path dir = Files.createTempDirectory("cajero-importacion");
+        Path json = Files.createTempFile("cuentas", ".json");
+        Path cortado = Files.createTempFile("cuentas-cortado", ".json");
+        Path salida = Files.createTempFile("importacion", ".log");
+        try {
+            int demo;
+            try (PersistenciaBanco p = PersistenciaBanco.abrir(dir, Durabilidad.POR_TRANSACCION,
+                    CajeroBancoAvanzado::crearPersonasYCuentasDemo, 0)) {
+                Ledger l = p.ledger();
+                for (int i = 0; i < 100; i++) {
+                    verificar(l.transferir(l.buscarCuenta("1001-C"), l.buscarCuenta("2002-C"), 1) == ResultadoOperacion.EXITOSA,
+                            "transferencia antes de importar");
+                }
+                demo = l.cantidadCuentas();
+            }
+            escribirCuentasJson(json, 0);
+            byte[] completo = Files.readAllBytes(json);
+            Files.write(cortado, Arrays.copyOf(completo, completo.length / 2));
+
+            Process p = importar(cortado, dir, salida);
+            verificar(p.waitFor() != 0, "la importación del archivo cortado no falló:\n" + new String(Files.readAllBytes(salida)));
+            int importadas = verificarImportacion(dir, demo, 0);
+
+            int aMedias = 0;
+            for (int k = 1; k <= IMPORTACIONES_MATADAS; k++) {
+                escribirCuentasJson(json, k);
+                p = importar(json, dir, salida);
+                // el proceso entero tarda del orden de un segundo: se mata en cualquier punto
+                Thread.sleep(ThreadLocalRandom.current().nextLong(100, 1_000));
+                p.destroyForcibly();
+                p.waitFor();
+                int antes = importadas;
+                importadas = verificarImportacion(dir, demo, importadas);
+                if (importadas == antes) aMedias++;
+            }
+            escribirCuentasJson(json, IMPORTACIONES_MATADAS + 1);
+            p = importar(json, dir, salida);
+            verificar(p.waitFor() == 0, "la importación falló:\n" + new String(Files.readAllBytes(salida)));
+            int antes = importadas;
+            verificar(verificarImportacion(dir, demo, importadas) == antes + CUENTAS_IMPORTADAS, "faltan cuentas importadas");
+            System.out.printf("  %d importaciones matadas (%d antes de terminar), el directorio abrió después de cada una%n",
+                    IMPORTACIONES_MATADAS, aMedias);
+        } finally {
+            borrar(dir);
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(cortado);
+            Files.deleteIfExists(salida);
+        }
+    }
+
+    // Cuentas nuevas para cada intento (números que no se repiten entre archivos)
+    private static void escribirCuentasJson(Path json, int archivo) throws IOException {
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(json), StandardCharsets.UTF_8)) {
+            w.write('{');
+            for (int i = 0; i < CUENTAS_IMPORTADAS; i++) {
+                if (i > 0) w.write(", ");
+                long numero = 3_000_000L + (long) archivo * CUENTAS_IMPORTADAS + i;
+                w.write("\"" + numero + "-C\": {\"pin\": \"" + (1000 + i % 9000) + "\", \"saldo\": 1.50}");
+            }
+            w.write('}');
+        }
+    }
+
+    private static Process importar(Path json, Path dir, Path salida) throws IOException {
+        return new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "CuentasJson", "importar", json.toString(), dir.toString())
+                .redirectErrorStream(true).redirectOutput(salida.toFile()).start();
+    }
+
+    /**
+     * Abre el directorio y devuelve cuántas cuentas importadas tiene: las {@code previas} más,
+     * a lo sumo, un archivo completo.
+     */
+    private static int verificarImportacion(Path dir, int demo, int previas) throws IOException {
+        try (PersistenciaBanco p = PersistenciaBanco.abrir(dir, Durabilidad.POR_TRANSACCION, l -> {
+            throw new AssertionError("el directorio perdió su instantánea");
+        }, 0)) {
+            Ledger l = p.ledger();
+            int importadas = l.cantidadCuentas() - demo;
+            verificar(importadas == previas || importadas == previas + CUENTAS_IMPORTADAS,
+                    "importación a medias: " + (importadas - previas) + " cuentas");
+            long suma = 0;
+            for (int id = 0; id < l.cantidadCuentas(); id++) suma += l.almacen().saldo(id);
+            long esperada = 4 * SALDO_DEMO + importadas * 150L; // "1.50" por cuenta importada
+            verificar(suma == esperada, "el banco suma " + suma + ", esperado " + esperada);
+            ConciliacionDiaria.Informe informe = p.cerrarDia();
+            verificar(informe.cuadra(), "el cierre no cuadra:\n" + informe.texto(l.almacen()));
+            return importadas;
+        }
+    }
+
+    // --- procesos y utilidades ------------------------------------------------------------
+
+    /** Un ServidorCajero en su propia JVM, con el classpath de las pruebas. Se mata al cerrar. */
+    static final class Servidor implements AutoCloseable {
+        final Process proceso;
+        final StringBuffer salida = new StringBuffer();
+
+        private Servidor(Process proceso) {
+            this.proceso = proceso;
+        }
+
+        static Servidor arrancar(Path dirDatos, int puerto, String... propiedades) throws IOException, InterruptedException {
+            List<String> comando = new ArrayList<>();
+            comando.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            comando.add("-cp");
+            comando.add(System.getProperty("java.class.path"));
+            comando.addAll(Arrays.asList(propiedades));
+            comando.add("ServidorCajero");
+            comando.add(Integer.toString(puerto));
+            comando.add(dirDatos.toString());
+            Servidor s = new Servidor(new ProcessBuilder(comando).redirectErrorStream(true).start());
+            CountDownLatch listo = new CountDownLatch(1);
+            Thread lector = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        s.proceso.getInputStream(), StandardCharsets.UTF_8))) {
+                    for (String linea; (linea = in.readLine()) != null; ) {
+                        s.salida.append(linea).append('\n');
+                        if (linea.startsWith("Servidor del cajero escuchando")) listo.countDown();
+                    }
+                } catch (IOException e) {
+                    // el proceso terminó
+                }
+            }, "salida-servidor-" + puerto);
+            lector.setDaemon(true);
+            lector.start();
+            if (!listo.await(ESPERA_ARRANQUE_MS, TimeUnit.MILLISECONDS)) {
+                s.close();
+                throw new AssertionError("el servidor del puerto " + puerto + " no arrancó:\n" + s.salida);
+            }
+            return s;
+        }
+
+        void matar() {
+            proceso.destroyForcibly();
+            try {
+                proceso.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (proceso.isAlive()) matar();
+        }
+    }
+
+    static int puertoLibre() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    static void borrar(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> archivos = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) archivos.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    static void verificar(boolean condicion, String mensaje) {
+        if (!condicion) throw new AssertionError(mensaje);
+    }
+
+    public static void main(String[] args) {
+        List<String> nombres = args.length == 0 ? new ArrayList<>(PRUEBAS.keySet()) : Arrays.asList(args);
+        int fallas = 0;
+        for (String nombre : nombres) {
+            Prueba prueba = PRUEBAS.get(nombre);
+            if (prueba == null) {
+                System.out.println("Prueba desconocida: " + nombre + " (hay " + PRUEBAS.keySet() + ")");
+                fallas++;
+                continue;
+            }
+            long t0 = System.nanoTime();
+            try {
+                prueba.correr();
+                System.out.printf("OK     %s (%d ms)%n", nombre, (System.nanoTime() - t0) / 1_000_000);
+            } catch (Throwable e) {
+                System.out.printf("FALLA  %s: %s%n", nombre, e);
+                e.printStackTrace(System.out);
+                fallas++;
+            }
+        }
+        System.exit(fallas == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,710 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ReplicacionDiario.java
+ *
+ * Réplica en espera (hot standby) por envío del diario: el primario transmite sus
+ * registros de {@link DiarioTransacciones} a una o más réplicas, que los aplican en el
+ * mismo orden y con la misma secuencia sobre su propio Ledger, diario e historial.
+ *
+ * - Solo se envía lo que el primario ya tiene en disco (secuencia durable): una réplica
+ *   nunca ve un movimiento que el primario pueda perder al caer.
+ * - El primario manda los registros tal cual están en el segmento, en tramas de hasta
+ *   {@link #MAX_LOTE}, con FileChannel.transferTo (del caché de páginas al socket, sin
+ *   copiarlos al heap). Sin novedades manda un latido cada {@link #LATIDO_MS}.
+ * - La réplica valida el CRC y la secuencia de cada registro, lo aplica
+ *   ({@link Ledger#replicarRegistro}) y confirma su diario una vez por trama.
+ * - Una réplica nueva (o que quedó más atrás que el diario que conserva el primario)
+ *   recibe primero la instantánea y el diario desde el que se puede reconstruir
+ *   ({@link #sincronizar}); además recibe la apertura del día, el control del devengo, las
+ *   transferencias programadas y la base de las transferencias entre particiones cada vez que
+ *   cambian, para poder hacer el cierre, ejecutarlas y seguir numerando si la promueven.
+ * - La réplica atiende solo consultas (LOGIN, SALDO, SALDOS, MOVIMIENTOS); las operaciones
+ *   responden SOLO_LECTURA. No hace el cierre del día, el devengo ni las transferencias programadas.
+ * - Si pierde al primario reintenta cada {@link #REINTENTO_MS} hasta que la promuevan por JMX
+ *   ("banco.cajero:type=Replicacion", {@link ReplicacionMXBean}, que además publica el retraso).
+ *   Con -Dcajero.promocionMs &gt; 0 se promueve sola pasado ese tiempo sin contacto.
+ *
+ * La replicación es asíncrona: lo que el primario confirmó y todavía no llegó a la réplica
+ * (ver getRetrasoRegistros) se pierde en una promoción. Las sesiones y los ids de operación
+ * no se replican: después de un cambio de servidor los terminales vuelven a hacer LOGIN.
+ * La promoción automática supone que el primario cayó de verdad: no hay fencing, y si la red
+ * entre ambos se corta con los dos vivos quedan dos primarios aceptando débitos. Por eso la
+ * promoción es a mano salvo que se pida (quien promueve se asegura antes de que el primario
+ * está muerto). Ver la prueba "failover" de {@link PruebasCajero}. Un primario
+ * caído vuelve como réplica de la nueva con un dirDatos vacío.
+ *
+ * Protocolo (binario, big endian, puerto propio que no debe quedar expuesto):
+ *
+ *   réplica  -> long desde                       última secuencia que tiene (-1 = ninguna)
+ *   primario -> long inicio                      = desde: sigue el diario desde ahí
+ *                                                &lt;&gt; desde: antes llega la instantánea
+ *                                                -1: la réplica tiene registros que el primario no
+ *   primario -> tramas: int n, long hastaPrimario, long marcaTiempoPrimario
+ *                 n &gt;= 0: n registros de 40 bytes (n = 0 es un latido)
+ *                 n = -1: archivo de control: int largoNombre, nombre, long largo, bytes
+ */
+final class ReplicacionDiario implements ReplicacionMXBean, AutoCloseable {
+
+    enum Rol { PRIMARIO, SEGUIDOR }
+
+    static final long LATIDO_MS = 100;
+    static final long REINTENTO_MS = 100;
+    static final int MAX_LOTE = 4096;
+
+    private static final int TAM_REGISTRO = DiarioTransacciones.TAM_REGISTRO;
+    private static final int TAM_CABECERA = 4 + 8 + 8;
+    private static final int TRAMA_ARCHIVO = -1;
+    private static final long ADELANTADA = -1;
+    // la base de las programadas antes que su registro: un registro de otro lote se ignora
+    private static final List<String> ARCHIVOS_CONTROL = List.of(ConciliacionDiaria.APERTURA, DevengoIntereses.ARCHIVO_CONTROL,
+            TransferenciasProgramadas.ARCHIVO, TransferenciasProgramadas.ARCHIVO_REGISTRO, TransaccionesDistribuidas.ARCHIVO);
+
+    private final PersistenciaBanco persistencia;
+    private final Ledger ledger;
+    private final Path dir;
+    private volatile Rol rol;
+
+    // Primario
+    private ServerSocketChannel servidor;
+    private ExecutorService emisores;
+    private final AtomicInteger seguidores = new AtomicInteger();
+
+    // Seguidor
+    private final InetSocketAddress primario;
+    private final int puerto;
+    private final long promocionMs;
+    private final Runnable alPromover;
+    private Thread receptor;
+    private volatile SocketChannel conexion;
+    private volatile long secuenciaPrimario;
+    private volatile long retrasoMs;
+    private volatile long ultimoContacto; // ms de nanoTime de la última trama
+    private volatile long ultimaLectura;  // ídem, o de la última conexión (para el vigilante)
+
+    private ReplicacionDiario(PersistenciaBanco persistencia, Rol rol, InetSocketAddress primario, int puerto,
+                              long promocionMs, Runnable alPromover) {
+        this.persistencia = persistencia;
+        this.ledger = persistencia.ledger();
+        this.dir = persistencia.diario().directorio();
+        this.rol = rol;
+        this.primario = primario;
+        this.puerto = puerto;
+        this.promocionMs = promocionMs;
+        this.alPromover = alPromover;
+        this.ultimoContacto = ahora();
+    }
+
+    /** Sirve el diario de este proceso a las réplicas que se conecten al puerto. */
+    static ReplicacionDiario primario(PersistenciaBanco persistencia, int puerto) throws IOException {
+        ReplicacionDiario r = new ReplicacionDiario(persistencia, Rol.PRIMARIO, null, puerto, 0, null);
+        r.emitir();
+        r.registrarJmx();
+        return r;
+    }
+
+    /**
+     * Sigue al primario (el dirDatos ya sincronizado con {@link #sincronizar}). Deja el
+     * Ledger en solo lectura hasta la promoción, que ejecuta {@code alPromover} y, si
+     * {@code puerto} &gt; 0, pasa a servir el diario a su vez.
+     *
+     * @param promocionMs sin contacto con el primario durante ese tiempo se promueve sola (0 = solo a mano)
+     */
+    static ReplicacionDiario seguidor(PersistenciaBanco persistencia, InetSocketAddress primario, int puerto,
+                                      long promocionMs, Runnable alPromover) {
+        ReplicacionDiario r = new ReplicacionDiario(persistencia, Rol.SEGUIDOR, primario, puerto, promocionMs, alPromover);
+        r.ledger.fijarSoloLectura(true);
+        r.secuenciaPrimario = r.ledger.diario().ultimaSecuencia();
+        r.receptor = new Thread(r::recibir, "replicacion-receptor");
+        r.receptor.setDaemon(true);
+        r.receptor.start();
+        Thread vigilante = new Thread(r::vigilar, "replicacion-vigilante");
+        vigilante.setDaemon(true);
+        vigilante.start();
+        r.registrarJmx();
+        return r;
+    }
+
+    /**
+     * Pone al día el dirDatos de una réplica antes de abrirlo: pide al primario lo que le
+     * falta desde su última secuencia y lo escribe en el diario local (con la instantánea
+     * del primario si no tiene una o si ya no puede seguir desde la suya).
+     */
+    static void sincronizar(Path dir, Durabilidad modo, InetSocketAddress primario) throws IOException {
+        PersistenciaBanco.Candado candado = PersistenciaBanco.Candado.tomar(dir);
+        try {
+            sincronizarBloqueado(dir, modo, primario);
+        } finally {
+            candado.close();
+        }
+    }
+
+    private static void sincronizarBloqueado(Path dir, Durabilidad modo, InetSocketAddress primario) throws IOException {
+        long t0 = System.nanoTime();
+        long desde = -1;
+        if (Files.exists(dir.resolve(Instantanea.ARCHIVO))) {
+            desde = Math.max(Instantanea.leerSecuencia(dir.resolve(Instantanea.ARCHIVO)),
+                    DiarioTransacciones.leer(dir, Long.MAX_VALUE - 1, (s, m, tipo, o, d, monto) -> { }));
+        }
+        try (SocketChannel canal = conectar(primario)) {
+            long inicio = pedir(canal, desde);
+            boolean instantanea = inicio != desde;
+            if (instantanea) borrarEstado(dir);
+            try (DiarioTransacciones diario = DiarioTransacciones.abrir(dir, modo)) {
+                if (diario.ultimaSecuencia() < inicio) diario.continuarDesde(inicio);
+                Tramas tramas = new Tramas(canal, dir);
+                long ultima = inicio;
+                int n;
+                do {
+                    n = tramas.siguiente();
+                    for (int i = 0; i < n; i++) {
+                        ByteBuffer r = tramas.registro(i, ultima + 1);
+                        diario.registrar(TipoMovimiento.desdeCodigo(r.get(16)), r.getInt(20), r.getInt(24), r.getLong(28), r.getLong(8));
+                        ultima++;
+                    }
+                } while (n == TRAMA_ARCHIVO || ultima < tramas.hasta); // los archivos llegan antes del primer lote
+                diario.esperarDurable(ultima);
+                System.out.printf("Réplica sincronizada con %s:%d hasta la secuencia %d (%s) en %d ms%n",
+                        primario.getHostString(), primario.getPort(), ultima,
+                        instantanea ? "instantánea desde la " + inicio : "diario desde la " + desde, (System.nanoTime() - t0) / 1_000_000);
+            }
+        }
+    }
+
+    Rol rol() {
+        return rol;
+    }
+
+    // --- Vista JMX ---
+
+    @Override
+    public String getRol() {
+        return rol.name();
+    }
+
+    @Override
+    public long getSecuenciaAplicada() {
+        return ledger.diario().ultimaSecuencia();
+    }
+
+    @Override
+    public long getSecuenciaPrimario() {
+        return rol == Rol.PRIMARIO ? ledger.diario().secuenciaDurable() : secuenciaPrimario;
+    }
+
+    @Override
+    public long getRetrasoRegistros() {
+        return rol == Rol.PRIMARIO ? 0 : Math.max(0, secuenciaPrimario - ledger.diario().ultimaSecuencia());
+    }
+
+    @Override
+    public long getRetrasoMs() {
+        return rol == Rol.PRIMARIO ? 0 : retrasoMs;
+    }
+
+    @Override
+    public long getMsSinContacto() {
+        return rol == Rol.PRIMARIO ? 0 : ahora() - ultimoContacto;
+    }
+
+    @Override
+    public int getSeguidores() {
+        return seguidores.get();
+    }
+
+    /**
+     * Deja de seguir al primario y pasa a aceptar operaciones. Espera a que el receptor
+     * termine la trama en curso, así ningún registro replicado se mezcla con los nuevos.
+     */
+    @Override
+    public void promover() {
+        synchronized (this) {
+            if (rol != Rol.SEGUIDOR) return;
+            rol = Rol.PRIMARIO;
+        }
+        cerrarConexion();
+        if (Thread.currentThread() != receptor) {
+            try {
+                receptor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long sinContacto = ahora() - ultimoContacto;
+        try {
+            persistencia.releerApertura();
+        } catch (IOException e) {
+            System.err.println("Réplica: no se pudo leer la apertura del día: " + e);
+        }
+        ledger.fijarSoloLectura(false);
+        if (alPromover != null) alPromover.run();
+        if (puerto > 0) {
+            try {
+                emitir();
+            } catch (IOException e) {
+                System.err.println("Réplica promovida sin servir el diario en el puerto " + puerto + ": " + e);
+            }
+        }
+        System.out.printf("Réplica promovida a primario en la secuencia %d (%d registros sin recibir, %d ms sin contacto)%n",
+                ledger.diario().ultimaSecuencia(), getRetrasoRegistros(), sinContacto);
+    }
+
+    @Override
+    public synchronized void close() {
+        Rol r = rol;
+        rol = Rol.PRIMARIO;
+        if (r == Rol.SEGUIDOR) cerrarConexion();
+        if (servidor != null) {
+            try {
+                servidor.close();
+            } catch (IOException ignored) {
+            }
+            emisores.shutdownNow();
+            servidor = null;
+        }
+    }
+
+    // --- Primario ---
+
+    private synchronized void emitir() throws IOException {
+        servidor = ServerSocketChannel.open();
+        servidor.socket().setReuseAddress(true);
+        servidor.bind(new InetSocketAddress(puerto));
+        emisores = Hilos.porTarea("replicacion");
+        Thread aceptador = new Thread(this::aceptar, "replicacion-aceptar");
+        aceptador.setDaemon(true);
+        aceptador.start();
+        System.out.println("Diario disponible para réplicas en el puerto " + puerto);
+    }
+
+    private void aceptar() {
+        ServerSocketChannel s = servidor;
+        while (s.isOpen()) {
+            try {
+                SocketChannel canal = s.accept();
+                emisores.execute(() -> atender(canal));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Error aceptando una réplica: " + e);
+            }
+        }
+    }
+
+    private void atender(SocketChannel canal) {
+        seguidores.incrementAndGet();
+        String quien = String.valueOf(canal.socket().getRemoteSocketAddress());
+        try (canal) {
+            canal.socket().setTcpNoDelay(true);
+            ByteBuffer b = ByteBuffer.allocate(8);
+            leerCompleto(canal, b);
+            long desde = b.getLong(0);
+            enviar(canal, desde);
+        } catch (IOException e) {
+            System.err.println("Réplica " + quien + " desconectada: " + e.getMessage());
+        } finally {
+            seguidores.decrementAndGet();
+        }
+    }
+
+    private void enviar(SocketChannel canal, long desde) throws IOException {
+        DiarioTransacciones diario = ledger.diario();
+        ByteBuffer cabecera = ByteBuffer.allocate(TAM_CABECERA);
+        ByteBuffer inicio = ByteBuffer.allocate(8);
+        if (desde > diario.secuenciaDurable()) {
+            escribirCompleto(canal, inicio.putLong(0, ADELANTADA));
+            throw new IOException("tiene registros posteriores a la secuencia " + diario.secuenciaDurable() + " de este primario");
+        }
+        Map<String, Long> enviados = new HashMap<>();
+        boolean alDia = desde >= 0 && desde == diario.secuenciaDurable();
+        Segmento seg = desde >= 0 && !alDia ? Segmento.abrir(dir, desde + 1) : null;
+        long enviada = desde;
+        if (desde < 0 || (!alDia && seg == null)) {
+            // instantánea + el diario que conserva el primario: el mismo arranque que tras una caída
+            while (true) {
+                try (FileChannel inst = FileChannel.open(dir.resolve(Instantanea.ARCHIVO), StandardOpenOption.READ)) {
+                    long secuencia = Instantanea.leerSecuencia(inst, dir.resolve(Instantanea.ARCHIVO));
+                    List<Path> segmentos = DiarioTransacciones.segmentos(dir);
+                    if (segmentos.isEmpty()) {
+                        enviada = secuencia;
+                    } else {
+                        long primera = DiarioTransacciones.primeraSecuencia(segmentos.get(0));
+                        if (primera > secuencia + 1) continue; // otra instantánea recortó el diario entretanto
+                        seg = Segmento.abrirArchivo(segmentos.get(0), primera);
+                        if (seg == null) continue;
+                        enviada = primera - 1;
+                    }
+                    escribirCompleto(canal, inicio.putLong(0, enviada));
+                    enviarArchivo(canal, cabecera, Instantanea.ARCHIVO, inst);
+                    break;
+                }
+            }
+        } else {
+            escribirCompleto(canal, inicio.putLong(0, desde));
+        }
+        try {
+            long revisar = 0;
+            while (rol == Rol.PRIMARIO && canal.isOpen()) {
+                long hasta = diario.esperarAvance(enviada, LATIDO_MS);
+                long ahora = System.currentTimeMillis();
+                if (ahora >= revisar) {
+                    enviarArchivosCambiados(canal, cabecera, enviados);
+                    revisar = ahora + LATIDO_MS;
+                }
+                if (hasta <= enviada) {
+                    escribirCompleto(canal, cabecera(cabecera, 0, hasta, ahora));
+                    continue;
+                }
+                if (seg == null || !seg.contiene(enviada + 1)) {
+                    if (seg != null) seg.close();
+                    seg = Segmento.abrir(dir, enviada + 1);
+                    if (seg == null) throw new IOException("el diario desde la secuencia " + (enviada + 1) + " ya no está en el primario");
+                }
+                int n = (int) Math.min(Math.min(MAX_LOTE, hasta - enviada), seg.ultima() - enviada);
+                escribirCompleto(canal, cabecera(cabecera, n, hasta, ahora));
+                long posicion = (enviada + 1 - seg.primera) * TAM_REGISTRO;
+                long resta = (long) n * TAM_REGISTRO;
+                while (resta > 0) {
+                    long k = seg.canal.transferTo(posicion, resta, canal);
+                    posicion += k;
+                    resta -= k;
+                }
+                enviada += n;
+            }
+        } finally {
+            if (seg != null) seg.close();
+        }
+    }
+
+    private void enviarArchivosCambiados(SocketChannel canal, ByteBuffer cabecera, Map<String, Long> enviados) throws IOException {
+        for (String nombre : ARCHIVOS_CONTROL) {
+            Path p = dir.resolve(nombre);
+            long modificado;
+            try {
+                modificado = Files.getLastModifiedTime(p).toMillis();
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            if (Long.valueOf(modificado).equals(enviados.get(nombre))) continue;
+            // se escriben con un renombrado atómico: el canal abierto lee una versión completa
+            // (el registro de programadas solo crece; si llega un registro a medias, su CRC lo descarta)
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                enviarArchivo(canal, cabecera, nombre, ch);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            enviados.put(nombre, modificado);
+        }
+    }
+
+    private void enviarArchivo(SocketChannel canal, ByteBuffer cabecera, String nombre, FileChannel ch) throws IOException {
+        byte[] bytes = nombre.getBytes(StandardCharsets.UTF_8);
+        long largo = ch.size();
+        ByteBuffer b = ByteBuffer.allocate(TAM_CABECERA + 4 + bytes.length + 8);
+        b.put(cabecera(cabecera, TRAMA_ARCHIVO, ledger.diario().secuenciaDurable(), System.currentTimeMillis()))
+                .putInt(bytes.length).put(bytes).putLong(largo).flip();
+        escribirCompleto(canal, b);
+        for (long posicion = 0; posicion < largo; ) {
+            posicion += ch.transferTo(posicion, largo - posicion, canal);
+        }
+    }
+
+    private static ByteBuffer cabecera(ByteBuffer b, int n, long hasta, long marcaTiempo) {
+        b.clear();
+        b.putInt(n).putLong(hasta).putLong(marcaTiempo).flip();
+        return b;
+    }
+
+    /** Segmento del diario del primario abierto para leer (el canal sigue valiendo aunque lo borren). */
+    private static final class Segmento implements AutoCloseable {
+        final FileChannel canal;
+        final long primera;
+
+        private Segmento(FileChannel canal, long primera) {
+            this.canal = canal;
+            this.primera = primera;
+        }
+
+        /** El segmento que contiene la secuencia, o null si ya no está. */
+        static Segmento abrir(Path dir, long secuencia) throws IOException {
+            List<Path> segmentos = DiarioTransacciones.segmentos(dir);
+            for (int s = segmentos.size() - 1; s >= 0; s--) {
+                long primera = DiarioTransacciones.primeraSecuencia(segmentos.get(s));
+                if (primera > secuencia) continue;
+                if (primera + DiarioTransacciones.REGISTROS_POR_SEGMENTO <= secuencia && s < segmentos.size() - 1) return null;
+                return abrirArchivo(segmentos.get(s), primera);
+            }
+            return null;
+        }
+
+        static Segmento abrirArchivo(Path archivo, long primera) throws IOException {
+            try {
+                return new Segmento(FileChannel.open(archivo, StandardOpenOption.READ), primera);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        boolean contiene(long secuencia) {
+            return secuencia >= primera && secuencia <= ultima();
+        }
+
+        long ultima() {
+            return primera + DiarioTransacciones.REGISTROS_POR_SEGMENTO - 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+
+    // --- Seguidor ---
+
+    private void recibir() {
+        boolean avisado = false;
+        while (rol == Rol.SEGUIDOR) {
+            try (SocketChannel canal = conectar(primario)) {
+                conexion = canal;
+                ultimaLectura = ahora();
+                if (rol != Rol.SEGUIDOR) return;
+                seguir(canal);
+            } catch (IllegalStateException e) {
+                System.err.println("Réplica detenida: " + e.getMessage() + " (reiniciarla para volver a sincronizar)");
+                return;
+            } catch (IOException e) {
+                if (rol != Rol.SEGUIDOR) return;
+                if (!avisado) System.err.println("Réplica sin conexión con el primario: " + e);
+                avisado = true;
+            } finally {
+                conexion = null;
+            }
+            if (rol != Rol.SEGUIDOR) return;
+            if (promocionMs > 0 && ahora() - ultimoContacto >= promocionMs) {
+                promover();
+                return;
+            }
+            try {
+                Thread.sleep(REINTENTO_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void seguir(SocketChannel canal) throws IOException {
+        DiarioTransacciones diario = ledger.diario();
+        TransaccionesDistribuidas distribuidas = persistencia.distribuidas();
+        long ultima = diario.ultimaSecuencia();
+        long inicio = pedir(canal, ultima);
+        if (inicio != ultima) {
+            throw new IllegalStateException("el primario ya no conserva el diario desde la secuencia " + (ultima + 1));
+        }
+        Tramas tramas = new Tramas(canal, dir);
+        System.out.printf("Réplica siguiendo a %s:%d desde la secuencia %d%n", primario.getHostString(), primario.getPort(), ultima);
+        long marcaUltima = 0;
+        while (rol == Rol.SEGUIDOR) {
+            int n = tramas.siguiente();
+            ultimoContacto = ultimaLectura = ahora();
+            if (n == TRAMA_ARCHIVO) {
+                if (ConciliacionDiaria.APERTURA.equals(tramas.archivo)) persistencia.releerApertura();
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                ByteBuffer r = tramas.registro(i, ultima + 1);
+                TipoMovimiento tipo = TipoMovimiento.desdeCodigo(r.get(16));
+                int origen = r.getInt(20);
+                int destino = r.getInt(24);
+                long monto = r.getLong(28);
+                marcaUltima = r.getLong(8);
+                ultima++;
+                if (!ledger.replicarRegistro(ultima, marcaUltima, tipo, origen, destino, monto)) {
+                    throw new IllegalStateException("el registro " + ultima + " menciona una cuenta que la réplica no tiene");
+                }
+                if (tipo.distribuida()) distribuidas.recuperar(ultima, tipo, origen, destino, monto);
+            }
+            if (n > 0) ledger.confirmar(ultima);
+            secuenciaPrimario = tramas.hasta;
+            retrasoMs = ultima < tramas.hasta ? Math.max(0, tramas.marcaTiempo - marcaUltima) : 0;
+        }
+    }
+
+    // Las lecturas de un SocketChannel no tienen timeout: un primario colgado (sin cerrar la
+    // conexión) se detecta por la falta de latidos y se corta desde aquí
+    private void vigilar() {
+        long silencioMaximo = promocionMs > 0 ? promocionMs : 10 * LATIDO_MS;
+        while (rol == Rol.SEGUIDOR) {
+            try {
+                Thread.sleep(LATIDO_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (conexion != null && ahora() - ultimaLectura >= silencioMaximo) cerrarConexion();
+        }
+    }
+
+    private void cerrarConexion() {
+        SocketChannel c = conexion;
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Lector de las tramas del primario; los archivos de control los guarda en dir. */
+    private static final class Tramas {
+        final SocketChannel canal;
+        final Path dir;
+        final ByteBuffer cabecera = ByteBuffer.allocate(TAM_CABECERA);
+        final ByteBuffer lote = ByteBuffer.allocateDirect(MAX_LOTE * TAM_REGISTRO);
+        final ByteBuffer registro = ByteBuffer.allocate(TAM_REGISTRO);
+        final CRC32C crc = new CRC32C();
+        long hasta;
+        long marcaTiempo;
+        String archivo;
+
+        Tramas(SocketChannel canal, Path dir) {
+            this.canal = canal;
+            this.dir = dir;
+        }
+
+        /** Lee la siguiente trama; devuelve cuántos registros trae o TRAMA_ARCHIVO. */
+        int siguiente() throws IOException {
+            cabecera.clear();
+            leerCompleto(canal, cabecera);
+            int n = cabecera.getInt(0);
+            hasta = cabecera.getLong(4);
+            marcaTiempo = cabecera.getLong(12);
+            if (n == TRAMA_ARCHIVO) {
+                recibirArchivo();
+                return n;
+            }
+            if (n < 0 || n > MAX_LOTE) throw new IOException("Trama inválida del primario: " + n + " registros");
+            lote.clear().limit(n * TAM_REGISTRO);
+            leerCompleto(canal, lote);
+            return n;
+        }
+
+        /** El registro i de la última trama, ya validado (CRC y secuencia). */
+        ByteBuffer registro(int i, long esperada) throws IOException {
+            lote.get(i * TAM_REGISTRO, registro.array());
+            if (!DiarioTransacciones.registroValido(registro, crc, esperada)) {
+                throw new IOException("Registro " + esperada + " dañado o fuera de orden en la trama del primario");
+            }
+            return registro;
+        }
+
+        private void recibirArchivo() throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(4);
+            leerCompleto(canal, b);
+            int largoNombre = b.getInt(0);
+            if (largoNombre <= 0 || largoNombre > 255) throw new IOException("Nombre de archivo inválido del primario");
+            b = ByteBuffer.allocate(largoNombre + 8);
+            leerCompleto(canal, b);
+            archivo = new String(b.array(), 0, largoNombre, StandardCharsets.UTF_8);
+            long largo = b.getLong(largoNombre);
+            if (!archivo.equals(Instantanea.ARCHIVO) && !ARCHIVOS_CONTROL.contains(archivo)) {
+                throw new IOException("Archivo inesperado del primario: " + archivo);
+            }
+            Path destino = dir.resolve(archivo);
+            Path tmp = destino.resolveSibling(archivo + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long posicion = 0; posicion < largo; ) {
+                    long k = ch.transferFrom(canal, posicion, largo - posicion);
+                    if (k == 0) throw new EOFException("El primario cortó a mitad de " + archivo);
+                    posicion += k;
+                }
+                ch.force(true);
+            }
+            Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // --- Auxiliares ---
+
+    private static SocketChannel conectar(InetSocketAddress direccion) throws IOException {
+        SocketChannel canal = SocketChannel.open();
+        try {
+            canal.socket().connect(new InetSocketAddress(direccion.getHostString(), direccion.getPort()), (int) (10 * LATIDO_MS));
+            canal.socket().setTcpNoDelay(true);
+            return canal;
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    // Envía la secuencia de la réplica y devuelve desde dónde sigue el primario
+    private static long pedir(SocketChannel canal, long desde) throws IOException {
+        escribirCompleto(canal, ByteBuffer.allocate(8).putLong(0, desde));
+        ByteBuffer b = ByteBuffer.allocate(8);
+        leerCompleto(canal, b);
+        long inicio = b.getLong(0);
+        if (inicio == ADELANTADA) {
+            throw new IllegalStateException("la réplica tiene registros posteriores al primario (¿un primario anterior?): usar un dirDatos vacío");
+        }
+        return inicio;
+    }
+
+    // Borra el estado local que la instantánea del primario reemplaza
+    private static void borrarEstado(Path dir) throws IOException {
+        for (Path p : DiarioTransacciones.segmentos(dir)) Files.delete(p);
+        for (String nombre : List.of(Instantanea.ARCHIVO, HistorialMovimientos.ARCHIVO, HistorialMovimientos.ARCHIVO_INDICE,
+                TransaccionesDistribuidas.ARCHIVO, ConciliacionDiaria.APERTURA, DevengoIntereses.ARCHIVO_CONTROL,
+                TransferenciasProgramadas.ARCHIVO, TransferenciasProgramadas.ARCHIVO_REGISTRO)) {
+            Files.deleteIfExists(dir.resolve(nombre));
+        }
+    }
+
+    private static void leerCompleto(SocketChannel canal, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            if (canal.read(b) < 0) throw new EOFException("Conexión cerrada");
+        }
+        b.flip();
+    }
+
+    private static void escribirCompleto(SocketChannel canal, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) canal.write(b);
+    }
+
+    private void registrarJmx() {
+        MBeanServer servidorJmx = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName nombre = new ObjectName("banco.cajero:type=Replicacion");
+            if (servidorJmx.isRegistered(nombre)) servidorJmx.unregisterMBean(nombre);
+            servidorJmx.registerMBean(this, nombre);
+        } catch (JMException e) {
+            System.err.println("No se pudo publicar la replicación por JMX: " + e);
+        }
+    }
+
+    private static long ahora() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Vista JMX de la replicación del diario (ver {@link ReplicacionDiario}).
+ * En el primario solo tienen sentido el rol, la secuencia y los seguidores conectados.
+ */
+public interface ReplicacionMXBean {
+
+    /** PRIMARIO o SEGUIDOR. */
+    String getRol();
+
+    /** Última secuencia del diario local (en la réplica, la última aplicada). */
+    long getSecuenciaAplicada();
+
+    /** Última secuencia en disco del primario según su última trama (en el primario, la propia). */
+    long getSecuenciaPrimario();
+
+    /** Registros que el primario ya tiene en disco y la réplica todavía no aplicó. */
+    long getRetrasoRegistros();
+
+    /** Antigüedad, en el reloj del primario, del último registro aplicado mientras haya retraso (0 = al día). */
+    long getRetrasoMs();
+
+    /** Milisegundos desde la última trama del primario (latidos incluidos). */
+    long getMsSinContacto();
+
+    /** Réplicas conectadas a este proceso. */
+    int getSeguidores();
+
+    /** Promueve la réplica a primario (no hace nada si ya lo es). */
+    void promover();
+}
@@ -0,0 +1,35 @@
+/**
+ * Resultado de una operación del {@link Ledger}.
+ */
+enum ResultadoOperacion {
+    EXITOSA("Operación realizada."),
+    MONTO_INVALIDO("El monto debe ser mayor que 0."),
+    CUENTA_NO_ENCONTRADA("Cuenta no encontrada."),
+    MISMA_CUENTA("La cuenta destino debe ser distinta de la cuenta origen."),
+    FONDOS_INSUFICIENTES("Fondos insuficientes en la cuenta origen."),
+    FORMATO_INVALIDO("Línea con formato inválido (se espera origen,destino,monto)."),
+    CODIGO_INCORRECTO("Código incorrecto. Operación cancelada."),
+    SIN_SESION("No hay una sesión iniciada."),
+    CREDENCIALES_INVALIDAS("DNI o contraseña incorrectos."),
+    CLAVE_REPETIDA("La clave de la operación ya se usó para otra operación."),
+    LIMITE_EXCEDIDO("Supera el límite de transferencias permitido. Intente más tarde."),
+    FECHA_INVALIDA("La fecha debe ser futura y dentro de los próximos 10 años."),
+    ORDEN_NO_ENCONTRADA("Transferencia programada no encontrada."),
+    SIN_BILLETES("El cajero no tiene billetes para entregar ese monto. Pruebe con otro monto."),
+    SOLO_LECTURA("Este servidor es una réplica de solo consulta. Intente en el servidor principal."),
+    ERROR_INTERNO("Error interno del cajero. Intente nuevamente.");
+
+    private final String mensaje;
+
+    ResultadoOperacion(String mensaje) {
+        this.mensaje = mensaje;
+    }
+
+    String mensaje() {
+        return mensaje;
+    }
+
+    boolean exitosa() {
+        return this == EXITOSA;
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * RuedaTemporal.java
+ *
+ * Rueda de tiempo jerárquica sobre nodos densos (índices 0..capacidad-1): el dueño guarda
+ * los datos de cada nodo en sus propios arreglos y aquí solo viven los enlaces y el tick
+ * en que vence. Sin objetos por nodo: tres int (anterior, siguiente, tick).
+ *
+ * - {@link #NIVELES} niveles de {@link #RANURAS} ranuras; el nivel n cubre 64^(n+1) ticks
+ *   (con ticks de 1 s: 64 s, 68 min, 3 días, 194 días, 34 años).
+ * - Cada ranura es una lista doblemente enlazada; el anterior de la cabeza y el siguiente
+ *   de la cola son la referencia negativa -(r+1) de su ranura. Agregar y quitar son O(1)
+ *   sin buscar en qué ranura está el nodo.
+ * - Al avanzar, cuando el nivel 0 da la vuelta se bajan (cascada) los nodos de la ranura
+ *   que toca del nivel 1, y así hacia arriba; cada nodo baja a lo sumo una vez por nivel.
+ *
+ * No es segura entre hilos: el dueño la usa con su propio candado.
+ */
+final class RuedaTemporal {
+
+    static final int BITS = 6;
+    static final int RANURAS = 1 << BITS;
+    static final int NIVELES = 5;
+    static final long HORIZONTE = 1L << (BITS * NIVELES); // ticks hacia adelante que caben
+
+    private static final int MASCARA = RANURAS - 1;
+    private static final int VACIO = Integer.MIN_VALUE;
+
+    /** Recibe los nodos que vencen; ya no están en la rueda. */
+    interface Vencido {
+        void nodo(int nodo);
+    }
+
+    private final int[] primeros = new int[NIVELES * RANURAS];
+    private final int[] ultimos = new int[NIVELES * RANURAS];
+    private int[] anteriores;
+    private int[] siguientes;
+    private int[] ticks;
+    private int cantidad;
+    private long ahora;
+
+    RuedaTemporal(long ahora, int capacidad) {
+        this.ahora = ahora;
+        Arrays.fill(primeros, VACIO);
+        Arrays.fill(ultimos, VACIO);
+        anteriores = new int[Math.max(16, capacidad)];
+        siguientes = new int[anteriores.length];
+        ticks = new int[anteriores.length];
+    }
+
+    long ahora() {
+        return ahora;
+    }
+
+    /** Nodos en la rueda. */
+    int cantidad() {
+        return cantidad;
+    }
+
+    /** Hace lugar para los nodos 0..capacidad-1. */
+    void asegurar(int capacidad) {
+        if (capacidad <= anteriores.length) return;
+        int nueva = Math.max(capacidad, anteriores.length * 2);
+        anteriores = Arrays.copyOf(anteriores, nueva);
+        siguientes = Arrays.copyOf(siguientes, nueva);
+        ticks = Arrays.copyOf(ticks, nueva);
+    }
+
+    /**
+     * Programa el nodo para el tick indicado; un tick pasado vence en el próximo avance.
+     * El tick no puede estar a más de {@link #HORIZONTE} del actual.
+     */
+    void agregar(int nodo, long tick) {
+        if (tick <= ahora) tick = ahora + 1;
+        if (tick - ahora >= HORIZONTE) throw new IllegalArgumentException("Tick fuera del horizonte de la rueda: " + tick);
+        ticks[nodo] = (int) tick;
+        enlazar(nodo, tick);
+        cantidad++;
+    }
+
+    void quitar(int nodo) {
+        desenlazar(nodo);
+        cantidad--;
+    }
+
+    /** Tick para el que está programado el nodo (los 32 bits bajos). */
+    int tick(int nodo) {
+        return ticks[nodo];
+    }
+
+    /** Avanza tick a tick hasta {@code hasta} (inclusive) y entrega los nodos que vencen, en orden de tick. */
+    void avanzar(long hasta, Vencido vencido) {
+        while (ahora < hasta) {
+            ahora++;
+            // cascada: al dar la vuelta un nivel se baja la ranura que toca del siguiente
+            for (int nivel = 1; nivel < NIVELES && ((ahora >>> (BITS * (nivel - 1))) & MASCARA) == 0; nivel++) {
+                int ranura = nivel * RANURAS + (int) ((ahora >>> (BITS * nivel)) & MASCARA);
+                int n = primeros[ranura];
+                primeros[ranura] = VACIO;
+                ultimos[ranura] = VACIO;
+                while (n >= 0) {
+                    int sig = siguientes[n];
+                    enlazar(n, completar(ticks[n]));
+                    n = sig;
+                }
+            }
+            int ranura = (int) (ahora & MASCARA);
+            int n;
+            while ((n = primeros[ranura]) != VACIO) {
+                quitar(n);
+                vencido.nodo(n);
+            }
+        }
+    }
+
+    // El tick guardado son los 32 bits bajos: se reconstruye el más cercano por delante de ahora
+    private long completar(int tick) {
+        return ahora + ((tick - (int) ahora) & 0xFFFFFFFFL);
+    }
+
+    private void enlazar(int nodo, long tick) {
+        long delta = tick - ahora;
+        int nivel = 0;
+        while (nivel < NIVELES - 1 && delta >= 1L << (BITS * (nivel + 1))) nivel++;
+        int ranura = nivel * RANURAS + (int) ((tick >>> (BITS * nivel)) & MASCARA);
+        int cola = ultimos[ranura];
+        anteriores[nodo] = cola == VACIO ? -(ranura + 1) : cola;
+        siguientes[nodo] = -(ranura + 1);
+        if (cola == VACIO) primeros[ranura] = nodo;
+        else siguientes[cola] = nodo;
+        ultimos[ranura] = nodo;
+    }
+
+    private void desenlazar(int nodo) {
+        int ant = anteriores[nodo];
+        int sig = siguientes[nodo];
+        if (ant < 0) primeros[-ant - 1] = sig < 0 ? VACIO : sig;
+        else siguientes[ant] = sig;
+        if (sig < 0) ultimos[-sig - 1] = ant < 0 ? VACIO : ant;
+        else anteriores[sig] = ant;
+    }
+}
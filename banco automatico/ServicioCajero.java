@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ServicioCajero.java
+ *
+ * Operaciones del cajero tal como las usa un terminal (la ventana Swing).
+ * Cada instancia atiende a un terminal a la vez: recuerda quién inició sesión y
+ * solo deja operar sobre las cuentas de esa persona.
+ *
+ * - {@link ServicioCajeroLocal}: Ledger en el mismo proceso.
+ * - {@link ClienteCajero}: terminal remoto contra un {@link ServidorCajero}.
+ *
+ * Montos y saldos en céntimos.
+ *
+ * Transferencias, depósitos, retiros y programaciones llevan un id de operación ({@link #nuevoIdOperacion()}): el
+ * terminal lo genera una vez por operación y lo repite si reintenta (p. ej. tras un
+ * timeout); el backend devuelve entonces el resultado original sin volver a aplicarla.
+ * Un id 0 no se deduplica.
+ */
+interface ServicioCajero extends AutoCloseable {
+
+    /** Avance de un depósito (0-100) con la etapa real en curso. */
+    interface AvanceDeposito {
+        void etapa(int progreso, String estado);
+    }
+
+    /** Movimiento de una cuenta propia, como se muestra en el extracto del cajero. */
+    final class Movimiento {
+        final long fecha;           // ms desde epoch
+        final TipoMovimiento tipo;
+        final String contraparte;   // número de la otra cuenta o null (depósito en efectivo)
+        final long monto;           // céntimos; negativo = sale de la cuenta
+
+        Movimiento(long fecha, TipoMovimiento tipo, String contraparte, long monto) {
+            this.fecha = fecha;
+            this.tipo = tipo;
+            this.contraparte = contraparte;
+            this.monto = monto;
+        }
+    }
+
+    /** Transferencia programada de una cuenta propia. */
+    final class OrdenProgramada {
+        final long id;
+        final String origen;
+        final String destino;
+        final long monto;
+        final long proxima;         // ms desde epoch
+        final TransferenciasProgramadas.Periodicidad periodicidad;
+
+        OrdenProgramada(long id, String origen, String destino, long monto, long proxima,
+                        TransferenciasProgramadas.Periodicidad periodicidad) {
+            this.id = id;
+            this.origen = origen;
+            this.destino = destino;
+            this.monto = monto;
+            this.proxima = proxima;
+            this.periodicidad = periodicidad;
+        }
+    }
+
+    /** Devuelve el perfil del cliente o null si el DNI o la contraseña no coinciden. */
+    PerfilCliente iniciarSesion(String dni, String password) throws IOException;
+
+    void cerrarSesion() throws IOException;
+
+    /** Saldo de una cuenta propia. */
+    long saldo(String numero) throws IOException;
+
+    /**
+     * Saldos de todas las cuentas propias (en el orden del perfil); requiere el código.
+     * Devuelve null si el código es incorrecto.
+     */
+    long[] saldos(String codigo) throws IOException;
+
+    /**
+     * Transfiere desde una cuenta propia. Si el destino es de otra persona hace falta el
+     * código de autorización; entre cuentas propias {@code codigo} puede ser null.
+     */
+    ResultadoOperacion transferir(String origen, String destino, long monto, String codigo, long idOperacion) throws IOException;
+
+    ResultadoOperacion depositar(String numero, long monto, long idOperacion, AvanceDeposito avance) throws IOException;
+
+    /**
+     * Debita un retiro en efectivo de una cuenta propia. Los billetes los aparta antes el
+     * terminal ({@link Casetero}) y los devuelve al casete si el retiro no se hace.
+     */
+    ResultadoOperacion retirar(String numero, long monto, long idOperacion) throws IOException;
+
+    /**
+     * Programa una transferencia desde una cuenta propia para {@code primera} (ms desde epoch)
+     * y, si es periódica, para las fechas siguientes. El código se pide igual que al
+     * transferir; al vencer se ejecuta sin pedirlo de nuevo.
+     */
+    ResultadoOperacion programar(String origen, String destino, long monto, long primera,
+                                 TransferenciasProgramadas.Periodicidad periodicidad, String codigo,
+                                 long idOperacion) throws IOException;
+
+    /** Transferencias programadas de las cuentas propias, la próxima primero. */
+    List<OrdenProgramada> programadas() throws IOException;
+
+    ResultadoOperacion cancelarProgramada(long idOrden) throws IOException;
+
+    /** Últimos movimientos de una cuenta propia, el más reciente primero (saltando los {@code saltar} más nuevos). */
+    List<Movimiento> movimientos(String numero, int saltar, int maximo) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /** Id aleatorio, distinto de 0, para una nueva transferencia, depósito, retiro o programación. */
+    static long nuevoIdOperacion() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
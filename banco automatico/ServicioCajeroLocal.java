@@ -0,0 +1,373 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * ServicioCajeroLocal.java
+ *
+ * Reglas del cajero sobre un Ledger del mismo proceso: código de autorización para
+ * transferir a otra persona y ver ambos saldos, y que solo se opere con cuentas propias.
+ * Lo usan la ventana Swing (modo local) y el {@link ServidorCajero} (una instancia por conexión).
+ * La sesión vive en el {@link GestorSesiones}; aquí solo se guarda su token.
+ * Las transferencias a otra persona pasan por los {@link LimitesTransferencia} compartidos;
+ * transferencias, depósitos y retiros con id de operación, por la {@link CacheIdempotencia} compartida.
+ * Con el ledger particionado, una transferencia a una cuenta de otra partición la coordina
+ * {@link TransaccionesDistribuidas} (mismas reglas que hacia otra persona).
+ * Las transferencias programadas las ejecuta {@link TransferenciasProgramadas}: aquí se valida
+ * al crearlas (código si el destino es de otra persona, destino en este ledger); al vencer no
+ * pasan por los límites.
+ * Cada operación deja su latencia y su resultado en {@link MetricasCajero#GLOBAL}.
+ */
+final class ServicioCajeroLocal implements ServicioCajero {
+
+    static final String CODIGO_SECRETO = "1234";
+
+    private final GestorSesiones sesiones;
+    private final Ledger ledger;
+    private final LimitesTransferencia limites;
+    private final CacheIdempotencia idempotencia;
+    private final TransaccionesDistribuidas distribuidas; // null = ledger sin particionar
+    private final TransferenciasProgramadas programadas;  // null = sin transferencias programadas
+    private final MetricasCajero metricas = MetricasCajero.GLOBAL;
+    private volatile long token;
+    private volatile boolean conSesion;
+
+    ServicioCajeroLocal(GestorSesiones sesiones, LimitesTransferencia limites, CacheIdempotencia idempotencia) {
+        this(sesiones, limites, idempotencia, null, null);
+    }
+
+    ServicioCajeroLocal(GestorSesiones sesiones, LimitesTransferencia limites, CacheIdempotencia idempotencia,
+                        TransaccionesDistribuidas distribuidas, TransferenciasProgramadas programadas) {
+        this.sesiones = sesiones;
+        this.ledger = sesiones.ledger();
+        this.limites = limites;
+        this.idempotencia = idempotencia;
+        this.distribuidas = distribuidas;
+        this.programadas = programadas;
+    }
+
+    @Override
+    public PerfilCliente iniciarSesion(String dni, String password) {
+        long t0 = System.nanoTime();
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            cerrarSesion();
+            GestorSesiones.Sesion s = sesiones.iniciar(dni, password);
+            if (s == null) {
+                r = ResultadoOperacion.CREDENCIALES_INVALIDAS;
+                return null;
+            }
+            token = s.token;
+            conSesion = true;
+            r = ResultadoOperacion.EXITOSA;
+            return perfil(s.persona);
+        } finally {
+            metricas.registrar(MetricasCajero.Operacion.LOGIN, r, t0);
+        }
+    }
+
+    /** Token de la sesión en curso (0 si no hay), para reanudarla desde otra conexión. */
+    long token() {
+        return conSesion ? token : 0;
+    }
+
+    /** Adopta una sesión viva abierta por otra conexión (reconexión del terminal). */
+    boolean reanudarSesion(long token) {
+        cerrarSesion();
+        if (sesiones.obtener(token) == null) return false;
+        this.token = token;
+        conSesion = true;
+        return true;
+    }
+
+    /**
+     * Se desentiende de la sesión sin cerrarla: queda viva en el gestor hasta que la
+     * reanude otra conexión o venza por inactividad.
+     */
+    void soltarSesion() {
+        conSesion = false;
+    }
+
+    @Override
+    public void cerrarSesion() {
+        if (conSesion) {
+            conSesion = false;
+            sesiones.cerrar(token);
+        }
+    }
+
+    @Override
+    public long saldo(String numero) {
+        long t0 = System.nanoTime();
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            Persona p = persona();
+            if (p == null) {
+                r = ResultadoOperacion.SIN_SESION;
+                throw new IllegalStateException(r.mensaje());
+            }
+            SubCuenta sc = cuentaPropia(p, numero);
+            if (sc == null) {
+                r = ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+                throw new IllegalStateException(r.mensaje());
+            }
+            long saldo = ledger.saldo(sc);
+            r = ResultadoOperacion.EXITOSA;
+            return saldo;
+        } finally {
+            metricas.registrar(MetricasCajero.Operacion.SALDO, r, t0);
+        }
+    }
+
+    @Override
+    public long[] saldos(String codigo) {
+        long t0 = System.nanoTime();
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            Persona p = persona();
+            if (p == null) {
+                r = ResultadoOperacion.SIN_SESION;
+                throw new IllegalStateException(r.mensaje());
+            }
+            if (!CODIGO_SECRETO.equals(codigo)) {
+                r = ResultadoOperacion.CODIGO_INCORRECTO;
+                return null;
+            }
+            // todas en el mismo instante: una transferencia Corriente -> Ahorros no se ve a medias
+            int[] ids = p.idsCuentas;
+            long[] saldos = new long[ids.length];
+            ledger.leerSaldos(ids, ids.length, saldos);
+            r = ResultadoOperacion.EXITOSA;
+            return saldos;
+        } finally {
+            metricas.registrar(MetricasCajero.Operacion.SALDOS, r, t0);
+        }
+    }
+
+    @Override
+    public ResultadoOperacion transferir(String origen, String destino, long monto, String codigo, long idOperacion) {
+        long t0 = System.nanoTime();
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            Persona p = persona();
+            if (p == null) return r = ResultadoOperacion.SIN_SESION;
+            if (ledger.soloLectura()) return r = ResultadoOperacion.SOLO_LECTURA;
+            long huella = huella(p.dni, codigo == null ? "T" : "TC", origen, destino, monto);
+            return r = unaVez(idOperacion, huella, () -> validarYTransferir(p, origen, destino, monto, codigo));
+        } finally {
+            metricas.registrar(codigo == null ? MetricasCajero.Operacion.TRANSFERENCIA_INTERNA
+                    : MetricasCajero.Operacion.TRANSFERENCIA_EXTERNA, r, t0);
+        }
+    }
+
+    private ResultadoOperacion validarYTransferir(Persona p, String origen, String destino, long monto, String codigo) {
+        if (codigo != null && !CODIGO_SECRETO.equals(codigo)) return ResultadoOperacion.CODIGO_INCORRECTO;
+        SubCuenta o = cuentaPropia(p, origen);
+        SubCuenta d = ledger.buscarCuenta(destino);
+        boolean remota = d == null && distribuidas != null && distribuidas.esRemota(destino);
+        if (o == null || (d == null && !remota)) return ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+        if (!remota && contiene(p, d)) return ledger.transferir(o, d, monto);
+        if (codigo == null) return ResultadoOperacion.CODIGO_INCORRECTO;
+        if (monto <= 0) return ResultadoOperacion.MONTO_INVALIDO;
+
+        // a otra persona: se anota en los límites antes y se devuelve si no se pudo transferir
+        long ahora = System.currentTimeMillis();
+        if (!limites.reservar(o.id, p.dni, monto, ahora)) return ResultadoOperacion.LIMITE_EXCEDIDO;
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            return r = remota ? distribuidas.transferir(o.id, destino, monto) : ledger.transferir(o, d, monto);
+        } finally {
+            if (!r.exitosa()) limites.liberar(o.id, p.dni, monto, ahora);
+        }
+    }
+
+    @Override
+    public ResultadoOperacion depositar(String numero, long monto, long idOperacion, AvanceDeposito avance) {
+        long t0 = System.nanoTime();
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            Persona p = persona();
+            if (p == null) return r = ResultadoOperacion.SIN_SESION;
+            if (ledger.soloLectura()) return r = ResultadoOperacion.SOLO_LECTURA;
+            long huella = huella(p.dni, "D", numero, "", monto);
+            return r = unaVez(idOperacion, huella, () -> validarYDepositar(p, numero, monto, avance));
+        } finally {
+            metricas.registrar(MetricasCajero.Operacion.DEPOSITO, r, t0);
+        }
+    }
+
+    private ResultadoOperacion validarYDepositar(Persona p, String numero, long monto, AvanceDeposito avance) {
+        // 1. Validación
+        if (monto <= 0) return ResultadoOperacion.MONTO_INVALIDO;
+        SubCuenta sc = cuentaPropia(p, numero);
+        if (sc == null) return ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+        avance.etapa(33, "Procesando depósito...");
+
+        // 2. Contabilización (saldo + diario)
+        long secuencia = ledger.contabilizarDeposito(sc.id, monto);
+        avance.etapa(66, "Confirmando transacción...");
+
+        // 3. Confirmación en disco
+        ledger.confirmar(secuencia);
+        return ResultadoOperacion.EXITOSA;
+    }
+
+    @Override
+    public ResultadoOperacion retirar(String numero, long monto, long idOperacion) {
+        long t0 = System.nanoTime();
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            Persona p = persona();
+            if (p == null) return r = ResultadoOperacion.SIN_SESION;
+            if (ledger.soloLectura()) return r = ResultadoOperacion.SOLO_LECTURA;
+            long huella = huella(p.dni, "R", numero, "", monto);
+            return r = unaVez(idOperacion, huella, () -> ledger.retirar(cuentaPropia(p, numero), monto));
+        } finally {
+            metricas.registrar(MetricasCajero.Operacion.RETIRO, r, t0);
+        }
+    }
+
+    @Override
+    public ResultadoOperacion programar(String origen, String destino, long monto, long primera,
+                                        TransferenciasProgramadas.Periodicidad periodicidad, String codigo,
+                                        long idOperacion) {
+        long t0 = System.nanoTime();
+        ResultadoOperacion r = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            Persona p = persona();
+            if (p == null) return r = ResultadoOperacion.SIN_SESION;
+            // una réplica recibe las órdenes pero no las ejecuta ni acepta nuevas
+            if (ledger.soloLectura() || programadas == null || !programadas.iniciada()) return r = ResultadoOperacion.SOLO_LECTURA;
+            long huella = huella(p.dni, "P" + periodicidad.ordinal() + ":" + primera + (codigo == null ? "" : "C"),
+                    origen, destino, monto);
+            return r = unaVez(idOperacion, huella,
+                    () -> validarYProgramar(p, origen, destino, monto, primera, periodicidad, codigo));
+        } finally {
+            metricas.registrar(MetricasCajero.Operacion.PROGRAMAR, r, t0);
+        }
+    }
+
+    private ResultadoOperacion validarYProgramar(Persona p, String origen, String destino, long monto, long primera,
+                                                 TransferenciasProgramadas.Periodicidad periodicidad, String codigo) {
+        if (codigo != null && !CODIGO_SECRETO.equals(codigo)) return ResultadoOperacion.CODIGO_INCORRECTO;
+        SubCuenta o = cuentaPropia(p, origen);
+        SubCuenta d = ledger.buscarCuenta(destino); // solo destinos de este ledger (no de otra partición)
+        if (o == null || d == null) return ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+        if (o.id == d.id) return ResultadoOperacion.MISMA_CUENTA;
+        if (!contiene(p, d) && codigo == null) return ResultadoOperacion.CODIGO_INCORRECTO;
+        if (monto <= 0) return ResultadoOperacion.MONTO_INVALIDO;
+        if (!TransferenciasProgramadas.fechaValida(primera, System.currentTimeMillis())) return ResultadoOperacion.FECHA_INVALIDA;
+        try {
+            programadas.programar(o.id, d.id, monto, primera, periodicidad);
+            return ResultadoOperacion.EXITOSA;
+        } catch (IOException e) {
+            System.err.println("No se pudo guardar la transferencia programada: " + e);
+            return ResultadoOperacion.ERROR_INTERNO;
+        }
+    }
+
+    @Override
+    public List<OrdenProgramada> programadas() {
+        Persona p = sesion();
+        if (programadas == null) return List.of();
+        List<OrdenProgramada> lista = new ArrayList<>();
+        for (TransferenciasProgramadas.Orden o : programadas.ordenes(p.idsCuentas, 100)) {
+            lista.add(new OrdenProgramada(o.id, ledger.almacen().numero(o.origen), ledger.almacen().numero(o.destino),
+                    o.monto, o.vence, o.periodicidad));
+        }
+        return lista;
+    }
+
+    @Override
+    public ResultadoOperacion cancelarProgramada(long idOrden) throws IOException {
+        Persona p = persona();
+        if (p == null) return ResultadoOperacion.SIN_SESION;
+        if (ledger.soloLectura() || programadas == null || !programadas.iniciada()) return ResultadoOperacion.SOLO_LECTURA;
+        return programadas.cancelar(idOrden, p.idsCuentas) ? ResultadoOperacion.EXITOSA : ResultadoOperacion.ORDEN_NO_ENCONTRADA;
+    }
+
+    @Override
+    public List<Movimiento> movimientos(String numero, int saltar, int maximo) {
+        SubCuenta sc = cuentaPropia(sesion(), numero);
+        if (sc == null) throw new IllegalStateException(ResultadoOperacion.CUENTA_NO_ENCONTRADA.mensaje());
+        HistorialMovimientos h = ledger.historial();
+        if (h == null || maximo <= 0) return List.of();
+        HistorialMovimientos.Pagina p = new HistorialMovimientos.Pagina(maximo);
+        h.ultimos(sc.id, Math.max(0, saltar), p);
+        List<Movimiento> lista = new ArrayList<>(p.cantidad);
+        for (int i = 0; i < p.cantidad; i++) {
+            int otra = p.contrapartes[i];
+            lista.add(new Movimiento(p.fechas[i], p.tipo(i),
+                    otra == HistorialMovimientos.SIN_CONTRAPARTE ? null : ledger.almacen().numero(otra), p.montos[i]));
+        }
+        return lista;
+    }
+
+    @Override
+    public void close() {
+        cerrarSesion();
+    }
+
+    // Con id de operación, un reintento devuelve el resultado guardado en vez de ejecutar otra vez
+    private ResultadoOperacion unaVez(long idOperacion, long huella, Supplier<ResultadoOperacion> operacion) {
+        if (idOperacion == 0) return operacion.get();
+        ResultadoOperacion previo = idempotencia.reservar(idOperacion, huella, System.currentTimeMillis());
+        if (previo != null) return previo;
+        ResultadoOperacion r = null;
+        try {
+            r = operacion.get();
+            return r;
+        } finally {
+            if (r == null) idempotencia.abandonar(idOperacion);
+            else idempotencia.completar(idOperacion, r);
+        }
+    }
+
+    // Quién y qué: la misma clave con otros datos no es un reintento. Los números de cuenta se
+    // normalizan como al buscarlos: " 1001-c" y "1001-C" son la misma operación.
+    private static long huella(String dni, String operacion, String a, String b, long monto) {
+        long h = dni.hashCode();
+        h = h * 0x9E3779B97F4A7C15L + operacion.hashCode();
+        h = h * 0x9E3779B97F4A7C15L + AlmacenCuentas.normalizar(a).hashCode();
+        h = h * 0x9E3779B97F4A7C15L + AlmacenCuentas.normalizar(b).hashCode();
+        return h * 0x9E3779B97F4A7C15L + monto;
+    }
+
+    static PerfilCliente perfil(Persona p) {
+        List<PerfilCliente.CuentaPerfil> cuentas = new ArrayList<>();
+        for (SubCuenta sc : p.cuentas()) {
+            cuentas.add(new PerfilCliente.CuentaPerfil(sc.tipo(), sc.numero()));
+        }
+        return new PerfilCliente(p.nombre, p.dni, cuentas);
+    }
+
+    /** Persona de la sesión en curso, o null si no hay sesión o expiró por inactividad. */
+    private Persona persona() {
+        if (!conSesion) return null;
+        GestorSesiones.Sesion s = sesiones.obtener(token);
+        if (s == null) {
+            conSesion = false;
+            return null;
+        }
+        return s.persona;
+    }
+
+    private Persona sesion() {
+        Persona p = persona();
+        if (p == null) throw new IllegalStateException(ResultadoOperacion.SIN_SESION.mensaje());
+        return p;
+    }
+
+    private SubCuenta cuentaPropia(Persona p, String numero) {
+        SubCuenta sc = ledger.buscarCuenta(numero);
+        return sc != null && contiene(p, sc) ? sc : null;
+    }
+
+    private static boolean contiene(Persona p, SubCuenta sc) {
+        for (int id : p.idsCuentas) {
+            if (id == sc.id) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,387 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * ServidorCajero.java
+ *
+ * Servidor NIO para que muchos terminales compartan un mismo Ledger.
+ * Un solo hilo con Selector acepta conexiones, lee y escribe; las operaciones se
+ * atienden en un pool de trabajadores (pueden esperar el fsync del diario sin frenar
+ * al resto de conexiones). Cada conexión tiene su propio {@link ServicioCajeroLocal}; las
+ * sesiones de todas viven en un mismo {@link GestorSesiones} (expiran por inactividad).
+ *
+ * Protocolo de líneas UTF-8, campos separados por TAB, una respuesta por solicitud:
+ *
+ *   LOGIN     dni password              -> OK nombre token TIPO:numero ...  | ERR CREDENCIALES_INVALIDAS
+ *   REANUDAR  token                     -> OK | ERR SIN_SESION    (sesión abierta desde otra conexión)
+ *   SALDO     numero                    -> OK centimos
+ *   SALDOS    codigo                    -> OK centimos centimos ...   | ERR CODIGO_INCORRECTO
+ *   TRANSFERIR origen destino monto [codigo [idOperacion]]     (codigo vacío = entre cuentas propias)
+ *   DEPOSITO  numero monto [idOperacion]
+ *   RETIRO    numero monto [idOperacion]   (el terminal ya apartó los billetes, ver Casetero)
+ *   MOVIMIENTOS numero saltar maximo    -> OK (fecha TIPO contraparte monto)...   más reciente primero
+ *   PROGRAMAR origen destino monto primeraMs PERIODICIDAD [codigo [idOperacion]]   (ver TransferenciasProgramadas)
+ *   PROGRAMADAS                         -> OK (id origen destino monto proximaMs PERIODICIDAD)...   la próxima primero
+ *   CANCELAR_PROGRAMADA id              -> OK | ERR ORDEN_NO_ENCONTRADA
+ *   LOGOUT
+ *
+ * Si la sesión expiró, las operaciones responden "ERR SIN_SESION" y hay que volver a hacer LOGIN.
+ * Cortar la conexión no cierra la sesión (solo LOGOUT o la inactividad): así se puede REANUDAR.
+ * Repetir TRANSFERIR, DEPOSITO, RETIRO o PROGRAMAR con el mismo idOperacion (p. ej. después de reconectar y
+ * REANUDAR) devuelve la respuesta original sin volver a aplicarla (ver {@link CacheIdempotencia}).
+ *
+ * Las operaciones responden "OK" o "ERR RESULTADO" (nombre de {@link ResultadoOperacion}).
+ *
+ * Los estados de cuenta del mes se generan sin detener el servidor desde JMX: operación
+ * "generar" de banco.cajero:type=Estados (ver {@link GeneradorEstados}).
+ *
+ * Uso: java ServidorCajero [puerto] [dirDatos]   (puerto por defecto 7070)
+ *      -Dcajero.sesionSeg=300   inactividad máxima de una sesión
+ *      -Dcajero.metricasSeg=60  volcado periódico de métricas (también por JMX, ver MetricasCajero)
+ *      -Dcajero.cierre=00:00    hora de la conciliación de fin de día (ver ConciliacionDiaria)
+ *      -Dcajero.limites=...     límites de transferencias a terceros (ver LimitesTransferencia)
+ *      -Dcajero.idempotencia=1000000/600  entradas y segundos que se recuerdan los ids de operación
+ *      -Dcajero.particiones=host:puerto,...  -Dcajero.particion=i   ledger repartido en varios procesos por
+ *                               prefijo de cliente (ver MapaParticiones); cada proceso con su propio dirDatos
+ *      -Dcajero.simulados=N        siembra N clientes sintéticos en vez de las cuentas demo (ver SimuladorCarga)
+ *      -Dcajero.replicacion=7170   puerto donde se sirve el diario a las réplicas en espera (ver ReplicacionDiario)
+ *      -Dcajero.primario=host:7170 arranca como réplica de ese primario: solo consultas hasta que la promuevan
+ *      -Dcajero.promocionMs=0      la réplica se promueve solo por JMX (operación "promover"); con N &gt; 0 se
+ *                               promueve sola tras N ms sin primario, con riesgo de dos primarios si la red se corta
+ */
+final class ServidorCajero implements AutoCloseable {
+
+    static final int PUERTO_POR_DEFECTO = 7070;
+    private static final int MAX_LINEA = 4096;
+
+    private final GestorSesiones sesiones;
+    private final LimitesTransferencia limites;
+    private final CacheIdempotencia idempotencia;
+    private final TransaccionesDistribuidas distribuidas;
+    private final TransferenciasProgramadas programadas;
+    private final ServerSocketChannel servidor;
+    private final Selector selector;
+    private final ExecutorService trabajadores;
+    private final ConcurrentLinkedQueue<Conexion> respondidas = new ConcurrentLinkedQueue<>();
+    private final Thread hiloSelector;
+    private volatile boolean activo = true;
+
+    ServidorCajero(GestorSesiones sesiones, LimitesTransferencia limites, CacheIdempotencia idempotencia,
+                   TransaccionesDistribuidas distribuidas, TransferenciasProgramadas programadas,
+                   InetSocketAddress direccion, int hilosTrabajadores) throws IOException {
+        this.sesiones = sesiones;
+        this.limites = limites;
+        this.idempotencia = idempotencia;
+        this.distribuidas = distribuidas;
+        this.programadas = programadas;
+        this.selector = Selector.open();
+        this.servidor = ServerSocketChannel.open();
+        servidor.bind(direccion, 1024);
+        servidor.configureBlocking(false);
+        servidor.register(selector, SelectionKey.OP_ACCEPT);
+        AtomicInteger n = new AtomicInteger();
+        this.trabajadores = Executors.newFixedThreadPool(hilosTrabajadores, r -> {
+            Thread t = new Thread(r, "cajero-trabajador-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.hiloSelector = new Thread(this::bucle, "cajero-selector");
+        hiloSelector.start();
+    }
+
+    int puerto() {
+        return servidor.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        activo = false;
+        selector.wakeup();
+        try {
+            hiloSelector.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        trabajadores.shutdownNow();
+        for (SelectionKey k : selector.keys()) k.channel().close();
+        selector.close();
+    }
+
+    /** Estado de una conexión; lo toca el hilo selector salvo {@code salida}, que se sincroniza. */
+    private final class Conexion {
+        final SocketChannel canal;
+        final SelectionKey clave;
+        final ServicioCajeroLocal servicio =
+                new ServicioCajeroLocal(sesiones, limites, idempotencia, distribuidas, programadas);
+        final ByteBuffer entrada = ByteBuffer.allocate(MAX_LINEA);
+        final ArrayDeque<String> solicitudes = new ArrayDeque<>();
+        final ArrayDeque<ByteBuffer> salida = new ArrayDeque<>();
+        boolean ocupada; // hay una solicitud en un trabajador (se responden en orden)
+
+        Conexion(SocketChannel canal) throws IOException {
+            this.canal = canal;
+            this.clave = canal.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    private void bucle() {
+        while (activo) {
+            try {
+                selector.select();
+                for (Conexion c; (c = respondidas.poll()) != null; ) {
+                    if (!c.clave.isValid()) continue;
+                    c.ocupada = false;
+                    c.clave.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    despachar(c);
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey k = it.next();
+                    it.remove();
+                    try {
+                        if (k.isAcceptable()) aceptar();
+                        else {
+                            if (k.isReadable()) leer((Conexion) k.attachment());
+                            if (k.isValid() && k.isWritable()) escribir((Conexion) k.attachment());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        cerrar((Conexion) k.attachment()); // un error en una conexión no tumba al selector
+                    }
+                }
+            } catch (IOException e) {
+                if (activo) System.err.println("Error en el servidor del cajero: " + e);
+            }
+        }
+    }
+
+    private void aceptar() throws IOException {
+        SocketChannel canal;
+        while ((canal = servidor.accept()) != null) {
+            canal.configureBlocking(false);
+            canal.socket().setTcpNoDelay(true);
+            new Conexion(canal);
+        }
+    }
+
+    private void leer(Conexion c) throws IOException {
+        if (c.canal.read(c.entrada) < 0) {
+            cerrar(c);
+            return;
+        }
+        ByteBuffer b = c.entrada;
+        int inicio = 0;
+        for (int i = 0; i < b.position(); i++) {
+            if (b.get(i) == '\n') {
+                int fin = i > inicio && b.get(i - 1) == '\r' ? i - 1 : i;
+                c.solicitudes.add(new String(b.array(), inicio, fin - inicio, StandardCharsets.UTF_8));
+                inicio = i + 1;
+            }
+        }
+        if (inicio == 0 && !b.hasRemaining()) {
+            cerrar(c); // línea más larga que el máximo
+            return;
+        }
+        b.limit(b.position()).position(inicio);
+        b.compact();
+        despachar(c);
+    }
+
+    private void despachar(Conexion c) {
+        if (c.ocupada || c.solicitudes.isEmpty()) return;
+        c.ocupada = true;
+        String solicitud = c.solicitudes.poll();
+        trabajadores.execute(() -> {
+            String respuesta = atender(c.servicio, solicitud);
+            synchronized (c.salida) {
+                c.salida.add(StandardCharsets.UTF_8.encode(respuesta + "\n"));
+            }
+            respondidas.add(c);
+            selector.wakeup();
+        });
+    }
+
+    private void escribir(Conexion c) throws IOException {
+        synchronized (c.salida) {
+            while (!c.salida.isEmpty()) {
+                ByteBuffer b = c.salida.peek();
+                c.canal.write(b);
+                if (b.hasRemaining()) return;
+                c.salida.poll();
+            }
+        }
+        c.clave.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void cerrar(Conexion c) {
+        if (c == null) return;
+        c.clave.cancel();
+        c.servicio.soltarSesion(); // un corte no es un logout: el terminal puede reanudarla
+        try {
+            c.canal.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // --- Protocolo ---
+
+    static String atender(ServicioCajeroLocal servicio, String solicitud) {
+        String[] campos = solicitud.split("\t", -1);
+        try {
+            switch (campos[0]) {
+                case "LOGIN": {
+                    PerfilCliente p = servicio.iniciarSesion(campo(campos, 1), campo(campos, 2));
+                    if (p == null) return "ERR\t" + ResultadoOperacion.CREDENCIALES_INVALIDAS.name();
+                    StringBuilder sb = new StringBuilder("OK\t").append(limpiar(p.nombre)).append('\t').append(servicio.token());
+                    for (PerfilCliente.CuentaPerfil cp : p.cuentas) {
+                        sb.append('\t').append(cp.tipo.name()).append(':').append(cp.numero);
+                    }
+                    return sb.toString();
+                }
+                case "REANUDAR":
+                    return servicio.reanudarSesion(Long.parseLong(campo(campos, 1)))
+                            ? "OK" : "ERR\t" + ResultadoOperacion.SIN_SESION.name();
+                case "SALDO":
+                    return "OK\t" + servicio.saldo(campo(campos, 1));
+                case "SALDOS": {
+                    long[] saldos = servicio.saldos(campo(campos, 1));
+                    if (saldos == null) return "ERR\t" + ResultadoOperacion.CODIGO_INCORRECTO.name();
+                    StringBuilder sb = new StringBuilder("OK");
+                    for (long s : saldos) sb.append('\t').append(s);
+                    return sb.toString();
+                }
+                case "TRANSFERIR":
+                    return respuesta(servicio.transferir(campo(campos, 1), campo(campos, 2), Long.parseLong(campo(campos, 3)),
+                            campos.length > 4 && !campos[4].isEmpty() ? campos[4] : null,
+                            campos.length > 5 ? Long.parseLong(campos[5]) : 0));
+                case "DEPOSITO":
+                    return respuesta(servicio.depositar(campo(campos, 1), Long.parseLong(campo(campos, 2)),
+                            campos.length > 3 ? Long.parseLong(campos[3]) : 0, (p, e) -> { }));
+                case "RETIRO":
+                    return respuesta(servicio.retirar(campo(campos, 1), Long.parseLong(campo(campos, 2)),
+                            campos.length > 3 ? Long.parseLong(campos[3]) : 0));
+                case "MOVIMIENTOS": {
+                    StringBuilder sb = new StringBuilder("OK");
+                    for (ServicioCajero.Movimiento m : servicio.movimientos(campo(campos, 1),
+                            Integer.parseInt(campo(campos, 2)), Math.min(1000, Integer.parseInt(campo(campos, 3))))) {
+                        sb.append('\t').append(m.fecha).append('\t').append(m.tipo.name())
+                                .append('\t').append(m.contraparte == null ? "" : m.contraparte).append('\t').append(m.monto);
+                    }
+                    return sb.toString();
+                }
+                case "PROGRAMAR":
+                    return respuesta(servicio.programar(campo(campos, 1), campo(campos, 2), Long.parseLong(campo(campos, 3)),
+                            Long.parseLong(campo(campos, 4)), TransferenciasProgramadas.Periodicidad.valueOf(campo(campos, 5)),
+                            campos.length > 6 && !campos[6].isEmpty() ? campos[6] : null,
+                            campos.length > 7 ? Long.parseLong(campos[7]) : 0));
+                case "PROGRAMADAS": {
+                    StringBuilder sb = new StringBuilder("OK");
+                    for (ServicioCajero.OrdenProgramada o : servicio.programadas()) {
+                        sb.append('\t').append(o.id).append('\t').append(o.origen).append('\t').append(o.destino)
+                                .append('\t').append(o.monto).append('\t').append(o.proxima).append('\t').append(o.periodicidad.name());
+                    }
+                    return sb.toString();
+                }
+                case "CANCELAR_PROGRAMADA":
+                    return respuesta(servicio.cancelarProgramada(Long.parseLong(campo(campos, 1))));
+                case "LOGOUT":
+                    servicio.cerrarSesion();
+                    return "OK";
+                default:
+                    return "ERR\tCOMANDO_DESCONOCIDO";
+            }
+        } catch (IllegalArgumentException e) {
+            return "ERR\t" + ResultadoOperacion.FORMATO_INVALIDO.name();
+        } catch (IllegalStateException e) {
+            return "ERR\t" + (e.getMessage().equals(ResultadoOperacion.SIN_SESION.mensaje())
+                    ? ResultadoOperacion.SIN_SESION : ResultadoOperacion.CUENTA_NO_ENCONTRADA).name();
+        } catch (Exception e) {
+            return "ERR\t" + ResultadoOperacion.ERROR_INTERNO.name();
+        }
+    }
+
+    private static String respuesta(ResultadoOperacion r) {
+        return r.exitosa() ? "OK" : "ERR\t" + r.name();
+    }
+
+    private static String campo(String[] campos, int i) {
+        if (i >= campos.length) throw new IllegalArgumentException("Faltan campos");
+        return campos[i];
+    }
+
+    private static String limpiar(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    public static void main(String[] args) throws IOException {
+        int puerto = args.length > 0 ? Integer.parseInt(args[0]) : PUERTO_POR_DEFECTO;
+        Path dir = Paths.get(args.length > 1 ? args[1] : System.getProperty("cajero.datos", "datos"));
+        Durabilidad modo = Durabilidad.valueOf(System.getProperty("cajero.durabilidad", Durabilidad.POR_TRANSACCION.name()));
+        MapaParticiones mapa = MapaParticiones.porDefecto();
+        String primario = System.getProperty("cajero.primario");
+        int puertoReplicacion = Integer.getInteger("cajero.replicacion", 0);
+        if (primario != null) ReplicacionDiario.sincronizar(dir, modo, direccion(primario));
+        int simulados = Integer.getInteger("cajero.simulados", 0);
+        Consumer<Ledger> semilla = simulados > 0 ? l -> SimuladorCarga.poblar(l, simulados) : CajeroBancoAvanzado::crearPersonasYCuentasDemo;
+        PersistenciaBanco persistencia = PersistenciaBanco.abrir(dir, modo, mapa == null ? semilla : mapa.sembrarParticion(semilla),
+                Long.getLong("cajero.instantaneaSeg", 300));
+        // lo que solo hace el primario: una réplica lo arranca al promoverse
+        Runnable activar = () -> {
+            try {
+                if (mapa != null) persistencia.distribuidas().iniciar(mapa);
+                persistencia.programadas().iniciar();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            persistencia.programarCierre(LocalTime.parse(System.getProperty("cajero.cierre", "00:00")));
+        };
+        ReplicacionDiario replicacion;
+        if (primario != null) {
+            replicacion = ReplicacionDiario.seguidor(persistencia, direccion(primario), puertoReplicacion,
+                    Long.getLong("cajero.promocionMs", 0), activar);
+        } else {
+            activar.run();
+            replicacion = puertoReplicacion > 0 ? ReplicacionDiario.primario(persistencia, puertoReplicacion) : null;
+        }
+        GestorSesiones sesiones = new GestorSesiones(persistencia.ledger(),
+                TimeUnit.SECONDS.toMillis(Long.getLong("cajero.sesionSeg", 300)), GestorSesiones.TICK_POR_DEFECTO_MS);
+        ServidorCajero servidor = new ServidorCajero(sesiones, LimitesTransferencia.porDefecto(), CacheIdempotencia.porDefecto(),
+                persistencia.distribuidas(), persistencia.programadas(), new InetSocketAddress(puerto), Integer.getInteger("cajero.trabajadores", 64));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                servidor.close();
+            } catch (IOException ignored) {
+            }
+            if (replicacion != null) replicacion.close();
+            sesiones.close();
+            persistencia.close();
+        }));
+        MetricasCajero.publicar();
+        GeneradorEstados.publicar(persistencia.ledger(), dir);
+        System.out.println("Servidor del cajero escuchando en el puerto " + servidor.puerto()
+                + (primario != null ? " (réplica de " + primario + ", solo consultas)" : ""));
+    }
+
+    private static InetSocketAddress direccion(String hostPuerto) {
+        int sep = hostPuerto.lastIndexOf(':');
+        if (sep <= 0) throw new IllegalArgumentException("Se espera host:puerto: " + hostPuerto);
+        return InetSocketAddress.createUnresolved(hostPuerto.substring(0, sep), Integer.parseInt(hostPuerto.substring(sep + 1)));
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SimuladorCarga.java
+ *
+ * Generador de carga sin Swing: miles de sesiones de cajero concurrentes que recorren los
+ * mismos pasos que {@link CajeroBancoAvanzado} (login, elegir cuenta, consultar saldo,
+ * transferir entre cuentas propias, transferir a otra persona con código, depositar) a
+ * través de {@link ServicioCajero}, contra un Ledger del mismo proceso o contra uno o más
+ * {@link ServidorCajero}.
+ *
+ * - Una sesión por hilo (virtual si la JVM los tiene, ver {@link Hilos}): LOGIN, luego
+ *   --operaciones operaciones según la mezcla y LOGOUT; entre paso y paso espera un tiempo
+ *   de reflexión exponencial de media --pensarMs (0 = sin pausa, carga cerrada).
+ * - Qué cliente usa el cajero y a quién le transfiere se elige con una distribución Zipf
+ *   (--zipf=0.99; 0 = uniforme): unas pocas cuentas calientes se llevan buena parte de la
+ *   carga, como en la realidad, y se ve el efecto de la contención en sus candados.
+ * - Por cada nivel de --sesiones mide (después de --calentamiento segundos) el rendimiento,
+ *   p50/p99/p999 y la tasa de error por operación con su propio {@link MetricasCajero}
+ *   (latencia vista por el cajero, red incluida). Subir las sesiones hasta que las ops/s
+ *   dejan de crecer y el p99 se dispara da el punto de saturación de la máquina.
+ *
+ * Los clientes son sintéticos ({@link #poblar}): el servidor los siembra con
+ * -Dcajero.simulados=N (mismo N que --clientes) en un dirDatos vacío.
+ *
+ *   java -cp out SimuladorCarga --clientes=100000 --sesiones=100,1000,5000 --segundos=30
+ *   java -cp out SimuladorCarga --servidor=localhost:7070 --clientes=100000 --pensarMs=500
+ *
+ * Opciones: --servidor (sin él, Ledger en memoria; con --datos=dir, con diario en disco),
+ * --clientes=100000, --sesiones=100,1000, --segundos=20, --calentamiento=5,
+ * --mezcla=saldo:40,saldos:5,interna:20,externa:20,deposito:15, --pensarMs=0, --zipf=0.99,
+ * --operaciones=8. Los límites de las transferencias a terceros son los de -Dcajero.limites
+ * (con cuentas calientes se agotan enseguida y aparecen como LIMITE_EXCEDIDO).
+ */
+final class SimuladorCarga {
+
+    static final long SALDO_INICIAL = BenchCajero.SALDO_INICIAL;
+
+    enum Paso {
+        SALDO(MetricasCajero.Operacion.SALDO),
+        SALDOS(MetricasCajero.Operacion.SALDOS),
+        INTERNA(MetricasCajero.Operacion.TRANSFERENCIA_INTERNA),
+        EXTERNA(MetricasCajero.Operacion.TRANSFERENCIA_EXTERNA),
+        DEPOSITO(MetricasCajero.Operacion.DEPOSITO);
+
+        final MetricasCajero.Operacion operacion;
+
+        Paso(MetricasCajero.Operacion operacion) {
+            this.operacion = operacion;
+        }
+    }
+
+    /** Crea el servicio de cada sesión (una conexión por sesión contra un servidor). */
+    interface Fabrica {
+        ServicioCajero abrir() throws IOException;
+    }
+
+    // --- Clientes sintéticos ---
+
+    static String dni(int cliente) {
+        return String.format("%08d", 10_000_000 + cliente);
+    }
+
+    static String clave(int cliente) {
+        return "sim" + cliente;
+    }
+
+    static String numero(int cliente, boolean ahorros) {
+        return (100000 + cliente) + (ahorros ? "-A" : "-C");
+    }
+
+    /** Siembra {@code clientes} personas sintéticas, cada una con Corriente y Ahorros. */
+    static void poblar(Ledger ledger, int clientes) {
+        for (int i = 0; i < clientes; i++) {
+            Persona p = new Persona("Cliente " + i, dni(i), clave(i));
+            p.agregarCuenta(ledger.abrirCuenta(TipoCuenta.CORRIENTE, numero(i, false), SALDO_INICIAL));
+            p.agregarCuenta(ledger.abrirCuenta(TipoCuenta.AHORROS, numero(i, true), SALDO_INICIAL));
+            ledger.registrarPersona(p);
+        }
+    }
+
+    /** Muestreo Zipf por inversión de la función acumulada (tabla de N dobles). */
+    static final class Zipf {
+        private final double[] acumulada;
+
+        Zipf(int n, double s) {
+            acumulada = new double[n];
+            double suma = 0;
+            for (int i = 0; i < n; i++) {
+                suma += s == 0 ? 1 : 1 / Math.pow(i + 1, s);
+                acumulada[i] = suma;
+            }
+            for (int i = 0; i < n; i++) acumulada[i] /= suma;
+        }
+
+        int siguiente(ThreadLocalRandom r) {
+            int i = Arrays.binarySearch(acumulada, r.nextDouble());
+            return Math.min(i < 0 ? -i - 1 : i, acumulada.length - 1);
+        }
+    }
+
+    // --- Simulación ---
+
+    private final Fabrica fabrica;
+    private final int clientes;
+    private final Zipf zipf;
+    private final Paso[] mezcla; // una entrada por unidad de peso
+    private final long pensarMs;
+    private final int operaciones;
+    private final LongAdder sesionesCompletas = new LongAdder();
+    private volatile MetricasCajero metricas = new MetricasCajero();
+    private volatile boolean activo;
+
+    SimuladorCarga(Fabrica fabrica, int clientes, double zipf, Paso[] mezcla, long pensarMs, int operaciones) {
+        this.fabrica = fabrica;
+        this.clientes = clientes;
+        this.zipf = new Zipf(clientes, zipf);
+        this.mezcla = mezcla.clone();
+        this.pensarMs = pensarMs;
+        this.operaciones = operaciones;
+    }
+
+    /** "saldo:40,interna:20,..." -> tabla con cada paso repetido según su peso. */
+    static Paso[] mezcla(String texto) {
+        List<Paso> pasos = new ArrayList<>();
+        for (String parte : texto.split(",")) {
+            String[] c = parte.trim().split(":");
+            Paso p = Paso.valueOf(c[0].toUpperCase(Locale.ROOT));
+            int peso = Integer.parseInt(c[1]);
+            if (peso < 0) throw new IllegalArgumentException("Peso negativo: " + parte);
+            for (int i = 0; i < peso; i++) pasos.add(p);
+        }
+        if (pasos.isEmpty()) throw new IllegalArgumentException("Mezcla vacía");
+        return pasos.toArray(new Paso[0]);
+    }
+
+    /** Corre {@code sesiones} sesiones concurrentes: calentamiento y luego medición. */
+    void nivel(int sesiones, long calentamientoSeg, long segundos) throws InterruptedException {
+        activo = true;
+        ExecutorService hilos = Hilos.porTarea("simulador");
+        for (int i = 0; i < sesiones; i++) hilos.execute(this::sesiones);
+        TimeUnit.SECONDS.sleep(calentamientoSeg);
+        MetricasCajero medidas = new MetricasCajero();
+        metricas = medidas;
+        long completasAntes = sesionesCompletas.sum();
+        long t0 = System.nanoTime();
+        TimeUnit.SECONDS.sleep(segundos);
+        metricas = new MetricasCajero(); // lo que termina después no cuenta
+        double duracion = (System.nanoTime() - t0) / 1e9;
+        long completas = sesionesCompletas.sum() - completasAntes;
+        activo = false;
+        hilos.shutdown();
+        hilos.awaitTermination(1, TimeUnit.MINUTES);
+        imprimir(sesiones, duracion, completas, medidas);
+    }
+
+    // Un hilo: sesiones de cajero una tras otra hasta que termine el nivel
+    private void sesiones() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        ServicioCajero s = null;
+        try {
+            while (activo) {
+                long t0 = System.nanoTime();
+                try {
+                    if (s == null) s = fabrica.abrir();
+                    sesion(s, r);
+                } catch (IOException e) {
+                    if (s == null) metricas.registrar(MetricasCajero.Operacion.LOGIN, ResultadoOperacion.ERROR_INTERNO, t0);
+                    cerrar(s);
+                    s = null;
+                    pensar(r, Math.max(pensarMs, 10)); // servidor caído o saturado: no insistir en seco
+                }
+            }
+        } finally {
+            cerrar(s);
+        }
+    }
+
+    private void sesion(ServicioCajero s, ThreadLocalRandom r) throws IOException {
+        int cliente = zipf.siguiente(r);
+        long t0 = System.nanoTime();
+        ResultadoOperacion res = ResultadoOperacion.ERROR_INTERNO;
+        PerfilCliente perfil;
+        try {
+            perfil = s.iniciarSesion(dni(cliente), clave(cliente));
+            res = perfil == null ? ResultadoOperacion.CREDENCIALES_INVALIDAS : ResultadoOperacion.EXITOSA;
+        } finally {
+            metricas.registrar(MetricasCajero.Operacion.LOGIN, res, t0);
+        }
+        if (perfil == null) {
+            pensar(r, pensarMs);
+            return;
+        }
+        for (int k = 0; k < operaciones && activo; k++) {
+            pensar(r, pensarMs);
+            String cuenta = perfil.cuentas.get(r.nextInt(perfil.cuentas.size())).numero;
+            paso(s, mezcla[r.nextInt(mezcla.length)], perfil, cuenta, cliente, r);
+        }
+        s.cerrarSesion();
+        sesionesCompletas.increment();
+    }
+
+    private void paso(ServicioCajero s, Paso paso, PerfilCliente perfil, String cuenta, int cliente, ThreadLocalRandom r)
+            throws IOException {
+        long monto = 1 + r.nextInt(10_000);
+        long t0 = System.nanoTime();
+        ResultadoOperacion res = ResultadoOperacion.ERROR_INTERNO;
+        try {
+            switch (paso) {
+                case SALDO:
+                    s.saldo(cuenta);
+                    res = ResultadoOperacion.EXITOSA;
+                    break;
+                case SALDOS:
+                    res = s.saldos(ServicioCajeroLocal.CODIGO_SECRETO) != null
+                            ? ResultadoOperacion.EXITOSA : ResultadoOperacion.CODIGO_INCORRECTO;
+                    break;
+                case INTERNA: {
+                    String otra = null;
+                    for (PerfilCliente.CuentaPerfil cp : perfil.cuentas) {
+                        if (!cp.numero.equals(cuenta)) otra = cp.numero;
+                    }
+                    if (otra == null) return;
+                    res = s.transferir(cuenta, otra, monto, null, ServicioCajero.nuevoIdOperacion());
+                    break;
+                }
+                case EXTERNA: {
+                    int otro = zipf.siguiente(r);
+                    if (otro == cliente) otro = (cliente + 1) % clientes;
+                    res = s.transferir(cuenta, numero(otro, r.nextBoolean()), monto, ServicioCajeroLocal.CODIGO_SECRETO,
+                            ServicioCajero.nuevoIdOperacion());
+                    break;
+                }
+                case DEPOSITO:
+                    res = s.depositar(cuenta, monto, ServicioCajero.nuevoIdOperacion(), (progreso, estado) -> { });
+                    break;
+            }
+        } catch (IllegalStateException e) {
+            res = ResultadoOperacion.SIN_SESION.mensaje().equals(e.getMessage())
+                    ? ResultadoOperacion.SIN_SESION : ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+        } finally {
+            metricas.registrar(paso.operacion, res, t0);
+        }
+    }
+
+    private void pensar(ThreadLocalRandom r, long mediaMs) {
+        if (mediaMs <= 0) return;
+        long ms = (long) (-mediaMs * Math.log(1 - r.nextDouble()));
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            activo = false;
+        }
+    }
+
+    private static void cerrar(ServicioCajero s) {
+        if (s == null) return;
+        try {
+            s.close();
+        } catch (IOException | RuntimeException ignored) {
+        }
+    }
+
+    private static void imprimir(int sesiones, double segundos, long completas, MetricasCajero m) {
+        long total = 0;
+        long fallidas = 0;
+        double peorP99 = 0;
+        StringBuilder sb = new StringBuilder();
+        for (MetricasCajero.Operacion op : MetricasCajero.Operacion.values()) {
+            MetricasCajero.Resumen r = m.resumen(op);
+            if (r.cantidad == 0) continue;
+            total += r.cantidad;
+            fallidas += r.fallidas();
+            peorP99 = Math.max(peorP99, r.percentilMicros(0.99));
+            StringBuilder errores = new StringBuilder();
+            for (ResultadoOperacion res : ResultadoOperacion.values()) {
+                long n = r.porResultado[res.ordinal()];
+                if (n > 0 && res != ResultadoOperacion.EXITOSA) errores.append(' ').append(res.name()).append('=').append(n);
+            }
+            sb.append(String.format(Locale.ROOT, "  %-22s %10.0f %8.2f%% %10.1f %10.1f %10.1f %s%n",
+                    op.name(), r.cantidad / segundos, 100.0 * r.fallidas() / r.cantidad, r.percentilMicros(0.50),
+                    r.percentilMicros(0.99), r.percentilMicros(0.999), errores));
+        }
+        System.out.printf(Locale.ROOT, "Sesiones %d: %.0f ops/s, %.0f sesiones/s, %.2f%% con error, p99 más lento %.1f us%n",
+                sesiones, total / segundos, completas / segundos, total == 0 ? 0 : 100.0 * fallidas / total, peorP99);
+        System.out.printf("  %-22s %10s %9s %10s %10s %10s %s%n", "operacion", "ops/s", "error", "p50_us", "p99_us", "p999_us", "errores");
+        System.out.print(sb);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> op = BenchCajero.opciones(args);
+        int clientes = Integer.parseInt(op.getOrDefault("clientes", "100000"));
+        int[] sesiones = BenchCajero.enteros(op.getOrDefault("sesiones", "100,1000"));
+        long segundos = Long.parseLong(op.getOrDefault("segundos", "20"));
+        long calentamiento = Long.parseLong(op.getOrDefault("calentamiento", "5"));
+        Paso[] mezcla = mezcla(op.getOrDefault("mezcla", "saldo:40,saldos:5,interna:20,externa:20,deposito:15"));
+        long pensarMs = Long.parseLong(op.getOrDefault("pensarMs", "0"));
+        double zipf = Double.parseDouble(op.getOrDefault("zipf", "0.99"));
+        int operaciones = Integer.parseInt(op.getOrDefault("operaciones", "8"));
+
+        Fabrica fabrica;
+        AutoCloseable recursos = null;
+        String servidor = op.get("servidor");
+        if (servidor != null) {
+            fabrica = () -> ClienteCajero.conectar(servidor);
+            System.out.printf("Simulando contra %s (%d clientes sembrados con -Dcajero.simulados)%n", servidor, clientes);
+        } else {
+            PersistenciaBanco persistencia = null;
+            Ledger ledger;
+            if (op.containsKey("datos")) {
+                Durabilidad modo = Durabilidad.valueOf(System.getProperty("cajero.durabilidad", Durabilidad.POR_TRANSACCION.name()));
+                persistencia = PersistenciaBanco.abrir(Paths.get(op.get("datos")), modo, l -> poblar(l, clientes), 0);
+                ledger = persistencia.ledger();
+            } else {
+                ledger = new Ledger();
+                poblar(ledger, clientes);
+            }
+            GestorSesiones gestor = new GestorSesiones(ledger);
+            LimitesTransferencia limites = LimitesTransferencia.porDefecto();
+            CacheIdempotencia idempotencia = CacheIdempotencia.porDefecto();
+            fabrica = () -> new ServicioCajeroLocal(gestor, limites, idempotencia);
+            PersistenciaBanco p = persistencia;
+            recursos = () -> {
+                gestor.close();
+                if (p != null) p.close();
+            };
+            System.out.printf("Simulando en proceso: %d clientes, %s%n", clientes,
+                    persistencia == null ? "sin diario" : "diario " + persistencia.diario().durabilidad());
+        }
+        System.out.printf(Locale.ROOT, "Zipf %.2f, reflexión media %d ms, %d operaciones por sesión, %ds + %ds por nivel%n",
+                zipf, pensarMs, operaciones, calentamiento, segundos);
+
+        SimuladorCarga simulador = new SimuladorCarga(fabrica, clientes, zipf, mezcla, pensarMs, operaciones);
+        for (int n : sesiones) simulador.nivel(n, calentamiento, segundos);
+        if (recursos != null) recursos.close();
+    }
+}
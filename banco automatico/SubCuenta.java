@@ -0,0 +1,45 @@
+/**
+ * Subcuenta ("tarjeta") de una persona: Corriente o Ahorros.
+ *
+ * Es solo una vista liviana (almacén + id) sobre {@link AlmacenCuentas}; el saldo,
+ * el tipo y el número viven en las columnas del almacén. El saldo solo lo modifica
+ * {@link Ledger} mientras tiene tomado el candado de la cuenta.
+ */
+final class SubCuenta {
+    final AlmacenCuentas almacen;
+    final int id; // id denso en el almacén
+
+    SubCuenta(AlmacenCuentas almacen, int id) {
+        this.almacen = almacen;
+        this.id = id;
+    }
+
+    TipoCuenta tipo() {
+        return almacen.tipo(id);
+    }
+
+    String numero() {
+        return almacen.numero(id);
+    }
+
+    long saldoCentimos() {
+        return almacen.saldo(id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SubCuenta)) return false;
+        SubCuenta otra = (SubCuenta) o;
+        return otra.id == id && otra.almacen == almacen;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return tipo() + " (" + numero() + ")";
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Tipo de subcuenta. Se guarda en el almacén como un byte (ordinal).
+ */
+enum TipoCuenta {
+    CORRIENTE("Corriente"),
+    AHORROS("Ahorros");
+
+    private static final TipoCuenta[] VALORES = values();
+
+    private final String etiqueta;
+
+    TipoCuenta(String etiqueta) {
+        this.etiqueta = etiqueta;
+    }
+
+    String etiqueta() {
+        return etiqueta;
+    }
+
+    byte codigo() {
+        return (byte) ordinal();
+    }
+
+    static TipoCuenta desdeCodigo(byte codigo) {
+        return VALORES[codigo];
+    }
+
+    @Override
+    public String toString() {
+        return etiqueta;
+    }
+}
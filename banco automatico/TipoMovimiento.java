@@ -0,0 +1,60 @@
+/**
+ * Tipo de movimiento contable. Se guarda como un byte en el diario;
+ * el código 0 queda libre para marcar registros vacíos.
+ *
+ * Los tipos SALIDA_* y ENTRADA_* son las dos fases de una transferencia entre particiones
+ * ({@link TransaccionesDistribuidas}): la cuenta remota va como referencia negativa en el
+ * origen o el destino. Los que no mueven saldo solo dejan constancia del protocolo.
+ *
+ * RETIRO es efectivo entregado por un terminal: debita el origen, sin destino (-1).
+ *
+ * PROGRAMADA mueve el saldo como TRANSFERENCIA; su marca de tiempo es el vencimiento de la
+ * orden ({@link TransferenciasProgramadas}), no la hora en que se ejecutó.
+ */
+enum TipoMovimiento {
+    TRANSFERENCIA("Transferencia", true),
+    DEPOSITO("Depósito", true),
+    INTERES("Interés", true),
+    SALIDA_PREPARADA("Transferencia enviada", true),          // débito reservado en el origen
+    SALIDA_CONFIRMADA("Transferencia enviada (confirmada)", false),
+    SALIDA_ANULADA("Transferencia devuelta", true),            // se devuelve el débito reservado
+    ENTRADA_PREPARADA("Transferencia entrante (pendiente)", false),
+    ENTRADA_CONFIRMADA("Transferencia recibida", true),
+    ENTRADA_ANULADA("Transferencia entrante (anulada)", false),
+    RETIRO("Retiro en efectivo", true),
+    PROGRAMADA("Transferencia programada", true);
+
+    private static final TipoMovimiento[] VALORES = values();
+
+    private final String etiqueta;
+    private final boolean mueveSaldo;
+
+    TipoMovimiento(String etiqueta, boolean mueveSaldo) {
+        this.etiqueta = etiqueta;
+        this.mueveSaldo = mueveSaldo;
+    }
+
+    String etiqueta() {
+        return etiqueta;
+    }
+
+    /** false para las marcas del protocolo entre particiones (no cambian saldos ni van al historial). */
+    boolean mueveSaldo() {
+        return mueveSaldo;
+    }
+
+    /** Registro de una transferencia entre particiones. */
+    boolean distribuida() {
+        return ordinal() >= SALIDA_PREPARADA.ordinal() && ordinal() <= ENTRADA_ANULADA.ordinal();
+    }
+
+    byte codigo() {
+        return (byte) (ordinal() + 1);
+    }
+
+    /** Devuelve null si el código no corresponde a ningún tipo (registro vacío o dañado). */
+    static TipoMovimiento desdeCodigo(byte codigo) {
+        int i = codigo - 1;
+        return i >= 0 && i < VALORES.length ? VALORES[i] : null;
+    }
+}
@@ -0,0 +1,577 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TransaccionesDistribuidas.java
+ *
+ * Transferencias entre particiones del ledger ({@link MapaParticiones}) con confirmación
+ * en dos fases. Coordina la partición de la cuenta de origen; participa la del destino.
+ *
+ *   Coordinador (origen)                       Participante (destino)
+ *   SALIDA_PREPARADA: debita el origen   --->  PREPARAR:  ENTRADA_PREPARADA (sin mover saldo)
+ *   SALIDA_CONFIRMADA (decisión)         --->  CONFIRMAR: ENTRADA_CONFIRMADA (acredita)
+ *     o SALIDA_ANULADA (devuelve)        --->  ANULAR:    ENTRADA_ANULADA
+ *
+ * - Cada fase se escribe en el diario de su partición y espera el fsync antes de seguir o
+ *   de responder, en cualquier modo de durabilidad: así cualquiera de los dos procesos
+ *   puede caer en cualquier punto y la transferencia termina aplicada en ambos o en ninguno.
+ * - La transacción se identifica por (partición coordinadora, t), con t de 24 bits. En el
+ *   diario la cuenta remota se reemplaza por una referencia negativa con la otra partición
+ *   y t ({@link #referencia}): el registro conserva sus 40 bytes y la conciliación cuenta
+ *   lo enviado como salida y lo recibido como entrada de la partición.
+ * - Anulación presunta: hasta que el coordinador escribe su decisión, la transferencia se
+ *   puede anular. Si cae antes de decidir, al volver la anula; si le preguntan por una t
+ *   que no tiene pendiente, responde ANULADA.
+ * - Después de decidir, el coordinador reenvía la decisión hasta que el participante la
+ *   acusa (y recién entonces la olvida); un participante con una entrada preparada hace
+ *   más de {@link #ESPERA_PARTICIPANTE_MS} pregunta el ESTADO. Las dos cosas las hace un
+ *   hilo de fondo cada {@link #INTERVALO_MS}.
+ * - Al arrancar, las pendientes se reconstruyen desde el diario ({@link #recuperar}). El
+ *   diario se conserva desde la más antigua y esa secuencia se guarda con cada instantánea
+ *   en "distribuidas.txt" para saber desde dónde releerlo.
+ * - El contador de t no vuelve atrás al reiniciar: se guarda en el mismo archivo y avanza con
+ *   cada salida que se relee del diario. Un t reusado mientras el participante todavía
+ *   recuerda la entrada anterior se tomaría por un PREPARAR repetido. (Da la vuelta cada
+ *   2^24 transferencias, cuando las de la vuelta anterior ya están resueltas.)
+ *
+ * Protocolo entre particiones (puerto propio de cada partición, que no debe quedar
+ * expuesto fuera de la red del banco; líneas UTF-8 con campos separados por TAB):
+ *
+ *   PREPARAR  coordinadora t numero monto -> OK | ERR RESULTADO
+ *   CONFIRMAR coordinadora t              -> OK
+ *   ANULAR    coordinadora t              -> OK
+ *   ESTADO    participante t              -> OK PREPARADA|CONFIRMADA|ANULADA
+ *   TOTAL                                 -> OK cuentas centimos salidasPendientes entradasPendientes
+ *
+ * Uso (verificar la conservación del dinero entre todas las particiones):
+ *   java TransaccionesDistribuidas host:puerto,host:puerto,...
+ */
+final class TransaccionesDistribuidas implements AutoCloseable {
+
+    static final String ARCHIVO = "distribuidas.txt";
+    static final long INTERVALO_MS = 1000;
+    static final long ESPERA_PARTICIPANTE_MS = 2000;
+    static final int TIMEOUT_MS = Integer.getInteger("cajero.timeoutParticionesMs", 5000);
+
+    private static final int BITS_T = 24;
+    private static final int MASCARA_T = (1 << BITS_T) - 1;
+
+    enum Estado { PREPARADA, CONFIRMADA, ANULADA }
+
+    /** Transferencia que coordina esta partición; se olvida cuando el participante acusa la decisión. */
+    private static final class Salida {
+        final int t;
+        final int origen;
+        final int particion;
+        final long monto;
+        final long anterior;     // secuencia del diario anterior a su primer registro
+        final boolean huerfana;  // recuperada del diario: nadie la está coordinando
+        volatile Estado estado = Estado.PREPARADA;
+
+        Salida(int t, int origen, int particion, long monto, long anterior, boolean huerfana) {
+            this.t = t;
+            this.origen = origen;
+            this.particion = particion;
+            this.monto = monto;
+            this.anterior = anterior;
+            this.huerfana = huerfana;
+        }
+    }
+
+    /** Entrada preparada aquí por otra partición, a la espera de la decisión. */
+    private static final class Entrada {
+        final int coordinadora;
+        final int t;
+        final int destino;
+        final long monto;
+        final long anterior;
+        final long desde;        // ms, para saber cuándo preguntar
+        boolean resuelta;        // protegido por el candado de la entrada
+
+        Entrada(int coordinadora, int t, int destino, long monto, long anterior, long desde) {
+            this.coordinadora = coordinadora;
+            this.t = t;
+            this.destino = destino;
+            this.monto = monto;
+            this.anterior = anterior;
+            this.desde = desde;
+        }
+    }
+
+    /** Conexión saliente a otra partición; una solicitud en vuelo a la vez. */
+    private static final class Enlace {
+        final Socket socket;
+        final BufferedReader entrada;
+        final Writer salida;
+
+        Enlace(InetSocketAddress direccion) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(direccion.getHostString(), direccion.getPort()), TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(TIMEOUT_MS);
+                entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                salida = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        String[] solicitar(Object... campos) throws IOException {
+            salida.write(linea(campos));
+            salida.flush();
+            String r = entrada.readLine();
+            if (r == null) throw new IOException("La partición cerró la conexión");
+            return r.split("\t", -1);
+        }
+
+        void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final Ledger ledger;
+    private final ConcurrentHashMap<Integer, Salida> salidas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Entrada> entradas = new ConcurrentHashMap<>();
+    private final AtomicInteger siguienteT = new AtomicInteger();
+    private volatile MapaParticiones mapa; // null hasta iniciar()
+    private List<ConcurrentLinkedQueue<Enlace>> enlaces;
+    private ServerSocket servidor;
+    private ExecutorService atencion;
+    private ScheduledExecutorService resolutor;
+
+    TransaccionesDistribuidas(Ledger ledger) {
+        this.ledger = ledger;
+    }
+
+    // --- Referencias remotas en el diario ---
+
+    /** Referencia negativa (&lt; -1) a la transacción t de la partición dada, para el origen o destino de un registro. */
+    static int referencia(int particion, int t) {
+        return -2 - ((particion << BITS_T) | t);
+    }
+
+    static int particionDe(int referencia) {
+        return (-2 - referencia) >>> BITS_T;
+    }
+
+    static int tDe(int referencia) {
+        return (-2 - referencia) & MASCARA_T;
+    }
+
+    private static long clave(int coordinadora, int t) {
+        return (long) coordinadora << 32 | t;
+    }
+
+    // --- Arranque ---
+
+    /**
+     * Secuencia desde la que releer el diario para reconstruir las pendientes (MAX_VALUE si no
+     * hay archivo). Deja el contador de t donde quedó al escribirla.
+     */
+    long leerBase(Path dir) throws IOException {
+        Path archivo = dir.resolve(ARCHIVO);
+        if (!Files.exists(archivo)) return Long.MAX_VALUE;
+        String[] campos = Files.readString(archivo, StandardCharsets.UTF_8).trim().split("\\s+");
+        if (campos.length > 1) siguienteT.set(Integer.parseInt(campos[1]));
+        return Long.parseLong(campos[0]);
+    }
+
+    /**
+     * Guarda desde dónde releer el diario para la instantánea de {@code secuencia} y lo
+     * devuelve: el diario no se debe recortar más allá. Guarda también el contador de t, que
+     * cubre las salidas anteriores a la instantánea (las posteriores se releen del diario).
+     */
+    long escribirBase(Path dir, long secuencia) throws IOException {
+        int contador = siguienteT.get();
+        long base = secuencia;
+        for (Salida s : salidas.values()) base = Math.min(base, s.anterior);
+        for (Entrada e : entradas.values()) base = Math.min(base, e.anterior);
+        Path archivo = dir.resolve(ARCHIVO);
+        Path tmp = archivo.resolveSibling(ARCHIVO + ".tmp");
+        Files.writeString(tmp, base + " " + contador + "\n", StandardCharsets.UTF_8);
+        Files.move(tmp, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return base;
+    }
+
+    /** Reconstruye el estado con un registro del diario (en orden de secuencia, antes de {@link #iniciar}). */
+    void recuperar(long secuencia, TipoMovimiento tipo, int origen, int destino, long monto) {
+        switch (tipo) {
+            case SALIDA_PREPARADA:
+            case SALIDA_CONFIRMADA:
+            case SALIDA_ANULADA: {
+                int local = tipo == TipoMovimiento.SALIDA_ANULADA ? destino : origen;
+                int ref = tipo == TipoMovimiento.SALIDA_ANULADA ? origen : destino;
+                int t = tDe(ref);
+                Salida s = salidas.computeIfAbsent(t, k -> new Salida(t, local, particionDe(ref), monto, secuencia - 1, true));
+                if (tipo == TipoMovimiento.SALIDA_CONFIRMADA) s.estado = Estado.CONFIRMADA;
+                else if (tipo == TipoMovimiento.SALIDA_ANULADA) s.estado = Estado.ANULADA;
+                avanzarT(t);
+                break;
+            }
+            case ENTRADA_PREPARADA: {
+                Entrada e = new Entrada(particionDe(origen), tDe(origen), destino, monto, secuencia - 1, 0);
+                entradas.put(clave(e.coordinadora, e.t), e);
+                break;
+            }
+            case ENTRADA_CONFIRMADA:
+            case ENTRADA_ANULADA:
+                entradas.remove(clave(particionDe(origen), tDe(origen)));
+                break;
+            default:
+        }
+    }
+
+    // Deja el contador después de t si t está por delante (módulo 2^24, a menos de media vuelta):
+    // la decisión de una salida vieja se relee después de salidas más nuevas
+    private void avanzarT(int t) {
+        int actual = siguienteT.get();
+        int adelanto = (t + 1 - actual) << (32 - BITS_T) >> (32 - BITS_T);
+        if (adelanto > 0) siguienteT.set(actual + adelanto);
+    }
+
+    /** Empieza a atender a las otras particiones y a resolver las pendientes. */
+    synchronized void iniciar(MapaParticiones mapa) throws IOException {
+        enlaces = new ArrayList<>(mapa.cantidad());
+        for (int i = 0; i < mapa.cantidad(); i++) enlaces.add(new ConcurrentLinkedQueue<>());
+        InetSocketAddress propia = mapa.direccion(mapa.propia());
+        servidor = new ServerSocket();
+        servidor.setReuseAddress(true);
+        servidor.bind(new InetSocketAddress(propia.getHostString(), propia.getPort()));
+        atencion = Hilos.porTarea("particiones");
+        this.mapa = mapa;
+        Thread aceptador = new Thread(this::aceptar, "particiones-aceptar");
+        aceptador.setDaemon(true);
+        aceptador.start();
+        resolutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "particiones-resolver");
+            t.setDaemon(true);
+            return t;
+        });
+        resolutor.scheduleWithFixedDelay(this::resolverPendientes, INTERVALO_MS, INTERVALO_MS, TimeUnit.MILLISECONDS);
+        System.out.printf("Partición %d de %d escuchando en %s:%d (%d salidas y %d entradas pendientes)%n",
+                mapa.propia(), mapa.cantidad(), propia.getHostString(), propia.getPort(), salidas.size(), entradas.size());
+    }
+
+    /** true si la cuenta es de otra partición (con el ledger sin particionar, nunca). */
+    boolean esRemota(String numero) {
+        MapaParticiones m = mapa;
+        return m != null && !m.esPropia(numero);
+    }
+
+    int salidasPendientes() {
+        return salidas.size();
+    }
+
+    int entradasPendientes() {
+        return entradas.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        MapaParticiones m = mapa;
+        mapa = null;
+        if (m == null) return;
+        resolutor.shutdownNow();
+        try {
+            servidor.close();
+        } catch (IOException ignored) {
+        }
+        atencion.shutdownNow();
+        for (ConcurrentLinkedQueue<Enlace> q : enlaces) {
+            for (Enlace e; (e = q.poll()) != null; ) e.cerrar();
+        }
+    }
+
+    // --- Coordinador ---
+
+    /**
+     * Transfiere desde una cuenta de esta partición a una de otra (ya validados el monto,
+     * el código y los límites). Devuelve EXITOSA cuando la decisión de confirmar está en
+     * disco, aunque el participante todavía no la haya acusado.
+     */
+    ResultadoOperacion transferir(int origen, String numeroDestino, long monto) {
+        MapaParticiones m = mapa;
+        if (m == null) return ResultadoOperacion.CUENTA_NO_ENCONTRADA;
+        int particion = m.particion(numeroDestino);
+        Salida s = nuevaSalida(origen, particion, monto);
+        long secuencia;
+        try {
+            secuencia = ledger.reservarSalida(origen, referencia(particion, s.t), monto);
+        } catch (RuntimeException e) {
+            salidas.remove(s.t, s);
+            throw e;
+        }
+        if (secuencia < 0) {
+            salidas.remove(s.t, s);
+            return ResultadoOperacion.FONDOS_INSUFICIENTES;
+        }
+        ledger.esperarDisco(secuencia);
+
+        ResultadoOperacion r;
+        try {
+            String[] respuesta = solicitar(particion, "PREPARAR", m.propia(), s.t, numeroDestino, monto);
+            r = respuesta[0].equals("OK") ? ResultadoOperacion.EXITOSA : resultado(respuesta);
+        } catch (IOException e) {
+            r = ResultadoOperacion.ERROR_INTERNO; // sin respuesta: pudo preparar o no; se anula igual
+        }
+        decidir(s, r.exitosa());
+        enviarDecision(s); // si no llega, la reenvía el hilo de fondo
+        return r;
+    }
+
+    private Salida nuevaSalida(int origen, int particion, long monto) {
+        // anterior se toma antes de escribir: el registro de la reserva queda siempre después
+        long anterior = ultimaSecuencia();
+        while (true) {
+            int t = siguienteT.getAndIncrement() & MASCARA_T;
+            Salida s = new Salida(t, origen, particion, monto, anterior, false);
+            if (salidas.putIfAbsent(t, s) == null) return s;
+        }
+    }
+
+    // Escribe la decisión (una sola vez) y la hace visible cuando ya está en disco
+    private void decidir(Salida s, boolean confirmar) {
+        synchronized (s) {
+            if (s.estado != Estado.PREPARADA) return;
+            int ref = referencia(s.particion, s.t);
+            long secuencia = confirmar
+                    ? ledger.marcar(TipoMovimiento.SALIDA_CONFIRMADA, s.origen, ref, s.monto)
+                    : ledger.acreditar(TipoMovimiento.SALIDA_ANULADA, ref, s.origen, s.monto);
+            ledger.esperarDisco(secuencia);
+            s.estado = confirmar ? Estado.CONFIRMADA : Estado.ANULADA;
+        }
+    }
+
+    private void enviarDecision(Salida s) {
+        try {
+            String[] r = solicitar(s.particion, s.estado == Estado.CONFIRMADA ? "CONFIRMAR" : "ANULAR", mapa.propia(), s.t);
+            if (r[0].equals("OK")) salidas.remove(s.t, s);
+        } catch (IOException | RuntimeException e) {
+            // participante caído o mapa cerrado: queda para el próximo intento
+        }
+    }
+
+    // --- Participante ---
+
+    private String preparar(int coordinadora, int t, String numero, long monto) {
+        long clave = clave(coordinadora, t);
+        Entrada previa = entradas.get(clave);
+        if (previa != null) return previa.monto == monto ? "OK" : "ERR\t" + ResultadoOperacion.CLAVE_REPETIDA.name();
+        int destino = ledger.idCuenta(numero);
+        if (destino < 0) return "ERR\t" + ResultadoOperacion.CUENTA_NO_ENCONTRADA.name();
+        if (monto <= 0) return "ERR\t" + ResultadoOperacion.MONTO_INVALIDO.name();
+        Entrada e = new Entrada(coordinadora, t, destino, monto, ultimaSecuencia(), System.currentTimeMillis());
+        synchronized (e) {
+            if (entradas.putIfAbsent(clave, e) != null) return "OK"; // el mismo PREPARAR, repetido
+            try {
+                ledger.esperarDisco(ledger.marcar(TipoMovimiento.ENTRADA_PREPARADA, referencia(coordinadora, t), destino, monto));
+            } catch (RuntimeException ex) {
+                entradas.remove(clave, e);
+                throw ex;
+            }
+        }
+        return "OK";
+    }
+
+    // La aplica quien llega primero (CONFIRMAR/ANULAR o el hilo de fondo); se olvida ya en disco
+    private void resolver(Entrada e, boolean confirmar) {
+        synchronized (e) {
+            if (e.resuelta) return;
+            int ref = referencia(e.coordinadora, e.t);
+            long secuencia = confirmar
+                    ? ledger.acreditar(TipoMovimiento.ENTRADA_CONFIRMADA, ref, e.destino, e.monto)
+                    : ledger.marcar(TipoMovimiento.ENTRADA_ANULADA, ref, e.destino, e.monto);
+            ledger.esperarDisco(secuencia);
+            e.resuelta = true;
+            entradas.remove(clave(e.coordinadora, e.t), e);
+        }
+    }
+
+    // Sin la entrada, la decisión ya se aplicó antes: se acusa igual
+    private String decision(int coordinadora, int t, boolean confirmar) {
+        Entrada e = entradas.get(clave(coordinadora, t));
+        if (e != null) resolver(e, confirmar);
+        return "OK";
+    }
+
+    private String estado(int participante, int t) {
+        Salida s = salidas.get(t);
+        Estado estado = s == null || s.particion != participante ? Estado.ANULADA : s.estado;
+        return "OK\t" + estado.name();
+    }
+
+    private String total() {
+        Ledger.Captura c = ledger.capturar();
+        long total = 0;
+        for (long[] pagina : c.saldos) {
+            for (long saldo : pagina) total += saldo;
+        }
+        return "OK\t" + c.cantidad + "\t" + total + "\t" + salidas.size() + "\t" + entradas.size();
+    }
+
+    // --- Hilo de fondo ---
+
+    private void resolverPendientes() {
+        try {
+            for (Salida s : salidas.values()) {
+                if (s.huerfana && s.estado == Estado.PREPARADA) decidir(s, false); // anulación presunta
+                if (s.estado != Estado.PREPARADA) enviarDecision(s);
+            }
+            long limite = System.currentTimeMillis() - ESPERA_PARTICIPANTE_MS;
+            for (Entrada e : entradas.values()) {
+                if (e.desde > limite) continue;
+                try {
+                    String[] r = solicitar(e.coordinadora, "ESTADO", mapa.propia(), e.t);
+                    if (r[0].equals("OK") && !r[1].equals(Estado.PREPARADA.name())) {
+                        resolver(e, r[1].equals(Estado.CONFIRMADA.name()));
+                    }
+                } catch (IOException ex) {
+                    // coordinador caído: se vuelve a preguntar en la próxima vuelta
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error resolviendo transferencias entre particiones: " + e);
+        }
+    }
+
+    // --- Red ---
+
+    private String[] solicitar(int particion, Object... campos) throws IOException {
+        MapaParticiones m = mapa;
+        if (m == null) throw new IOException("Particiones detenidas");
+        Enlace e = enlaces.get(particion).poll();
+        if (e == null) e = new Enlace(m.direccion(particion));
+        try {
+            String[] r = e.solicitar(campos);
+            enlaces.get(particion).add(e);
+            return r;
+        } catch (IOException ex) {
+            e.cerrar(); // una respuesta tardía ya no correspondería a nada
+            throw ex;
+        }
+    }
+
+    private void aceptar() {
+        while (mapa != null) {
+            try {
+                Socket s = servidor.accept();
+                s.setTcpNoDelay(true);
+                atencion.execute(() -> atenderConexion(s));
+            } catch (SocketException e) {
+                return; // servidor cerrado
+            } catch (IOException | RuntimeException e) {
+                if (mapa != null) System.err.println("Error aceptando una partición: " + e);
+            }
+        }
+    }
+
+    private void atenderConexion(Socket s) {
+        try (Socket socket = s;
+             BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer salida = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            for (String linea; (linea = entrada.readLine()) != null; ) {
+                salida.write(atender(linea) + "\n");
+                salida.flush();
+            }
+        } catch (IOException ignored) {
+            // la otra partición cerró o cayó
+        }
+    }
+
+    String atender(String solicitud) {
+        String[] c = solicitud.split("\t", -1);
+        try {
+            switch (c[0]) {
+                case "PREPARAR":
+                    return preparar(Integer.parseInt(c[1]), Integer.parseInt(c[2]), c[3], Long.parseLong(c[4]));
+                case "CONFIRMAR":
+                    return decision(Integer.parseInt(c[1]), Integer.parseInt(c[2]), true);
+                case "ANULAR":
+                    return decision(Integer.parseInt(c[1]), Integer.parseInt(c[2]), false);
+                case "ESTADO":
+                    return estado(Integer.parseInt(c[1]), Integer.parseInt(c[2]));
+                case "TOTAL":
+                    return total();
+                default:
+                    return "ERR\tCOMANDO_DESCONOCIDO";
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return "ERR\t" + ResultadoOperacion.FORMATO_INVALIDO.name();
+        } catch (RuntimeException e) {
+            return "ERR\t" + ResultadoOperacion.ERROR_INTERNO.name();
+        }
+    }
+
+    private long ultimaSecuencia() {
+        DiarioTransacciones d = ledger.diario();
+        return d == null ? 0 : d.ultimaSecuencia();
+    }
+
+    private static ResultadoOperacion resultado(String[] respuesta) {
+        try {
+            return ResultadoOperacion.valueOf(respuesta[1]);
+        } catch (RuntimeException e) {
+            return ResultadoOperacion.ERROR_INTERNO;
+        }
+    }
+
+    private static String linea(Object... campos) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < campos.length; i++) {
+            if (i > 0) sb.append('\t');
+            sb.append(campos[i]);
+        }
+        return sb.append('\n').toString();
+    }
+
+    /** Suma los saldos de todas las particiones; solo cuadra con todo resuelto (sin pendientes). */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: java TransaccionesDistribuidas host:puerto,host:puerto,...");
+            System.exit(2);
+        }
+        MapaParticiones mapa = MapaParticiones.parsear(args[0], 0);
+        long total = 0;
+        long pendientes = 0;
+        for (int i = 0; i < mapa.cantidad(); i++) {
+            Enlace e = new Enlace(mapa.direccion(i));
+            try {
+                String[] r = e.solicitar("TOTAL");
+                if (!r[0].equals("OK")) throw new IOException("La partición " + i + " respondió " + String.join(" ", r));
+                System.out.printf("Partición %d: %s cuentas, %s céntimos, %s salidas y %s entradas pendientes%n",
+                        i, r[1], r[2], r[3], r[4]);
+                total += Long.parseLong(r[2]);
+                pendientes += Long.parseLong(r[3]) + Long.parseLong(r[4]);
+            } finally {
+                e.cerrar();
+            }
+        }
+        System.out.printf("Total: %d céntimos%s%n", total, pendientes > 0 ? " (" + pendientes + " transferencias sin resolver)" : "");
+    }
+}
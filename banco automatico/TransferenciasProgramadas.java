@@ -0,0 +1,808 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * TransferenciasProgramadas.java
+ *
+ * Transferencias programadas entre cuentas del ledger: una sola vez en una fecha, o
+ * periódicas (semanal, quincenal, mensual: el alquiler, la planilla).
+ *
+ * - Cada orden ocupa un índice denso en arreglos primitivos (origen, destino, monto,
+ *   vencimiento, serie, periodicidad, día, intentos, estado) más sus enlaces en una
+ *   {@link RuedaTemporal} de ticks de 1 s y en la lista de su cuenta de origen: ~50 bytes
+ *   por orden, sin objetos. Los índices libres se reusan; el id (serie &lt;&lt; 32 | índice) no
+ *   se repite, así cancelar es O(1) y un id viejo no cancela la orden que ocupó su lugar.
+ * - Las órdenes de un cliente ({@link #ordenes}) salen de las listas de sus cuentas: el
+ *   costo depende de sus órdenes, no de todas las del banco.
+ * - Un hilo avanza la rueda; las órdenes que vencen se ejecutan por lotes con
+ *   {@link Ledger#transferirLote} (fondos validados con el candado de la cuenta, una sola
+ *   espera al disco por lote). Sin fondos se reintenta cada {@link #REINTENTO_SEG} s hasta
+ *   {@link #REINTENTOS} veces; después la orden única se da de baja y la periódica pasa a
+ *   su siguiente fecha. Una periódica atrasada (servidor detenido varias semanas) se ejecuta
+ *   una sola vez y sigue desde la próxima fecha futura.
+ * - Cada ejecución queda en el diario como PROGRAMADA con el vencimiento como marca de
+ *   tiempo: (origen, destino, monto, vencimiento) identifica la ocurrencia.
+ * - Si un lote falla a medias no se sabe cuáles de sus órdenes se ejecutaron: quedan varadas
+ *   en curso (no se repiten ni se reintentan, ver getVaradas) y el diario se conserva desde
+ *   ese lote para que el próximo arranque las decida con él. Los lotes siguientes siguen.
+ *
+ * Persistencia, en el directorio de datos:
+ * - {@value #ARCHIVO}: todas las órdenes, con la secuencia del diario que cubre y un número
+ *   de lote. Se reescribe con cada instantánea del ledger (".tmp" + renombrado atómico).
+ * - {@value #ARCHIVO_REGISTRO}: altas, bajas y saltos posteriores a la base de su mismo
+ *   lote, en registros de 36 bytes con CRC. Las altas y bajas que pide el cliente se
+ *   sincronizan antes de responder.
+ * - Al iniciar se carga la base, se aplica el registro y se releen los PROGRAMADA del
+ *   diario posteriores a la base: una ocurrencia que se ejecutó y no llegó a la base avanza
+ *   igual, sin ejecutarse dos veces. Los reintentos en curso se pierden (se intenta de nuevo).
+ *
+ * Las órdenes a otra persona piden el código al crearse; al vencer no pasan por los
+ * {@link LimitesTransferencia} (son pagos ya autorizados, como un débito automático). El
+ * destino tiene que estar en este ledger (con el ledger particionado, en la misma partición).
+ * Una réplica en espera no las ejecuta: recibe los archivos y las inicia al promoverse.
+ */
+final class TransferenciasProgramadas implements ProgramadasMXBean, AutoCloseable {
+
+    static final String ARCHIVO = "programadas.bin";
+    static final String ARCHIVO_REGISTRO = "programadas.log";
+    static final int REINTENTOS = 3;
+    static final long REINTENTO_SEG = Long.getLong("cajero.reintentoProgramadaSeg", 3600);
+    static final int LOTE = 4096;
+    static final long HORIZONTE_DIAS = 3660; // ~10 años
+    static final long EPOCA_MS = 1_577_836_800_000L; // 2020-01-01T00:00Z: los vencimientos son segundos (int) desde aquí
+
+    enum Periodicidad { UNICA, SEMANAL, QUINCENAL, MENSUAL }
+
+    /** Una orden viva, con los ids de cuenta del ledger. */
+    static final class Orden {
+        final long id;
+        final int origen;
+        final int destino;
+        final long monto;
+        final long vence; // ms desde epoch
+        final Periodicidad periodicidad;
+
+        Orden(long id, int origen, int destino, long monto, long vence, Periodicidad periodicidad) {
+            this.id = id;
+            this.origen = origen;
+            this.destino = destino;
+            this.monto = monto;
+            this.vence = vence;
+            this.periodicidad = periodicidad;
+        }
+    }
+
+    private static final int MAGIA = 0x434A5052;          // "CJPR"
+    private static final int MAGIA_REGISTRO = 0x434A504C; // "CJPL"
+    private static final short VERSION = 1;
+    private static final long FIN = 0x46494E5F434A5052L;  // "FIN_CJPR"
+    private static final int CABECERA = 4 + 2 + 8 + 4 + 4 + 4;
+    private static final int TAM_ORDEN = 8 + 4 + 4 + 8 + 4 + 1 + 1;
+    private static final int TAM_REGISTRO = 36;
+    private static final Periodicidad[] PERIODICIDADES = Periodicidad.values();
+    private static final String NOMBRE_JMX = "banco.cajero:type=Programadas";
+
+    private static final byte ALTA = 1;
+    private static final byte BAJA = 2;
+    private static final byte SALTO = 3; // ocurrencia perdida: nuevo vencimiento sin registro en el diario
+
+    private static final byte LIBRE = 0;
+    private static final byte PENDIENTE = 1; // en la rueda
+    private static final byte EN_CURSO = 2;  // en un lote
+    private static final byte CANCELADA = 3; // cancelada mientras estaba en un lote
+
+    private final Path dir; // null = solo en memoria
+    private final Ledger ledger;
+    private final ZoneId zona = ZoneId.systemDefault();
+
+    // Órdenes por índice (con el monitor tomado)
+    private int[] origenes = new int[0];
+    private int[] destinos = new int[0];
+    private long[] montos = new long[0];
+    private int[] vencimientos = new int[0];
+    private int[] series = new int[0];
+    private byte[] periodos = new byte[0];
+    private byte[] dias = new byte[0];
+    private byte[] intentos = new byte[0];
+    private byte[] estados = new byte[0];
+    private int[] libres = new int[16];
+    private int cantidadLibres;
+    private int usados;      // índices entregados alguna vez
+    private int pendientes;  // órdenes vivas
+    private int siguienteSerie = 1;
+    private RuedaTemporal rueda;
+    private long enVueloDesde = Long.MAX_VALUE; // secuencia del diario antes del lote en curso
+    private long varadasDesde = Long.MAX_VALUE; // secuencia del diario antes del primer lote fallido
+    private int varadas;
+
+    // Órdenes vivas por cuenta de origen: lista doble por índice (-1 = fin) y la primera de
+    // cada cuenta en una tabla de direccionamiento abierto (cuenta + 1; 0 = vacío). Una cuenta
+    // que se queda sin órdenes conserva su lugar (primera = -1) hasta que la tabla crece.
+    private int[] siguientesOrigen = new int[0];
+    private int[] anterioresOrigen = new int[0];
+    private int[] tablaOrigenes = new int[64];
+    private int[] primerasOrigen = new int[64];
+    private int cuentasOrigen;
+
+    // Persistencia
+    private int lote;
+    private FileChannel registro;
+    private final ByteBuffer bufRegistro = ByteBuffer.allocate(TAM_REGISTRO);
+    private final CRC32C crc = new CRC32C();
+
+    // Lotes (solo el hilo del reloj)
+    private int[] vencidas = new int[LOTE];
+    private int cantidadVencidas;
+    private final int[] loteNodos = new int[LOTE];
+    private final int[] loteOrigenes = new int[LOTE];
+    private final int[] loteDestinos = new int[LOTE];
+    private final long[] loteMontos = new long[LOTE];
+    private final long[] loteMarcas = new long[LOTE];
+    private final ResultadoOperacion[] loteResultados = new ResultadoOperacion[LOTE];
+
+    private ScheduledExecutorService reloj;
+    private volatile boolean iniciada;
+    private final LongAdder ejecutadas = new LongAdder();
+    private final LongAdder sinFondos = new LongAdder();
+    private final LongAdder fallidas = new LongAdder();
+    private volatile long ultimoLoteMs;
+
+    TransferenciasProgramadas(Path dir, Ledger ledger) {
+        this.dir = dir;
+        this.ledger = ledger;
+    }
+
+    /**
+     * Carga las órdenes (base, registro y PROGRAMADA del diario), deja una base nueva y
+     * empieza a ejecutarlas. Se llama con el ledger ya recuperado.
+     */
+    synchronized void iniciar() throws IOException {
+        if (iniciada) return;
+        asegurarCapacidad(1024);
+        if (dir != null) {
+            long desde = 0;
+            Path base = dir.resolve(ARCHIVO);
+            if (Files.exists(base)) desde = cargarBase(base);
+            Path log = dir.resolve(ARCHIVO_REGISTRO);
+            if (Files.exists(log)) aplicarRegistro(log);
+            if (ledger.diario() != null) recuperarDelDiario(desde);
+        }
+        cantidadLibres = 0;
+        for (int i = usados - 1; i >= 0; i--) {
+            if (estados[i] == LIBRE) apilarLibre(i);
+        }
+        rueda = new RuedaTemporal(tick(System.currentTimeMillis()), origenes.length);
+        for (int i = 0; i < usados; i++) {
+            if (estados[i] == PENDIENTE) rueda.agregar(i, vencimientos[i]);
+        }
+        if (dir != null) escribirBaseBloqueada();
+        registrarJmx();
+        reloj = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "programadas");
+            t.setDaemon(true);
+            return t;
+        });
+        reloj.scheduleWithFixedDelay(this::ciclo, 200, 200, TimeUnit.MILLISECONDS);
+        iniciada = true;
+    }
+
+    /** false en una réplica que todavía no se promovió. */
+    boolean iniciada() {
+        return iniciada;
+    }
+
+    /** Fecha aceptable para la primera ejecución: en el futuro y dentro de {@link #HORIZONTE_DIAS}. */
+    static boolean fechaValida(long primeraMs, long ahoraMs) {
+        return primeraMs > ahoraMs && primeraMs - ahoraMs <= TimeUnit.DAYS.toMillis(HORIZONTE_DIAS);
+    }
+
+    /**
+     * Agenda una orden ya validada (cuentas existentes y distintas, monto &gt; 0, fecha
+     * válida) y la deja en disco antes de volver. Devuelve su id.
+     */
+    synchronized long programar(int origen, int destino, long monto, long primeraMs, Periodicidad periodicidad) throws IOException {
+        if (!iniciada) throw new IllegalStateException("Transferencias programadas sin iniciar");
+        if (!fechaValida(primeraMs, System.currentTimeMillis())) throw new IllegalArgumentException("Fecha inválida");
+        int i = asignar();
+        origenes[i] = origen;
+        enlazarOrigen(i);
+        destinos[i] = destino;
+        montos[i] = monto;
+        vencimientos[i] = (int) tick(primeraMs);
+        periodos[i] = (byte) periodicidad.ordinal();
+        dias[i] = (byte) Instant.ofEpochMilli(ms(vencimientos[i])).atZone(zona).getDayOfMonth();
+        intentos[i] = 0;
+        try {
+            anotar(ALTA, i, true);
+        } catch (IOException | RuntimeException e) {
+            liberar(i);
+            throw e;
+        }
+        rueda.agregar(i, vencimientos[i]);
+        return id(i);
+    }
+
+    /**
+     * Cancela la orden si es de una de las cuentas indicadas. Si está en un lote en curso
+     * esa ejecución sigue, pero no se repite. Devuelve false si no existe o no es de esas cuentas.
+     */
+    synchronized boolean cancelar(long id, int[] cuentas) throws IOException {
+        int i = indice(id);
+        if (i < 0 || estados[i] == CANCELADA || !contiene(cuentas, origenes[i])) return false;
+        anotar(BAJA, i, true);
+        if (estados[i] == EN_CURSO) {
+            estados[i] = CANCELADA;
+        } else {
+            rueda.quitar(i);
+            liberar(i);
+        }
+        return true;
+    }
+
+    /** Órdenes vivas con origen en alguna de las cuentas, la próxima en vencer primero. */
+    synchronized List<Orden> ordenes(int[] cuentas, int maximo) {
+        List<Orden> lista = new ArrayList<>();
+        for (int k = 0; k < cuentas.length; k++) {
+            boolean repetida = false;
+            for (int j = 0; j < k && !repetida; j++) repetida = cuentas[j] == cuentas[k];
+            if (repetida) continue;
+            int h = posicionOrigen(cuentas[k]);
+            if (tablaOrigenes[h] == 0) continue;
+            for (int i = primerasOrigen[h]; i >= 0; i = siguientesOrigen[i]) {
+                if (estados[i] != PENDIENTE && estados[i] != EN_CURSO) continue;
+                lista.add(new Orden(id(i), origenes[i], destinos[i], montos[i], ms(vencimientos[i]), PERIODICIDADES[periodos[i]]));
+            }
+        }
+        lista.sort(Comparator.comparingLong(o -> o.vence));
+        return lista.size() > maximo ? new ArrayList<>(lista.subList(0, maximo)) : lista;
+    }
+
+    /**
+     * Reescribe la base con todas las órdenes y empieza un registro vacío. Devuelve desde
+     * qué secuencia hay que conservar el diario (sin iniciar: la de la base que haya en disco).
+     */
+    synchronized long escribirBase() throws IOException {
+        if (!iniciada || dir == null) return dir == null ? Long.MAX_VALUE : leerBase(dir);
+        return escribirBaseBloqueada();
+    }
+
+    /** Secuencia del diario que cubre la base en disco, o Long.MAX_VALUE si no hay. */
+    static long leerBase(Path dir) throws IOException {
+        Path archivo = dir.resolve(ARCHIVO);
+        if (!Files.exists(archivo)) return Long.MAX_VALUE;
+        try (FileChannel ch = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(CABECERA);
+            while (b.hasRemaining() && ch.read(b) >= 0) { }
+            if (b.position() < CABECERA || b.getInt(0) != MAGIA) throw new IOException(ARCHIVO + " con formato desconocido");
+            return b.getLong(6);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reloj != null) reloj.shutdownNow();
+        if (iniciada) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(NOMBRE_JMX));
+            } catch (JMException ignored) {
+            }
+        }
+        iniciada = false;
+        try {
+            if (registro != null) registro.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // --- Ejecución ---
+
+    private void ciclo() {
+        try {
+            if (ledger.soloLectura()) return;
+            int n;
+            synchronized (this) {
+                if (!iniciada || enVueloDesde != Long.MAX_VALUE) return;
+                cantidadVencidas = 0;
+                rueda.avanzar(tick(System.currentTimeMillis()), this::vencio);
+                n = cantidadVencidas;
+                if (n == 0) return;
+                DiarioTransacciones d = ledger.diario();
+                enVueloDesde = d == null ? 0 : d.ultimaSecuencia();
+            }
+            ejecutar(n);
+        } catch (RuntimeException e) {
+            System.err.println("Transferencias programadas: " + e);
+        }
+    }
+
+    private void vencio(int nodo) {
+        estados[nodo] = EN_CURSO;
+        if (cantidadVencidas == vencidas.length) vencidas = Arrays.copyOf(vencidas, vencidas.length * 2);
+        vencidas[cantidadVencidas++] = nodo;
+    }
+
+    private void ejecutar(int n) {
+        int desde = 0;
+        int k = 0;
+        try {
+            for (; desde < n; desde += k) {
+                k = Math.min(LOTE, n - desde);
+                synchronized (this) {
+                    for (int j = 0; j < k; j++) {
+                        int i = vencidas[desde + j];
+                        loteNodos[j] = i;
+                        loteOrigenes[j] = origenes[i];
+                        loteDestinos[j] = destinos[i];
+                        loteMontos[j] = montos[i];
+                        loteMarcas[j] = ms(vencimientos[i]);
+                    }
+                }
+                long t0 = System.nanoTime();
+                ledger.transferirLote(TipoMovimiento.PROGRAMADA, loteOrigenes, loteDestinos, loteMontos, loteMarcas, k, loteResultados);
+                ultimoLoteMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+                synchronized (this) {
+                    for (int j = 0; j < k; j++) terminar(loteNodos[j], loteResultados[j]);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                if (desde < n) varar(desde, k, n);
+                enVueloDesde = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    // Lote que falló a medias (vencidas[desde, desde + k)): sus órdenes quedan en curso hasta
+    // reiniciar; las de los lotes que no llegaron a enviarse vuelven a la rueda
+    private void varar(int desde, int k, int n) {
+        varadasDesde = Math.min(varadasDesde, enVueloDesde);
+        int nuevas = 0;
+        for (int j = desde; j < desde + k; j++) {
+            int i = vencidas[j];
+            if (estados[i] == EN_CURSO || estados[i] == CANCELADA) nuevas++;
+        }
+        varadas += nuevas;
+        for (int j = desde + k; j < n; j++) {
+            int i = vencidas[j];
+            if (estados[i] == CANCELADA) {
+                liberar(i);
+            } else {
+                estados[i] = PENDIENTE;
+                rueda.agregar(i, vencimientos[i]);
+            }
+        }
+        System.err.println("Transferencias programadas: un lote falló a medias; " + nuevas
+                + " órdenes quedan en curso hasta reiniciar el servidor (se deciden con el diario)");
+    }
+
+    private void terminar(int i, ResultadoOperacion r) {
+        if (estados[i] == CANCELADA) {
+            liberar(i);
+            return;
+        }
+        if (r == ResultadoOperacion.EXITOSA) {
+            ejecutadas.increment();
+            intentos[i] = 0;
+            siguiente(i, false);
+            return;
+        }
+        if (r == ResultadoOperacion.FONDOS_INSUFICIENTES) {
+            sinFondos.increment();
+            if (intentos[i] < REINTENTOS) {
+                intentos[i]++;
+                estados[i] = PENDIENTE;
+                rueda.agregar(i, rueda.ahora() + REINTENTO_SEG);
+                return;
+            }
+        }
+        fallidas.increment();
+        intentos[i] = 0;
+        siguiente(i, true);
+    }
+
+    // Una orden única se da de baja; una periódica vuelve a la rueda con su próxima fecha futura
+    // (atrasada por un servidor detenido, se ejecuta una vez y no por cada fecha que pasó)
+    private void siguiente(int i, boolean perdida) {
+        try {
+            if (periodos[i] == Periodicidad.UNICA.ordinal()) {
+                anotar(BAJA, i, false);
+                liberar(i);
+                return;
+            }
+            long proxima = proxima(i);
+            while (proxima <= rueda.ahora()) {
+                vencimientos[i] = (int) proxima;
+                proxima = proxima(i);
+                perdida = true;
+            }
+            vencimientos[i] = (int) proxima;
+            estados[i] = PENDIENTE;
+            rueda.agregar(i, vencimientos[i]);
+            if (perdida) anotar(SALTO, i, false);
+        } catch (IOException e) {
+            System.err.println("No se pudo anotar la transferencia programada " + id(i) + ": " + e);
+        }
+    }
+
+    private long proxima(int i) {
+        ZonedDateTime v = Instant.ofEpochMilli(ms(vencimientos[i])).atZone(zona);
+        switch (PERIODICIDADES[periodos[i]]) {
+            case SEMANAL:
+                v = v.plusWeeks(1);
+                break;
+            case QUINCENAL:
+                v = v.plusWeeks(2);
+                break;
+            case MENSUAL: {
+                // el día pactado, o el último del mes si ese mes es más corto
+                ZonedDateTime mes = v.plusMonths(1);
+                v = mes.withDayOfMonth(Math.min(dias[i], mes.toLocalDate().lengthOfMonth()));
+                break;
+            }
+            default:
+                throw new IllegalStateException("Orden única sin próxima fecha");
+        }
+        return tick(v.toInstant().toEpochMilli());
+    }
+
+    // --- Índices ---
+
+    private int asignar() {
+        int i;
+        if (cantidadLibres > 0) {
+            i = libres[--cantidadLibres];
+        } else {
+            asegurarCapacidad(usados + 1);
+            i = usados++;
+        }
+        series[i] = siguienteSerie;
+        siguienteSerie = siguienteSerie == Integer.MAX_VALUE ? 1 : siguienteSerie + 1;
+        estados[i] = PENDIENTE;
+        pendientes++;
+        return i;
+    }
+
+    private void liberar(int i) {
+        estados[i] = LIBRE;
+        pendientes--;
+        desenlazarOrigen(i);
+        apilarLibre(i);
+    }
+
+    private void enlazarOrigen(int i) {
+        int h = posicionOrigen(origenes[i]);
+        if (tablaOrigenes[h] == 0) {
+            if ((cuentasOrigen + 1) * 2 > tablaOrigenes.length) {
+                redimensionarOrigenes();
+                h = posicionOrigen(origenes[i]);
+            }
+            tablaOrigenes[h] = origenes[i] + 1;
+            primerasOrigen[h] = -1;
+            cuentasOrigen++;
+        }
+        int primera = primerasOrigen[h];
+        siguientesOrigen[i] = primera;
+        anterioresOrigen[i] = -1;
+        if (primera >= 0) anterioresOrigen[primera] = i;
+        primerasOrigen[h] = i;
+    }
+
+    private void desenlazarOrigen(int i) {
+        int siguiente = siguientesOrigen[i];
+        int anterior = anterioresOrigen[i];
+        if (siguiente >= 0) anterioresOrigen[siguiente] = anterior;
+        if (anterior >= 0) siguientesOrigen[anterior] = siguiente;
+        else primerasOrigen[posicionOrigen(origenes[i])] = siguiente;
+    }
+
+    // Lugar de la cuenta en la tabla, o el hueco donde iría
+    private int posicionOrigen(int cuenta) {
+        int mascara = tablaOrigenes.length - 1;
+        int h = cuenta * 0x9E3779B9;
+        for (h = (h ^ (h >>> 16)) & mascara; ; h = (h + 1) & mascara) {
+            int c = tablaOrigenes[h];
+            if (c == 0 || c == cuenta + 1) return h;
+        }
+    }
+
+    // Rehace la tabla solo con las cuentas que tienen órdenes, con carga <= 1/4
+    private void redimensionarOrigenes() {
+        int[] claves = tablaOrigenes;
+        int[] primeras = primerasOrigen;
+        int vivas = 0;
+        for (int h = 0; h < claves.length; h++) {
+            if (claves[h] != 0 && primeras[h] >= 0) vivas++;
+        }
+        int capacidad = 64;
+        while (capacidad < (vivas + 1) * 4) capacidad *= 2;
+        tablaOrigenes = new int[capacidad];
+        primerasOrigen = new int[capacidad];
+        cuentasOrigen = 0;
+        for (int h = 0; h < claves.length; h++) {
+            if (claves[h] == 0 || primeras[h] < 0) continue;
+            int p = posicionOrigen(claves[h] - 1);
+            tablaOrigenes[p] = claves[h];
+            primerasOrigen[p] = primeras[h];
+            cuentasOrigen++;
+        }
+    }
+
+    private void apilarLibre(int i) {
+        if (cantidadLibres == libres.length) libres = Arrays.copyOf(libres, libres.length * 2);
+        libres[cantidadLibres++] = i;
+    }
+
+    private long id(int i) {
+        return (long) series[i] << 32 | i;
+    }
+
+    // Índice de una orden viva con ese id, o -1
+    private int indice(long id) {
+        int i = (int) id;
+        return i >= 0 && i < usados && estados[i] != LIBRE && series[i] == (int) (id >>> 32) ? i : -1;
+    }
+
+    private void asegurarCapacidad(int capacidad) {
+        if (capacidad <= origenes.length) return;
+        int nueva = Math.max(capacidad, origenes.length * 2);
+        origenes = Arrays.copyOf(origenes, nueva);
+        destinos = Arrays.copyOf(destinos, nueva);
+        montos = Arrays.copyOf(montos, nueva);
+        vencimientos = Arrays.copyOf(vencimientos, nueva);
+        series = Arrays.copyOf(series, nueva);
+        periodos = Arrays.copyOf(periodos, nueva);
+        dias = Arrays.copyOf(dias, nueva);
+        intentos = Arrays.copyOf(intentos, nueva);
+        estados = Arrays.copyOf(estados, nueva);
+        siguientesOrigen = Arrays.copyOf(siguientesOrigen, nueva);
+        anterioresOrigen = Arrays.copyOf(anterioresOrigen, nueva);
+        if (rueda != null) rueda.asegurar(nueva);
+    }
+
+    // Al cargar: la orden va en el índice de su id
+    private void colocar(long id, int origen, int destino, long monto, int vence, byte periodo, byte dia) {
+        int i = (int) id;
+        int serie = (int) (id >>> 32);
+        asegurarCapacidad(i + 1);
+        if (estados[i] != LIBRE) return; // repetida (el registro vuelve a traer algo de la base)
+        origenes[i] = origen;
+        enlazarOrigen(i);
+        destinos[i] = destino;
+        montos[i] = monto;
+        vencimientos[i] = vence;
+        series[i] = serie;
+        periodos[i] = periodo;
+        dias[i] = dia;
+        intentos[i] = 0;
+        estados[i] = PENDIENTE;
+        pendientes++;
+        usados = Math.max(usados, i + 1);
+        if (Integer.compareUnsigned(serie, siguienteSerie) >= 0) siguienteSerie = serie + 1;
+    }
+
+    private static boolean contiene(int[] cuentas, int cuenta) {
+        for (int c : cuentas) if (c == cuenta) return true;
+        return false;
+    }
+
+    static long tick(long ms) {
+        return Math.floorDiv(ms - EPOCA_MS, 1000);
+    }
+
+    static long ms(long tick) {
+        return EPOCA_MS + tick * 1000;
+    }
+
+    // --- Persistencia ---
+
+    private long cargarBase(Path archivo) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(archivo));
+        if (b.remaining() < CABECERA || b.getInt() != MAGIA || b.getShort() != VERSION) {
+            throw new IOException(ARCHIVO + " con formato desconocido");
+        }
+        long secuencia = b.getLong();
+        lote = b.getInt();
+        siguienteSerie = b.getInt();
+        int n = b.getInt();
+        if (b.remaining() != (long) n * TAM_ORDEN + 8) throw new IOException(ARCHIVO + " incompleto");
+        for (int k = 0; k < n; k++) {
+            long id = b.getLong();
+            int origen = b.getInt();
+            int destino = b.getInt();
+            long monto = b.getLong();
+            int vence = b.getInt();
+            colocar(id, origen, destino, monto, vence, b.get(), b.get());
+        }
+        if (b.getLong() != FIN) throw new IOException(ARCHIVO + " incompleto");
+        return secuencia;
+    }
+
+    // Registro del mismo lote que la base; se detiene en el primer registro a medio escribir
+    private void aplicarRegistro(Path archivo) throws IOException {
+        byte[] datos = Files.readAllBytes(archivo);
+        ByteBuffer b = ByteBuffer.wrap(datos);
+        if (datos.length < 8 || b.getInt(0) != MAGIA_REGISTRO || b.getInt(4) != lote) return; // de otra base: ya está en ella
+        for (int p = 8; p + TAM_REGISTRO <= datos.length; p += TAM_REGISTRO) {
+            crc.reset();
+            crc.update(datos, p, TAM_REGISTRO - 4);
+            if (b.getInt(p + TAM_REGISTRO - 4) != (int) crc.getValue()) break;
+            long id = b.getLong(p + 8);
+            int i = indice(id);
+            switch (datos[p]) {
+                case ALTA:
+                    colocar(id, b.getInt(p + 16), b.getInt(p + 20), b.getLong(p + 24), b.getInt(p + 4), datos[p + 1], datos[p + 2]);
+                    break;
+                case BAJA:
+                    if (i >= 0) liberar(i);
+                    break;
+                case SALTO:
+                    if (i >= 0) vencimientos[i] = b.getInt(p + 4);
+                    break;
+                default:
+                    throw new IOException(ARCHIVO_REGISTRO + ": operación desconocida " + datos[p]);
+            }
+        }
+    }
+
+    // Ocurrencias que el diario tiene ejecutadas y la base todavía no: solo pueden ser de órdenes ya vencidas
+    private void recuperarDelDiario(long desde) throws IOException {
+        long ahora = tick(System.currentTimeMillis());
+        Map<Long, List<Integer>> vencidasPorClave = new HashMap<>();
+        for (int i = 0; i < usados; i++) {
+            if (estados[i] == PENDIENTE && vencimientos[i] <= ahora) {
+                vencidasPorClave.computeIfAbsent(clave(origenes[i], vencimientos[i]), k -> new ArrayList<>()).add(i);
+            }
+        }
+        if (vencidasPorClave.isEmpty()) return;
+        long[] recuperadas = new long[1];
+        DiarioTransacciones.leer(dir, desde, (secuencia, marcaTiempo, tipo, origen, destino, monto) -> {
+            if (tipo != TipoMovimiento.PROGRAMADA) return;
+            int vence = (int) tick(marcaTiempo);
+            List<Integer> candidatas = vencidasPorClave.get(clave(origen, vence));
+            if (candidatas == null) return;
+            for (Iterator<Integer> it = candidatas.iterator(); it.hasNext(); ) {
+                int i = it.next();
+                if (destinos[i] != destino || montos[i] != monto || estados[i] != PENDIENTE || vencimientos[i] != vence) continue;
+                it.remove();
+                recuperadas[0]++;
+                if (periodos[i] == Periodicidad.UNICA.ordinal()) {
+                    liberar(i);
+                } else {
+                    vencimientos[i] = (int) proxima(i);
+                    if (vencimientos[i] <= ahora) {
+                        vencidasPorClave.computeIfAbsent(clave(origenes[i], vencimientos[i]), k -> new ArrayList<>()).add(i);
+                    }
+                }
+                return;
+            }
+        });
+        if (recuperadas[0] > 0) {
+            System.out.println("Transferencias programadas: " + recuperadas[0] + " ejecuciones recuperadas del diario");
+        }
+    }
+
+    private static long clave(int origen, int vence) {
+        return (long) origen << 32 | (vence & 0xFFFFFFFFL);
+    }
+
+    private long escribirBaseBloqueada() throws IOException {
+        DiarioTransacciones d = ledger.diario();
+        long secuencia = Math.min(d == null ? 0 : d.ultimaSecuencia(), Math.min(enVueloDesde, varadasDesde));
+        int n = 0;
+        for (int i = 0; i < usados; i++) {
+            if (estados[i] == PENDIENTE || estados[i] == EN_CURSO) n++;
+        }
+        int nuevoLote = lote + 1;
+        ByteBuffer b = ByteBuffer.allocate(CABECERA + n * TAM_ORDEN + 8);
+        b.putInt(MAGIA).putShort(VERSION).putLong(secuencia).putInt(nuevoLote).putInt(siguienteSerie).putInt(n);
+        for (int i = 0; i < usados; i++) {
+            if (estados[i] != PENDIENTE && estados[i] != EN_CURSO) continue;
+            b.putLong(id(i)).putInt(origenes[i]).putInt(destinos[i]).putLong(montos[i]).putInt(vencimientos[i])
+                    .put(periodos[i]).put(dias[i]);
+        }
+        b.putLong(FIN).flip();
+        escribirAtomico(dir.resolve(ARCHIVO), b);
+
+        // registro vacío del lote nuevo: el anterior ya está todo en la base
+        Path log = dir.resolve(ARCHIVO_REGISTRO);
+        escribirAtomico(log, ByteBuffer.allocate(8).putInt(MAGIA_REGISTRO).putInt(nuevoLote).flip());
+        if (registro != null) registro.close();
+        registro = FileChannel.open(log, StandardOpenOption.WRITE);
+        registro.position(registro.size());
+        lote = nuevoLote;
+        return secuencia;
+    }
+
+    private void anotar(byte operacion, int i, boolean sincronizar) throws IOException {
+        if (registro == null) return;
+        bufRegistro.clear();
+        bufRegistro.put(operacion).put(periodos[i]).put(dias[i]).put((byte) 0)
+                .putInt(vencimientos[i])
+                .putLong(id(i))
+                .putInt(origenes[i])
+                .putInt(destinos[i])
+                .putLong(montos[i]);
+        crc.reset();
+        crc.update(bufRegistro.array(), 0, TAM_REGISTRO - 4);
+        bufRegistro.putInt((int) crc.getValue()).flip();
+        while (bufRegistro.hasRemaining()) registro.write(bufRegistro);
+        if (sincronizar) registro.force(false);
+    }
+
+    private static void escribirAtomico(Path archivo, ByteBuffer datos) throws IOException {
+        Path tmp = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (datos.hasRemaining()) ch.write(datos);
+            ch.force(true);
+        }
+        Files.move(tmp, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // --- JMX ---
+
+    @Override
+    public synchronized int getPendientes() {
+        return pendientes;
+    }
+
+    @Override
+    public long getEjecutadas() {
+        return ejecutadas.sum();
+    }
+
+    @Override
+    public long getSinFondos() {
+        return sinFondos.sum();
+    }
+
+    @Override
+    public long getFallidas() {
+        return fallidas.sum();
+    }
+
+    @Override
+    public synchronized int getVaradas() {
+        return varadas;
+    }
+
+    @Override
+    public long getUltimoLoteMs() {
+        return ultimoLoteMs;
+    }
+
+    private void registrarJmx() {
+        MBeanServer servidorJmx = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName nombre = new ObjectName(NOMBRE_JMX);
+            if (servidorJmx.isRegistered(nombre)) servidorJmx.unregisterMBean(nombre);
+            servidorJmx.registerMBean(this, nombre);
+        } catch (JMException e) {
+            System.err.println("No se pudieron publicar las transferencias programadas por JMX: " + e);
+        }
+    }
+}